@@ -29,6 +29,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // LocationSender logs through android.util.Log; let JVM tests run it against the stub android.jar
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
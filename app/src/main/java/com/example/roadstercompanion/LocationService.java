@@ -10,11 +10,12 @@ import android.app.Service;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Build;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
@@ -26,19 +27,73 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
+import com.example.roadstercompanion.diagnostics.DiagnosticLog;
+import com.example.roadstercompanion.geofence.Geofence;
+import com.example.roadstercompanion.geofence.GeofenceEngine;
+import com.example.roadstercompanion.geofence.GeofenceLoader;
+import com.example.roadstercompanion.journal.LocationJournal;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.pipeline.AdaptiveSamplingPolicy;
+import com.example.roadstercompanion.pipeline.BackpressureThrottle;
+import com.example.roadstercompanion.pipeline.DeadReckoningSimplifier;
+import com.example.roadstercompanion.pipeline.KalmanSmoother;
+import com.example.roadstercompanion.pipeline.LocationPipeline;
+import com.example.roadstercompanion.pipeline.LocationStage;
+import com.example.roadstercompanion.pipeline.SamplingMode;
 import com.example.roadstercompanion.websocket.LocationSender;
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class LocationService extends Service {
 
     private static final String TAG = "LocationService";
-    private LocationRequest locationRequest;
+    // Replaced from the pipeline thread when the sampling mode changes
+    private volatile LocationRequest locationRequest;
     private LocationCallback locationCallback;
     private FusedLocationProviderClient fusedLocationClient;
     private LocationSender locationSender;
+    private LocationJournal outboundJournal;
+    private LocationPipeline pipeline;
+    private NotificationCompat.Builder notificationBuilder;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private PipelineMetrics metrics;
+
+    // Metrics of the current (or last) tracking run, read by MainActivity's dashboard
+    private static volatile PipelineMetrics activeMetrics;
 
     // Your ngrok WebSocket URL - FIXED: Changed from /wss to /ws to match Spring Boot config
     private static final String WEBSOCKET_URL = "wss://roadster-backend.onrender.com/ws";
     private static final String USER_ID = "android_user_001"; // You can make this dynamic
+    // JSON by default; BINARY is ~12 bytes per fix instead of ~170 and needs a backend that decodes it
+    private static final WireFormat WIRE_FORMAT = WireFormat.JSON;
+
+    // Outbound journal: 16384 fixes * 64 bytes = ~1 MB, about 45 hours at one fix every 10 s
+    private static final String JOURNAL_FILE = "outbound.journal";
+    private static final int JOURNAL_CAPACITY = 16384;
+
+    // Fixes the server can dead-reckon to within 10 m are not sent, but at least one every 30 s is
+    private static final double SIMPLIFY_TOLERANCE_METERS = 10.0;
+    private static final long MAX_SILENCE_MILLIS = 30_000;
+    // While the server is behind on receipts, one fix every 5 s is enough to keep the car on the map
+    private static final long CONGESTED_INTERVAL_MILLIS = 5000;
+
+    // Depots, toll zones and service areas as GeoJSON, provisioned into the app's files directory
+    private static final String GEOFENCE_FILE = "geofences.geojson";
+    // A fix has to be this far across a fence's edge, or its accuracy if that is worse, to enter or leave it
+    private static final double GEOFENCE_HYSTERESIS_METERS = 25.0;
+
+    // Per-fix debug output is limited to one line every 10 s
+    private static final long DIAGNOSTIC_INTERVAL_MILLIS = 10_000;
+    private static final int NOTIFICATION_ID = 1;
 
     public static final String ACTION_START = "START";
     public static final String ACTION_STOP = "STOP";
@@ -55,40 +110,157 @@ public class LocationService extends Service {
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
 
+        // Fixes are journaled on disk first so coverage gaps don't lose track points
+        try {
+            outboundJournal = LocationJournal.open(new File(getFilesDir(), JOURNAL_FILE), JOURNAL_CAPACITY);
+            Log.d(TAG, "📒 Outbound journal opened with " + outboundJournal.size() + " pending fixes");
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Could not open outbound journal, sending without buffering", e);
+        }
+
+        metrics = new PipelineMetrics();
+        activeMetrics = metrics;
+
         // Initialize WebSocket connection
-        locationSender = new LocationSender(WEBSOCKET_URL);
+        locationSender = new LocationSender(WEBSOCKET_URL, USER_ID, outboundJournal, WIRE_FORMAT, metrics);
         locationSender.connectWebSocket();
+        watchNetwork();
 
-        locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 10000)
-                .setMinUpdateIntervalMillis(5000)
-                .build();
+        // Filtering and the hand-off to the sender run on the pipeline's own thread, never on the main thread.
+        // Sampling rate follows the car's motion, starting with normal driving settings.
+        // Fences see every smoothed fix, before any are thinned out for sending
+        List<LocationStage> stages = new ArrayList<>();
+        stages.add(new KalmanSmoother());
+        GeofenceEngine geofences = loadGeofences();
+        if (geofences != null) {
+            stages.add(geofences);
+            metrics.registry().gauge("geofence.inside", geofences::insideCount);
+        }
+        stages.add(new BackpressureThrottle(locationSender::isCongested, CONGESTED_INTERVAL_MILLIS));
+        stages.add(new DeadReckoningSimplifier(SIMPLIFY_TOLERANCE_METERS, MAX_SILENCE_MILLIS));
+        DiagnosticLog diagnostics = new DiagnosticLog(TAG, DIAGNOSTIC_INTERVAL_MILLIS, Log::d);
+        pipeline = new LocationPipeline(USER_ID, new AdaptiveSamplingPolicy(SamplingMode.CRUISE),
+                stages.toArray(new LocationStage[0]),
+                this::sendFix, pipelineListener, diagnostics, metrics);
+        locationRequest = buildLocationRequest(pipeline.getSamplingMode());
 
+        // Delivered on the pipeline executor
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(LocationResult locationResult) {
                 if (locationResult == null) return;
                 for (Location location : locationResult.getLocations()) {
-                    Log.d(TAG, "📍 New location received: " + location.getLatitude() + ", " + location.getLongitude());
-
-                    // Send location data via WebSocket to Spring Boot server
-                    locationSender.sendLocation(
-                        USER_ID,
-                        location.getLatitude(),
-                        location.getLongitude(),
-                        location.getAccuracy(),
-                        location.hasSpeed() ? location.getSpeed() : 0.0,
-                        location.hasBearing() ? location.getBearing() : 0.0
-                    );
-
-                    // Show toast for debugging (you can remove this later)
-                    Toast.makeText(LocationService.this,
-                            "📡 Location sent: " + location.getLatitude() + ", " + location.getLongitude(),
-                            Toast.LENGTH_SHORT).show();
+                    pipeline.process(fixTime(location),
+                            location.getLatitude(),
+                            location.getLongitude(),
+                            location.getAccuracy(),
+                            location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                            location.hasBearing() ? location.getBearing() : Double.NaN);
                 }
             }
         };
     }
 
+    // Null when no fences are provisioned or the file can't be read; tracking goes on without them
+    @Nullable
+    private GeofenceEngine loadGeofences() {
+        File file = new File(getFilesDir(), GEOFENCE_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        List<Geofence> fences;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            fences = GeofenceLoader.load(reader);
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Could not load geofences", e);
+            return null;
+        }
+        Log.d(TAG, "🗺️ Loaded " + fences.size() + " geofences");
+        return new GeofenceEngine(fences, GEOFENCE_HYSTERESIS_METERS, (fence, entered, fix) ->
+                locationSender.sendGeofenceEvent(fence.getId(), fence.getKind(), entered, fix.getTimestamp(),
+                        fix.getLatitude(), fix.getLongitude()));
+    }
+
+    // Reconnect as soon as a network is back instead of waiting out the backoff timer
+    private void watchNetwork() {
+        ConnectivityManager connectivity = getSystemService(ConnectivityManager.class);
+        if (connectivity == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                locationSender.reconnectNow();
+            }
+        };
+        try {
+            connectivity.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e) {
+            // Too many callbacks registered or missing permission; the backoff timer still reconnects
+            Log.w(TAG, "⚠️ Could not watch network changes", e);
+            networkCallback = null;
+        }
+    }
+
+    /*
+     * When the fix was taken, on the system clock. Location.getTime() is GNSS
+     * time and can be seconds apart from the system clock, which the queue and
+     * send times and the server's clock-offset estimate are based on; the fix's
+     * elapsed-realtime stamp keeps them all on one clock.
+     */
+    private static long fixTime(Location location) {
+        long ageNanos = SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos();
+        if (location.getElapsedRealtimeNanos() == 0 || ageNanos < 0) {
+            return location.getTime();
+        }
+        return System.currentTimeMillis() - ageNanos / 1_000_000;
+    }
+
+    // Send location data via WebSocket to Spring Boot server
+    private void sendFix(LocationData fix) {
+        locationSender.sendLocation(
+            fix.getTimestamp(),
+            fix.getLatitude(),
+            fix.getLongitude(),
+            fix.getAccuracy(),
+            fix.getSpeed(),
+            fix.getBearing()
+        );
+    }
+
+    private final LocationPipeline.Listener pipelineListener = new LocationPipeline.Listener() {
+        @Override
+        public void onSamplingModeChanged(SamplingMode mode) {
+            applySamplingMode(mode);
+        }
+
+        @Override
+        public void onStatus(LocationPipeline.Status status) {
+            updateNotification(status);
+        }
+    };
+
+    // Fixes arrive in batches of up to maxUpdateDelay; they go out together in one SEND frame
+    private static LocationRequest buildLocationRequest(SamplingMode mode) {
+        int priority = mode.highAccuracy ? Priority.PRIORITY_HIGH_ACCURACY : Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+        return new LocationRequest.Builder(priority, mode.intervalMillis)
+                .setMinUpdateIntervalMillis(mode.minIntervalMillis)
+                .setMaxUpdateDelayMillis(mode.maxUpdateDelayMillis)
+                .build();
+    }
+
+    private void applySamplingMode(SamplingMode mode) {
+        locationRequest = buildLocationRequest(mode);
+        // Re-requesting with the same callback replaces the previous request
+        startLocationUpdates();
+    }
+
+    /** Metrics of the running tracker, or of the last run; null if tracking never started in this process. */
+    @Nullable
+    public static PipelineMetrics getActiveMetrics() {
+        return activeMetrics;
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null && ACTION_STOP.equals(intent.getAction())) {
@@ -122,28 +294,42 @@ public class LocationService extends Service {
         Intent notificationIntent = new Intent(this, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE);
 
-        Notification notification = new NotificationCompat.Builder(this, channelId)
+        notificationBuilder = new NotificationCompat.Builder(this, channelId)
                 .setContentTitle("Location Tracking Active")
                 .setContentText("Tracking your location")
                 .setSmallIcon(android.R.drawable.ic_menu_mylocation)
                 .setContentIntent(pendingIntent)
                 .setOngoing(true)
+                .setOnlyAlertOnce(true)
                 .setPriority(NotificationCompat.PRIORITY_DEFAULT)  // Changed from LOW
                 .setCategory(NotificationCompat.CATEGORY_SERVICE)
-                .setForegroundServiceBehavior(NotificationCompat.FOREGROUND_SERVICE_IMMEDIATE)
-                .build();
+                .setForegroundServiceBehavior(NotificationCompat.FOREGROUND_SERVICE_IMMEDIATE);
 
-        startForeground(1, notification);
+        startForeground(NOTIFICATION_ID, notificationBuilder.build());
+    }
+
+    // Called on the pipeline thread, at most once per status interval
+    private void updateNotification(LocationPipeline.Status status) {
+        NotificationCompat.Builder builder = notificationBuilder;
+        if (builder == null) {
+            return;
+        }
+        String text = status.mode + " · " + metrics.summary();
+        Notification notification;
+        synchronized (builder) {
+            notification = builder.setContentText(text).build();
+        }
+        getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, notification);
     }
 
     private void startLocationUpdates() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED &&
                 ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
 
-            fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+            fusedLocationClient.requestLocationUpdates(locationRequest, pipeline.executor(), locationCallback);
 
         } else {
-            Toast.makeText(this, "Permissions not granted", Toast.LENGTH_SHORT).show();
+            Log.w(TAG, "⚠️ Location permissions not granted, stopping");
             stopSelf(); // Stop service if no permissions
         }
     }
@@ -154,10 +340,29 @@ public class LocationService extends Service {
         if (fusedLocationClient != null && locationCallback != null) {
             stopLocationUpdates();
         }
+        if (networkCallback != null) {
+            getSystemService(ConnectivityManager.class).unregisterNetworkCallback(networkCallback);
+        }
+        // Fixes already queued on the pipeline are still handed over before the sender closes
+        if (pipeline != null) {
+            pipeline.shutdown(this::closeSender);
+        } else {
+            closeSender();
+        }
+    }
+
+    private void closeSender() {
         // Close WebSocket connection
         if (locationSender != null) {
             locationSender.disconnect();
         }
+        if (outboundJournal != null) {
+            try {
+                outboundJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Failed to close outbound journal", e);
+            }
+        }
     }
     private void stopLocationUpdates() {
         if (fusedLocationClient != null && locationCallback != null) {
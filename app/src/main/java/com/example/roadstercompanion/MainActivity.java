@@ -5,6 +5,9 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
@@ -16,6 +19,7 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import com.example.roadstercompanion.metrics.PipelineMetrics;
 import com.google.android.material.button.MaterialButton;
 
 public class MainActivity extends AppCompatActivity {
@@ -26,6 +30,19 @@ public class MainActivity extends AppCompatActivity {
     private boolean buttonPressed = false;
     private static final int REQUEST_NOTIFICATION_PERMISSION = 3;
 
+    // The dashboard is refreshed once a second while the activity is visible
+    private static final long METRICS_REFRESH_MS = 1000;
+    private final Handler metricsHandler = new Handler(Looper.getMainLooper());
+    private TextView metricsText;
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            PipelineMetrics metrics = LocationService.getActiveMetrics();
+            metricsText.setText(metrics != null ? metrics.dashboard() : "No tracking data yet");
+            metricsHandler.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
+
     private void startTrackingService() {
         // Check notification permission for Android 13+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
@@ -63,6 +80,12 @@ public class MainActivity extends AppCompatActivity {
         });
 
         button = findViewById(R.id.location_button);
+        metricsText = findViewById(R.id.metrics_text);
+        // Long press exports a snapshot, e.g. to compare builds or devices
+        metricsText.setOnLongClickListener(v -> {
+            shareMetricsSnapshot();
+            return true;
+        });
 
         button.setOnClickListener(v -> {
             if (!buttonPressed) {
@@ -82,6 +105,38 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        metricsHandler.post(refreshMetrics);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        metricsHandler.removeCallbacks(refreshMetrics);
+    }
+
+    private void shareMetricsSnapshot() {
+        PipelineMetrics metrics = LocationService.getActiveMetrics();
+        if (metrics == null) {
+            return;
+        }
+        String version;
+        try {
+            version = getPackageManager().getPackageInfo(getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            version = "?";
+        }
+        String header = "app=" + version + " device=" + Build.MANUFACTURER + "/" + Build.MODEL
+                + " sdk=" + Build.VERSION.SDK_INT + " at=" + System.currentTimeMillis();
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_SUBJECT, "Roadster metrics snapshot")
+                .putExtra(Intent.EXTRA_TEXT, metrics.snapshot(header));
+        startActivity(Intent.createChooser(share, "Export metrics"));
+    }
+
     private boolean hasLocationPermissions() {
         return ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
                 ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
@@ -0,0 +1,64 @@
+package com.example.roadstercompanion.diagnostics;
+
+/**
+ * Rate-limited debug output for hot paths. At most one message per interval
+ * is written; callers check {@link #isLoggable()} first so the message string
+ * is only built when it will actually be written. The next written message
+ * says how many were suppressed in between.
+ *
+ * Thread-safe.
+ */
+public final class DiagnosticLog {
+
+    /** Where messages end up, e.g. {@code android.util.Log.d}. */
+    public interface Output {
+        void write(String tag, String message);
+    }
+
+    private final String tag;
+    private final long intervalNanos;
+    private final Output output;
+
+    private boolean started;
+    private long lastWriteNanos;
+    private long suppressed;
+    private long suppressedAtWrite;
+
+    public DiagnosticLog(String tag, long intervalMillis, Output output) {
+        this.tag = tag;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.output = output;
+    }
+
+    /** Claims the next write slot; returns false, counting one suppressed message, if the interval isn't over. */
+    public boolean isLoggable() {
+        return isLoggable(System.nanoTime());
+    }
+
+    synchronized boolean isLoggable(long nowNanos) {
+        if (started && nowNanos - lastWriteNanos < intervalNanos) {
+            suppressed++;
+            return false;
+        }
+        started = true;
+        lastWriteNanos = nowNanos;
+        suppressedAtWrite = suppressed;
+        suppressed = 0;
+        return true;
+    }
+
+    /** Writes a message; call only after {@link #isLoggable()} returned true. */
+    public void log(String message) {
+        long skipped;
+        synchronized (this) {
+            skipped = suppressedAtWrite;
+            suppressedAtWrite = 0;
+        }
+        output.write(tag, skipped == 0 ? message : message + " (" + skipped + " suppressed)");
+    }
+
+    /** Writes unconditionally, for rare events that must not be dropped. */
+    public void always(String message) {
+        output.write(tag, message);
+    }
+}
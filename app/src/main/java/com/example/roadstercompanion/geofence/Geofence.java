@@ -0,0 +1,133 @@
+package com.example.roadstercompanion.geofence;
+
+import java.util.Arrays;
+
+/**
+ * A named polygon such as a depot, toll zone or service area. Vertices are in
+ * degrees, in order around the outer ring; the ring closes by itself, a
+ * repeated first vertex at the end is dropped. Holes are not supported.
+ *
+ * Distances use a local flat projection around the query point, which is
+ * well under a metre off for fences a few kilometres across. Fences must not
+ * cross the antimeridian.
+ */
+public final class Geofence {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+    private static final int DEPTH_SAMPLES = 16;
+
+    private final String id;
+    private final String kind;
+    private final double[] lats;
+    private final double[] lngs;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLng;
+    private final double maxLng;
+    private final double depthMeters;
+
+    public Geofence(String id, String kind, double[] lats, double[] lngs) {
+        if (lats.length != lngs.length) {
+            throw new IllegalArgumentException("Fence " + id + ": " + lats.length + " latitudes but "
+                    + lngs.length + " longitudes");
+        }
+        int n = lats.length;
+        if (n > 1 && lats[0] == lats[n - 1] && lngs[0] == lngs[n - 1]) {
+            n--;
+        }
+        if (n < 3) {
+            throw new IllegalArgumentException("Fence " + id + " has " + n + " vertices, needs at least 3");
+        }
+        this.id = id;
+        this.kind = kind;
+        this.lats = Arrays.copyOf(lats, n);
+        this.lngs = Arrays.copyOf(lngs, n);
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLng = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLng = Math.min(minLng, lngs[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+        }
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLng = minLng;
+        this.maxLng = maxLng;
+        this.depthMeters = deepestSample();
+    }
+
+    // Best of a grid over the bounding box, so at most a cell short of the true depth
+    private double deepestSample() {
+        double deepest = 0;
+        for (int i = 0; i < DEPTH_SAMPLES; i++) {
+            double lat = minLat + (maxLat - minLat) * (i + 0.5) / DEPTH_SAMPLES;
+            for (int j = 0; j < DEPTH_SAMPLES; j++) {
+                double lng = minLng + (maxLng - minLng) * (j + 0.5) / DEPTH_SAMPLES;
+                deepest = Math.max(deepest, signedDistanceMeters(lat, lng));
+            }
+        }
+        return deepest;
+    }
+
+    public String getId() { return id; }
+    public String getKind() { return kind; }
+    public int vertexCount() { return lats.length; }
+    public double getMinLat() { return minLat; }
+    public double getMaxLat() { return maxLat; }
+    public double getMinLng() { return minLng; }
+    public double getMaxLng() { return maxLng; }
+
+    /** How far inside the fence its deepest point lies, roughly: half the width of a square fence. */
+    public double getDepthMeters() { return depthMeters; }
+
+    /** Whether the point lies within the fence's bounding box; a cheap test before {@link #signedDistanceMeters}. */
+    public boolean boundsContain(double lat, double lng) {
+        return lat >= minLat && lat <= maxLat && lng >= minLng && lng <= maxLng;
+    }
+
+    public boolean contains(double lat, double lng) {
+        return signedDistanceMeters(lat, lng) > 0;
+    }
+
+    /**
+     * Distance from the point to the fence's edge: positive inside the fence,
+     * negative outside. A point exactly on the edge counts as outside.
+     */
+    public double signedDistanceMeters(double lat, double lng) {
+        // Vertices relative to the point, in metres; the point is the origin
+        double xScale = Math.cos(Math.toRadians(lat)) * METERS_PER_DEGREE;
+        int n = lats.length;
+        double xi = (lngs[n - 1] - lng) * xScale;
+        double yi = (lats[n - 1] - lat) * METERS_PER_DEGREE;
+        boolean inside = false;
+        double minSquared = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < n; j++) {
+            double xj = (lngs[j] - lng) * xScale;
+            double yj = (lats[j] - lat) * METERS_PER_DEGREE;
+            // Even-odd rule with a ray along +x
+            if ((yi > 0) != (yj > 0) && xi + (xj - xi) * -yi / (yj - yi) > 0) {
+                inside = !inside;
+            }
+            double dx = xj - xi;
+            double dy = yj - yi;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(xi * dx + yi * dy) / lengthSquared));
+            double px = xi + t * dx;
+            double py = yi + t * dy;
+            minSquared = Math.min(minSquared, px * px + py * py);
+            xi = xj;
+            yi = yj;
+        }
+        double distance = Math.sqrt(minSquared);
+        return inside && distance > 0 ? distance : -distance;
+    }
+
+    @Override
+    public String toString() {
+        return "Geofence{" + id + ", " + kind + ", " + lats.length + " vertices}";
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.roadstercompanion.geofence;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.pipeline.LocationStage;
+
+import java.util.List;
+
+/**
+ * Tells when the car enters or leaves a fence, as a pipeline stage that
+ * passes every fix on. Each fix is only tested against the fences the
+ * {@link GeofenceIndex} has in its cell, plus the fences the car is already
+ * in.
+ *
+ * Transitions have hysteresis: the car enters a fence once a fix is
+ * {@code hysteresisMeters} inside its edge and leaves once a fix is that far
+ * outside, so a car parked on the boundary doesn't flap. A fix reporting a
+ * worse accuracy widens the band to its accuracy. A fence too narrow to be
+ * that far inside of is entered at half its {@linkplain Geofence#getDepthMeters
+ * depth} instead. The first fix inside a fence enters it, including the first
+ * fix after the engine starts.
+ *
+ * Runs on the pipeline thread and doesn't allocate per fix.
+ */
+public class GeofenceEngine implements LocationStage {
+
+    public interface Listener {
+        /** Called on the pipeline thread; {@code fix} is reused afterwards. */
+        void onTransition(Geofence fence, boolean entered, LocationData fix);
+    }
+
+    static final double DEFAULT_CELL_DEGREES = 0.01; // about 1.1 km north-south
+
+    private final Geofence[] fences;
+    // Deepest a fix needs to be inside each fence to enter it
+    private final double[] maxEntryMeters;
+    private final GeofenceIndex index;
+    private final double hysteresisMeters;
+    private final Listener listener;
+
+    private final boolean[] inside;
+    private final int[] insideList;
+    // Also read by the dashboard
+    private volatile int insideCount;
+    private long polygonTests;
+    private long transitions;
+
+    public GeofenceEngine(List<Geofence> fences, double hysteresisMeters, Listener listener) {
+        this(fences, hysteresisMeters, listener, DEFAULT_CELL_DEGREES);
+    }
+
+    GeofenceEngine(List<Geofence> fences, double hysteresisMeters, Listener listener, double cellDegrees) {
+        if (!(hysteresisMeters >= 0)) {
+            throw new IllegalArgumentException("Negative hysteresis: " + hysteresisMeters);
+        }
+        this.fences = fences.toArray(new Geofence[0]);
+        this.maxEntryMeters = new double[this.fences.length];
+        for (int f = 0; f < this.fences.length; f++) {
+            maxEntryMeters[f] = this.fences[f].getDepthMeters() / 2;
+        }
+        this.index = new GeofenceIndex(this.fences, cellDegrees);
+        this.hysteresisMeters = hysteresisMeters;
+        this.listener = listener;
+        this.inside = new boolean[this.fences.length];
+        this.insideList = new int[this.fences.length];
+    }
+
+    @Override
+    public boolean process(LocationData fix) {
+        double lat = fix.getLatitude();
+        double lng = fix.getLongitude();
+        // Also false for an unknown (NaN) accuracy
+        double margin = fix.getAccuracy() > hysteresisMeters ? fix.getAccuracy() : hysteresisMeters;
+
+        for (int i = insideCount - 1; i >= 0; i--) {
+            int f = insideList[i];
+            polygonTests++;
+            if (fences[f].signedDistanceMeters(lat, lng) <= -margin) {
+                inside[f] = false;
+                insideList[i] = insideList[--insideCount];
+                transition(f, false, fix);
+            }
+        }
+        enter(index.candidates(lat, lng), margin, fix);
+        enter(index.unindexed(), margin, fix);
+        return true;
+    }
+
+    private void enter(int[] candidates, double margin, LocationData fix) {
+        double lat = fix.getLatitude();
+        double lng = fix.getLongitude();
+        for (int f : candidates) {
+            if (inside[f] || !fences[f].boundsContain(lat, lng)) {
+                continue;
+            }
+            polygonTests++;
+            if (fences[f].signedDistanceMeters(lat, lng) >= Math.min(margin, maxEntryMeters[f])) {
+                inside[f] = true;
+                insideList[insideCount++] = f;
+                transition(f, true, fix);
+            }
+        }
+    }
+
+    private void transition(int f, boolean entered, LocationData fix) {
+        transitions++;
+        listener.onTransition(fences[f], entered, fix);
+    }
+
+    public int fenceCount() {
+        return fences.length;
+    }
+
+    /** Fences the car is in right now. */
+    public int insideCount() {
+        return insideCount;
+    }
+
+    /** Point-in-polygon tests run so far, not counting fences skipped by their bounding box. */
+    public long getPolygonTests() {
+        return polygonTests;
+    }
+
+    public long getTransitions() {
+        return transitions;
+    }
+}
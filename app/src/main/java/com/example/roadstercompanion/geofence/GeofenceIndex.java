@@ -0,0 +1,123 @@
+package com.example.roadstercompanion.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid of {@code cellDegrees} square cells over the fences' bounding
+ * boxes: each cell lists the fences whose box overlaps it, so a point is only
+ * tested against the fences of the one cell it falls in. Only cells that some
+ * fence touches are stored, in an open-addressed table, and lookups don't
+ * allocate. Fences spanning more than {@link #MAX_CELLS_PER_FENCE} cells are
+ * kept in a separate list checked for every point instead.
+ *
+ * Immutable once built, so it can be read from any thread.
+ */
+final class GeofenceIndex {
+
+    static final int MAX_CELLS_PER_FENCE = 4096;
+
+    private static final int[] NONE = new int[0];
+    private static final long EMPTY = -1;
+
+    private final double cellDegrees;
+    private final long lngCells;
+    private final long[] keys;
+    private final int[][] cells;
+    private final int mask;
+    private final int[] unindexed;
+    private final int cellCount;
+
+    GeofenceIndex(Geofence[] fences, double cellDegrees) {
+        if (!(cellDegrees > 0 && cellDegrees <= 90)) {
+            throw new IllegalArgumentException("Cell size out of range: " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+        this.lngCells = (long) Math.ceil(360 / cellDegrees);
+
+        Map<Long, List<Integer>> byCell = new HashMap<>();
+        List<Integer> large = new ArrayList<>();
+        for (int f = 0; f < fences.length; f++) {
+            Geofence fence = fences[f];
+            long fromLat = latCell(fence.getMinLat());
+            long toLat = latCell(fence.getMaxLat());
+            long fromLng = lngCell(fence.getMinLng());
+            long toLng = lngCell(fence.getMaxLng());
+            if ((toLat - fromLat + 1) * (toLng - fromLng + 1) > MAX_CELLS_PER_FENCE) {
+                large.add(f);
+                continue;
+            }
+            for (long la = fromLat; la <= toLat; la++) {
+                for (long ln = fromLng; ln <= toLng; ln++) {
+                    byCell.computeIfAbsent(la * lngCells + ln, k -> new ArrayList<>()).add(f);
+                }
+            }
+        }
+
+        // At most half full
+        int capacity = Integer.highestOneBit(Math.max(1, byCell.size()) * 2 - 1) << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        cells = new int[capacity][];
+        mask = capacity - 1;
+        for (Map.Entry<Long, List<Integer>> entry : byCell.entrySet()) {
+            int slot = slot(entry.getKey());
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = entry.getKey();
+            cells[slot] = toArray(entry.getValue());
+        }
+        cellCount = byCell.size();
+        unindexed = toArray(large);
+    }
+
+    /**
+     * Indexes of the fences whose bounding box may contain the point, not
+     * counting {@link #unindexed()}. The array is shared; don't modify it.
+     */
+    int[] candidates(double lat, double lng) {
+        long key = latCell(lat) * lngCells + lngCell(lng);
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return cells[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /** Fences too large to index, to be checked for every point. The array is shared. */
+    int[] unindexed() {
+        return unindexed;
+    }
+
+    int cellCount() {
+        return cellCount;
+    }
+
+    private long latCell(double lat) {
+        return (long) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / cellDegrees);
+    }
+
+    private long lngCell(double lng) {
+        return (long) Math.floor((Math.max(-180, Math.min(180, lng)) + 180) / cellDegrees);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.roadstercompanion.geofence;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads fences from a GeoJSON FeatureCollection of Polygon features. The
+ * fence id is the feature's {@code id} property, or else the feature id, and
+ * its kind the {@code kind} property, e.g. "depot", "toll" or "service".
+ * Only a polygon's outer ring is used. Features with other geometry types are
+ * skipped.
+ */
+public final class GeofenceLoader {
+
+    static final String DEFAULT_KIND = "zone";
+
+    private GeofenceLoader() {
+    }
+
+    public static List<Geofence> load(Reader reader) throws IOException {
+        List<Geofence> fences = new ArrayList<>();
+        try {
+            JsonObject collection = JsonParser.parseReader(reader).getAsJsonObject();
+            JsonArray features = collection.getAsJsonArray("features");
+            if (features == null) {
+                throw new IOException("Not a FeatureCollection");
+            }
+            for (int i = 0; i < features.size(); i++) {
+                JsonObject feature = features.get(i).getAsJsonObject();
+                JsonObject geometry = feature.getAsJsonObject("geometry");
+                if (geometry == null || !"Polygon".equals(string(geometry.get("type")))) {
+                    continue;
+                }
+                JsonObject properties = feature.has("properties") && feature.get("properties").isJsonObject()
+                        ? feature.getAsJsonObject("properties") : new JsonObject();
+                String id = string(properties.get("id"));
+                if (id == null) {
+                    id = string(feature.get("id"));
+                }
+                if (id == null) {
+                    throw new IOException("Feature " + i + " has no id");
+                }
+                String kind = string(properties.get("kind"));
+                JsonArray ring = geometry.getAsJsonArray("coordinates").get(0).getAsJsonArray();
+                double[] lats = new double[ring.size()];
+                double[] lngs = new double[ring.size()];
+                for (int v = 0; v < ring.size(); v++) {
+                    // GeoJSON positions are [longitude, latitude]
+                    JsonArray position = ring.get(v).getAsJsonArray();
+                    lngs[v] = position.get(0).getAsDouble();
+                    lats[v] = position.get(1).getAsDouble();
+                }
+                fences.add(new Geofence(id, kind != null ? kind : DEFAULT_KIND, lats, lngs));
+            }
+        } catch (JsonParseException | IllegalStateException | IllegalArgumentException
+                 | IndexOutOfBoundsException | ClassCastException e) {
+            throw new IOException("Malformed geofence file: " + e.getMessage(), e);
+        }
+        return fences;
+    }
+
+    private static String string(JsonElement element) {
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+}
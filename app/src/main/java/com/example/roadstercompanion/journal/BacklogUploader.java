@@ -0,0 +1,140 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.BinaryBatchWriter;
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads a long journal backlog in bulk instead of replaying it frame by
+ * frame over the socket. Records are packed into large binary batches,
+ * compressed, and posted in order, each chunk tagged with the journal
+ * sequence of its first record. Records are committed as the server acks
+ * them, so an upload that fails halfway resumes after the last acked chunk;
+ * before the first chunk the server is asked how far it got, which covers
+ * an ack lost with the connection.
+ */
+public class BacklogUploader {
+
+    public enum Compression {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String contentEncoding;
+
+        Compression(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        OutputStream wrap(OutputStream out) throws IOException {
+            return this == GZIP ? new GZIPOutputStream(out, 8192)
+                    : new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192);
+        }
+    }
+
+    /** The server side of the upload. */
+    public interface Transport {
+        /** Last sequence the server has of this journal stream, or -1. */
+        long ackedSeq(long streamId) throws IOException;
+
+        /** Posts one compressed chunk and returns the server's ack after it. */
+        long upload(long streamId, long firstSeq, byte[] body, String contentType, String contentEncoding)
+                throws IOException;
+    }
+
+    private final LocationJournal journal;
+    private final Transport transport;
+    private final Compression compression;
+    private final int chunkFixes;
+    // One user per journal; declared in every chunk, since each is decoded on its own
+    private final BinaryBatchWriter writer = new BinaryBatchWriter(1);
+    private final LocationData scratch = new LocationData();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+    private ByteBuffer raw = ByteBuffer.allocate(64 * 1024);
+
+    public BacklogUploader(LocationJournal journal, String userId, Transport transport, Compression compression,
+                           int chunkFixes) {
+        if (chunkFixes <= 0) {
+            throw new IllegalArgumentException("chunkFixes must be positive: " + chunkFixes);
+        }
+        this.journal = journal;
+        this.transport = transport;
+        this.compression = compression;
+        this.chunkFixes = chunkFixes;
+        scratch.setUserId(userId);
+    }
+
+    /**
+     * Uploads and commits the records from the journal head up to, not
+     * including, {@code endSeq}. Returns how many records were uploaded.
+     *
+     * @throws IOException if the server can't be reached or refuses a chunk;
+     *                     call again to resume
+     */
+    public int upload(long endSeq) throws IOException {
+        long stream = journal.streamId();
+        commitAcked(transport.ackedSeq(stream), endSeq);
+        int uploaded = 0;
+        while (journal.headSeq() < endSeq) {
+            long firstSeq = journal.headSeq();
+            int count = fill(firstSeq, endSeq);
+            if (count == 0) {
+                // Evicted under us or a torn record left by a crash
+                journal.commit(firstSeq);
+                continue;
+            }
+            long acked = transport.upload(stream, firstSeq, compress(), WireFormat.BINARY.getContentType(),
+                    compression.getContentEncoding());
+            if (acked < firstSeq + count - 1) {
+                throw new IOException("Server acked " + acked + " for a chunk ending at " + (firstSeq + count - 1));
+            }
+            commitAcked(acked, endSeq);
+            uploaded += count;
+        }
+        return uploaded;
+    }
+
+    private void commitAcked(long acked, long endSeq) {
+        if (acked >= journal.headSeq()) {
+            journal.commit(Math.min(acked, endSeq - 1));
+        }
+    }
+
+    // Packs consecutive records from firstSeq on into the writer and returns how many
+    private int fill(long firstSeq, long endSeq) {
+        writer.reset();
+        writer.startSession();
+        int count = 0;
+        for (long seq = firstSeq; seq < endSeq && count < chunkFixes && journal.read(seq, scratch); seq++) {
+            writer.stage(scratch);
+            writer.commit();
+            count++;
+        }
+        return count;
+    }
+
+    private byte[] compress() throws IOException {
+        int size = writer.byteSize();
+        if (raw.capacity() < size) {
+            raw = ByteBuffer.allocate(Math.max(size, raw.capacity() * 2));
+        }
+        raw.clear();
+        writer.writeTo(raw);
+        compressed.reset();
+        try (OutputStream out = compression.wrap(compressed)) {
+            out.write(raw.array(), 0, raw.position());
+        }
+        return compressed.toByteArray();
+    }
+}
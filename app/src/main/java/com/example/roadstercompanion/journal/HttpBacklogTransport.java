@@ -0,0 +1,116 @@
+package com.example.roadstercompanion.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link BacklogUploader.Transport} for the server's {@code /api/backlog}
+ * endpoint, over plain {@link HttpURLConnection} so it runs on Android and
+ * the JVM alike.
+ */
+public class HttpBacklogTransport implements BacklogUploader.Transport {
+
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 60_000;
+    private static final String ACKED_SEQ = "\"ackedSeq\":";
+
+    private final String baseUrl;
+
+    /** @param baseUrl the user's backlog resource, e.g. {@code http://host:8080/api/backlog/user_1} */
+    public HttpBacklogTransport(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /** Derives the backlog resource from the STOMP endpoint on the same server. */
+    public static HttpBacklogTransport forWebSocketUrl(String webSocketUrl, String userId) {
+        URI ws = URI.create(webSocketUrl);
+        String scheme = "wss".equalsIgnoreCase(ws.getScheme()) ? "https" : "http";
+        try {
+            return new HttpBacklogTransport(scheme + "://" + ws.getRawAuthority() + "/api/backlog/"
+                    + URLEncoder.encode(userId, "UTF-8").replace("+", "%20"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long ackedSeq(long streamId) throws IOException {
+        HttpURLConnection connection = open("?stream=" + streamId);
+        try {
+            return readAck(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long upload(long streamId, long firstSeq, byte[] body, String contentType, String contentEncoding)
+            throws IOException {
+        HttpURLConnection connection = open("?stream=" + streamId + "&firstSeq=" + firstSeq);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setRequestProperty("Content-Encoding", contentEncoding);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            return readAck(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String query) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + query).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    private static long readAck(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            throw new IOException("Backlog upload got HTTP " + status
+                    + (error != null ? ": " + read(error) : ""));
+        }
+        String body = read(connection.getInputStream());
+        int at = body.indexOf(ACKED_SEQ);
+        if (at < 0) {
+            throw new IOException("No ackedSeq in " + body);
+        }
+        int i = at + ACKED_SEQ.length();
+        int end = i;
+        while (end < body.length() && (Character.isDigit(body.charAt(end)) || body.charAt(end) == '-')) {
+            end++;
+        }
+        try {
+            return Long.parseLong(body.substring(i, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad ackedSeq in " + body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = input.read(buffer)) > 0 && out.size() < 64 * 1024) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
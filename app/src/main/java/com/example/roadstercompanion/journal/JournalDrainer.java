@@ -0,0 +1,173 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.LocationBatch;
+
+/**
+ * Replays the journal backlog, oldest first, into a {@link Sink} in batches.
+ * Sending moves a cursor past the batch; the records are only committed once
+ * the sink reports them delivered through {@link #acknowledge}, so anything
+ * sent but unacknowledged when the connection drops is sent again after
+ * {@link #rewind()}. A partial batch stays in the journal until its oldest
+ * fix reaches the batch's max age.
+ *
+ * While a bulk catch-up (see {@link BacklogUploader}) owns the records from
+ * the head up to {@link #beginCatchUp()}'s cut, the drainer only sends the
+ * records after the cut. It can't commit those while the backlog before them
+ * is still in the journal, so it remembers how far they were acknowledged and
+ * commits them in {@link #endCatchUp}.
+ */
+public class JournalDrainer {
+
+    public interface Sink {
+        /** Whether the transport can accept fixes right now, e.g. connected with room in its window. */
+        boolean isReady();
+
+        /**
+         * Sends one batch of consecutive records starting at {@code firstSeq};
+         * returns false if it could not be handed to the transport.
+         */
+        boolean send(LocationBatch batch, long firstSeq);
+    }
+
+    private final LocationJournal journal;
+    private final LocationBatch batch;
+    private final Sink sink;
+    private final LocationData scratch = new LocationData();
+
+    // Guarded by this; cursor is the next record to send, -1 to start at the journal head
+    private long cursor = -1;
+    private long catchUpEnd = -1;
+    // During a catch-up, the record after the last one acknowledged
+    private long ackedEnd = -1;
+
+    public JournalDrainer(LocationJournal journal, LocationBatch batch, String userId, Sink sink) {
+        this.journal = journal;
+        this.batch = batch;
+        this.sink = sink;
+        // Journal records don't store the user id, every replayed fix belongs to this sender
+        scratch.setUserId(userId);
+    }
+
+    /**
+     * Sends queued fixes until the journal is empty, the sink stops accepting
+     * them, or only a partial batch that is not yet due is left. Returns the
+     * number of fixes delivered.
+     */
+    public int drain(long nowMillis) {
+        int sent = 0;
+        while (sink.isReady()) {
+            long lastSeq = fill();
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (!batch.isFull() && !batch.isDue(nowMillis)) {
+                break;
+            }
+            if (!sink.send(batch, lastSeq - batch.size() + 1)) {
+                break;
+            }
+            sent(lastSeq);
+            sent += batch.size();
+        }
+        batch.clear();
+        return sent;
+    }
+
+    /**
+     * Hands every record currently in the journal over to a bulk upload and
+     * returns the sequence after the last one. From now on only records
+     * appended later are sent here.
+     */
+    public synchronized long beginCatchUp() {
+        catchUpEnd = journal.tailSeq();
+        ackedEnd = catchUpEnd;
+        cursor = Math.max(cursor, catchUpEnd);
+        return catchUpEnd;
+    }
+
+    /**
+     * Ends a bulk upload. If it delivered the whole backlog, the records
+     * acknowledged here in the meantime are committed too and sending carries
+     * on; otherwise sending goes back to the journal head, and records already
+     * sent are sent again. Acknowledgements still due for those must not reach
+     * {@link #acknowledge} afterwards.
+     */
+    public synchronized void endCatchUp(boolean uploaded) {
+        if (uploaded) {
+            if (ackedEnd > 0) {
+                journal.commit(ackedEnd - 1);
+            }
+        } else {
+            cursor = -1;
+        }
+        catchUpEnd = -1;
+        ackedEnd = -1;
+    }
+
+    /** Commits every record up to and including {@code lastSeq}, which the sink has delivered. */
+    public synchronized void acknowledge(long lastSeq) {
+        if (catchUpEnd < 0) {
+            journal.commit(lastSeq);
+        } else if (lastSeq >= catchUpEnd) {
+            ackedEnd = Math.max(ackedEnd, lastSeq + 1);
+        }
+    }
+
+    /** Sends every unacknowledged record again, e.g. after a reconnect. */
+    public synchronized void rewind() {
+        cursor = catchUpEnd < 0 ? -1 : ackedEnd;
+    }
+
+    public synchronized boolean isCatchingUp() {
+        return catchUpEnd >= 0;
+    }
+
+    private synchronized long nextSeq() {
+        return Math.max(journal.headSeq(), cursor);
+    }
+
+    private synchronized void sent(long lastSeq) {
+        cursor = Math.max(cursor, lastSeq + 1);
+    }
+
+    /**
+     * Time at which the fixes still in the journal form a batch that is due,
+     * or -1 if the journal is empty.
+     */
+    public long nextFlushAt() {
+        long seq = nextSeq();
+        if (seq >= journal.tailSeq() || !journal.read(seq, scratch)) {
+            return -1;
+        }
+        return scratch.getTimestamp() + batch.getMaxAgeMillis();
+    }
+
+    // Loads the next records to send into the batch and returns the last sequence read.
+    private long fill() {
+        batch.clear();
+        long seq = nextSeq();
+        long lastSeq = seq - 1;
+        while (seq < journal.tailSeq() && !batch.isFull()) {
+            if (!journal.read(seq, scratch)) {
+                // Evicted under us or a torn record left by a crash; committed with the next acknowledgement
+                if (batch.isEmpty()) {
+                    sent(seq);
+                    lastSeq = seq;
+                    seq = Math.max(seq + 1, nextSeq());
+                    continue;
+                }
+                break;
+            }
+            if (!batch.add(scratch)) {
+                break;
+            }
+            lastSeq = seq++;
+        }
+        return lastSeq;
+    }
+
+    public LocationJournal getJournal() {
+        return journal;
+    }
+}
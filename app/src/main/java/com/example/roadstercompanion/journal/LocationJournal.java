@@ -0,0 +1,293 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store-and-forward queue for outgoing fixes.
+ *
+ * The journal is a single memory-mapped file holding a header followed by a
+ * ring of fixed-size record slots. Records are appended with increasing
+ * sequence numbers; once the ring is full the oldest record is evicted, so disk
+ * use never grows past {@code HEADER_SIZE + capacity * RECORD_SIZE} bytes.
+ *
+ * Records also keep the time they were appended, so the sender can tell how
+ * long a fix waited in the queue. Records written before that field existed
+ * read back with an enqueue time of 0.
+ *
+ * Every record carries its own sequence number and CRC, and the header is only
+ * advanced after the record is written. On open the journal re-validates the
+ * tail, so a process killed halfway through an append loses at most that one fix.
+ */
+public final class LocationJournal implements Closeable {
+
+    static final int MAGIC = 0x524A4E4C; // "RJNL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 64;
+
+    // Header layout
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_SIZE = 8;
+    private static final int H_CAPACITY = 12;
+    private static final int H_HEAD = 16;
+    private static final int H_TAIL = 24;
+    private static final int H_EVICTED = 32;
+    private static final int H_STREAM_ID = 40;
+
+    // Record layout
+    static final int R_SEQ = 0;
+    static final int R_TIMESTAMP = 8;
+    static final int R_LATITUDE = 16;
+    static final int R_LONGITUDE = 24;
+    static final int R_ACCURACY = 32;
+    static final int R_SPEED = 36;
+    static final int R_BEARING = 40;
+    static final int R_ENQUEUED = 44;
+    static final int R_CRC = RECORD_SIZE - 4;
+
+    private final File file;
+    private final int capacity;
+    private final CRC32 crc = new CRC32();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private long head;     // oldest retained sequence (next to be drained)
+    private long tail;     // next sequence to be written
+    private long evicted;  // records dropped because the ring was full
+    private long streamId; // random per file, sequences restart when the file is recreated
+
+    private LocationJournal(File file, int capacity) {
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens (or creates) the journal at {@code file}. An existing file with a
+     * different capacity or an unreadable header is discarded and recreated.
+     */
+    public static LocationJournal open(File file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        LocationJournal journal = new LocationJournal(file, capacity);
+        journal.map();
+        return journal;
+    }
+
+    private void map() throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        boolean existing = file.exists() && file.length() == size;
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size);
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (existing && headerMatches()) {
+            recover();
+        } else {
+            reset();
+        }
+    }
+
+    private boolean headerMatches() {
+        return buffer.getInt(H_MAGIC) == MAGIC
+                && buffer.getInt(H_VERSION) == VERSION
+                && buffer.getInt(H_RECORD_SIZE) == RECORD_SIZE
+                && buffer.getInt(H_CAPACITY) == capacity;
+    }
+
+    private void reset() {
+        // Wipe stale slots too, otherwise recover() could mistake them for fresh appends.
+        for (int i = 0; i < buffer.capacity(); i += 8) {
+            buffer.putLong(i, 0L);
+        }
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+        buffer.putInt(H_CAPACITY, capacity);
+        head = 0;
+        tail = 0;
+        evicted = 0;
+        streamId = newStreamId();
+        buffer.putLong(H_STREAM_ID, streamId);
+        writeHeader();
+        buffer.force();
+    }
+
+    private void recover() {
+        head = buffer.getLong(H_HEAD);
+        tail = buffer.getLong(H_TAIL);
+        evicted = buffer.getLong(H_EVICTED);
+        if (head < 0 || tail < head) {
+            reset();
+            return;
+        }
+        streamId = buffer.getLong(H_STREAM_ID);
+        if (streamId == 0) {
+            // Written before the header had a stream id
+            streamId = newStreamId();
+            buffer.putLong(H_STREAM_ID, streamId);
+        }
+
+        // Records appended after the last header update are still valid; pick them up.
+        while (isValid(tail)) {
+            tail++;
+        }
+        if (tail - head > capacity) {
+            evicted += tail - head - capacity;
+            head = tail - capacity;
+        }
+        writeHeader();
+    }
+
+    private static long newStreamId() {
+        long id;
+        do {
+            id = new SecureRandom().nextLong() & Long.MAX_VALUE;
+        } while (id == 0);
+        return id;
+    }
+
+    private void writeHeader() {
+        buffer.putLong(H_HEAD, head);
+        buffer.putLong(H_TAIL, tail);
+        buffer.putLong(H_EVICTED, evicted);
+    }
+
+    private int offset(long seq) {
+        return HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+    }
+
+    private boolean isValid(long seq) {
+        int off = offset(seq);
+        return buffer.getLong(off + R_SEQ) == seq && buffer.getInt(off + R_CRC) == checksum(off);
+    }
+
+    private int checksum(int off) {
+        crc.reset();
+        for (int i = 0; i < R_CRC; i++) {
+            crc.update(buffer.get(off + i));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends a fix and returns its sequence number. If the journal is full the
+     * oldest undelivered record is evicted to make room.
+     */
+    public long append(LocationData fix) {
+        return append(fix.getTimestamp(), fix.getLatitude(), fix.getLongitude(),
+                fix.getAccuracy(), fix.getSpeed(), fix.getBearing());
+    }
+
+    public synchronized long append(long timestamp, double latitude, double longitude,
+                                    double accuracy, double speed, double bearing) {
+        ensureOpen();
+        long seq = tail;
+        int off = offset(seq);
+        buffer.putLong(off + R_SEQ, seq);
+        buffer.putLong(off + R_TIMESTAMP, timestamp);
+        buffer.putDouble(off + R_LATITUDE, latitude);
+        buffer.putDouble(off + R_LONGITUDE, longitude);
+        buffer.putFloat(off + R_ACCURACY, (float) accuracy);
+        buffer.putFloat(off + R_SPEED, (float) speed);
+        buffer.putFloat(off + R_BEARING, (float) bearing);
+        buffer.putLong(off + R_ENQUEUED, System.currentTimeMillis());
+        for (int i = R_ENQUEUED + 8; i < R_CRC; i++) {
+            buffer.put(off + i, (byte) 0);
+        }
+        buffer.putInt(off + R_CRC, checksum(off));
+
+        tail = seq + 1;
+        if (tail - head > capacity) {
+            head++;
+            evicted++;
+        }
+        writeHeader();
+        return seq;
+    }
+
+    /**
+     * Reads record {@code seq}, including its enqueue time, into {@code target},
+     * leaving its user id untouched.
+     * Returns false if the record has been evicted, committed or is corrupt.
+     */
+    public synchronized boolean read(long seq, LocationData target) {
+        ensureOpen();
+        if (seq < head || seq >= tail || !isValid(seq)) {
+            return false;
+        }
+        int off = offset(seq);
+        target.setTimestamp(buffer.getLong(off + R_TIMESTAMP));
+        target.setLatitude(buffer.getDouble(off + R_LATITUDE));
+        target.setLongitude(buffer.getDouble(off + R_LONGITUDE));
+        target.setAccuracy(buffer.getFloat(off + R_ACCURACY));
+        target.setSpeed(buffer.getFloat(off + R_SPEED));
+        target.setBearing(buffer.getFloat(off + R_BEARING));
+        target.setEnqueuedAt(buffer.getLong(off + R_ENQUEUED));
+        return true;
+    }
+
+    /**
+     * Marks every record up to and including {@code seq} as delivered.
+     */
+    public synchronized void commit(long seq) {
+        ensureOpen();
+        long next = Math.min(seq + 1, tail);
+        if (next > head) {
+            head = next;
+            writeHeader();
+        }
+    }
+
+    /** Flushes the mapped pages to disk so the backlog survives a power loss. */
+    public synchronized void sync() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    public synchronized long headSeq() { return head; }
+    public synchronized long tailSeq() { return tail; }
+    public synchronized long size() { return tail - head; }
+    public synchronized long evictedCount() { return evicted; }
+    public int capacity() { return capacity; }
+
+    /**
+     * Identifies this journal's sequence numbers. It changes when the file is
+     * recreated, so a server tracking uploads by sequence can tell a fresh
+     * journal from one it has already seen.
+     */
+    public synchronized long streamId() { return streamId; }
+
+    private void ensureOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Journal is closed: " + file);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        channel.close();
+        raf.close();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.roadstercompanion.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Monotonic count, cheap to bump from several threads at once. */
+public final class Counter {
+
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.roadstercompanion.metrics;
+
+/** Current value read on demand, e.g. the depth of a queue. */
+public interface Gauge {
+    long get();
+}
@@ -0,0 +1,106 @@
+package com.example.roadstercompanion.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution over fixed buckets. {@code bounds} are inclusive upper bounds
+ * in ascending order; values above the last one land in an overflow bucket.
+ * Recording is a binary search and a few atomic adds, with no allocation.
+ * Percentiles are approximate: they report the upper bound of the bucket the
+ * percentile falls into (the maximum for the overflow bucket).
+ */
+public final class Histogram {
+
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public Histogram(long... bounds) {
+        if (bounds.length == 0) {
+            throw new IllegalArgumentException("Histogram needs at least one bucket bound");
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must ascend: " + Arrays.toString(bounds));
+            }
+        }
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Lost the race to a concurrent record, retry against the new maximum
+        }
+    }
+
+    private int bucketOf(long value) {
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (value <= bounds[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    /** Largest value recorded, or 0 if none. */
+    public long max() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+    /** Approximate value below which a fraction {@code q} (0..1) of the recordings fall; 0 if empty. */
+    public long percentile(double q) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bounds[i], max());
+            }
+        }
+        return max();
+    }
+
+    public int bucketCount() {
+        return counts.length();
+    }
+
+    /** Upper bound of bucket {@code i}; {@code Long.MAX_VALUE} for the overflow bucket. */
+    public long bucketBound(int i) {
+        return i < bounds.length ? bounds[i] : Long.MAX_VALUE;
+    }
+
+    public long bucketValue(int i) {
+        return counts.get(i);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.roadstercompanion.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named counters, gauges and histograms with a compact text snapshot.
+ *
+ * The snapshot has one metric per line, in registration order, so snapshots
+ * from different builds or devices can be diffed directly:
+ * <pre>
+ * fixes.received 1190
+ * send.latency_ms count=108 sum=5400 max=950 p50=50 p90=100 p99=1000 buckets=25:3,50:60,100:40,1000:5
+ * </pre>
+ * Histogram buckets are written as {@code upperBound:count}, empty buckets
+ * are left out and the overflow bucket is written as {@code +:count}.
+ */
+public class MetricsRegistry {
+
+    public static final int SNAPSHOT_VERSION = 1;
+
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    public synchronized Counter counter(String name) {
+        Object existing = metrics.get(name);
+        if (existing instanceof Counter) {
+            return (Counter) existing;
+        }
+        Counter counter = new Counter();
+        register(name, counter);
+        return counter;
+    }
+
+    public synchronized Histogram histogram(String name, long... bounds) {
+        Object existing = metrics.get(name);
+        if (existing instanceof Histogram) {
+            return (Histogram) existing;
+        }
+        Histogram histogram = new Histogram(bounds);
+        register(name, histogram);
+        return histogram;
+    }
+
+    /** Registers a gauge, replacing any earlier one with the same name. */
+    public synchronized void gauge(String name, Gauge gauge) {
+        Object existing = metrics.get(name);
+        if (existing != null && !(existing instanceof Gauge)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + existing.getClass().getSimpleName());
+        }
+        metrics.put(name, gauge);
+    }
+
+    private void register(String name, Object metric) {
+        if (metrics.containsKey(name)) {
+            throw new IllegalArgumentException(name + " is already registered as a "
+                    + metrics.get(name).getClass().getSimpleName());
+        }
+        metrics.put(name, metric);
+    }
+
+    /** Current value of a counter or gauge, or -1 if there is none by that name. */
+    public synchronized long value(String name) {
+        Object metric = metrics.get(name);
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        }
+        if (metric instanceof Gauge) {
+            return ((Gauge) metric).get();
+        }
+        return -1;
+    }
+
+    public String snapshot() {
+        return snapshot(null);
+    }
+
+    /** Writes every metric in the snapshot format; {@code header}, if given, becomes a leading comment line. */
+    public synchronized String snapshot(String header) {
+        StringBuilder out = new StringBuilder(64 * (metrics.size() + 1));
+        out.append("# roadster-metrics v").append(SNAPSHOT_VERSION);
+        if (header != null) {
+            out.append(' ').append(header);
+        }
+        out.append('\n');
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            out.append(entry.getKey()).append(' ');
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                out.append(((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                out.append(((Gauge) metric).get());
+            } else {
+                appendHistogram(out, (Histogram) metric);
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, Histogram h) {
+        out.append("count=").append(h.count())
+                .append(" sum=").append(h.sum())
+                .append(" max=").append(h.max())
+                .append(" p50=").append(h.percentile(0.50))
+                .append(" p90=").append(h.percentile(0.90))
+                .append(" p99=").append(h.percentile(0.99))
+                .append(" buckets=");
+        boolean first = true;
+        for (int i = 0; i < h.bucketCount(); i++) {
+            long n = h.bucketValue(i);
+            if (n == 0) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            long bound = h.bucketBound(i);
+            if (bound == Long.MAX_VALUE) {
+                out.append('+');
+            } else {
+                out.append(bound);
+            }
+            out.append(':').append(n);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.roadstercompanion.metrics;
+
+/**
+ * The tracker's metrics, from the location callback to bytes on the wire.
+ * One instance is shared by the pipeline, the sender and the UI.
+ */
+public class PipelineMetrics {
+
+    // Milliseconds; long tail covers fixes that sat in the journal through an outage
+    private static final long[] LATENCY_BOUNDS_MS = {
+            10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000, 30_000, 60_000, 300_000, 3_600_000
+    };
+    private static final long[] FRAME_BOUNDS_BYTES = {64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    /** Fixes delivered by the location provider. */
+    public final Counter fixesReceived = registry.counter("fixes.received");
+    /** Fixes dropped by a pipeline stage (outliers, redundant points). */
+    public final Counter fixesFiltered = registry.counter("fixes.filtered");
+    /** Fixes that went out in a frame. */
+    public final Counter fixesSent = registry.counter("fixes.sent");
+    /** Fixes lost: sent while offline without a journal. Journal evictions are the journal.evicted gauge. */
+    public final Counter fixesDropped = registry.counter("fixes.dropped");
+    public final Counter framesSent = registry.counter("frames.sent");
+    public final Counter bytesSent = registry.counter("bytes.sent");
+    /** Backlog fixes delivered by a bulk upload instead of over the socket. */
+    public final Counter backlogUploaded = registry.counter("backlog.uploaded");
+    /** Connection attempts after the first one. */
+    public final Counter reconnects = registry.counter("connection.reconnects");
+    /** Fence entries and exits written to the socket. */
+    public final Counter geofenceEventsSent = registry.counter("geofence.events_sent");
+    /** Fence events lost because too many piled up while offline. */
+    public final Counter geofenceEventsDropped = registry.counter("geofence.events_dropped");
+
+    /** How old a fix is when the provider hands it over; grows with provider-side batching. */
+    public final Histogram fixAgeMillis = registry.histogram("fix.age_ms", LATENCY_BOUNDS_MS);
+    /** From the fix until its frame is written to the socket. */
+    public final Histogram sendLatencyMillis = registry.histogram("send.latency_ms", LATENCY_BOUNDS_MS);
+    /** From queuing a fix in the journal until its frame is written to the socket. */
+    public final Histogram queueLatencyMillis = registry.histogram("queue.latency_ms", LATENCY_BOUNDS_MS);
+    /** From writing a frame until the server's receipt for it. */
+    public final Histogram receiptRttMillis = registry.histogram("receipt.rtt_ms", LATENCY_BOUNDS_MS);
+    /** Round trips of the clock-offset exchange with the server. */
+    public final Histogram clockRttMillis = registry.histogram("clock.rtt_ms", LATENCY_BOUNDS_MS);
+    public final Histogram frameBytes = registry.histogram("frame.bytes", FRAME_BOUNDS_BYTES);
+
+    public MetricsRegistry registry() {
+        return registry;
+    }
+
+    /** Short one-line summary for the notification. */
+    public String summary() {
+        return fixesSent.get() + "/" + fixesReceived.get() + " fixes sent · backlog " + Math.max(0, registry.value("journal.backlog"))
+                + " · p50 " + sendLatencyMillis.percentile(0.5) + " ms";
+    }
+
+    /** Multi-line summary for the dashboard. */
+    public String dashboard() {
+        return "Fixes received   " + fixesReceived.get()
+                + "\nFiltered         " + fixesFiltered.get()
+                + "\nSent             " + fixesSent.get()
+                + "\nDropped          " + fixesDropped.get()
+                + "\nBacklog          " + Math.max(0, registry.value("journal.backlog"))
+                + "\nEvicted          " + Math.max(0, registry.value("journal.evicted"))
+                + "\nBulk uploaded    " + backlogUploaded.get()
+                + "\nReconnects       " + reconnects.get()
+                + "\nFrames / bytes   " + framesSent.get() + " / " + bytesSent.get()
+                + "\nSend latency     p50 " + sendLatencyMillis.percentile(0.5)
+                + "  p99 " + sendLatencyMillis.percentile(0.99) + " ms"
+                + "\nQueue latency    p50 " + queueLatencyMillis.percentile(0.5)
+                + "  p99 " + queueLatencyMillis.percentile(0.99) + " ms"
+                + "\nIn flight        " + Math.max(0, registry.value("send.in_flight"))
+                + " frames · receipt p50 " + receiptRttMillis.percentile(0.5) + " ms"
+                + "\nFix age          p50 " + fixAgeMillis.percentile(0.5) + " ms"
+                + "\nClock offset     " + clockOffset()
+                + "\nGeofences        inside " + Math.max(0, registry.value("geofence.inside"))
+                + " · events " + geofenceEventsSent.get()
+                + "\nFrame size       p50 " + frameBytes.percentile(0.5) + " B";
+    }
+
+    private String clockOffset() {
+        long error = registry.value("clock.error_ms");
+        return error < 0 ? "unknown" : registry.value("clock.offset_ms") + " ms ±" + error;
+    }
+
+    public String snapshot(String header) {
+        return registry.snapshot(header);
+    }
+}
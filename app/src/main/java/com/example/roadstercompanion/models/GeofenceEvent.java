@@ -0,0 +1,46 @@
+package com.example.roadstercompanion.models;
+
+/** The car entering or leaving a fence, as sent to {@code /app/geofence}. */
+public class GeofenceEvent {
+
+    public enum Type { ENTER, EXIT }
+
+    private final String userId;
+    private final String fenceId;
+    private final String kind;
+    private final Type type;
+    // Time of the fix that triggered the event, on the device clock
+    private final long timestamp;
+    private final double latitude;
+    private final double longitude;
+
+    public GeofenceEvent(String userId, String fenceId, String kind, Type type, long timestamp,
+                         double latitude, double longitude) {
+        this.userId = userId;
+        this.fenceId = fenceId;
+        this.kind = kind;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public String getUserId() { return userId; }
+    public String getFenceId() { return fenceId; }
+    public String getKind() { return kind; }
+    public Type getType() { return type; }
+    public long getTimestamp() { return timestamp; }
+    public double getLatitude() { return latitude; }
+    public double getLongitude() { return longitude; }
+
+    @Override
+    public String toString() {
+        return "GeofenceEvent{" +
+                "userId='" + userId + '\'' +
+                ", fenceId='" + fenceId + '\'' +
+                ", kind='" + kind + '\'' +
+                ", type=" + type +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
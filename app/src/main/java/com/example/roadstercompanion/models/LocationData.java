@@ -7,16 +7,28 @@ public class LocationData {
     private double accuracy;
     private double speed;
     private double bearing;
+    // When the fix was taken, on the device clock
     private long timestamp;
+    // When the fix was queued for sending, on the device clock; 0 if unknown
+    private long enqueuedAt;
 
+    public LocationData() {
+    }
+
+    /** A fix stamped with the current time, for callers that don't have the provider's fix time. */
     public LocationData(String userId, double latitude, double longitude, double accuracy, double speed, double bearing) {
+        this(userId, latitude, longitude, accuracy, speed, bearing, System.currentTimeMillis());
+    }
+
+    public LocationData(String userId, double latitude, double longitude, double accuracy, double speed, double bearing,
+                        long timestamp) {
         this.userId = userId;
         this.latitude = latitude;
         this.longitude = longitude;
         this.accuracy = accuracy;
         this.speed = speed;
         this.bearing = bearing;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
     }
 
     // Getters
@@ -27,6 +39,7 @@ public class LocationData {
     public double getSpeed() { return speed; }
     public double getBearing() { return bearing; }
     public long getTimestamp() { return timestamp; }
+    public long getEnqueuedAt() { return enqueuedAt; }
 
     // Setters
     public void setUserId(String userId) { this.userId = userId; }
@@ -36,6 +49,7 @@ public class LocationData {
     public void setSpeed(double speed) { this.speed = speed; }
     public void setBearing(double bearing) { this.bearing = bearing; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    public void setEnqueuedAt(long enqueuedAt) { this.enqueuedAt = enqueuedAt; }
 
     @Override
     public String toString() {
@@ -47,6 +61,7 @@ public class LocationData {
                 ", speed=" + speed +
                 ", bearing=" + bearing +
                 ", timestamp=" + timestamp +
+                ", enqueuedAt=" + enqueuedAt +
                 '}';
     }
 }
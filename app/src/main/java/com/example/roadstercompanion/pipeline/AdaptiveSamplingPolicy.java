@@ -0,0 +1,180 @@
+package com.example.roadstercompanion.pipeline;
+
+/**
+ * Chooses a {@link SamplingMode} from the recent motion of the vehicle.
+ *
+ * Speed is the larger of the reported speed and the distance covered since
+ * the previous fix minus both fixes' accuracy radii, so a low-power fix
+ * without a speed still shows real movement while GPS jitter while parked
+ * does not. Both speed and turn rate are smoothed with an exponential moving
+ * average.
+ *
+ * To avoid flapping, every mode has separate enter and leave thresholds, and
+ * a sparser mode is only chosen after the motion has called for it for a
+ * dwell time. Denser modes are entered right away.
+ *
+ * Pure Java and driven only by the fixes passed in, so recorded tracks can be
+ * replayed through it on the JVM.
+ */
+public class AdaptiveSamplingPolicy {
+
+    // Speeds in m/s, turn rate in degrees per second
+    static final double STATIONARY_ENTER_SPEED = 0.7;
+    static final double STATIONARY_LEAVE_SPEED = 1.5;
+    static final double DENSE_ENTER_SPEED = 25.0;   // 90 km/h
+    static final double DENSE_LEAVE_SPEED = 22.0;
+    static final double DENSE_ENTER_TURN_RATE = 8.0;
+    static final double DENSE_LEAVE_TURN_RATE = 4.0;
+    // Below this the bearing is mostly noise
+    static final double MIN_SPEED_FOR_TURNS = 3.0;
+
+    static final long STATIONARY_DWELL_MILLIS = 90_000;
+    static final long CRUISE_DWELL_MILLIS = 20_000;
+
+    // Fixes this inaccurate can't tell whether we moved
+    static final double MAX_USABLE_ACCURACY = 50.0;
+
+    private static final double SMOOTHING = 0.5;
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    private SamplingMode mode;
+    private SamplingMode candidate;
+    private long candidateSince;
+
+    private boolean hasPrevious;
+    private long prevTime;
+    private double prevLat;
+    private double prevLng;
+    private double prevAccuracy;
+    private double prevBearing = Double.NaN;
+
+    private double speed;
+    private double turnRate;
+    private int modeChanges;
+
+    public AdaptiveSamplingPolicy(SamplingMode initialMode) {
+        this.mode = initialMode;
+        this.candidate = initialMode;
+    }
+
+    public SamplingMode getMode() {
+        return mode;
+    }
+
+    /** Smoothed speed estimate in m/s. */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /** Smoothed turn rate in degrees per second. */
+    public double getTurnRate() {
+        return turnRate;
+    }
+
+    public int getModeChanges() {
+        return modeChanges;
+    }
+
+    /**
+     * Feeds one fix to the policy. Speed and bearing may be {@code NaN} if the
+     * provider didn't report them. Returns true if the mode changed and the
+     * location request should be re-issued.
+     */
+    public boolean observe(long timeMillis, double latitude, double longitude,
+                           double accuracy, double reportedSpeed, double bearing) {
+        if (accuracy > MAX_USABLE_ACCURACY) {
+            return false;
+        }
+        if (!hasPrevious || timeMillis <= prevTime) {
+            remember(timeMillis, latitude, longitude, accuracy, bearing);
+            speed = Double.isNaN(reportedSpeed) ? 0 : reportedSpeed;
+            return false;
+        }
+
+        double dt = (timeMillis - prevTime) / 1000.0;
+        double moved = distance(prevLat, prevLng, latitude, longitude) - (accuracy + prevAccuracy);
+        double measuredSpeed = Math.max(0, moved) / dt;
+        if (!Double.isNaN(reportedSpeed)) {
+            measuredSpeed = Math.max(measuredSpeed, reportedSpeed);
+        }
+        speed += SMOOTHING * (measuredSpeed - speed);
+
+        double measuredTurnRate = 0;
+        if (!Double.isNaN(bearing) && !Double.isNaN(prevBearing) && speed >= MIN_SPEED_FOR_TURNS) {
+            measuredTurnRate = bearingDelta(prevBearing, bearing) / dt;
+        }
+        turnRate += SMOOTHING * (measuredTurnRate - turnRate);
+
+        remember(timeMillis, latitude, longitude, accuracy, bearing);
+        return update(timeMillis, desiredMode());
+    }
+
+    private SamplingMode desiredMode() {
+        switch (mode) {
+            case STATIONARY:
+                if (speed < STATIONARY_LEAVE_SPEED) {
+                    return SamplingMode.STATIONARY;
+                }
+                break;
+            case DENSE:
+                if (speed >= DENSE_LEAVE_SPEED || turnRate >= DENSE_LEAVE_TURN_RATE) {
+                    return SamplingMode.DENSE;
+                }
+                break;
+            default:
+                break;
+        }
+        if (speed >= DENSE_ENTER_SPEED || turnRate >= DENSE_ENTER_TURN_RATE) {
+            return SamplingMode.DENSE;
+        }
+        if (speed < STATIONARY_ENTER_SPEED) {
+            return SamplingMode.STATIONARY;
+        }
+        return SamplingMode.CRUISE;
+    }
+
+    private boolean update(long now, SamplingMode desired) {
+        if (desired == mode) {
+            candidate = mode;
+            return false;
+        }
+        if (desired != candidate) {
+            candidate = desired;
+            candidateSince = now;
+        }
+        // Denser sampling right away, sparser only once it has been warranted for a while
+        boolean denser = desired.intervalMillis < mode.intervalMillis;
+        long dwell = desired == SamplingMode.STATIONARY ? STATIONARY_DWELL_MILLIS : CRUISE_DWELL_MILLIS;
+        if (denser || now - candidateSince >= dwell) {
+            mode = desired;
+            modeChanges++;
+            return true;
+        }
+        return false;
+    }
+
+    private void remember(long time, double lat, double lng, double accuracy, double bearing) {
+        hasPrevious = true;
+        prevTime = time;
+        prevLat = lat;
+        prevLng = lng;
+        prevAccuracy = accuracy;
+        if (!Double.isNaN(bearing)) {
+            prevBearing = bearing;
+        }
+    }
+
+    static double bearingDelta(double from, double to) {
+        double delta = Math.abs(to - from) % 360;
+        return delta > 180 ? 360 - delta : delta;
+    }
+
+    static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Thins the stream while the sender reports congestion: at most one fix per
+ * {@code minIntervalMillis} gets through, so a slow uplink backs up into
+ * fewer fixes instead of a longer queue that evicts the oldest ones. Every
+ * fix passes while the sender keeps up.
+ *
+ * Sits before the simplifier, which then anchors on the fixes that are
+ * actually sent.
+ */
+public class BackpressureThrottle implements LocationStage {
+
+    private final BooleanSupplier congested;
+    private final long minIntervalMillis;
+
+    private boolean passedAny;
+    private long lastPassed;
+    private long throttled;
+
+    public BackpressureThrottle(BooleanSupplier congested, long minIntervalMillis) {
+        this.congested = congested;
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    @Override
+    public boolean process(LocationData fix) {
+        long t = fix.getTimestamp();
+        if (passedAny && t >= lastPassed && t - lastPassed < minIntervalMillis && congested.getAsBoolean()) {
+            throttled++;
+            return false;
+        }
+        passedAny = true;
+        lastPassed = t;
+        return true;
+    }
+
+    /** Fixes dropped because the sender was congested. */
+    public long getThrottled() {
+        return throttled;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.models.LocationData;
+
+/**
+ * Streaming trajectory simplification with a dead-reckoning error bound.
+ *
+ * The last fix that was let through is the anchor. For each new fix we
+ * predict where the car would be by extrapolating the anchor's speed and
+ * bearing; if the fix is within {@code toleranceMeters} of the prediction it
+ * is dropped, because the server can reconstruct it to that accuracy from the
+ * anchor alone. A fix is always let through after {@code maxSilenceMillis}
+ * so the server keeps seeing the device.
+ *
+ * Needs constant memory: only the anchor is kept.
+ */
+public class DeadReckoningSimplifier implements LocationStage {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private final double toleranceMeters;
+    private final long maxSilenceMillis;
+
+    private boolean hasAnchor;
+    private long anchorTime;
+    private double anchorLat;
+    private double anchorLng;
+    private double anchorNorthSpeed;  // m/s
+    private double anchorEastSpeed;   // m/s
+
+    private long received;
+    private long emitted;
+
+    public DeadReckoningSimplifier(double toleranceMeters, long maxSilenceMillis) {
+        this.toleranceMeters = toleranceMeters;
+        this.maxSilenceMillis = maxSilenceMillis;
+    }
+
+    @Override
+    public boolean process(LocationData fix) {
+        received++;
+        long t = fix.getTimestamp();
+        if (hasAnchor && t - anchorTime < maxSilenceMillis && t >= anchorTime
+                && predictionError(fix) <= toleranceMeters) {
+            return false;
+        }
+        anchor(fix);
+        emitted++;
+        return true;
+    }
+
+    /** Distance in metres between {@code fix} and the position predicted from the anchor. */
+    double predictionError(LocationData fix) {
+        double dt = (fix.getTimestamp() - anchorTime) / 1000.0;
+        double cosLat = Math.cos(Math.toRadians(anchorLat));
+        double north = (fix.getLatitude() - anchorLat) * METERS_PER_DEGREE - anchorNorthSpeed * dt;
+        double east = (fix.getLongitude() - anchorLng) * METERS_PER_DEGREE * cosLat - anchorEastSpeed * dt;
+        return Math.sqrt(north * north + east * east);
+    }
+
+    private void anchor(LocationData fix) {
+        hasAnchor = true;
+        anchorTime = fix.getTimestamp();
+        anchorLat = fix.getLatitude();
+        anchorLng = fix.getLongitude();
+        double speed = fix.getSpeed();
+        if (Double.isNaN(speed) || Double.isNaN(fix.getBearing()) || speed <= 0) {
+            anchorNorthSpeed = 0;
+            anchorEastSpeed = 0;
+        } else {
+            double bearing = Math.toRadians(fix.getBearing());
+            anchorNorthSpeed = speed * Math.cos(bearing);
+            anchorEastSpeed = speed * Math.sin(bearing);
+        }
+    }
+
+    /** Forgets the anchor, e.g. after a gap in the stream. The next fix is always emitted. */
+    public void reset() {
+        hasAnchor = false;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getEmitted() {
+        return emitted;
+    }
+
+    /** Fixes received per fix emitted, 1.0 means nothing was dropped. */
+    public double getCompressionRatio() {
+        return emitted == 0 ? 1.0 : (double) received / emitted;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.models.LocationData;
+
+/**
+ * Constant-velocity Kalman filter over the fix stream.
+ *
+ * The state is position and velocity, east and north, in a local tangent
+ * plane around the current estimate. Each position is weighted by its
+ * reported accuracy (used as the standard deviation), and a reported speed
+ * and bearing are fused as a velocity measurement. Fixes whose innovation is
+ * implausible given the current uncertainty are treated as outliers and
+ * dropped; if several in a row disagree the filter assumes it is the one that
+ * is wrong and restarts from the latest fix.
+ *
+ * Forwarded fixes carry the filtered position, speed and bearing, with the
+ * accuracy replaced by the filter's own position uncertainty.
+ *
+ * Both axes see the same measurement and process noise, so they share one
+ * covariance matrix. All state lives in primitive fields.
+ */
+public class KalmanSmoother implements LocationStage {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    // Acceleration noise spectral density in m^2/s^3, covers city driving and turns
+    static final double PROCESS_NOISE = 3.0;
+    // Doppler speed is good to well under 1 m/s, bearing less so at low speed
+    static final double VELOCITY_VARIANCE = 1.0;
+    static final double INITIAL_VELOCITY_VARIANCE = 100.0;
+    static final double MIN_ACCURACY = 1.0;
+    // Chi-square with 2 degrees of freedom at 99.9%
+    static final double OUTLIER_GATE = 13.8;
+    static final int MAX_CONSECUTIVE_OUTLIERS = 5;
+    // After a gap this long the old state says nothing useful about the next fix
+    static final long MAX_GAP_MILLIS = 60_000;
+    // Below this the filtered bearing is noise and the reported one is kept
+    static final double MIN_SPEED_FOR_BEARING = 0.5;
+
+    private boolean initialized;
+    private long time;
+    private double lat;
+    private double lng;
+    private double vEast;
+    private double vNorth;
+    // Covariance of (position, velocity), identical for the east and north axes
+    private double pPos;
+    private double pPosVel;
+    private double pVel;
+
+    private int consecutiveOutliers;
+    private long accepted;
+    private long rejected;
+    private long restarts;
+
+    @Override
+    public boolean process(LocationData fix) {
+        long t = fix.getTimestamp();
+        double accuracy = Math.max(MIN_ACCURACY, fix.getAccuracy());
+        if (!initialized || t < time || t - time > MAX_GAP_MILLIS) {
+            restart(fix, accuracy);
+            write(fix);
+            return true;
+        }
+
+        predict((t - time) / 1000.0);
+        time = t;
+
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double east = (fix.getLongitude() - lng) * METERS_PER_DEGREE * cosLat;
+        double north = (fix.getLatitude() - lat) * METERS_PER_DEGREE;
+        double s = pPos + accuracy * accuracy;
+        if ((east * east + north * north) / s > OUTLIER_GATE) {
+            if (++consecutiveOutliers < MAX_CONSECUTIVE_OUTLIERS) {
+                rejected++;
+                return false;
+            }
+            restarts++;
+            restart(fix, accuracy);
+            write(fix);
+            return true;
+        }
+        consecutiveOutliers = 0;
+
+        // Position update
+        double kPos = pPos / s;
+        double kVel = pPosVel / s;
+        lat += kPos * north / METERS_PER_DEGREE;
+        lng += kPos * east / (METERS_PER_DEGREE * cosLat);
+        vEast += kVel * east;
+        vNorth += kVel * north;
+        double p00 = pPos;
+        double p01 = pPosVel;
+        pPos = p00 - kPos * p00;
+        pPosVel = p01 - kPos * p01;
+        pVel = pVel - kVel * p01;
+
+        if (hasVelocity(fix)) {
+            double bearing = Math.toRadians(fix.getBearing());
+            double dEast = fix.getSpeed() * Math.sin(bearing) - vEast;
+            double dNorth = fix.getSpeed() * Math.cos(bearing) - vNorth;
+            s = pVel + VELOCITY_VARIANCE;
+            kPos = pPosVel / s;
+            kVel = pVel / s;
+            lat += kPos * dNorth / METERS_PER_DEGREE;
+            lng += kPos * dEast / (METERS_PER_DEGREE * cosLat);
+            vEast += kVel * dEast;
+            vNorth += kVel * dNorth;
+            p00 = pPos;
+            p01 = pPosVel;
+            double p11 = pVel;
+            pPos = p00 - kPos * p01;
+            pPosVel = p01 - kPos * p11;
+            pVel = p11 - kVel * p11;
+        }
+
+        accepted++;
+        write(fix);
+        return true;
+    }
+
+    private void predict(double dt) {
+        if (dt <= 0) {
+            return;
+        }
+        lat += vNorth * dt / METERS_PER_DEGREE;
+        lng += vEast * dt / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+        // F P F^T + Q for white-noise acceleration
+        double dt2 = dt * dt;
+        pPos += 2 * dt * pPosVel + dt2 * pVel + PROCESS_NOISE * dt2 * dt / 3;
+        pPosVel += dt * pVel + PROCESS_NOISE * dt2 / 2;
+        pVel += PROCESS_NOISE * dt;
+    }
+
+    private void restart(LocationData fix, double accuracy) {
+        initialized = true;
+        consecutiveOutliers = 0;
+        time = fix.getTimestamp();
+        lat = fix.getLatitude();
+        lng = fix.getLongitude();
+        pPos = accuracy * accuracy;
+        pPosVel = 0;
+        if (hasVelocity(fix)) {
+            double bearing = Math.toRadians(fix.getBearing());
+            vEast = fix.getSpeed() * Math.sin(bearing);
+            vNorth = fix.getSpeed() * Math.cos(bearing);
+            pVel = VELOCITY_VARIANCE;
+        } else {
+            vEast = 0;
+            vNorth = 0;
+            pVel = INITIAL_VELOCITY_VARIANCE;
+        }
+        accepted++;
+    }
+
+    private static boolean hasVelocity(LocationData fix) {
+        // Speed and bearing are NaN when the location client didn't report them; a speed of 0 has no bearing either
+        return fix.getSpeed() > 0 && !Double.isNaN(fix.getBearing());
+    }
+
+    private void write(LocationData fix) {
+        fix.setLatitude(lat);
+        fix.setLongitude(lng);
+        fix.setAccuracy(Math.sqrt(pPos));
+        double speed = Math.sqrt(vEast * vEast + vNorth * vNorth);
+        fix.setSpeed(speed);
+        if (speed >= MIN_SPEED_FOR_BEARING) {
+            double bearing = Math.toDegrees(Math.atan2(vEast, vNorth));
+            fix.setBearing(bearing < 0 ? bearing + 360 : bearing);
+        }
+    }
+
+    /** Forgets the state; the next fix is taken as is. */
+    public void reset() {
+        initialized = false;
+        consecutiveOutliers = 0;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /** Times the filter gave up on its state after a run of outliers. */
+    public long getRestarts() {
+        return restarts;
+    }
+}
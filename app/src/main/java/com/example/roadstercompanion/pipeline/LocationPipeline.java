@@ -0,0 +1,165 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.diagnostics.DiagnosticLog;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+import com.example.roadstercompanion.models.LocationData;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Owns the path from the fused location callback to the sender on one
+ * dedicated worker thread: sampling policy, filter stages and the hand-off to
+ * the {@link Sink}. The location client delivers its callbacks straight onto
+ * {@link #executor()}, so none of this runs on the main thread.
+ *
+ * {@link #process} must be called on the worker thread. Listener callbacks are
+ * made there too; status updates are throttled to one per
+ * {@link #STATUS_INTERVAL_MILLIS}.
+ */
+public class LocationPipeline {
+
+    public interface Sink {
+        /** Takes a fix that made it through every stage. {@code fix} is reused afterwards. */
+        void send(LocationData fix);
+    }
+
+    public interface Listener {
+        void onSamplingModeChanged(SamplingMode mode);
+
+        void onStatus(Status status);
+    }
+
+    /** Snapshot of the pipeline's progress. */
+    public static final class Status {
+        public final long received;
+        public final long forwarded;
+        public final SamplingMode mode;
+        public final double latitude;
+        public final double longitude;
+
+        Status(long received, long forwarded, SamplingMode mode, double latitude, double longitude) {
+            this.received = received;
+            this.forwarded = forwarded;
+            this.mode = mode;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    static final long STATUS_INTERVAL_MILLIS = 5000;
+
+    private final AdaptiveSamplingPolicy samplingPolicy;
+    private final LocationStage[] stages;
+    private final Sink sink;
+    private final Listener listener;
+    private final DiagnosticLog diagnostics;
+    private final PipelineMetrics metrics;
+    private final ExecutorService worker;
+    private volatile Thread workerThread;
+
+    // Only touched on the worker thread
+    private final LocationData fix = new LocationData();
+    private long received;
+    private long forwarded;
+    private boolean statusSent;
+    private long lastStatusNanos;
+
+    public LocationPipeline(String userId, AdaptiveSamplingPolicy samplingPolicy, LocationStage[] stages,
+                            Sink sink, Listener listener, DiagnosticLog diagnostics, PipelineMetrics metrics) {
+        this.samplingPolicy = samplingPolicy;
+        this.stages = stages.clone();
+        this.sink = sink;
+        this.listener = listener;
+        this.diagnostics = diagnostics;
+        this.metrics = metrics;
+        this.fix.setUserId(userId);
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "location-pipeline");
+            thread.setDaemon(true);
+            workerThread = thread;
+            return thread;
+        });
+    }
+
+    /** Executor to deliver location callbacks on. */
+    public Executor executor() {
+        return worker;
+    }
+
+    /**
+     * Runs one fix through the pipeline. Speed and bearing may be {@code NaN}
+     * if the provider didn't report them.
+     */
+    public void process(long timeMillis, double latitude, double longitude, double accuracy,
+                        double speed, double bearing) {
+        if (Thread.currentThread() != workerThread) {
+            throw new IllegalStateException("Location pipeline called from " + Thread.currentThread().getName());
+        }
+        received++;
+        metrics.fixesReceived.increment();
+        metrics.fixAgeMillis.record(Math.max(0, System.currentTimeMillis() - timeMillis));
+        if (samplingPolicy.observe(timeMillis, latitude, longitude, accuracy, speed, bearing)) {
+            diagnostics.always("Sampling mode " + samplingPolicy.getMode()
+                    + " (speed " + samplingPolicy.getSpeed() + " m/s)");
+            listener.onSamplingModeChanged(samplingPolicy.getMode());
+        }
+
+        fix.setTimestamp(timeMillis);
+        fix.setLatitude(latitude);
+        fix.setLongitude(longitude);
+        fix.setAccuracy(accuracy);
+        // NaN while unknown; the stages check for it and the wire writers send it as 0
+        fix.setSpeed(speed);
+        fix.setBearing(bearing);
+
+        boolean passed = true;
+        for (LocationStage stage : stages) {
+            if (!stage.process(fix)) {
+                passed = false;
+                break;
+            }
+        }
+        if (passed) {
+            forwarded++;
+            sink.send(fix);
+        } else {
+            metrics.fixesFiltered.increment();
+        }
+
+        if (diagnostics.isLoggable()) {
+            diagnostics.log("Fix " + latitude + ", " + longitude + " ±" + accuracy + " m "
+                    + (passed ? "sent" : "dropped") + ", " + forwarded + " of " + received + " sent");
+        }
+        maybeReportStatus(passed ? fix.getLatitude() : latitude, passed ? fix.getLongitude() : longitude);
+    }
+
+    private void maybeReportStatus(double latitude, double longitude) {
+        long now = System.nanoTime();
+        if (statusSent && now - lastStatusNanos < STATUS_INTERVAL_MILLIS * 1_000_000L) {
+            return;
+        }
+        statusSent = true;
+        lastStatusNanos = now;
+        listener.onStatus(new Status(received, forwarded, samplingPolicy.getMode(), latitude, longitude));
+    }
+
+    public SamplingMode getSamplingMode() {
+        return samplingPolicy.getMode();
+    }
+
+    /**
+     * Stops the worker once queued fixes are processed, running {@code then}
+     * on it as the last task, e.g. to close the sender and journal.
+     */
+    public void shutdown(Runnable then) {
+        try {
+            worker.execute(then);
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+        worker.shutdown();
+    }
+}
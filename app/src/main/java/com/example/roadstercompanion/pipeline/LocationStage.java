@@ -0,0 +1,14 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.models.LocationData;
+
+/**
+ * One step between the fused location callback and {@code LocationSender}.
+ * Stages may rewrite the fix in place and should not allocate per fix; the
+ * same {@link LocationData} instance is reused for every fix.
+ */
+public interface LocationStage {
+
+    /** Processes {@code fix}; returns false to drop it from the pipeline. */
+    boolean process(LocationData fix);
+}
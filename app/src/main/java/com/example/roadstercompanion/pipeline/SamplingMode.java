@@ -0,0 +1,27 @@
+package com.example.roadstercompanion.pipeline;
+
+/**
+ * Location request settings picked by {@link AdaptiveSamplingPolicy}.
+ * {@code highAccuracy} maps to the fused provider's high accuracy priority,
+ * otherwise balanced power (Wi-Fi / cell) is enough.
+ */
+public enum SamplingMode {
+    /** Parked or stuck in traffic that isn't moving: occasional low-power fixes. */
+    STATIONARY(false, 60_000, 30_000, 120_000),
+    /** Normal driving. */
+    CRUISE(true, 10_000, 5_000, 30_000),
+    /** Turning or driving fast, where sparse fixes would cut corners off the track. */
+    DENSE(true, 2_000, 1_000, 10_000);
+
+    public final boolean highAccuracy;
+    public final long intervalMillis;
+    public final long minIntervalMillis;
+    public final long maxUpdateDelayMillis;
+
+    SamplingMode(boolean highAccuracy, long intervalMillis, long minIntervalMillis, long maxUpdateDelayMillis) {
+        this.highAccuracy = highAccuracy;
+        this.intervalMillis = intervalMillis;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxUpdateDelayMillis = maxUpdateDelayMillis;
+    }
+}
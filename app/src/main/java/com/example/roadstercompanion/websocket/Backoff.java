@@ -0,0 +1,44 @@
+package com.example.roadstercompanion.websocket;
+
+import java.util.Random;
+
+/**
+ * Exponential reconnect backoff with jitter. The ceiling doubles from
+ * {@code baseMillis} up to {@code maxMillis} with every failed attempt and the
+ * delay is drawn from the upper half of it, so a fleet of phones that lost
+ * the server at the same time doesn't come back in lockstep. There is no
+ * attempt limit; {@link #reset()} after a successful connection.
+ */
+public final class Backoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final Random random;
+    private int attempts;
+
+    public Backoff(long baseMillis, long maxMillis, Random random) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("Bad backoff range: " + baseMillis + ".." + maxMillis);
+        }
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /** Delay before the next attempt. */
+    public synchronized long nextDelayMillis() {
+        // Shift capped well before overflow; the ceiling hits maxMillis long before that anyway
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempts, 30));
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    public synchronized int attempts() {
+        return attempts;
+    }
+
+    public synchronized void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.ACCURACY_SCALE;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.BEARING_SCALE;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.FLAG_DECLARES_USER;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.FLAG_TRACED;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.MAX_RECORD_BYTES;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.SPEED_SCALE;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.VERSION;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.quantize;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.toFixed;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.varintSize;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.writeVarint;
+import static com.example.roadstercompanion.websocket.BinaryLocationCodec.zigZag;
+
+/**
+ * Writes a batch in the {@link BinaryLocationCodec} format. The user id is
+ * sent once per session; after {@link #startSession()} the next batch that
+ * reaches the socket declares it, later batches only carry the token.
+ *
+ * Whether a batch declares the user is settled when it is reset, so its size
+ * and its bytes agree, and checked again by {@link #beforeSend()} in case a
+ * session started while it was filled. Sessions are numbered, so a batch of
+ * an earlier session reported by {@link #onSent()} can't stand for a newer one.
+ *
+ * Enqueue times are only written after {@link #setTraced(boolean)}, since
+ * servers that predate them reject the flag. The setting takes effect from
+ * the next batch.
+ */
+public class BinaryBatchWriter implements LocationBatchWriter {
+
+    private final int token;
+    // Bumped on the WebSocket thread, read by the drain thread
+    private final AtomicInteger session = new AtomicInteger();
+    // The session whose server has been sent the user id, -1 for none
+    private volatile int declaredSession = -1;
+    // The session the batch being built is for, and whether it declares the user there
+    private int batchSession;
+    private boolean declareUser = true;
+    private volatile boolean traceRequested;
+    private boolean traced;
+    private String userId;
+    private byte[] userIdBytes = new byte[0];
+
+    private byte[] records = new byte[512];
+    private int recordsLength;
+    private int count;
+
+    private final byte[] staged = new byte[MAX_RECORD_BYTES];
+    private int stagedLength;
+    private long stagedLat;
+    private long stagedLng;
+    private long stagedTime;
+
+    private long prevLat;
+    private long prevLng;
+    private long prevTime;
+
+    public BinaryBatchWriter(int token) {
+        this.token = token;
+    }
+
+    /** A new STOMP session started: the server no longer knows our token. */
+    public void startSession() {
+        session.incrementAndGet();
+    }
+
+    /** Whether to send enqueue times, from the next batch on. */
+    public void setTraced(boolean traced) {
+        traceRequested = traced;
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.BINARY;
+    }
+
+    @Override
+    public int stage(LocationData fix) {
+        if (count == 0 && fix.getUserId() != null && !fix.getUserId().equals(userId)) {
+            userId = fix.getUserId();
+            userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+        }
+        stagedLat = toFixed(fix.getLatitude());
+        stagedLng = toFixed(fix.getLongitude());
+        stagedTime = fix.getTimestamp();
+
+        int pos = 0;
+        pos = writeVarint(staged, pos, zigZag(stagedLat - prevLat));
+        pos = writeVarint(staged, pos, zigZag(stagedLng - prevLng));
+        pos = writeVarint(staged, pos, zigZag(stagedTime - prevTime));
+        pos = writeVarint(staged, pos, quantize(fix.getSpeed(), SPEED_SCALE));
+        pos = writeVarint(staged, pos, quantize(fix.getBearing(), BEARING_SCALE));
+        pos = writeVarint(staged, pos, quantize(fix.getAccuracy(), ACCURACY_SCALE));
+        if (traced) {
+            pos = writeVarint(staged, pos, zigZag(fix.getEnqueuedAt() - stagedTime));
+        }
+        stagedLength = pos;
+
+        return stagedLength + headerSize(count + 1) - headerSize(count);
+    }
+
+    @Override
+    public void commit() {
+        if (recordsLength + stagedLength > records.length) {
+            records = Arrays.copyOf(records, Math.max(records.length * 2, recordsLength + stagedLength));
+        }
+        System.arraycopy(staged, 0, records, recordsLength, stagedLength);
+        recordsLength += stagedLength;
+        count++;
+        prevLat = stagedLat;
+        prevLng = stagedLng;
+        prevTime = stagedTime;
+        stagedLength = 0;
+    }
+
+    @Override
+    public int byteSize() {
+        return headerSize(count) + recordsLength;
+    }
+
+    private int headerSize(int recordCount) {
+        int size = 1 + varintSize(token) + varintSize(recordCount);
+        if (declareUser) {
+            size += varintSize(userIdBytes.length) + userIdBytes.length;
+        }
+        return size;
+    }
+
+    @Override
+    public void beforeSend() {
+        int current = session.get();
+        if (current != batchSession) {
+            batchSession = current;
+            declareUser = declaredSession != current;
+        }
+    }
+
+    @Override
+    public void writeTo(ByteBuffer out) {
+        out.put((byte) (VERSION | (declareUser ? FLAG_DECLARES_USER : 0) | (traced ? FLAG_TRACED : 0)));
+        putVarint(out, token);
+        if (declareUser) {
+            putVarint(out, userIdBytes.length);
+            out.put(userIdBytes);
+        }
+        putVarint(out, count);
+        out.put(records, 0, recordsLength);
+    }
+
+    private void putVarint(ByteBuffer out, long v) {
+        int length = writeVarint(staged, 0, v);
+        out.put(staged, 0, length);
+    }
+
+    @Override
+    public void reset() {
+        recordsLength = 0;
+        count = 0;
+        stagedLength = 0;
+        prevLat = 0;
+        prevLng = 0;
+        prevTime = 0;
+        traced = traceRequested;
+        batchSession = session.get();
+        declareUser = declaredSession != batchSession;
+    }
+
+    @Override
+    public void onSent() {
+        if (declareUser) {
+            declaredSession = batchSession;
+        }
+    }
+}
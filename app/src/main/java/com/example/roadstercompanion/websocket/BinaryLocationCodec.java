@@ -0,0 +1,154 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a location batch ({@code application/x-roadster-location}).
+ *
+ * <pre>
+ * u8    version in the low six bits; 0x80 set if the user id follows,
+ *       0x40 set if the records carry enqueue times
+ * uvar  user token, bound to a user id once per STOMP session
+ * [uvar length, utf-8 user id]   only in the first batch of a session
+ * uvar  record count
+ * per record, each field a delta against the previous record of the batch:
+ *   svar latitude    (1e-7 degrees)
+ *   svar longitude   (1e-7 degrees)
+ *   svar timestamp   (milliseconds)
+ *   uvar speed       (0.1 m/s)
+ *   uvar bearing     (0.1 degrees)
+ *   uvar accuracy    (0.1 m)
+ *   svar enqueued    (milliseconds after the fix's timestamp, only with 0x40)
+ * </pre>
+ *
+ * uvar is an unsigned LEB128 varint and svar its zig-zag signed form. Speed,
+ * bearing and accuracy are absolute values, not deltas. Deltas restart in
+ * every batch so each frame can be decoded on its own.
+ */
+public final class BinaryLocationCodec {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_DECLARES_USER = 0x80;
+    public static final int FLAG_TRACED = 0x40;
+    static final int VERSION_MASK = 0x3F;
+
+    static final double COORD_SCALE = 1e7;
+    static final double SPEED_SCALE = 10;
+    static final double BEARING_SCALE = 10;
+    static final double ACCURACY_SCALE = 10;
+
+    /** Worst-case size of one encoded record: four 10-byte and three 5-byte varints. */
+    static final int MAX_RECORD_BYTES = 55;
+
+    private BinaryLocationCodec() {
+    }
+
+    static long toFixed(double degrees) {
+        return Math.round(degrees * COORD_SCALE);
+    }
+
+    static long quantize(double value, double scale) {
+        return value <= 0 ? 0 : Math.round(value * scale);
+    }
+
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Writes {@code v} as an unsigned varint at {@code pos} and returns the position after it. */
+    static int writeVarint(byte[] buf, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    static int varintSize(long v) {
+        int size = 1;
+        while ((v & ~0x7FL) != 0) {
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Decodes a batch body. The user id is taken from the body if the batch
+     * declares it, otherwise {@code userId} is used.
+     */
+    public static List<LocationData> decode(byte[] body, String userId) {
+        Reader in = new Reader(body);
+        int header = in.readByte();
+        if ((header & VERSION_MASK) != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary location version " + (header & VERSION_MASK));
+        }
+        boolean traced = (header & FLAG_TRACED) != 0;
+        in.readVarint(); // token
+        if ((header & FLAG_DECLARES_USER) != 0) {
+            int length = (int) in.readVarint();
+            userId = new String(body, in.pos, length, StandardCharsets.UTF_8);
+            in.pos += length;
+        }
+        int count = (int) in.readVarint();
+        List<LocationData> fixes = new ArrayList<>(count);
+        long lat = 0;
+        long lng = 0;
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            lat += unZigZag(in.readVarint());
+            lng += unZigZag(in.readVarint());
+            time += unZigZag(in.readVarint());
+            LocationData fix = new LocationData();
+            fix.setUserId(userId);
+            fix.setLatitude(lat / COORD_SCALE);
+            fix.setLongitude(lng / COORD_SCALE);
+            fix.setTimestamp(time);
+            fix.setSpeed(in.readVarint() / SPEED_SCALE);
+            fix.setBearing(in.readVarint() / BEARING_SCALE);
+            fix.setAccuracy(in.readVarint() / ACCURACY_SCALE);
+            if (traced) {
+                fix.setEnqueuedAt(time + unZigZag(in.readVarint()));
+            }
+            fixes.add(fix);
+        }
+        return fixes;
+    }
+
+    private static final class Reader {
+        final byte[] buf;
+        int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated binary location batch");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
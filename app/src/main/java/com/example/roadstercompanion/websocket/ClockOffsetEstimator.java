@@ -0,0 +1,81 @@
+package com.example.roadstercompanion.websocket;
+
+/**
+ * NTP-style estimate of how far the server's clock is ahead of ours, from
+ * timestamped round trips over the STOMP session. One exchange gives
+ * <pre>
+ * offset = ((t1 - t0) + (t2 - t3)) / 2
+ * delay  = (t3 - t0) - (t2 - t1)
+ * </pre>
+ * where t0 and t3 are our send and receive times and t1 and t2 the server's.
+ * A sample's offset is off by at most half its delay, so of the last few
+ * samples the one with the smallest delay is used, as NTP's clock filter does.
+ */
+public final class ClockOffsetEstimator {
+
+    private final long[] offsets;
+    private final long[] delays;
+    private int count;
+    private int next;
+
+    public ClockOffsetEstimator(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        offsets = new long[window];
+        delays = new long[window];
+    }
+
+    /**
+     * Adds one exchange. Returns false, ignoring it, if the times can't come
+     * from a real round trip.
+     */
+    public synchronized boolean addSample(long t0, long t1, long t2, long t3) {
+        if (t3 < t0 || t2 < t1) {
+            return false;
+        }
+        // Millisecond rounding can make a fast exchange look shorter than the server's hold time
+        long delay = Math.max(0, (t3 - t0) - (t2 - t1));
+        offsets[next] = Math.floorDiv((t1 - t0) + (t2 - t3), 2);
+        delays[next] = delay;
+        next = (next + 1) % offsets.length;
+        count = Math.min(count + 1, offsets.length);
+        return true;
+    }
+
+    private int best() {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (best < 0 || delays[i] < delays[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public synchronized boolean hasEstimate() {
+        return count > 0;
+    }
+
+    /** Server time minus our time, in milliseconds; 0 without samples. */
+    public synchronized long offsetMillis() {
+        int best = best();
+        return best < 0 ? 0 : offsets[best];
+    }
+
+    /** Round-trip delay of the sample the offset comes from; twice its error bound. -1 without samples. */
+    public synchronized long delayMillis() {
+        int best = best();
+        return best < 0 ? -1 : delays[best];
+    }
+
+    public synchronized int sampleCount() {
+        return count;
+    }
+
+    /** Forgets every sample, e.g. when connecting to a server that may be a different machine. */
+    public synchronized void reset() {
+        count = 0;
+        next = 0;
+    }
+}
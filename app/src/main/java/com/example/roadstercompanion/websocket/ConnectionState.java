@@ -0,0 +1,18 @@
+package com.example.roadstercompanion.websocket;
+
+/**
+ * Lifecycle of the sender's WebSocket/STOMP connection.
+ *
+ * DISCONNECTED -> CONNECTING -> OPEN -> STOMP_READY, and back to DISCONNECTED
+ * when the socket fails or closes. CLOSING is entered by
+ * {@link LocationSender#disconnect()} from any state and never left.
+ */
+public enum ConnectionState {
+    DISCONNECTED,
+    CONNECTING,
+    /** WebSocket is open, STOMP CONNECT sent but not yet acknowledged. */
+    OPEN,
+    /** STOMP session established; frames can be sent. */
+    STOMP_READY,
+    CLOSING
+}
@@ -0,0 +1,94 @@
+package com.example.roadstercompanion.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free holder for the {@link ConnectionState}, changed only by CAS.
+ *
+ * Every connection attempt gets a new generation number, packed into the
+ * same word as the state. Socket callbacks pass the generation of the socket
+ * they belong to, so a late {@code onClose} from an old socket can't tear
+ * down its replacement, and two threads racing to connect can't both win.
+ */
+final class ConnectionStateMachine {
+
+    private static final ConnectionState[] STATES = ConnectionState.values();
+    private static final int STATE_BITS = 3;
+    private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+    private final AtomicLong word = new AtomicLong(pack(0, ConnectionState.DISCONNECTED));
+
+    private static long pack(long generation, ConnectionState state) {
+        return generation << STATE_BITS | state.ordinal();
+    }
+
+    private static ConnectionState stateOf(long word) {
+        return STATES[(int) (word & STATE_MASK)];
+    }
+
+    private static long generationOf(long word) {
+        return word >>> STATE_BITS;
+    }
+
+    ConnectionState state() {
+        return stateOf(word.get());
+    }
+
+    long generation() {
+        return generationOf(word.get());
+    }
+
+    /**
+     * DISCONNECTED -> CONNECTING. Returns the generation of the new attempt,
+     * or -1 if another attempt is already under way, connected or closing.
+     */
+    long beginConnect() {
+        while (true) {
+            long current = word.get();
+            if (stateOf(current) != ConnectionState.DISCONNECTED) {
+                return -1;
+            }
+            long generation = generationOf(current) + 1;
+            if (word.compareAndSet(current, pack(generation, ConnectionState.CONNECTING))) {
+                return generation;
+            }
+        }
+    }
+
+    /** Moves attempt {@code generation} from {@code from} to {@code to}; false if it is no longer in {@code from}. */
+    boolean advance(long generation, ConnectionState from, ConnectionState to) {
+        return word.compareAndSet(pack(generation, from), pack(generation, to));
+    }
+
+    /**
+     * Marks attempt {@code generation} as failed or closed. Returns true only
+     * for the one caller that moved it to DISCONNECTED, which should then
+     * schedule the reconnect.
+     */
+    boolean lost(long generation) {
+        while (true) {
+            long current = word.get();
+            ConnectionState state = stateOf(current);
+            if (generationOf(current) != generation
+                    || state == ConnectionState.DISCONNECTED || state == ConnectionState.CLOSING) {
+                return false;
+            }
+            if (word.compareAndSet(current, pack(generation, ConnectionState.DISCONNECTED))) {
+                return true;
+            }
+        }
+    }
+
+    /** Enters CLOSING for good. Returns false if it was already closing. */
+    boolean close() {
+        while (true) {
+            long current = word.get();
+            if (stateOf(current) == ConnectionState.CLOSING) {
+                return false;
+            }
+            if (word.compareAndSet(current, pack(generationOf(current), ConnectionState.CLOSING))) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.roadstercompanion.websocket;
+
+/**
+ * Frames sent with a {@code receipt} header that the server hasn't
+ * acknowledged yet, oldest first, up to a fixed number of them.
+ *
+ * Receipts are cumulative: the server handles one session's frames in the
+ * order they arrive, so a RECEIPT for a frame also covers every frame sent
+ * before it, and a lost receipt is made up for by the next one.
+ */
+final class InFlightWindow {
+
+    /** Told the send time of each frame a receipt releases. */
+    interface Released {
+        void frame(long sentAtMillis);
+    }
+
+    private final long[] receiptIds;
+    private final long[] lastSeqs;
+    private final long[] sentAt;
+    private int first;
+    private int size;
+    private long nextReceiptId = 1;
+
+    InFlightWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        receiptIds = new long[capacity];
+        lastSeqs = new long[capacity];
+        sentAt = new long[capacity];
+    }
+
+    /**
+     * Records a frame about to be sent and returns its receipt id.
+     * {@code lastSeq} is the journal sequence of its last fix, or -1 for a
+     * frame that isn't journaled.
+     *
+     * @throws IllegalStateException if the window is full
+     */
+    synchronized long add(long lastSeq, long nowMillis) {
+        if (size == receiptIds.length) {
+            throw new IllegalStateException("In-flight window full");
+        }
+        int slot = (first + size) % receiptIds.length;
+        receiptIds[slot] = nextReceiptId++;
+        lastSeqs[slot] = lastSeq;
+        sentAt[slot] = nowMillis;
+        size++;
+        return receiptIds[slot];
+    }
+
+    /** Takes back the newest frame, which couldn't be written after all. */
+    synchronized void abandon(long receiptId) {
+        int newest = (first + size - 1) % receiptIds.length;
+        if (size > 0 && receiptIds[newest] == receiptId) {
+            size--;
+        }
+    }
+
+    /**
+     * Releases the frame with this receipt id and every frame before it.
+     * Returns the highest journal sequence they carried, or -1 if none did or
+     * the id isn't in the window (a stale or repeated receipt).
+     *
+     * @param released receives the send time of each released frame, may be null
+     */
+    synchronized long acknowledge(long receiptId, Released released) {
+        if (size == 0 || receiptId < receiptIds[first] || receiptId >= nextReceiptId) {
+            return -1;
+        }
+        long lastSeq = -1;
+        while (size > 0 && receiptIds[first] <= receiptId) {
+            lastSeq = Math.max(lastSeq, lastSeqs[first]);
+            if (released != null) {
+                released.frame(sentAt[first]);
+            }
+            first = (first + 1) % receiptIds.length;
+            size--;
+        }
+        return lastSeq;
+    }
+
+    /** Releases every frame; see {@link #acknowledge}. */
+    synchronized long acknowledgeAll() {
+        return size == 0 ? -1 : acknowledge(nextReceiptId - 1, null);
+    }
+
+    /** Forgets every frame, e.g. when the session that carried them is gone. */
+    synchronized void clear() {
+        first = 0;
+        size = 0;
+    }
+
+    /** Send time of the oldest unacknowledged frame, or -1 if there is none. */
+    synchronized long oldestSentAt() {
+        return size == 0 ? -1 : sentAt[first];
+    }
+
+    synchronized boolean isFull() {
+        return size == receiptIds.length;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    int capacity() {
+        return receiptIds.length;
+    }
+}
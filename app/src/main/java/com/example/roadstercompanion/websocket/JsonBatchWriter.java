@@ -0,0 +1,78 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a batch as a JSON array of location objects. Elements are written
+ * straight into a reusable buffer; a staged element that is not committed is
+ * simply overwritten by the next one.
+ */
+public class JsonBatchWriter implements LocationBatchWriter {
+
+    private final LocationJsonWriter jsonWriter = new LocationJsonWriter();
+    private ByteBuffer body = ByteBuffer.allocate(1024);
+    private int committed;
+    private int stagedLength;
+    private int count;
+
+    public JsonBatchWriter() {
+        start();
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.JSON;
+    }
+
+    @Override
+    public int stage(LocationData fix) {
+        ensure(committed + 1 + LocationJsonWriter.maxSize(fix.getUserId()));
+        body.position(committed);
+        if (count > 0) {
+            body.put((byte) ',');
+        }
+        jsonWriter.write(body, fix);
+        stagedLength = body.position() - committed;
+        return stagedLength;
+    }
+
+    @Override
+    public void commit() {
+        committed += stagedLength;
+        stagedLength = 0;
+        count++;
+    }
+
+    @Override
+    public int byteSize() {
+        return committed + 1; // closing ']'
+    }
+
+    @Override
+    public void writeTo(ByteBuffer out) {
+        out.put(body.array(), 0, committed);
+        out.put((byte) ']');
+    }
+
+    @Override
+    public void reset() {
+        start();
+    }
+
+    private void start() {
+        body.put(0, (byte) '[');
+        committed = 1;
+        stagedLength = 0;
+        count = 0;
+    }
+
+    private void ensure(int capacity) {
+        if (body.capacity() < capacity) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(body.capacity() * 2, capacity));
+            grown.put(body.array(), 0, committed);
+            body = grown;
+        }
+    }
+}
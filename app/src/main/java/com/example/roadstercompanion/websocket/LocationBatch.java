@@ -0,0 +1,137 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects fixes so a whole batch travels in a single STOMP SEND frame. The
+ * batch is flushed when it reaches {@code maxCount} fixes, when the next fix
+ * would push the body past {@code maxBytes}, or when its oldest fix is
+ * {@code maxAgeMillis} old. The body encoding is up to the {@link LocationBatchWriter}.
+ */
+public class LocationBatch {
+
+    private final LocationBatchWriter writer;
+    private final int maxCount;
+    private final int maxBytes;
+    private final long maxAgeMillis;
+
+    private final long[] timestamps;
+    private final long[] enqueuedAt;
+    private int count;
+    private boolean full;
+    private long oldestTimestamp;
+
+    public LocationBatch(LocationBatchWriter writer, int maxCount, int maxBytes, long maxAgeMillis) {
+        if (maxCount <= 0 || maxBytes <= 2) {
+            throw new IllegalArgumentException("Batch limits too small: " + maxCount + " fixes, " + maxBytes + " bytes");
+        }
+        this.writer = writer;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.timestamps = new long[maxCount];
+        this.enqueuedAt = new long[maxCount];
+        empty();
+    }
+
+    /**
+     * Adds a fix to the batch. Returns false, leaving the batch unchanged, if it
+     * is already full or the fix would not fit in the byte budget. A single fix
+     * is always accepted into an empty batch, even if it exceeds the budget.
+     */
+    public boolean add(LocationData fix) {
+        if (full) {
+            return false;
+        }
+        int elementBytes = writer.stage(fix);
+        if (count > 0 && writer.byteSize() + elementBytes > maxBytes) {
+            full = true;
+            return false;
+        }
+
+        writer.commit();
+        timestamps[count] = fix.getTimestamp();
+        enqueuedAt[count++] = fix.getEnqueuedAt();
+        oldestTimestamp = Math.min(oldestTimestamp, fix.getTimestamp());
+        if (count >= maxCount || writer.byteSize() >= maxBytes) {
+            full = true;
+        }
+        return true;
+    }
+
+    /** True once the count or byte limit has been reached. */
+    public boolean isFull() {
+        return full;
+    }
+
+    /** True if the oldest fix in the batch has waited at least {@code maxAgeMillis}. */
+    public boolean isDue(long nowMillis) {
+        return count > 0 && nowMillis >= deadline();
+    }
+
+    /** Time at which the batch should be flushed even if it is not full. */
+    public long deadline() {
+        return oldestTimestamp + maxAgeMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /** Timestamp of the {@code i}-th fix in the batch. */
+    public long timestampAt(int i) {
+        if (i >= count) {
+            throw new IndexOutOfBoundsException("Fix " + i + " of " + count);
+        }
+        return timestamps[i];
+    }
+
+    /** Enqueue time of the {@code i}-th fix in the batch, 0 if unknown. */
+    public long enqueuedAt(int i) {
+        if (i >= count) {
+            throw new IndexOutOfBoundsException("Fix " + i + " of " + count);
+        }
+        return enqueuedAt[i];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Size of the encoded body in bytes. */
+    public int byteSize() {
+        return writer.byteSize();
+    }
+
+    public WireFormat getFormat() {
+        return writer.getFormat();
+    }
+
+    public LocationBatchWriter getWriter() {
+        return writer;
+    }
+
+    /** Copies the encoded body into a new array; the send path writes it into the frame instead. */
+    public byte[] toBytes() {
+        ByteBuffer body = ByteBuffer.allocate(writer.byteSize());
+        writer.writeTo(body);
+        return body.array();
+    }
+
+    public void clear() {
+        empty();
+    }
+
+    private void empty() {
+        writer.reset();
+        count = 0;
+        full = false;
+        oldestTimestamp = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incrementally encodes the body of a batched SEND frame. Each fix is first
+ * staged so {@link LocationBatch} can check the byte budget before keeping it.
+ */
+public interface LocationBatchWriter {
+
+    WireFormat getFormat();
+
+    /** Encodes {@code fix} as the next element and returns how many bytes it would add to the body. */
+    int stage(LocationData fix);
+
+    /** Appends the element last passed to {@link #stage}. */
+    void commit();
+
+    /** Size of the finished body in bytes. */
+    int byteSize();
+
+    /** Writes the finished body at the buffer's position; {@link #byteSize} bytes must be remaining. */
+    void writeTo(ByteBuffer out);
+
+    void reset();
+
+    /**
+     * Called with the frame lock held right before {@link #byteSize} and
+     * {@link #writeTo} are used to send the body, for writers whose body
+     * depends on the connection.
+     */
+    default void beforeSend() {
+    }
+
+    /** Called after a body produced by this writer has been handed to the socket. */
+    default void onSent() {
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes location objects as UTF-8 JSON straight into a {@link ByteBuffer},
+ * without reflection or temporary strings. Field names match what Gson
+ * produces for {@link LocationData}. Coordinates are written with 7 decimals
+ * (about 1 cm) and accuracy, speed and bearing with 2. A fix's enqueue time
+ * is only written when it is known.
+ *
+ * Has no Android dependencies, so the backend and JVM tools can use it too.
+ * Not thread-safe: keep one instance per writing thread.
+ */
+public final class LocationJsonWriter {
+
+    private static final byte[] USER_ID = ascii("{\"userId\":");
+    private static final byte[] LATITUDE = ascii(",\"latitude\":");
+    private static final byte[] LONGITUDE = ascii(",\"longitude\":");
+    private static final byte[] ACCURACY = ascii(",\"accuracy\":");
+    private static final byte[] SPEED = ascii(",\"speed\":");
+    private static final byte[] BEARING = ascii(",\"bearing\":");
+    private static final byte[] TIMESTAMP = ascii(",\"timestamp\":");
+    private static final byte[] ENQUEUED_AT = ascii(",\"enqueuedAt\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private static final long[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000};
+
+    // Field names, punctuation and eight numbers of at most 21 characters each
+    private static final int FIXED_MAX_SIZE = 112 + 8 * 21;
+
+    private final byte[] digits = new byte[20];
+
+    /** Upper bound of the bytes {@link #write} produces for a user id. */
+    public static int maxSize(String userId) {
+        // Worst case every char is escaped as \\uXXXX
+        return FIXED_MAX_SIZE + (userId == null ? 4 : 2 + 6 * userId.length());
+    }
+
+    public void write(ByteBuffer out, LocationData fix) {
+        writeFields(out, fix.getUserId(), fix.getLatitude(), fix.getLongitude(), fix.getAccuracy(),
+                fix.getSpeed(), fix.getBearing(), fix.getTimestamp());
+        if (fix.getEnqueuedAt() != 0) {
+            out.put(ENQUEUED_AT);
+            writeLong(out, fix.getEnqueuedAt());
+        }
+        out.put((byte) '}');
+    }
+
+    /**
+     * Writes one location object at the buffer's position. The caller must make
+     * sure {@link #maxSize} bytes are remaining.
+     */
+    public void write(ByteBuffer out, String userId, double latitude, double longitude,
+                      double accuracy, double speed, double bearing, long timestamp) {
+        writeFields(out, userId, latitude, longitude, accuracy, speed, bearing, timestamp);
+        out.put((byte) '}');
+    }
+
+    private void writeFields(ByteBuffer out, String userId, double latitude, double longitude,
+                             double accuracy, double speed, double bearing, long timestamp) {
+        out.put(USER_ID);
+        writeString(out, userId);
+        out.put(LATITUDE);
+        writeFixed(out, latitude, 7);
+        out.put(LONGITUDE);
+        writeFixed(out, longitude, 7);
+        out.put(ACCURACY);
+        writeFixed(out, accuracy, 2);
+        out.put(SPEED);
+        writeFixed(out, speed, 2);
+        out.put(BEARING);
+        writeFixed(out, bearing, 2);
+        out.put(TIMESTAMP);
+        writeLong(out, timestamp);
+    }
+
+    private static void writeString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.put(NULL);
+            return;
+        }
+        out.put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                out.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18))).put((byte) (0x80 | ((cp >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((cp >> 6) & 0x3F))).put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        out.put((byte) '"');
+    }
+
+    // Fixed-point decimal; NaN and infinities have no JSON form and are written as 0
+    private void writeFixed(ByteBuffer out, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.put((byte) '0');
+            return;
+        }
+        long pow = POW10[decimals];
+        double scaled = Math.abs(value) * pow;
+        long units = scaled >= Long.MAX_VALUE ? Long.MAX_VALUE : Math.round(scaled);
+        if (value < 0 && units != 0) {
+            out.put((byte) '-');
+        }
+        writeLong(out, units / pow);
+        out.put((byte) '.');
+        long fraction = units % pow;
+        for (long p = pow / 10; p > 0; p /= 10) {
+            out.put((byte) ('0' + fraction / p));
+            fraction %= p;
+        }
+    }
+
+    private void writeLong(ByteBuffer out, long value) {
+        if (value == Long.MIN_VALUE) {
+            out.put(ascii(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            out.put(digits[--n]);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
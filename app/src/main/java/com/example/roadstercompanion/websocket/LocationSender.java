@@ -4,168 +4,807 @@ import android.util.Log;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.drafts.Draft_6455;
+import com.example.roadstercompanion.diagnostics.DiagnosticLog;
+import com.example.roadstercompanion.journal.BacklogUploader;
+import com.example.roadstercompanion.journal.HttpBacklogTransport;
+import com.example.roadstercompanion.journal.JournalDrainer;
+import com.example.roadstercompanion.journal.LocationJournal;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+import com.example.roadstercompanion.models.GeofenceEvent;
 import com.google.gson.Gson;
-import com.example.roadstercompanion.models.LocationData;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LocationSender {
     private static final String TAG = "LocationSender";
-    private WebSocketClient webSocketClient;
-    private Gson gson = new Gson();
+    private volatile WebSocketClient webSocketClient;
     private String serverUrl;
-    private boolean isConnected = false;
-    private boolean isConnecting = false;
+    private String userId;
+    // Written from the WebSocket, scheduler, pipeline and main threads; only changed by CAS
+    private final ConnectionStateMachine connection = new ConnectionStateMachine();
+    private final Backoff backoff;
     private ScheduledExecutorService reconnectScheduler;
-    private int reconnectAttempts = 0;
-    private static final int MAX_RECONNECT_ATTEMPTS = 5;
+    private ScheduledFuture<?> reconnectTimer;
 
-    public LocationSender(String serverUrl) {
+    // Reconnect delays grow from ~1 s to at most a minute and never give up
+    private static final long RECONNECT_BASE_MS = 1000;
+    private static final long RECONNECT_MAX_MS = 60_000;
+    // Detects a half-open socket (e.g. after a network switch) within ~30 s
+    private static final int CONNECTION_LOST_TIMEOUT_S = 15;
+
+    // Store-and-forward: every fix goes to the journal first and is replayed from there
+    private final LocationJournal journal;
+    private final JournalDrainer drainer;
+    private final ExecutorService drainExecutor;
+    private final AtomicBoolean drainPending = new AtomicBoolean(false);
+    private ScheduledFuture<?> flushTimer;
+    // Bulk catch-up over HTTP for long backlogs; live fixes keep going over the socket meanwhile
+    private final BacklogUploader uploader;
+    private final ExecutorService uploadExecutor;
+    private final AtomicBoolean catchingUp = new AtomicBoolean(false);
+    private final LocationBatchWriter batchWriter;
+    private final PipelineMetrics metrics;
+    private final ClockOffsetEstimator clock = new ClockOffsetEstimator(CLOCK_WINDOW);
+    private ScheduledFuture<?> clockTimer;
+    // Frames awaiting a RECEIPT; its lock also orders acknowledgements against rewinds of the drainer
+    private final InFlightWindow inFlight;
+    private final long receiptTimeoutMillis;
+    private ScheduledFuture<?> receiptTimer;
+    // Per session: whether any receipt came back, and whether we gave up waiting for them
+    private volatile boolean receiptsSeen;
+    private volatile boolean receiptsUnsupported;
+    // Encoded geofence events not written yet; its lock is taken before the encoder's
+    private final ArrayDeque<byte[]> pendingEvents = new ArrayDeque<>();
+    private final Gson gson = new Gson();
+
+    // Batch flush policy: one SEND frame carries up to 20 fixes / 8 KB, and no fix waits more than 5 s
+    private static final int BATCH_MAX_FIXES = 20;
+    private static final int BATCH_MAX_BYTES = 8 * 1024;
+    private static final long BATCH_MAX_AGE_MS = 5000;
+
+    // Ten minutes of 1 Hz fixes; shorter backlogs replay over the socket in a few seconds anyway
+    private static final int CATCH_UP_MIN_FIXES = 600;
+    // About half an hour per request, roughly 30 KB before compression
+    private static final int CATCH_UP_CHUNK_FIXES = 2000;
+
+    // Unacknowledged frames before fixes wait in the journal; 8 full batches is under 3 minutes of 1 Hz fixes
+    public static final int DEFAULT_MAX_FRAMES_IN_FLIGHT = 8;
+    // A session that leaves a frame unacknowledged this long is replaced, and its frames sent again
+    private static final long RECEIPT_TIMEOUT_MS = 30_000;
+
+    // The user's binary token; there is only one user per sender
+    private static final int USER_TOKEN = 1;
+
+    private static final String LOCATION_DESTINATION = "/app/location";
+
+    // Geofence transitions go out as small JSON frames of their own; events aren't journaled,
+    // up to this many wait in memory while offline and the oldest are dropped beyond that
+    private static final String GEOFENCE_DESTINATION = "/app/geofence";
+    private static final int MAX_PENDING_EVENTS = 64;
+
+    // Clock-offset exchange: we stamp t0 on a SEND to /app/clock, the server answers with t1 and t2
+    private static final String CLOCK_DESTINATION = "/app/clock";
+    private static final String CLOCK_REPLIES = "/user/queue/clock";
+    private static final String CLOCK_SUBSCRIPTION = "sub-clock";
+    private static final int CLOCK_WINDOW = 8;
+    // A quick burst after connecting for a first estimate, then one exchange a minute to follow drift
+    private static final int CLOCK_BURST_PINGS = 4;
+    private static final long CLOCK_BURST_INTERVAL_MS = 2000;
+    private static final long CLOCK_SYNC_INTERVAL_MS = 60_000;
+
+    // Outgoing frames are encoded into one reused buffer, guarded by its own lock
+    private final StompFrameEncoder frameEncoder = new StompFrameEncoder(BATCH_MAX_BYTES + 256);
+    private final LocationJsonWriter jsonWriter = new LocationJsonWriter();
+    // Incoming frames are only decoded on the WebSocket read thread
+    private final StompFrameDecoder frameDecoder = new StompFrameDecoder();
+
+    // Per-fix and per-batch messages are limited to one every 10 s
+    private final DiagnosticLog diagnostics = new DiagnosticLog(TAG, 10_000, Log::d);
+
+    /**
+     * @param journal    outbound journal to queue fixes in, or null to send directly
+     *                   and drop fixes while disconnected
+     * @param wireFormat body encoding for batched fixes
+     * @param metrics    where sent fixes, frames and reconnects are counted
+     */
+    public LocationSender(String serverUrl, String userId, LocationJournal journal, WireFormat wireFormat,
+                          PipelineMetrics metrics) {
+        this(serverUrl, userId, journal, wireFormat, metrics, DEFAULT_MAX_FRAMES_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxFramesInFlight frames sent without a receipt yet before sending
+     *                          pauses and {@link #isCongested()} turns true
+     */
+    public LocationSender(String serverUrl, String userId, LocationJournal journal, WireFormat wireFormat,
+                          PipelineMetrics metrics, int maxFramesInFlight) {
+        this(serverUrl, userId, journal, wireFormat, metrics,
+                new Backoff(RECONNECT_BASE_MS, RECONNECT_MAX_MS, new Random()),
+                journal != null ? HttpBacklogTransport.forWebSocketUrl(serverUrl, userId) : null,
+                maxFramesInFlight, RECEIPT_TIMEOUT_MS);
+    }
+
+    LocationSender(String serverUrl, String userId, LocationJournal journal, WireFormat wireFormat,
+                   PipelineMetrics metrics, Backoff backoff) {
+        this(serverUrl, userId, journal, wireFormat, metrics, backoff,
+                journal != null ? HttpBacklogTransport.forWebSocketUrl(serverUrl, userId) : null);
+    }
+
+    LocationSender(String serverUrl, String userId, LocationJournal journal, WireFormat wireFormat,
+                   PipelineMetrics metrics, Backoff backoff, BacklogUploader.Transport backlogTransport) {
+        this(serverUrl, userId, journal, wireFormat, metrics, backoff, backlogTransport,
+                DEFAULT_MAX_FRAMES_IN_FLIGHT, RECEIPT_TIMEOUT_MS);
+    }
+
+    LocationSender(String serverUrl, String userId, LocationJournal journal, WireFormat wireFormat,
+                   PipelineMetrics metrics, Backoff backoff, BacklogUploader.Transport backlogTransport,
+                   int maxFramesInFlight, long receiptTimeoutMillis) {
         this.serverUrl = serverUrl;
+        this.backoff = backoff;
+        this.metrics = metrics;
+        this.inFlight = new InFlightWindow(maxFramesInFlight);
+        this.receiptTimeoutMillis = receiptTimeoutMillis;
+        metrics.registry().gauge("send.in_flight", inFlight::size);
+        if (journal != null) {
+            metrics.registry().gauge("journal.backlog", journal::size);
+            metrics.registry().gauge("journal.evicted", journal::evictedCount);
+        }
+        metrics.registry().gauge("clock.offset_ms", clock::offsetMillis);
+        metrics.registry().gauge("clock.error_ms", () -> {
+            long delay = clock.delayMillis();
+            return delay < 0 ? -1 : (delay + 1) / 2;
+        });
+        this.userId = userId;
+        this.journal = journal;
         this.reconnectScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.drainExecutor = Executors.newSingleThreadExecutor();
+        this.batchWriter = wireFormat == WireFormat.BINARY ? new BinaryBatchWriter(USER_TOKEN) : new JsonBatchWriter();
+        LocationBatch batch = new LocationBatch(batchWriter, BATCH_MAX_FIXES, BATCH_MAX_BYTES, BATCH_MAX_AGE_MS);
+        this.drainer = journal != null ? new JournalDrainer(journal, batch, userId, new JournalDrainer.Sink() {
+            @Override
+            public boolean isReady() {
+                return isConnected() && !inFlight.isFull();
+            }
+
+            @Override
+            public boolean send(LocationBatch batch, long firstSeq) {
+                return sendBatch(batch, firstSeq);
+            }
+        }) : null;
+        this.uploader = journal != null && backlogTransport != null ? new BacklogUploader(journal, userId,
+                backlogTransport, BacklogUploader.Compression.GZIP, CATCH_UP_CHUNK_FIXES) : null;
+        this.uploadExecutor = Executors.newSingleThreadExecutor();
     }
 
+    /** Starts connecting unless a connection is already up, under way or the sender was closed. */
     public void connectWebSocket() {
-        if (isConnecting || isConnected) {
-            Log.d(TAG, "Already connecting or connected");
+        long generation = connection.beginConnect();
+        if (generation < 0) {
+            Log.d(TAG, "Not connecting, connection is " + connection.state());
             return;
         }
-
-        isConnecting = true;
+        if (generation > 1) {
+            metrics.reconnects.increment();
+        }
 
         try {
             URI uri = URI.create(serverUrl);
             Log.d(TAG, "🔄 Attempting to connect to: " + serverUrl);
 
-            webSocketClient = new WebSocketClient(uri, new Draft_6455()) {
+            WebSocketClient client = new WebSocketClient(uri, new Draft_6455()) {
                 @Override
                 public void onOpen(ServerHandshake serverHandshake) {
+                    if (!connection.advance(generation, ConnectionState.CONNECTING, ConnectionState.OPEN)) {
+                        // Closed or superseded while the handshake was in flight
+                        close();
+                        return;
+                    }
                     Log.d(TAG, "✅ Connected to WebSocket server");
-                    isConnected = true;
-                    isConnecting = false;
-                    reconnectAttempts = 0;
 
                     // Send STOMP CONNECT frame
-                    String connectFrame = "CONNECT\n" +
-                            "accept-version:1.1,1.0\n" +
-                            "heart-beat:10000,10000\n\n\u0000";
-                    send(connectFrame);
-                    Log.d(TAG, "📤 Sent CONNECT frame");
+                    synchronized (frameEncoder) {
+                        writeFrame(this, frameEncoder.begin("CONNECT")
+                                .header("accept-version", "1.1,1.0")
+                                .header("heart-beat", "10000,10000")
+                                .end());
+                    }
                 }
 
                 @Override
                 public void onMessage(String message) {
-                    Log.d(TAG, "📨 Received from server: " + message);
+                    if (frameDecoder.decode(message)) {
+                        onFrame();
+                    }
+                }
+
+                @Override
+                public void onMessage(ByteBuffer message) {
+                    if (frameDecoder.decode(message)) {
+                        onFrame();
+                    }
+                }
 
+                private void onFrame() {
                     // Handle STOMP CONNECTED frame
-                    if (message.startsWith("CONNECTED")) {
+                    if (frameDecoder.command() == StompFrameDecoder.Command.CONNECTED) {
+                        // New session, counted before the drainer can send on it: the server has to learn
+                        // our binary user token again, and whether it takes enqueue times shows once it
+                        // answers a clock ping
+                        if (batchWriter instanceof BinaryBatchWriter) {
+                            ((BinaryBatchWriter) batchWriter).startSession();
+                            ((BinaryBatchWriter) batchWriter).setTraced(false);
+                        }
+                        if (!connection.advance(generation, ConnectionState.OPEN, ConnectionState.STOMP_READY)) {
+                            return;
+                        }
                         Log.d(TAG, "✅ STOMP connection established");
-                        // Subscribe to location updates topic
-                        String subscribeFrame = "SUBSCRIBE\n" +
-                                "id:sub-0\n" +
-                                "destination:/topic/locations\n\n\u0000";
-                        send(subscribeFrame);
+                        backoff.reset();
+
+                        // Receipts of the old session won't come; whatever they were for is sent again
+                        synchronized (inFlight) {
+                            inFlight.clear();
+                            if (drainer != null) {
+                                drainer.rewind();
+                            }
+                        }
+                        receiptsSeen = false;
+                        receiptsUnsupported = false;
+
+                        // Only clock replies: the phone doesn't show other users, so it has no use for
+                        // /topic/locations, which would send it every user's fixes on every flush
+                        synchronized (frameEncoder) {
+                            writeFrame(this, frameEncoder.begin("SUBSCRIBE")
+                                    .header("id", CLOCK_SUBSCRIPTION)
+                                    .header("destination", CLOCK_REPLIES)
+                                    .end());
+                        }
+                        clock.reset();
+                        scheduleClockPing(generation, 0, 0);
+
+                        // Replay whatever piled up while we were offline, in bulk if there's a lot of it
+                        startCatchUp();
+                        requestDrain();
+                        flushGeofenceEvents();
+                    } else if (frameDecoder.command() == StompFrameDecoder.Command.RECEIPT) {
+                        onReceipt(frameDecoder.headerAsLong("receipt-id", -1));
+                    } else if (frameDecoder.command() == StompFrameDecoder.Command.MESSAGE
+                            && frameDecoder.hasHeader("subscription", CLOCK_SUBSCRIPTION)) {
+                        onClockReply();
+                    } else if (frameDecoder.command() == StompFrameDecoder.Command.ERROR) {
+                        Log.e(TAG, "❌ STOMP error: " + frameDecoder.header("message"));
                     }
                 }
 
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     Log.d(TAG, "🔴 WebSocket connection closed: " + reason + " (Code: " + code + ")");
-                    isConnected = false;
-                    isConnecting = false;
-
-                    // Schedule reconnection if not manually disconnected
-                    if (code != 1000 && reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
-                        scheduleReconnect();
-                    }
+                    connectionLost(generation);
                 }
 
                 @Override
                 public void onError(Exception ex) {
                     Log.e(TAG, "❌ WebSocket error: " + ex.getMessage(), ex);
-                    isConnected = false;
-                    isConnecting = false;
-
-                    // Schedule reconnection
-                    if (reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
-                        scheduleReconnect();
-                    }
+                    connectionLost(generation);
                 }
             };
-
-            webSocketClient.connect();
+            client.setConnectionLostTimeout(CONNECTION_LOST_TIMEOUT_S);
+            webSocketClient = client;
+            client.connect();
 
         } catch (Exception e) {
             Log.e(TAG, "❌ Failed to create WebSocket connection: " + e.getMessage(), e);
-            isConnecting = false;
-            scheduleReconnect();
+            connectionLost(generation);
         }
     }
 
-    private void scheduleReconnect() {
-        if (reconnectAttempts >= MAX_RECONNECT_ATTEMPTS) {
-            Log.e(TAG, "❌ Max reconnection attempts reached. Giving up.");
+    // Only the caller that actually takes the attempt down schedules the next one
+    private void connectionLost(long generation) {
+        if (connection.lost(generation)) {
+            scheduleReconnect(backoff.nextDelayMillis());
+        }
+    }
+
+    private synchronized void scheduleReconnect(long delayMillis) {
+        if (reconnectScheduler.isShutdown()) {
             return;
         }
+        if (reconnectTimer != null) {
+            reconnectTimer.cancel(false);
+        }
+        Log.d(TAG, "🔄 Scheduling reconnection attempt " + backoff.attempts() + " in " + delayMillis + " ms");
+        try {
+            reconnectTimer = reconnectScheduler.schedule(this::connectWebSocket, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
 
-        reconnectAttempts++;
-        long delay = Math.min(30, 5 * reconnectAttempts);
+    /**
+     * Skips the rest of the backoff and reconnects now, e.g. when the network
+     * comes back. Does nothing while a connection is up or under way.
+     */
+    public void reconnectNow() {
+        if (connection.state() != ConnectionState.DISCONNECTED) {
+            return;
+        }
+        synchronized (this) {
+            if (reconnectTimer != null) {
+                reconnectTimer.cancel(false);
+                reconnectTimer = null;
+            }
+        }
+        backoff.reset();
+        connectWebSocket();
+    }
 
-        Log.d(TAG, "🔄 Scheduling reconnection attempt " + reconnectAttempts + " in " + delay + " seconds");
+    public ConnectionState getConnectionState() {
+        return connection.state();
+    }
+
+    /** Sends a fix stamped with the current time; prefer passing the provider's fix time. */
+    public void sendLocation(double lat, double lng, double accuracy, double speed, double bearing) {
+        sendLocation(System.currentTimeMillis(), lat, lng, accuracy, speed, bearing);
+    }
+
+    /**
+     * Queues or sends one fix. {@code timestamp} is when the fix was taken, on
+     * this device's clock; the time it is queued and sent are added here.
+     */
+    public void sendLocation(long timestamp, double lat, double lng, double accuracy, double speed, double bearing) {
+        if (journal != null) {
+            journal.append(timestamp, lat, lng, accuracy, speed, bearing);
+            if (isConnected()) {
+                requestDrain();
+                return;
+            }
+            // The reconnect timer or the network callback brings the connection back
+            if (diagnostics.isLoggable()) {
+                diagnostics.log("⚠️ WebSocket not connected, queued location (" + journal.size() + " pending)");
+            }
+        } else if (isConnected()) {
+            if (inFlight.isFull()) {
+                // Nothing to queue the fix in; dropping it beats piling frames up in the socket
+                metrics.fixesDropped.increment();
+                if (diagnostics.isLoggable()) {
+                    diagnostics.log("⚠️ " + inFlight.size() + " frames unacknowledged, dropped location");
+                }
+                return;
+            }
+            sendNow(timestamp, lat, lng, accuracy, speed, bearing);
+        } else {
+            metrics.fixesDropped.increment();
+            if (diagnostics.isLoggable()) {
+                diagnostics.log("⚠️ WebSocket not connected, cannot send location");
+            }
+        }
+    }
 
-        reconnectScheduler.schedule(() -> {
-            Log.d(TAG, "🔄 Reconnection attempt " + reconnectAttempts);
-            connectWebSocket();
-        }, delay, TimeUnit.SECONDS);
+    // Unbuffered path: a single location object in its own frame
+    private boolean sendNow(long timestamp, double lat, double lng, double accuracy, double speed, double bearing) {
+        synchronized (frameEncoder) {
+            long now = System.currentTimeMillis();
+            long receipt = inFlight.add(-1, now);
+            frameEncoder.begin("SEND")
+                    .header("destination", LOCATION_DESTINATION)
+                    .header("content-type", WireFormat.JSON.getContentType())
+                    .header("receipt", receipt)
+                    .header("sent-at", now);
+            ByteBuffer body = frameEncoder.body(LocationJsonWriter.maxSize(userId));
+            jsonWriter.write(body, userId, lat, lng, accuracy, speed, bearing, timestamp);
+            ByteBuffer frame = frameEncoder.end();
+            int frameLength = frame.remaining();
+            if (!writeFrame(frame)) {
+                inFlight.abandon(receipt);
+                metrics.fixesDropped.increment();
+                return false;
+            }
+            recordFrame(frameLength);
+        }
+        sent(-1);
+        metrics.fixesSent.increment();
+        metrics.sendLatencyMillis.record(Math.max(0, System.currentTimeMillis() - timestamp));
+        return true;
     }
 
-    public void sendLocation(String userId, double lat, double lng, double accuracy, double speed, double bearing) {
-        if (webSocketClient != null && webSocketClient.isOpen() && isConnected) {
-            try {
-                LocationData locationData = new LocationData(userId, lat, lng, accuracy, speed, bearing);
-                String json = gson.toJson(locationData);
+    /**
+     * Sends the car entering or leaving a fence, or keeps it until the
+     * connection is back. {@code timestamp} is the time of the fix that
+     * triggered it.
+     */
+    public void sendGeofenceEvent(String fenceId, String kind, boolean entered, long timestamp,
+                                  double lat, double lng) {
+        GeofenceEvent event = new GeofenceEvent(userId, fenceId, kind,
+                entered ? GeofenceEvent.Type.ENTER : GeofenceEvent.Type.EXIT, timestamp, lat, lng);
+        byte[] body = gson.toJson(event).getBytes(StandardCharsets.UTF_8);
+        synchronized (pendingEvents) {
+            pendingEvents.addLast(body);
+            if (pendingEvents.size() > MAX_PENDING_EVENTS) {
+                pendingEvents.removeFirst();
+                metrics.geofenceEventsDropped.increment();
+            }
+        }
+        flushGeofenceEvents();
+    }
 
-                // Send STOMP message to /app/location endpoint (matches Spring Boot controller)
-                String stompMessage = "SEND\n" +
-                        "destination:/app/location\n" +
-                        "content-type:application/json\n\n" +
-                        json + "\u0000";
+    // No receipts for events: one written to an open socket counts as delivered
+    private void flushGeofenceEvents() {
+        synchronized (pendingEvents) {
+            while (!pendingEvents.isEmpty() && isConnected()) {
+                byte[] body = pendingEvents.peekFirst();
+                boolean written;
+                synchronized (frameEncoder) {
+                    frameEncoder.begin("SEND")
+                            .header("destination", GEOFENCE_DESTINATION)
+                            .header("content-type", WireFormat.JSON.getContentType())
+                            .header("content-length", body.length)
+                            .body(body.length)
+                            .put(body);
+                    ByteBuffer frame = frameEncoder.end();
+                    int frameLength = frame.remaining();
+                    written = writeFrame(frame);
+                    if (written) {
+                        recordFrame(frameLength);
+                    }
+                }
+                if (!written) {
+                    return;
+                }
+                pendingEvents.removeFirst();
+                metrics.geofenceEventsSent.increment();
+            }
+        }
+    }
 
-                webSocketClient.send(stompMessage);
-                Log.d(TAG, "📍 Sent location data: " + json);
+    private void recordFrame(int frameLength) {
+        metrics.framesSent.increment();
+        metrics.bytesSent.add(frameLength);
+        metrics.frameBytes.record(frameLength);
+    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "❌ Failed to send location: " + e.getMessage(), e);
+    /*
+     * Body is a JSON array or a binary batch depending on the writer; content-type tells the server which.
+     * The journal's stream id and the batch's first sequence let the server drop fixes it already has
+     * when unacknowledged frames are sent again.
+     */
+    private boolean sendBatch(LocationBatch batch, long firstSeq) {
+        long lastSeq = firstSeq + batch.size() - 1;
+        int length;
+        synchronized (frameEncoder) {
+            batch.getWriter().beforeSend();
+            length = batch.byteSize();
+            long now = System.currentTimeMillis();
+            long receipt = inFlight.add(lastSeq, now);
+            frameEncoder.begin("SEND")
+                    .header("destination", LOCATION_DESTINATION)
+                    .header("content-type", batch.getFormat().getContentType())
+                    .header("content-length", length)
+                    .header("receipt", receipt)
+                    .header("stream", journal.streamId())
+                    .header("seq", firstSeq)
+                    .header("sent-at", now);
+            batch.getWriter().writeTo(frameEncoder.body(length));
+            ByteBuffer frame = frameEncoder.end();
+            int frameLength = frame.remaining();
+            if (!writeFrame(frame)) {
+                inFlight.abandon(receipt);
+                return false;
             }
+            recordFrame(frameLength);
+        }
+        batch.getWriter().onSent();
+        sent(lastSeq);
+        metrics.fixesSent.add(batch.size());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            metrics.sendLatencyMillis.record(Math.max(0, now - batch.timestampAt(i)));
+            if (batch.enqueuedAt(i) != 0) {
+                metrics.queueLatencyMillis.record(Math.max(0, now - batch.enqueuedAt(i)));
+            }
+        }
+        if (diagnostics.isLoggable()) {
+            diagnostics.log("📍 Sent " + batch.size() + " location(s), " + length + " bytes");
+        }
+        return true;
+    }
+
+    private boolean writeFrame(ByteBuffer frame) {
+        return writeFrame(webSocketClient, frame);
+    }
+
+    // Frames go out as binary WebSocket messages; the client copies the buffer while masking it
+    private boolean writeFrame(WebSocketClient client, ByteBuffer frame) {
+        if (client == null || !client.isOpen()) {
+            return false;
+        }
+        try {
+            client.send(frame);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Failed to send frame: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    // Without receipts from the server a written frame counts as delivered, as it did before receipts
+    private void sent(long lastSeq) {
+        if (receiptsUnsupported) {
+            release(inFlight.acknowledgeAll());
         } else {
-            Log.w(TAG, "⚠️ WebSocket not connected, cannot send location");
-            // Try to reconnect
-            if (!isConnecting && !isConnected) {
-                connectWebSocket();
+            scheduleReceiptCheck(receiptTimeoutMillis);
+        }
+    }
+
+    // Runs on the WebSocket read thread
+    private void onReceipt(long receiptId) {
+        receiptsSeen = true;
+        long now = System.currentTimeMillis();
+        synchronized (inFlight) {
+            long lastSeq = inFlight.acknowledge(receiptId,
+                    sentAt -> metrics.receiptRttMillis.record(Math.max(0, now - sentAt)));
+            if (lastSeq >= 0 && drainer != null) {
+                drainer.acknowledge(lastSeq);
+            }
+        }
+        // Room in the window again
+        requestDrain();
+    }
+
+    // Commits what released frames carried
+    private void release(long lastSeq) {
+        if (lastSeq >= 0 && drainer != null) {
+            synchronized (inFlight) {
+                drainer.acknowledge(lastSeq);
+            }
+        }
+    }
+
+    private synchronized void scheduleReceiptCheck(long delayMillis) {
+        if (reconnectScheduler.isShutdown() || (receiptTimer != null && !receiptTimer.isDone())) {
+            return;
+        }
+        try {
+            receiptTimer = reconnectScheduler.schedule(this::checkReceipts, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    /*
+     * A frame overdue for its receipt means one of two things. If the session
+     * never acknowledged anything, the server doesn't send receipts and frames
+     * count as delivered once written. Otherwise the session is stuck or lost
+     * receipts, and is replaced: the next session sends the frames again and
+     * the server drops what it already has.
+     */
+    private void checkReceipts() {
+        synchronized (this) {
+            // Done as far as rescheduling goes
+            receiptTimer = null;
+        }
+        long oldest = inFlight.oldestSentAt();
+        if (oldest < 0 || !isConnected()) {
+            return;
+        }
+        long overdue = System.currentTimeMillis() - oldest - receiptTimeoutMillis;
+        if (overdue < 0) {
+            scheduleReceiptCheck(-overdue);
+            return;
+        }
+        if (!receiptsSeen) {
+            Log.w(TAG, "⚠️ Server doesn't acknowledge frames, sending without receipts");
+            receiptsUnsupported = true;
+            release(inFlight.acknowledgeAll());
+            requestDrain();
+            return;
+        }
+        Log.w(TAG, "⚠️ " + inFlight.size() + " frames unacknowledged for " + receiptTimeoutMillis
+                + " ms, reconnecting");
+        WebSocketClient client = webSocketClient;
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * True while the window of unacknowledged frames is full. Fixes then wait
+     * in the journal, or are dropped without one; upstream stages can send
+     * fewer of them meanwhile.
+     */
+    public boolean isCongested() {
+        return inFlight.isFull();
+    }
+
+    private void requestDrain() {
+        if (drainer == null || drainExecutor.isShutdown() || !drainPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            drainExecutor.execute(() -> {
+                drainPending.set(false);
+                try {
+                    int sent = drainer.drain(System.currentTimeMillis());
+                    if (sent > 0) {
+                        journal.sync();
+                        Log.d(TAG, "📤 Drained " + sent + " queued locations, " + journal.size() + " left");
+                    }
+                    scheduleFlush();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "⚠️ Journal closed while draining", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            drainPending.set(false);
+        }
+    }
+
+    /*
+     * Hands a long backlog to the bulk uploader. The socket only carries fixes
+     * queued from now on; failed uploads are retried with backoff until the
+     * backlog is through or the sender is closed.
+     */
+    private void startCatchUp() {
+        if (uploader == null || journal.size() < CATCH_UP_MIN_FIXES || !catchingUp.compareAndSet(false, true)) {
+            return;
+        }
+        long endSeq = drainer.beginCatchUp();
+        Log.d(TAG, "📦 Uploading a backlog of " + journal.size() + " locations in bulk");
+        try {
+            uploadExecutor.execute(() -> {
+                Backoff retry = new Backoff(RECONNECT_BASE_MS, RECONNECT_MAX_MS, new Random());
+                boolean uploaded = false;
+                try {
+                    while (!uploaded) {
+                        try {
+                            long before = System.currentTimeMillis();
+                            int count = uploader.upload(endSeq);
+                            uploaded = true;
+                            metrics.backlogUploaded.add(count);
+                            journal.sync();
+                            Log.d(TAG, "📦 Uploaded " + count + " backlog locations in "
+                                    + (System.currentTimeMillis() - before) + " ms");
+                        } catch (IOException e) {
+                            Log.w(TAG, "⚠️ Backlog upload failed, retrying: " + e.getMessage());
+                            Thread.sleep(retry.nextDelayMillis());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Sender closed; the rest of the backlog stays in the journal
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "⚠️ Journal closed while uploading", e);
+                } finally {
+                    endCatchUp(uploaded);
+                }
+                requestDrain();
+            });
+        } catch (RejectedExecutionException e) {
+            endCatchUp(false);
+        }
+    }
+
+    // After a failed upload the frames in flight carry fixes sent past the backlog; their receipts must not commit it
+    private void endCatchUp(boolean uploaded) {
+        synchronized (inFlight) {
+            drainer.endCatchUp(uploaded);
+            if (!uploaded) {
+                inFlight.clear();
+            }
+        }
+        catchingUp.set(false);
+    }
+
+    // Pings the server's clock for as long as attempt generation stays connected
+    private synchronized void scheduleClockPing(long generation, int sent, long delayMillis) {
+        if (reconnectScheduler.isShutdown()) {
+            return;
+        }
+        try {
+            clockTimer = reconnectScheduler.schedule(() -> sendClockPing(generation, sent),
+                    delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void sendClockPing(long generation, int sent) {
+        if (connection.generation() != generation || !isConnected()) {
+            // The next session starts its own exchange
+            return;
+        }
+        synchronized (frameEncoder) {
+            frameEncoder.begin("SEND").header("destination", CLOCK_DESTINATION);
+            // Our current estimate, so the server can place our timestamps on its own clock
+            if (clock.hasEstimate()) {
+                frameEncoder.header("offset", clock.offsetMillis()).header("rtt", clock.delayMillis());
             }
+            writeFrame(frameEncoder.header("t0", System.currentTimeMillis()).end());
         }
+        scheduleClockPing(generation, sent + 1,
+                sent + 1 < CLOCK_BURST_PINGS ? CLOCK_BURST_INTERVAL_MS : CLOCK_SYNC_INTERVAL_MS);
     }
 
+    // Runs on the WebSocket read thread, while the decoder still holds the reply
+    private void onClockReply() {
+        long t3 = System.currentTimeMillis();
+        long t0 = frameDecoder.headerAsLong("t0", -1);
+        long t1 = frameDecoder.headerAsLong("t1", -1);
+        long t2 = frameDecoder.headerAsLong("t2", -1);
+        if (t0 < 0 || t1 < 0 || t2 < 0 || !clock.addSample(t0, t1, t2, t3)) {
+            return;
+        }
+        metrics.clockRttMillis.record(t3 - t0);
+        // Servers that answer clock pings also decode enqueue times in binary batches
+        if (batchWriter instanceof BinaryBatchWriter) {
+            ((BinaryBatchWriter) batchWriter).setTraced(true);
+        }
+    }
+
+    // Wakes the drainer when the partial batch left in the journal reaches its max age
+    private synchronized void scheduleFlush() {
+        if (!isConnected() || reconnectScheduler.isShutdown() || (flushTimer != null && !flushTimer.isDone())) {
+            return;
+        }
+        long flushAt = drainer.nextFlushAt();
+        if (flushAt < 0) {
+            return;
+        }
+        long delay = Math.max(0, flushAt - System.currentTimeMillis());
+        try {
+            flushTimer = reconnectScheduler.schedule(this::requestDrain, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    /** Closes the connection for good; the sender can't be reconnected afterwards. */
     public void disconnect() {
-        reconnectAttempts = MAX_RECONNECT_ATTEMPTS;
+        ConnectionState previous = connection.state();
+        if (!connection.close()) {
+            return;
+        }
+        synchronized (this) {
+            if (reconnectTimer != null) {
+                reconnectTimer.cancel(false);
+            }
+            if (clockTimer != null) {
+                clockTimer.cancel(false);
+            }
+            if (receiptTimer != null) {
+                receiptTimer.cancel(false);
+            }
+        }
 
-        if (webSocketClient != null && !webSocketClient.isClosed()) {
-            String disconnectFrame = "DISCONNECT\n\n\u0000";
-            webSocketClient.send(disconnectFrame);
-            webSocketClient.close();
+        WebSocketClient client = webSocketClient;
+        if (client != null && !client.isClosed()) {
+            if (previous == ConnectionState.STOMP_READY) {
+                synchronized (frameEncoder) {
+                    writeFrame(client, frameEncoder.begin("DISCONNECT").end());
+                }
+            }
+            client.close();
             Log.d(TAG, "🔌 Disconnected from WebSocket server");
         }
-        isConnected = false;
-        isConnecting = false;
 
         if (reconnectScheduler != null) {
             reconnectScheduler.shutdown();
         }
+        drainExecutor.shutdownNow();
+        uploadExecutor.shutdownNow();
     }
 
+    /** True once the STOMP session is up and frames can be sent. */
     public boolean isConnected() {
-        return isConnected && webSocketClient != null && webSocketClient.isOpen();
+        WebSocketClient client = webSocketClient;
+        return connection.state() == ConnectionState.STOMP_READY && client != null && client.isOpen();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,200 @@
+package com.example.roadstercompanion.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses incoming STOMP frames in place. {@link #decode} only records offsets
+ * into the frame, so identifying the command and matching headers does not
+ * allocate; {@link #header} and {@link #body} create strings on demand.
+ * Not thread-safe, keep one instance per receiving thread.
+ */
+public final class StompFrameDecoder {
+
+    public enum Command { CONNECTED, MESSAGE, RECEIPT, ERROR, HEARTBEAT, UNKNOWN }
+
+    private CharSequence text;
+    private ByteBuffer bytes;
+
+    private Command command = Command.UNKNOWN;
+    private int[] headerOffsets = new int[4 * 8]; // name start, name end, value start, value end
+    private int headerCount;
+    private int bodyStart;
+    private int bodyEnd;
+
+    /** Decodes a text frame. Returns false if it is not a well-formed frame. */
+    public boolean decode(CharSequence frame) {
+        text = frame;
+        bytes = null;
+        return parse(0, frame.length());
+    }
+
+    /** Decodes a binary frame between the buffer's position and limit. */
+    public boolean decode(ByteBuffer frame) {
+        text = null;
+        bytes = frame;
+        return parse(frame.position(), frame.limit());
+    }
+
+    private char at(int i) {
+        return text != null ? text.charAt(i) : (char) (bytes.get(i) & 0xFF);
+    }
+
+    private boolean parse(int from, int to) {
+        headerCount = 0;
+        command = Command.UNKNOWN;
+        bodyStart = bodyEnd = to;
+
+        int pos = from;
+        // A frame made of EOLs only is a heart-beat
+        while (pos < to && (at(pos) == '\n' || at(pos) == '\r')) {
+            pos++;
+        }
+        if (pos == to) {
+            command = Command.HEARTBEAT;
+            return true;
+        }
+
+        int lineEnd = indexOf('\n', pos, to);
+        if (lineEnd < 0) {
+            return false;
+        }
+        command = parseCommand(pos, trimCr(pos, lineEnd));
+        pos = lineEnd + 1;
+
+        while (pos < to) {
+            lineEnd = indexOf('\n', pos, to);
+            if (lineEnd < 0) {
+                return false;
+            }
+            int contentEnd = trimCr(pos, lineEnd);
+            if (contentEnd == pos) {
+                pos = lineEnd + 1;
+                break; // blank line: body follows
+            }
+            int colon = indexOf(':', pos, contentEnd);
+            if (colon < 0) {
+                return false;
+            }
+            addHeader(pos, colon, colon + 1, contentEnd);
+            pos = lineEnd + 1;
+        }
+
+        bodyStart = Math.min(pos, to);
+        int nul = indexOf('\0', bodyStart, to);
+        bodyEnd = nul < 0 ? to : nul;
+        return true;
+    }
+
+    private Command parseCommand(int from, int to) {
+        if (matches(from, to, "MESSAGE")) return Command.MESSAGE;
+        if (matches(from, to, "RECEIPT")) return Command.RECEIPT;
+        if (matches(from, to, "CONNECTED")) return Command.CONNECTED;
+        if (matches(from, to, "ERROR")) return Command.ERROR;
+        return Command.UNKNOWN;
+    }
+
+    private void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int base = headerCount * 4;
+        if (base + 4 > headerOffsets.length) {
+            int[] grown = new int[headerOffsets.length * 2];
+            System.arraycopy(headerOffsets, 0, grown, 0, headerOffsets.length);
+            headerOffsets = grown;
+        }
+        headerOffsets[base] = nameStart;
+        headerOffsets[base + 1] = nameEnd;
+        headerOffsets[base + 2] = valueStart;
+        headerOffsets[base + 3] = valueEnd;
+        headerCount++;
+    }
+
+    public Command command() {
+        return command;
+    }
+
+    /** True if the frame carries {@code name} and its (first) value equals {@code value}. */
+    public boolean hasHeader(String name, String value) {
+        int i = find(name);
+        return i >= 0 && matches(headerOffsets[i + 2], headerOffsets[i + 3], value);
+    }
+
+    /** Value of the first {@code name} header, or null. Header escapes are not decoded. */
+    public String header(String name) {
+        int i = find(name);
+        return i < 0 ? null : substring(headerOffsets[i + 2], headerOffsets[i + 3]);
+    }
+
+    /** Parses a numeric header without allocating, or returns {@code fallback}. */
+    public long headerAsLong(String name, long fallback) {
+        int i = find(name);
+        if (i < 0 || headerOffsets[i + 2] == headerOffsets[i + 3]) {
+            return fallback;
+        }
+        long value = 0;
+        boolean negative = false;
+        for (int p = headerOffsets[i + 2]; p < headerOffsets[i + 3]; p++) {
+            char c = at(p);
+            if (c == '-' && p == headerOffsets[i + 2]) {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                return fallback;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    public int bodyLength() {
+        return bodyEnd - bodyStart;
+    }
+
+    public String body() {
+        return substring(bodyStart, bodyEnd);
+    }
+
+    private int find(String name) {
+        for (int i = 0; i < headerCount * 4; i += 4) {
+            if (matches(headerOffsets[i], headerOffsets[i + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (at(from + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (at(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int trimCr(int from, int lineEnd) {
+        return lineEnd > from && at(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private String substring(int from, int to) {
+        if (text != null) {
+            return text.subSequence(from, to).toString();
+        }
+        byte[] copy = new byte[to - from];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = bytes.get(from + i);
+        }
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.roadstercompanion.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds STOMP frames in a reusable buffer:
+ *
+ * <pre>
+ * encoder.begin("SEND")
+ *         .header("destination", "/app/location")
+ *         .header("content-length", body.length)
+ *         .body(body.length)
+ *         .put(body);
+ * ByteBuffer frame = encoder.end();
+ * </pre>
+ *
+ * The buffer only grows when a frame is larger than any before it, so steady
+ * state encoding does not allocate. The returned buffer is reused by the next
+ * {@link #begin}; hand it to the socket (which copies it) before encoding the
+ * next frame. Not thread-safe.
+ */
+public final class StompFrameEncoder {
+
+    private ByteBuffer buffer;
+    private boolean escapeHeaders;
+    private boolean inBody;
+    private final byte[] digits = new byte[20];
+
+    public StompFrameEncoder(int initialCapacity) {
+        buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    public StompFrameEncoder begin(String command) {
+        buffer.clear();
+        inBody = false;
+        // STOMP 1.1 escapes header values in every frame except CONNECT and CONNECTED
+        escapeHeaders = !"CONNECT".equals(command) && !"STOMP".equals(command);
+        putAscii(command);
+        ensure(1);
+        buffer.put((byte) '\n');
+        return this;
+    }
+
+    public StompFrameEncoder header(String name, String value) {
+        putAscii(name);
+        ensure(1);
+        buffer.put((byte) ':');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            ensure(4);
+            if (escapeHeaders && (c == '\n' || c == ':' || c == '\\')) {
+                buffer.put((byte) '\\').put((byte) (c == '\n' ? 'n' : c == ':' ? 'c' : '\\'));
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                // Header values we send are ASCII; surrogate pairs are not worth handling here
+                buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        ensure(1);
+        buffer.put((byte) '\n');
+        return this;
+    }
+
+    public StompFrameEncoder header(String name, long value) {
+        putAscii(name);
+        ensure(22);
+        buffer.put((byte) ':');
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            buffer.put(digits[--n]);
+        }
+        buffer.put((byte) '\n');
+        return this;
+    }
+
+    /**
+     * Ends the headers and returns the buffer positioned at the start of the
+     * body, with at least {@code maxLength} bytes remaining for it.
+     */
+    public ByteBuffer body(int maxLength) {
+        ensure(maxLength + 2);
+        buffer.put((byte) '\n');
+        inBody = true;
+        return buffer;
+    }
+
+    /** Terminates the frame and returns it ready to be written. */
+    public ByteBuffer end() {
+        if (!inBody) {
+            body(0);
+        }
+        ensure(1);
+        buffer.put((byte) 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void putAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.roadstercompanion.websocket;
+
+/**
+ * Body encodings for location SEND frames. The server picks the decoder from
+ * the STOMP {@code content-type} header, so both can be used side by side.
+ */
+public enum WireFormat {
+    JSON("application/json"),
+    BINARY("application/x-roadster-location");
+
+    private final String contentType;
+
+    WireFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
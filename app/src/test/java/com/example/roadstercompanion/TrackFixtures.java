@@ -0,0 +1,76 @@
+package com.example.roadstercompanion;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads GPS tracks from {@code src/test/resources/tracks}. Each line holds
+ * {@code time_ms,lat,lng,accuracy,speed,bearing,true_lat,true_lng}; the true_*
+ * columns are the ground-truth position where the track has one.
+ */
+public final class TrackFixtures {
+
+    public static final String DHAKA_DRIVE = "dhaka_drive_1hz.csv";
+
+    private TrackFixtures() {
+    }
+
+    public static List<LocationData> load(String name) throws IOException {
+        List<LocationData> fixes = new ArrayList<>();
+        for (double[] row : rows(name)) {
+            LocationData fix = new LocationData("android_user_001", row[1], row[2], row[3], row[4], row[5]);
+            fix.setTimestamp((long) row[0]);
+            fixes.add(fix);
+        }
+        return fixes;
+    }
+
+    /** Ground-truth positions as {lat, lng} pairs, one per fix. */
+    public static List<double[]> truth(String name) throws IOException {
+        List<double[]> truth = new ArrayList<>();
+        for (double[] row : rows(name)) {
+            truth.add(new double[]{row[6], row[7]});
+        }
+        return truth;
+    }
+
+    private static List<double[]> rows(String name) throws IOException {
+        InputStream in = TrackFixtures.class.getResourceAsStream("/tracks/" + name);
+        if (in == null) {
+            throw new IOException("Missing track fixture " + name);
+        }
+        List<double[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("time_ms")) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                double[] row = new double[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    row[i] = Double.parseDouble(parts[i]);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /** Distance in metres between two points (haversine). */
+    public static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * 6371000.0 * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.roadstercompanion.diagnostics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DiagnosticLogTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void writesOncePerIntervalAndCountsSuppressed() {
+        List<String> lines = new ArrayList<>();
+        DiagnosticLog log = new DiagnosticLog("T", 1000, (tag, message) -> lines.add(tag + ": " + message));
+
+        assertTrue(log.isLoggable(0));
+        log.log("first");
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(log.isLoggable(i * 100 * MS));
+        }
+        assertTrue(log.isLoggable(1000 * MS));
+        log.log("second");
+        assertTrue(log.isLoggable(5000 * MS));
+        log.log("third");
+
+        assertEquals(3, lines.size());
+        assertEquals("T: first", lines.get(0));
+        assertEquals("T: second (3 suppressed)", lines.get(1));
+        assertEquals("T: third", lines.get(2));
+    }
+
+    @Test
+    public void alwaysIgnoresTheLimit() {
+        List<String> lines = new ArrayList<>();
+        DiagnosticLog log = new DiagnosticLog("T", 1000, (tag, message) -> lines.add(message));
+        assertTrue(log.isLoggable(0));
+        log.always("a");
+        log.always("b");
+        assertFalse(log.isLoggable(MS));
+        assertEquals(2, lines.size());
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.roadstercompanion.geofence;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeofenceEngineTest {
+
+    private static final double METERS_PER_DEGREE = 111_195;
+
+    // 200 m square with its east edge on the equator's meridian 0
+    private static final Geofence DEPOT = new Geofence("depot-1", "depot",
+            new double[]{-0.0009, -0.0009, 0.0009, 0.0009}, new double[]{-0.0018, 0, 0, -0.0018});
+
+    private static LocationData fixAt(double metersEastOfEdge, double accuracy) {
+        return new LocationData("user", 0, metersEastOfEdge / METERS_PER_DEGREE, accuracy, 10.0, 90.0, 0);
+    }
+
+    @Test
+    public void hysteresisKeepsTheEdgeFromFlapping() {
+        List<String> events = new ArrayList<>();
+        GeofenceEngine engine = new GeofenceEngine(Collections.singletonList(DEPOT), 25,
+                (fence, entered, fix) -> events.add((entered ? "enter " : "exit ") + fence.getId()));
+
+        // Parked on the edge with 15 m of jitter
+        for (int i = 0; i < 20; i++) {
+            engine.process(fixAt(i % 2 == 0 ? -15 : 15, 5));
+        }
+        assertEquals(Collections.emptyList(), events);
+
+        engine.process(fixAt(-30, 5));
+        assertEquals(Collections.singletonList("enter depot-1"), events);
+        for (int i = 0; i < 20; i++) {
+            engine.process(fixAt(i % 2 == 0 ? -15 : 15, 5));
+        }
+        assertEquals(1, events.size());
+        assertEquals(1, engine.insideCount());
+
+        // 30 m out is within a 40 m accuracy circle of the edge, 50 m isn't
+        engine.process(fixAt(30, 40));
+        assertEquals(1, events.size());
+        engine.process(fixAt(50, 40));
+        assertEquals("exit depot-1", events.get(1));
+        assertEquals(0, engine.insideCount());
+        assertEquals(2, engine.getTransitions());
+    }
+
+    @Test
+    public void narrowFencesAreEnteredHalfWayIn() {
+        // A 20 m wide parking bay west of the same edge: nowhere in it is 25 m inside
+        double west = -20 / METERS_PER_DEGREE;
+        Geofence bay = new Geofence("bay-1", "parking",
+                new double[]{-0.0009, -0.0009, 0.0009, 0.0009}, new double[]{west, 0, 0, west});
+        List<String> events = new ArrayList<>();
+        GeofenceEngine engine = new GeofenceEngine(Collections.singletonList(bay), 25,
+                (fence, entered, fix) -> events.add((entered ? "enter " : "exit ") + fence.getId()));
+
+        // Jitter on the edge still doesn't get in
+        for (int i = 0; i < 20; i++) {
+            engine.process(fixAt(i % 2 == 0 ? -3 : 3, 5));
+        }
+        assertEquals(Collections.emptyList(), events);
+
+        engine.process(fixAt(-10, 40));
+        assertEquals(Collections.singletonList("enter bay-1"), events);
+        // Leaving still takes the whole band beyond its far edge
+        engine.process(fixAt(-40, 5));
+        assertEquals(1, events.size());
+        engine.process(fixAt(-60, 5));
+        assertEquals("exit bay-1", events.get(1));
+        assertEquals(0, engine.insideCount());
+    }
+
+    @Test
+    public void indexedEvaluationMatchesCheckingEveryFence() throws Exception {
+        List<LocationData> drive = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        List<Geofence> fences = fencesAlong(drive, 2000, new Random(7));
+        List<String> indexedEvents = new ArrayList<>();
+        List<String> scannedEvents = new ArrayList<>();
+        GeofenceEngine indexed = new GeofenceEngine(fences, 10, recorder(indexedEvents));
+        // One cell for the whole city: every fence is looked at for every fix
+        GeofenceEngine scanned = new GeofenceEngine(fences, 10, recorder(scannedEvents), 90);
+
+        for (LocationData fix : drive) {
+            indexed.process(fix);
+            scanned.process(fix);
+        }
+        assertTrue("too few transitions to compare: " + indexedEvents.size(), indexedEvents.size() > 50);
+        Collections.sort(indexedEvents);
+        Collections.sort(scannedEvents);
+        assertEquals(scannedEvents, indexedEvents);
+        // Both skip fences by bounding box; the grid only saves looking at the far away ones
+        assertEquals(scanned.getPolygonTests(), indexed.getPolygonTests());
+    }
+
+    @Test
+    public void fencesTooLargeForTheGridAreStillChecked() {
+        Geofence district = new Geofence("district", "toll",
+                new double[]{23, 23, 24, 24}, new double[]{90, 91, 91, 90});
+        List<String> events = new ArrayList<>();
+        GeofenceEngine engine = new GeofenceEngine(List.of(district, DEPOT), 25,
+                (fence, entered, fix) -> events.add(fence.getId()));
+
+        engine.process(new LocationData("user", 23.5, 90.5, 5, 0, 0, 0));
+        assertEquals(Collections.singletonList("district"), events);
+    }
+
+    private static GeofenceEngine.Listener recorder(List<String> events) {
+        return (fence, entered, fix) -> events.add(fix.getTimestamp() + (entered ? " +" : " -") + fence.getId());
+    }
+
+    // Irregular octagons of 50 to 400 m radius, centred within a kilometre of random points of the drive
+    private static List<Geofence> fencesAlong(List<LocationData> drive, int count, Random random) {
+        List<Geofence> fences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LocationData at = drive.get(random.nextInt(drive.size()));
+            double lat = at.getLatitude() + (random.nextDouble() - 0.5) * 2000 / METERS_PER_DEGREE;
+            double lng = at.getLongitude() + (random.nextDouble() - 0.5) * 2000 / METERS_PER_DEGREE;
+            double[] lats = new double[8];
+            double[] lngs = new double[8];
+            for (int v = 0; v < 8; v++) {
+                double radius = (50 + random.nextDouble() * 350) / METERS_PER_DEGREE;
+                double angle = v * Math.PI / 4;
+                lats[v] = lat + radius * Math.sin(angle);
+                lngs[v] = lng + radius * Math.cos(angle) / Math.cos(Math.toRadians(lat));
+            }
+            fences.add(new Geofence("f" + i, "zone", lats, lngs));
+        }
+        return fences;
+    }
+}
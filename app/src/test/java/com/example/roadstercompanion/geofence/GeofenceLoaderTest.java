@@ -0,0 +1,43 @@
+package com.example.roadstercompanion.geofence;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GeofenceLoaderTest {
+
+    @Test
+    public void readsPolygonFeatures() throws IOException {
+        String geoJson = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"id\":\"depot-1\",\"kind\":\"depot\"},"
+                + "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[90.40,23.80],[90.41,23.80],[90.41,23.81],[90.40,23.81],[90.40,23.80]]]}},"
+                + "{\"type\":\"Feature\",\"id\":\"toll-7\",\"properties\":null,"
+                + "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[90.50,23.70],[90.52,23.70],[90.51,23.72]]]}},"
+                + "{\"type\":\"Feature\",\"properties\":{\"id\":\"pin\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[90.4,23.8]}}"
+                + "]}";
+        List<Geofence> fences = GeofenceLoader.load(new StringReader(geoJson));
+
+        assertEquals(2, fences.size());
+        Geofence depot = fences.get(0);
+        assertEquals("depot-1", depot.getId());
+        assertEquals("depot", depot.getKind());
+        assertEquals(4, depot.vertexCount());
+        assertTrue(depot.contains(23.805, 90.405));
+        assertFalse(depot.contains(90.405, 23.805));
+        assertEquals("toll-7", fences.get(1).getId());
+        assertEquals(GeofenceLoader.DEFAULT_KIND, fences.get(1).getKind());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedFiles() throws IOException {
+        GeofenceLoader.load(new StringReader("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"properties\":{\"id\":\"a\"},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[1,2]]]}}]}"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.roadstercompanion.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeofenceTest {
+
+    private static final double METERS_PER_DEGREE = 111_195;
+
+    @Test
+    public void signedDistanceIsPositiveInsideAndNegativeOutside() {
+        // 200 m square around the equator, closed the GeoJSON way
+        double d = 100 / METERS_PER_DEGREE;
+        Geofence square = new Geofence("sq", "depot",
+                new double[]{-d, -d, d, d, -d}, new double[]{-d, d, d, -d, -d});
+        assertEquals(4, square.vertexCount());
+
+        assertEquals(100, square.signedDistanceMeters(0, 0), 0.5);
+        assertEquals(20, square.signedDistanceMeters(80 / METERS_PER_DEGREE, 0), 0.5);
+        assertEquals(-50, square.signedDistanceMeters(0, 150 / METERS_PER_DEGREE), 0.5);
+        // Nearest to a corner
+        double corner = square.signedDistanceMeters(130 / METERS_PER_DEGREE, 140 / METERS_PER_DEGREE);
+        assertEquals(-50, corner, 0.5);
+        assertTrue(square.contains(0, 0));
+        assertFalse(square.contains(0, 150 / METERS_PER_DEGREE));
+        // Its centre, to within the sampling grid
+        assertEquals(100, square.getDepthMeters(), 10);
+    }
+
+    @Test
+    public void concaveFencesExcludeTheirNotch() {
+        // L shape: the upper right quarter of a 2 x 2 square is cut out
+        Geofence l = new Geofence("l", "zone",
+                new double[]{0, 0, 0.001, 0.001, 0.002, 0.002}, new double[]{0, 0.002, 0.002, 0.001, 0.001, 0});
+        assertTrue(l.contains(0.0005, 0.0015));
+        assertTrue(l.contains(0.0015, 0.0005));
+        assertFalse(l.contains(0.0015, 0.0015));
+        assertTrue(l.boundsContain(0.0015, 0.0015));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsThreeVertices() {
+        new Geofence("line", "zone", new double[]{0, 1, 0}, new double[]{0, 1, 0});
+    }
+}
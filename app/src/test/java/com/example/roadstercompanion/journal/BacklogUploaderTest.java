@@ -0,0 +1,184 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.BinaryLocationCodec;
+import com.example.roadstercompanion.websocket.JsonBatchWriter;
+import com.example.roadstercompanion.websocket.LocationBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class BacklogUploaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Fake backlog endpoint with the same resume rules as the server. */
+    private static class FakeServer implements BacklogUploader.Transport {
+        long acked = -1;
+        int failAtChunk = -1;
+        boolean loseAck;
+        int chunks;
+        long bytes;
+        final List<Long> stored = new ArrayList<>();
+
+        @Override
+        public long ackedSeq(long streamId) {
+            return acked;
+        }
+
+        @Override
+        public long upload(long streamId, long firstSeq, byte[] body, String contentType, String contentEncoding)
+                throws IOException {
+            if (chunks == failAtChunk) {
+                throw new IOException("connection reset");
+            }
+            chunks++;
+            bytes += body.length;
+            List<LocationData> fixes = BinaryLocationCodec.decode(inflate(body, contentEncoding), null);
+            for (int i = 0; i < fixes.size(); i++) {
+                if (firstSeq + i > acked) {
+                    assertEquals("user", fixes.get(i).getUserId());
+                    stored.add(fixes.get(i).getTimestamp());
+                }
+            }
+            acked = Math.max(acked, firstSeq + fixes.size() - 1);
+            if (loseAck) {
+                loseAck = false;
+                throw new IOException("read timed out");
+            }
+            return acked;
+        }
+
+        private static byte[] inflate(byte[] body, String encoding) throws IOException {
+            InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(new ByteArrayInputStream(body))
+                    : new InflaterInputStream(new ByteArrayInputStream(body));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0; ) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void fill(LocationJournal journal, int count) {
+        // A noisy drive, so the compression numbers aren't flattered by identical deltas
+        Random random = new Random(42);
+        double lat = 23.8;
+        double lon = 90.4;
+        for (int i = 0; i < count; i++) {
+            lat += random.nextGaussian() * 1e-4;
+            lon += random.nextGaussian() * 1e-4;
+            journal.append(i * 1000L, lat, lon, 3 + random.nextInt(20), random.nextDouble() * 30,
+                    random.nextDouble() * 360);
+        }
+    }
+
+    @Test
+    public void resumesAfterFailuresWithoutDuplicates() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 10_000)) {
+            fill(journal, 5000);
+            FakeServer server = new FakeServer();
+            BacklogUploader uploader = new BacklogUploader(journal, "user", server,
+                    BacklogUploader.Compression.GZIP, 1000);
+
+            server.failAtChunk = 2;
+            try {
+                uploader.upload(journal.tailSeq());
+                fail("Expected the third chunk to fail");
+            } catch (IOException expected) {
+            }
+            assertEquals(2000, journal.headSeq());
+
+            // The server stores the next chunk but the ack never arrives
+            server.failAtChunk = -1;
+            server.loseAck = true;
+            try {
+                uploader.upload(journal.tailSeq());
+                fail("Expected the lost ack to fail the upload");
+            } catch (IOException expected) {
+            }
+            assertEquals(2000, journal.headSeq());
+
+            assertEquals(2000, uploader.upload(journal.tailSeq()));
+            assertEquals(0, journal.size());
+            assertEquals(5000, server.stored.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i * 1000L, (long) server.stored.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void leavesRecordsAfterTheCutForTheSocket() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 1000)) {
+            fill(journal, 300);
+            FakeServer server = new FakeServer();
+            BacklogUploader uploader = new BacklogUploader(journal, "user", server,
+                    BacklogUploader.Compression.DEFLATE, 128);
+
+            assertEquals(250, uploader.upload(250));
+            assertEquals(2, server.chunks);
+            assertEquals(250, journal.headSeq());
+            assertEquals(50, journal.size());
+        }
+    }
+
+    @Test
+    public void bulkUploadIsSmallerThanFrameReplay() throws Exception {
+        // Two hours offline at 1 Hz
+        int backlog = 7200;
+        long replayBytes = 0;
+        int frames = 0;
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("replay"), backlog)) {
+            fill(journal, backlog);
+            long[] bytes = new long[1];
+            int[] count = new int[1];
+            JournalDrainer drainer = new JournalDrainer(journal,
+                    new LocationBatch(new JsonBatchWriter(), 20, 16 * 1024, 5000), "user", new JournalDrainer.Sink() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public boolean send(LocationBatch batch, long firstSeq) {
+                    bytes[0] += batch.byteSize();
+                    count[0]++;
+                    return true;
+                }
+            });
+            assertEquals(backlog, drainer.drain(Long.MAX_VALUE));
+            replayBytes = bytes[0];
+            frames = count[0];
+        }
+
+        FakeServer server = new FakeServer();
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("bulk"), backlog)) {
+            fill(journal, backlog);
+            long start = System.nanoTime();
+            new BacklogUploader(journal, "user", server, BacklogUploader.Compression.GZIP, 2000)
+                    .upload(journal.tailSeq());
+            System.out.printf("replay: %d frames, %d KB; bulk: %d requests, %d KB in %d ms%n",
+                    frames, replayBytes / 1024, server.chunks, server.bytes / 1024,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        assertEquals(backlog, server.stored.size());
+        assertEquals(4, server.chunks);
+        assertTrue("bulk " + server.bytes + " vs replay " + replayBytes, server.bytes * 10 < replayBytes);
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.JsonBatchWriter;
+import com.example.roadstercompanion.websocket.LocationBatch;
+import com.google.gson.Gson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournalDrainerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Fake transport that can be taken offline and records what was delivered.
+     * Batches are acknowledged as they are sent unless {@code autoAck} is off,
+     * then their last sequences pile up in {@code unacknowledged}.
+     */
+    private static class FakeSink implements JournalDrainer.Sink {
+        JournalDrainer drainer;
+        boolean online;
+        boolean autoAck = true;
+        int failAfterBatches = Integer.MAX_VALUE;
+        int batches;
+        final List<Long> delivered = new ArrayList<>();
+        final List<Long> unacknowledged = new ArrayList<>();
+        final Gson gson = new Gson();
+
+        @Override
+        public boolean isReady() {
+            return online;
+        }
+
+        @Override
+        public boolean send(LocationBatch batch, long firstSeq) {
+            if (batches >= failAfterBatches) {
+                online = false;
+                return false;
+            }
+            batches++;
+            for (LocationData fix : gson.fromJson(new String(batch.toBytes(), StandardCharsets.UTF_8), LocationData[].class)) {
+                assertEquals("user", fix.getUserId());
+                delivered.add(fix.getTimestamp());
+            }
+            long lastSeq = firstSeq + batch.size() - 1;
+            if (autoAck) {
+                drainer.acknowledge(lastSeq);
+            } else {
+                unacknowledged.add(lastSeq);
+            }
+            return true;
+        }
+    }
+
+    private static LocationData fix(long t) {
+        LocationData data = new LocationData("user", 23.8, 90.4, 5.0, 20.0, 0.0);
+        data.setTimestamp(t);
+        return data;
+    }
+
+    private static JournalDrainer drainer(LocationJournal journal, FakeSink sink) {
+        sink.drainer = new JournalDrainer(journal, new LocationBatch(new JsonBatchWriter(), 10, 64 * 1024, 5000),
+                "user", sink);
+        return sink.drainer;
+    }
+
+    @Test
+    public void longOutageKeepsNewestFixesInOrder() throws Exception {
+        // One hour without coverage at one fix per second, journal holds 30 minutes
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 1800)) {
+            FakeSink sink = new FakeSink();
+            JournalDrainer drainer = drainer(journal, sink);
+
+            for (long t = 0; t < 3600_000; t += 1000) {
+                journal.append(fix(t));
+                assertEquals(0, drainer.drain(t));
+            }
+            assertEquals(1800, journal.evictedCount());
+
+            sink.online = true;
+            assertEquals(1800, drainer.drain(3600_000));
+            assertEquals(180, sink.batches);
+            assertEquals(0, journal.size());
+            for (int i = 0; i < sink.delivered.size(); i++) {
+                assertEquals(1800_000L + i * 1000L, (long) sink.delivered.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void connectionDropMidDrainResumesWhereItStopped() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 500)) {
+            FakeSink sink = new FakeSink();
+            JournalDrainer drainer = drainer(journal, sink);
+            for (long t = 0; t < 300; t++) {
+                journal.append(fix(t));
+            }
+
+            sink.online = true;
+            sink.failAfterBatches = 12;
+            assertEquals(120, drainer.drain(10_000));
+            assertEquals(180, journal.size());
+
+            sink.online = true;
+            sink.failAfterBatches = Integer.MAX_VALUE;
+            assertEquals(180, drainer.drain(10_000));
+            for (int i = 0; i < 300; i++) {
+                assertEquals((long) i, (long) sink.delivered.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void backlogSurvivesServiceRestart() throws Exception {
+        File file = tmp.newFile("j");
+        FakeSink sink = new FakeSink();
+        try (LocationJournal journal = LocationJournal.open(file, 1000)) {
+            for (long t = 0; t < 600; t++) {
+                journal.append(fix(t));
+            }
+            sink.online = true;
+            sink.failAfterBatches = 25;
+            drainer(journal, sink).drain(10_000);
+        }
+
+        // Service killed and restarted: the remaining 350 fixes are replayed, nothing twice
+        try (LocationJournal journal = LocationJournal.open(file, 1000)) {
+            sink.online = true;
+            sink.failAfterBatches = Integer.MAX_VALUE;
+            assertEquals(350, drainer(journal, sink).drain(10_000));
+            assertEquals(600, sink.delivered.size());
+            assertEquals(599L, (long) sink.delivered.get(599));
+        }
+    }
+
+    @Test
+    public void partialBatchWaitsForMaxAge() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 100)) {
+            FakeSink sink = new FakeSink();
+            sink.online = true;
+            JournalDrainer drainer = drainer(journal, sink);
+
+            journal.append(fix(1000));
+            journal.append(fix(2000));
+            assertEquals(0, drainer.drain(2000));
+            assertEquals(6000, drainer.nextFlushAt());
+
+            assertEquals(2, drainer.drain(6000));
+            assertEquals(1, sink.batches);
+            assertEquals(-1, drainer.nextFlushAt());
+        }
+    }
+
+    @Test
+    public void catchUpSendsOnlyNewFixesAndCommitsThemWhenDone() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 1000)) {
+            FakeSink sink = new FakeSink();
+            sink.online = true;
+            JournalDrainer drainer = drainer(journal, sink);
+            for (long t = 0; t < 500; t++) {
+                journal.append(fix(t));
+            }
+
+            assertEquals(500, drainer.beginCatchUp());
+            for (long t = 500; t < 520; t++) {
+                journal.append(fix(t));
+            }
+            assertEquals(20, drainer.drain(10_000));
+            assertEquals(500L, (long) sink.delivered.get(0));
+            assertEquals(520, journal.size());
+
+            // The bulk upload commits its part, then the fixes sent meanwhile follow
+            journal.commit(499);
+            drainer.endCatchUp(true);
+            assertFalse(drainer.isCatchingUp());
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void failedCatchUpFallsBackToReplay() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 1000)) {
+            FakeSink sink = new FakeSink();
+            sink.online = true;
+            JournalDrainer drainer = drainer(journal, sink);
+            for (long t = 0; t < 100; t++) {
+                journal.append(fix(t));
+            }
+            drainer.beginCatchUp();
+            for (long t = 100; t < 110; t++) {
+                journal.append(fix(t));
+            }
+            assertEquals(10, drainer.drain(10_000));
+
+            drainer.endCatchUp(false);
+            assertEquals(110, drainer.drain(10_000));
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void unacknowledgedRecordsAreSentAgainAfterRewind() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 100)) {
+            FakeSink sink = new FakeSink();
+            sink.online = true;
+            sink.autoAck = false;
+            JournalDrainer drainer = drainer(journal, sink);
+            for (long t = 0; t < 50; t++) {
+                journal.append(fix(t));
+            }
+
+            assertEquals(50, drainer.drain(10_000));
+            assertEquals(50, journal.size());
+            assertEquals(0, drainer.drain(10_000));
+
+            // Receipts for the first two frames came back before the connection dropped
+            drainer.acknowledge(sink.unacknowledged.get(1));
+            assertEquals(30, journal.size());
+            drainer.rewind();
+            sink.delivered.clear();
+            sink.autoAck = true;
+            assertEquals(30, drainer.drain(10_000));
+            assertEquals(20L, (long) sink.delivered.get(0));
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void catchUpCommitsOnlyAcknowledgedFixes() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 1000)) {
+            FakeSink sink = new FakeSink();
+            sink.online = true;
+            sink.autoAck = false;
+            JournalDrainer drainer = drainer(journal, sink);
+            for (long t = 0; t < 100; t++) {
+                journal.append(fix(t));
+            }
+            drainer.beginCatchUp();
+            for (long t = 100; t < 130; t++) {
+                journal.append(fix(t));
+            }
+            assertEquals(30, drainer.drain(10_000));
+            drainer.acknowledge(sink.unacknowledged.get(1));
+            assertEquals(130, journal.size());
+
+            // The unacknowledged frame is sent again after a reconnect, the acknowledged ones aren't
+            drainer.rewind();
+            sink.delivered.clear();
+            assertEquals(10, drainer.drain(10_000));
+            assertEquals(120L, (long) sink.delivered.get(0));
+
+            journal.commit(99);
+            drainer.endCatchUp(true);
+            assertEquals(10, journal.size());
+            drainer.acknowledge(sink.unacknowledged.get(3));
+            assertEquals(0, journal.size());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.roadstercompanion.journal;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class LocationJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static LocationData fix(int i) {
+        LocationData data = new LocationData("user", 23.0 + i * 1e-5, 90.0 + i * 1e-5, 5.0, 13.5, 90.0);
+        data.setTimestamp(1_700_000_000_000L + i * 1000L);
+        return data;
+    }
+
+    @Test
+    public void appendAndReadBack() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 8)) {
+            assertEquals(0, journal.append(fix(0)));
+            assertEquals(1, journal.append(fix(1)));
+
+            LocationData out = new LocationData();
+            assertTrue(journal.read(1, out));
+            assertEquals(fix(1).getLatitude(), out.getLatitude(), 0.0);
+            assertEquals(fix(1).getLongitude(), out.getLongitude(), 0.0);
+            assertEquals(fix(1).getTimestamp(), out.getTimestamp());
+            assertEquals(13.5, out.getSpeed(), 1e-6);
+            assertEquals(2, journal.size());
+        }
+    }
+
+    @Test
+    public void stampsEnqueueTime() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 8)) {
+            long before = System.currentTimeMillis();
+            journal.append(fix(0));
+            LocationData out = new LocationData();
+            assertTrue(journal.read(0, out));
+            assertTrue(out.getEnqueuedAt() >= before && out.getEnqueuedAt() <= System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    public void evictsOldestWhenFull() throws Exception {
+        try (LocationJournal journal = LocationJournal.open(tmp.newFile("j"), 4)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(fix(i));
+            }
+            assertEquals(4, journal.size());
+            assertEquals(6, journal.headSeq());
+            assertEquals(6, journal.evictedCount());
+            assertFalse(journal.read(5, new LocationData()));
+            assertTrue(journal.read(6, new LocationData()));
+        }
+    }
+
+    @Test
+    public void fileSizeIsBounded() throws Exception {
+        File file = tmp.newFile("j");
+        try (LocationJournal journal = LocationJournal.open(file, 100)) {
+            for (int i = 0; i < 10_000; i++) {
+                journal.append(fix(i));
+            }
+        }
+        assertEquals(LocationJournal.HEADER_SIZE + 100L * LocationJournal.RECORD_SIZE, file.length());
+    }
+
+    @Test
+    public void reopenRestoresBacklog() throws Exception {
+        File file = tmp.newFile("j");
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(fix(i));
+            }
+            journal.commit(1);
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            assertEquals(2, journal.headSeq());
+            assertEquals(5, journal.tailSeq());
+            LocationData out = new LocationData();
+            assertTrue(journal.read(2, out));
+            assertEquals(fix(2).getTimestamp(), out.getTimestamp());
+        }
+    }
+
+    @Test
+    public void recoversRecordsWrittenAfterLastHeaderUpdate() throws Exception {
+        File file = tmp.newFile("j");
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(fix(i));
+            }
+        }
+        // Simulate a crash between writing record 4 and publishing it in the header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(24);
+            raf.write(new byte[]{3, 0, 0, 0, 0, 0, 0, 0});
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            assertEquals(5, journal.tailSeq());
+        }
+    }
+
+    @Test
+    public void tornRecordIsNotRecovered() throws Exception {
+        File file = tmp.newFile("j");
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(fix(i));
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(24);
+            raf.write(new byte[]{4, 0, 0, 0, 0, 0, 0, 0});
+            // Half-written latitude of record 4
+            raf.seek(LocationJournal.HEADER_SIZE + 4L * LocationJournal.RECORD_SIZE + LocationJournal.R_LATITUDE);
+            raf.write(0x7F);
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            assertEquals(4, journal.tailSeq());
+        }
+    }
+
+    @Test
+    public void capacityChangeStartsFresh() throws Exception {
+        File file = tmp.newFile("j");
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            journal.append(fix(0));
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 32)) {
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void streamIdSurvivesReopenButNotRecreation() throws Exception {
+        File file = tmp.newFile("j");
+        long id;
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            id = journal.streamId();
+            assertTrue(id > 0);
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 16)) {
+            assertEquals(id, journal.streamId());
+        }
+        try (LocationJournal journal = LocationJournal.open(file, 32)) {
+            assertNotEquals(id, journal.streamId());
+        }
+    }
+}
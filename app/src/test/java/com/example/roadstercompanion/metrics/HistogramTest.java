@@ -0,0 +1,107 @@
+package com.example.roadstercompanion.metrics;
+
+import com.example.roadstercompanion.websocket.AllocationCounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsAreInclusiveUpperBounds() {
+        Histogram h = new Histogram(10, 100, 1000);
+        h.record(0);
+        h.record(10);
+        h.record(11);
+        h.record(1000);
+        h.record(5000);
+
+        assertEquals(2, h.bucketValue(0));
+        assertEquals(1, h.bucketValue(1));
+        assertEquals(1, h.bucketValue(2));
+        assertEquals(1, h.bucketValue(3));
+        assertEquals(Long.MAX_VALUE, h.bucketBound(3));
+        assertEquals(5, h.count());
+        assertEquals(6021, h.sum());
+        assertEquals(5000, h.max());
+    }
+
+    @Test
+    public void percentilesReportBucketBounds() {
+        Histogram h = new Histogram(10, 100, 1000);
+        for (int i = 1; i <= 90; i++) {
+            h.record(5);
+        }
+        for (int i = 1; i <= 9; i++) {
+            h.record(50);
+        }
+        h.record(20_000);
+
+        assertEquals(10, h.percentile(0.5));
+        assertEquals(10, h.percentile(0.9));
+        assertEquals(100, h.percentile(0.99));
+        assertEquals(20_000, h.percentile(1.0));
+    }
+
+    @Test
+    public void percentileIsCappedByTheMaximum() {
+        Histogram h = new Histogram(10, 100);
+        h.record(3);
+        assertEquals(3, h.percentile(0.5));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram h = new Histogram(1, 2);
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(0, h.max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boundsMustAscend() {
+        new Histogram(10, 10);
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        Histogram h = new Histogram(10, 100, 1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    h.record((i + offset) % 2000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (int i = 0; i < h.bucketCount(); i++) {
+            total += h.bucketValue(i);
+        }
+        assertEquals(800_000, h.count());
+        assertEquals(800_000, total);
+        assertEquals(1999, h.max());
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        Histogram h = new Histogram(10, 25, 50, 100, 250, 500, 1000);
+        Runnable work = () -> {
+            for (int i = 0; i < 100_000; i++) {
+                h.record(i % 1500);
+            }
+        };
+        work.run();
+        long allocated = AllocationCounter.allocatedBytes(work);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
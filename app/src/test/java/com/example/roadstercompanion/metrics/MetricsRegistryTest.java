@@ -0,0 +1,55 @@
+package com.example.roadstercompanion.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void snapshotListsMetricsInRegistrationOrder() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("fixes.received").add(12);
+        AtomicLong backlog = new AtomicLong(3);
+        registry.gauge("journal.backlog", backlog::get);
+        Histogram latency = registry.histogram("send.latency_ms", 10, 100);
+        latency.record(5);
+        latency.record(50);
+        latency.record(500);
+        backlog.set(7);
+
+        assertEquals("# roadster-metrics v1 app=1.0\n"
+                + "fixes.received 12\n"
+                + "journal.backlog 7\n"
+                + "send.latency_ms count=3 sum=555 max=500 p50=100 p90=500 p99=500 buckets=10:1,100:1,+:1\n",
+                registry.snapshot("app=1.0"));
+    }
+
+    @Test
+    public void sameNameReturnsSameMetric() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.counter("a"), registry.counter("a"));
+        assertSame(registry.histogram("h", 1, 2), registry.histogram("h", 1, 2));
+        assertEquals(-1, registry.value("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameCannotChangeKind() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("a");
+        registry.histogram("a", 1);
+    }
+
+    @Test
+    public void pipelineMetricsSummaries() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.fixesReceived.add(10);
+        metrics.fixesSent.add(4);
+        metrics.sendLatencyMillis.record(40);
+        assertEquals("4/10 fixes sent · backlog 0 · p50 40 ms", metrics.summary());
+        assertTrue(metrics.dashboard().contains("Sent             4"));
+        assertTrue(metrics.snapshot(null).contains("\nfixes.sent 4\n"));
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSamplingPolicyTest {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /** 1 Hz fixes of a parked car: GPS jitter of a few metres, no speed. */
+    private static List<LocationData> parked(long start, int seconds, double lat, double lng, Random random) {
+        List<LocationData> fixes = new ArrayList<>();
+        for (int i = 0; i < seconds; i++) {
+            LocationData fix = new LocationData("u",
+                    lat + random.nextGaussian() * 4 / METERS_PER_DEGREE,
+                    lng + random.nextGaussian() * 4 / METERS_PER_DEGREE,
+                    8 + random.nextDouble() * 4, Double.NaN, Double.NaN);
+            fix.setTimestamp(start + i * 1000L);
+            fixes.add(fix);
+        }
+        return fixes;
+    }
+
+    /** 1 Hz fixes driving north at the given speeds, turning by {@code turnRate} degrees per second. */
+    private static List<LocationData> drive(long start, double[] speeds, double turnRate) {
+        List<LocationData> fixes = new ArrayList<>();
+        double lat = 23.8;
+        double lng = 90.4;
+        double bearing = 0;
+        for (int i = 0; i < speeds.length; i++) {
+            bearing = (bearing + turnRate + 360) % 360;
+            lat += speeds[i] * Math.cos(Math.toRadians(bearing)) / METERS_PER_DEGREE;
+            lng += speeds[i] * Math.sin(Math.toRadians(bearing)) / METERS_PER_DEGREE;
+            LocationData fix = new LocationData("u", lat, lng, 5, speeds[i], bearing);
+            fix.setTimestamp(start + i * 1000L);
+            fixes.add(fix);
+        }
+        return fixes;
+    }
+
+    private static void feed(AdaptiveSamplingPolicy policy, List<LocationData> fixes) {
+        for (LocationData f : fixes) {
+            policy.observe(f.getTimestamp(), f.getLatitude(), f.getLongitude(), f.getAccuracy(), f.getSpeed(), f.getBearing());
+        }
+    }
+
+    @Test
+    public void parkedCarSettlesOnStationaryOnce() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.CRUISE);
+        List<LocationData> fixes = parked(0, 600, 23.8, 90.4, new Random(1));
+
+        for (LocationData f : fixes.subList(0, 60)) {
+            policy.observe(f.getTimestamp(), f.getLatitude(), f.getLongitude(), f.getAccuracy(), f.getSpeed(), f.getBearing());
+        }
+        assertEquals("dwell time not over yet", SamplingMode.CRUISE, policy.getMode());
+
+        feed(policy, fixes.subList(60, fixes.size()));
+        assertEquals(SamplingMode.STATIONARY, policy.getMode());
+        assertEquals(1, policy.getModeChanges());
+    }
+
+    @Test
+    public void pullingAwayLeavesStationaryImmediately() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.STATIONARY);
+        double[] speeds = new double[10];
+        for (int i = 0; i < speeds.length; i++) {
+            speeds[i] = Math.min(12, 2 * (i + 1));
+        }
+        List<LocationData> fixes = drive(0, speeds, 0);
+        feed(policy, fixes.subList(0, 3));
+        assertEquals(SamplingMode.CRUISE, policy.getMode());
+    }
+
+    @Test
+    public void speedHoveringAroundThresholdDoesNotFlap() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.CRUISE);
+        Random random = new Random(7);
+        double[] speeds = new double[600];
+        for (int i = 0; i < speeds.length; i++) {
+            speeds[i] = 24.5 + random.nextGaussian() * 1.0;
+        }
+        feed(policy, drive(0, speeds, 0));
+        assertTrue("mode changes: " + policy.getModeChanges(), policy.getModeChanges() <= 2);
+    }
+
+    @Test
+    public void turningAtCitySpeedSamplesDensely() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.CRUISE);
+        double[] speeds = new double[20];
+        Arrays.fill(speeds, 8);
+        feed(policy, drive(0, speeds, 15));
+        assertEquals(SamplingMode.DENSE, policy.getMode());
+    }
+
+    @Test
+    public void inaccurateFixesAreIgnored() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.STATIONARY);
+        assertFalse(policy.observe(0, 23.8, 90.4, 5, Double.NaN, Double.NaN));
+        // A 300 m jump with 120 m accuracy is a cell fix, not a car doing 300 m/s
+        assertFalse(policy.observe(1000, 23.8027, 90.4, 120, Double.NaN, Double.NaN));
+        assertEquals(SamplingMode.STATIONARY, policy.getMode());
+    }
+
+    /**
+     * Replays a commute (half an hour parked, the recorded drive, half an hour
+     * parked) and compares what the provider would deliver against the old
+     * fixed 10 s high-accuracy request.
+     */
+    @Test
+    public void recordedCommuteUsesFewerFixesAndLessGps() throws Exception {
+        List<LocationData> drive = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        LocationData first = drive.get(0);
+        LocationData last = drive.get(drive.size() - 1);
+        long driveStart = first.getTimestamp();
+        long driveEnd = last.getTimestamp();
+        Random random = new Random(42);
+
+        List<LocationData> commute = new ArrayList<>(parked(driveStart - 1_800_000, 1800, first.getLatitude(), first.getLongitude(), random));
+        commute.addAll(drive);
+        commute.addAll(parked(driveEnd + 1000, 1800, last.getLatitude(), last.getLongitude(), random));
+
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(SamplingMode.CRUISE);
+        int adaptiveFixes = 0;
+        int fixedFixes = 0;
+        long adaptiveGpsMillis = 0;
+        long lastAdaptive = Long.MIN_VALUE / 2;
+        long lastFixed = Long.MIN_VALUE / 2;
+        int denseFixesWhileDriving = 0;
+
+        for (LocationData f : commute) {
+            long t = f.getTimestamp();
+            if (policy.getMode().highAccuracy) {
+                adaptiveGpsMillis += 1000;
+            }
+            if (t - lastFixed >= SamplingMode.CRUISE.intervalMillis) {
+                fixedFixes++;
+                lastFixed = t;
+            }
+            if (t - lastAdaptive >= policy.getMode().intervalMillis) {
+                adaptiveFixes++;
+                lastAdaptive = t;
+                if (policy.getMode() == SamplingMode.DENSE) {
+                    denseFixesWhileDriving++;
+                }
+                // The policy only sees the fixes that are actually delivered
+                policy.observe(t, f.getLatitude(), f.getLongitude(), f.getAccuracy(), f.getSpeed(), f.getBearing());
+            }
+        }
+        long fixedGpsMillis = commute.size() * 1000L;
+
+        assertTrue("adaptive " + adaptiveFixes + " vs fixed " + fixedFixes, adaptiveFixes < fixedFixes * 0.8);
+        assertTrue("GPS time " + adaptiveGpsMillis + " vs " + fixedGpsMillis, adaptiveGpsMillis < fixedGpsMillis * 0.5);
+        assertTrue("highway and turns sampled densely", denseFixesWhileDriving > 60);
+        assertEquals(SamplingMode.STATIONARY, policy.getMode());
+        assertTrue("mode changes: " + policy.getModeChanges(), policy.getModeChanges() < 30);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BackpressureThrottleTest {
+
+    private static LocationData fix(long t) {
+        LocationData data = new LocationData("user", 23.8, 90.4, 5.0, 10.0, 90.0);
+        data.setTimestamp(t);
+        return data;
+    }
+
+    @Test
+    public void thinsFixesOnlyWhileCongested() {
+        boolean[] congested = {false};
+        BackpressureThrottle throttle = new BackpressureThrottle(() -> congested[0], 5000);
+        int passed = 0;
+        for (long t = 0; t < 60_000; t += 1000) {
+            congested[0] = t >= 20_000 && t < 40_000;
+            passed += throttle.process(fix(t)) ? 1 : 0;
+        }
+        // 20 s each side at 1 Hz, one fix per 5 s in between
+        assertEquals(20 + 4 + 20, passed);
+        assertEquals(16, throttle.getThrottled());
+    }
+
+    @Test
+    public void clockGoingBackwardsIsNotThrottled() {
+        BackpressureThrottle throttle = new BackpressureThrottle(() -> true, 5000);
+        assertTrue(throttle.process(fix(10_000)));
+        assertFalse(throttle.process(fix(11_000)));
+        assertTrue(throttle.process(fix(9_000)));
+    }
+}
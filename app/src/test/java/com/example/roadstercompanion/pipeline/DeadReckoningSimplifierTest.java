@@ -0,0 +1,93 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeadReckoningSimplifierTest {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * Replays {@code fixes} through the simplifier and reconstructs every fix on
+     * the receiving side by extrapolating the last emitted one. Returns the
+     * largest reconstruction error in metres.
+     */
+    private static double maxReconstructionError(DeadReckoningSimplifier simplifier, List<LocationData> fixes) {
+        LocationData anchor = null;
+        double maxError = 0;
+        for (LocationData fix : fixes) {
+            if (simplifier.process(fix)) {
+                anchor = fix;
+                continue;
+            }
+            assertNotNull("first fix must be emitted", anchor);
+            double dt = (fix.getTimestamp() - anchor.getTimestamp()) / 1000.0;
+            double bearing = Math.toRadians(anchor.getBearing());
+            double lat = anchor.getLatitude() + anchor.getSpeed() * dt * Math.cos(bearing) / METERS_PER_DEGREE;
+            double lng = anchor.getLongitude() + anchor.getSpeed() * dt * Math.sin(bearing)
+                    / (METERS_PER_DEGREE * Math.cos(Math.toRadians(anchor.getLatitude())));
+            maxError = Math.max(maxError, TrackFixtures.distance(lat, lng, fix.getLatitude(), fix.getLongitude()));
+            assertTrue("silence interval exceeded", fix.getTimestamp() - anchor.getTimestamp() < 30_000);
+        }
+        return maxError;
+    }
+
+    @Test
+    public void recordedDriveIsReducedWithinTolerance() throws Exception {
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        DeadReckoningSimplifier simplifier = new DeadReckoningSimplifier(10, 30_000);
+
+        double maxError = maxReconstructionError(simplifier, fixes);
+
+        assertEquals(fixes.size(), simplifier.getReceived());
+        assertTrue("sent " + simplifier.getEmitted() + " of " + fixes.size(),
+                simplifier.getEmitted() * 3 < fixes.size());
+        assertTrue("compression " + simplifier.getCompressionRatio(), simplifier.getCompressionRatio() > 3);
+        assertTrue("max error " + maxError + " m", maxError <= 10.1);
+    }
+
+    @Test
+    public void tighterToleranceSendsMoreAndStaysWithinIt() throws Exception {
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        DeadReckoningSimplifier loose = new DeadReckoningSimplifier(10, 30_000);
+        DeadReckoningSimplifier tight = new DeadReckoningSimplifier(3, 30_000);
+
+        maxReconstructionError(loose, fixes);
+        double maxError = maxReconstructionError(tight, fixes);
+
+        assertTrue(tight.getEmitted() > loose.getEmitted());
+        assertTrue("max error " + maxError + " m", maxError <= 3.1);
+    }
+
+    @Test
+    public void stationaryFixesAreSentOncePerSilenceInterval() {
+        DeadReckoningSimplifier simplifier = new DeadReckoningSimplifier(10, 30_000);
+        LocationData fix = new LocationData("u", 23.8, 90.4, 5, 0, 0);
+        for (int i = 0; i <= 120; i++) {
+            fix.setTimestamp(i * 1000L);
+            simplifier.process(fix);
+        }
+        // t = 0, 30, 60, 90 and 120 s
+        assertEquals(5, simplifier.getEmitted());
+        assertEquals(121 / 5.0, simplifier.getCompressionRatio(), 1e-9);
+    }
+
+    @Test
+    public void resetEmitsNextFix() {
+        DeadReckoningSimplifier simplifier = new DeadReckoningSimplifier(10, 30_000);
+        LocationData fix = new LocationData("u", 23.8, 90.4, 5, 0, 0);
+        fix.setTimestamp(0);
+        assertTrue(simplifier.process(fix));
+        fix.setTimestamp(1000);
+        assertFalse(simplifier.process(fix));
+        simplifier.reset();
+        fix.setTimestamp(2000);
+        assertTrue(simplifier.process(fix));
+    }
+}
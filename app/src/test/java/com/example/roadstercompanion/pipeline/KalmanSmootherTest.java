@@ -0,0 +1,177 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.AllocationCounter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KalmanSmootherTest {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /** Error statistics against ground truth: {rms, max} in metres. */
+    private static double[] errors(List<LocationData> fixes, List<double[]> truth, boolean[] forwarded) {
+        double sumSquares = 0;
+        double max = 0;
+        int n = 0;
+        for (int i = 0; i < fixes.size(); i++) {
+            if (forwarded != null && !forwarded[i]) {
+                continue;
+            }
+            LocationData f = fixes.get(i);
+            double e = TrackFixtures.distance(f.getLatitude(), f.getLongitude(), truth.get(i)[0], truth.get(i)[1]);
+            sumSquares += e * e;
+            max = Math.max(max, e);
+            n++;
+        }
+        return new double[]{Math.sqrt(sumSquares / n), max};
+    }
+
+    private static boolean[] smooth(KalmanSmoother smoother, List<LocationData> fixes) {
+        boolean[] forwarded = new boolean[fixes.size()];
+        for (int i = 0; i < fixes.size(); i++) {
+            forwarded[i] = smoother.process(fixes.get(i));
+        }
+        return forwarded;
+    }
+
+    @Test
+    public void recordedDriveIsCloserToGroundTruth() throws Exception {
+        List<double[]> truth = TrackFixtures.truth(TrackFixtures.DHAKA_DRIVE);
+        double[] raw = errors(TrackFixtures.load(TrackFixtures.DHAKA_DRIVE), truth, null);
+
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        KalmanSmoother smoother = new KalmanSmoother();
+        boolean[] forwarded = smooth(smoother, fixes);
+        double[] filtered = errors(fixes, truth, forwarded);
+
+        assertTrue("rms " + filtered[0] + " vs raw " + raw[0], filtered[0] < raw[0] * 0.6);
+        assertTrue("max " + filtered[1] + " vs raw " + raw[1], filtered[1] < raw[1] * 0.5);
+        assertEquals(0, smoother.getRestarts());
+    }
+
+    /**
+     * Straight drive at 15 m/s with Gaussian noise matching the reported
+     * accuracy, plus fixes every 40 s that claim 5 m accuracy but are 150 m off.
+     */
+    @Test
+    public void syntheticOutliersAreRejected() {
+        Random random = new Random(7);
+        List<LocationData> fixes = new ArrayList<>();
+        List<double[]> truth = new ArrayList<>();
+        List<Integer> outliers = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            double north = 15.0 * i;
+            double trueLat = 23.8 + north / METERS_PER_DEGREE;
+            double trueLng = 90.4;
+            double accuracy = 5 + random.nextDouble() * 10;
+            double lat = trueLat + random.nextGaussian() * accuracy / METERS_PER_DEGREE;
+            double lng = trueLng + random.nextGaussian() * accuracy / METERS_PER_DEGREE;
+            if (i % 40 == 39) {
+                lng += 150 / METERS_PER_DEGREE;
+                accuracy = 5;
+                outliers.add(i);
+            }
+            LocationData fix = new LocationData("u", lat, lng, accuracy,
+                    15 + random.nextGaussian() * 0.3, random.nextGaussian() * 2);
+            fix.setTimestamp(i * 1000L);
+            fixes.add(fix);
+            truth.add(new double[]{trueLat, trueLng});
+        }
+        double[] raw = errors(fixes, truth, null);
+
+        List<LocationData> copies = new ArrayList<>();
+        for (LocationData f : fixes) {
+            LocationData copy = new LocationData(f.getUserId(), f.getLatitude(), f.getLongitude(),
+                    f.getAccuracy(), f.getSpeed(), f.getBearing());
+            copy.setTimestamp(f.getTimestamp());
+            copies.add(copy);
+        }
+        KalmanSmoother smoother = new KalmanSmoother();
+        boolean[] forwarded = smooth(smoother, copies);
+
+        for (int i : outliers) {
+            assertFalse("outlier at " + i + " forwarded", forwarded[i]);
+        }
+        assertEquals(outliers.size(), smoother.getRejected());
+        double[] filtered = errors(copies, truth, forwarded);
+        assertTrue("rms " + filtered[0] + " vs raw " + raw[0], filtered[0] < raw[0] * 0.5);
+        // Once the filter has settled it stays well inside the reported accuracy
+        for (int i = 0; i < 10; i++) {
+            forwarded[i] = false;
+        }
+        double settledMax = errors(copies, truth, forwarded)[1];
+        assertTrue("max " + settledMax + " m", settledMax < 10);
+    }
+
+    @Test
+    public void restartsWhenFixesKeepDisagreeing() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        LocationData fix = new LocationData("u", 23.8, 90.4, 5, 0, 0);
+        for (int i = 0; i < 30; i++) {
+            fix.setLatitude(23.8);
+            fix.setLongitude(90.4);
+            fix.setAccuracy(5);
+            fix.setTimestamp(i * 1000L);
+            assertTrue(smoother.process(fix));
+        }
+        // The car was towed: every fix from now on is 2 km away
+        int forwarded = 0;
+        for (int i = 30; i < 40; i++) {
+            fix.setLatitude(23.8 + 2000 / METERS_PER_DEGREE);
+            fix.setLongitude(90.4);
+            fix.setAccuracy(5);
+            fix.setTimestamp(i * 1000L);
+            if (smoother.process(fix)) {
+                forwarded++;
+            }
+        }
+        assertEquals(1, smoother.getRestarts());
+        assertEquals(KalmanSmoother.MAX_CONSECUTIVE_OUTLIERS - 1, smoother.getRejected());
+        assertEquals(10 - KalmanSmoother.MAX_CONSECUTIVE_OUTLIERS + 1, forwarded);
+        assertEquals(23.8 + 2000 / METERS_PER_DEGREE, fix.getLatitude(), 1e-6);
+    }
+
+    @Test
+    public void gapRestartsFromTheNextFix() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        LocationData fix = new LocationData("u", 23.8, 90.4, 5, 0, 0);
+        fix.setTimestamp(0);
+        smoother.process(fix);
+
+        fix.setLatitude(23.9);
+        fix.setTimestamp(KalmanSmoother.MAX_GAP_MILLIS + 1);
+        assertTrue(smoother.process(fix));
+        assertEquals(23.9, fix.getLatitude(), 0);
+        assertEquals(0, smoother.getRejected());
+    }
+
+    @Test
+    public void doesNotAllocatePerFix() throws Exception {
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        KalmanSmoother smoother = new KalmanSmoother();
+        LocationData scratch = new LocationData();
+        Runnable work = () -> {
+            smoother.reset();
+            for (LocationData f : fixes) {
+                scratch.setTimestamp(f.getTimestamp());
+                scratch.setLatitude(f.getLatitude());
+                scratch.setLongitude(f.getLongitude());
+                scratch.setAccuracy(f.getAccuracy());
+                scratch.setSpeed(f.getSpeed());
+                scratch.setBearing(f.getBearing());
+                smoother.process(scratch);
+            }
+        };
+        work.run();
+        long allocated = AllocationCounter.allocatedBytes(work);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.roadstercompanion.pipeline;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.diagnostics.DiagnosticLog;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LocationPipelineTest {
+
+    /** Records which threads touched the pipeline's stages, sink, listener and log. */
+    private static final class Recorder implements LocationStage, LocationPipeline.Sink, LocationPipeline.Listener {
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger modeChanges = new AtomicInteger();
+        final List<LocationPipeline.Status> statuses = new CopyOnWriteArrayList<>();
+        final AtomicInteger logLines = new AtomicInteger();
+        final PipelineMetrics metrics = new PipelineMetrics();
+
+        final DiagnosticLog diagnostics = new DiagnosticLog("test", 60_000, (tag, message) -> {
+            threads.add(Thread.currentThread().getName());
+            logLines.incrementAndGet();
+        });
+
+        @Override
+        public boolean process(LocationData fix) {
+            threads.add(Thread.currentThread().getName());
+            return true;
+        }
+
+        @Override
+        public void send(LocationData fix) {
+            threads.add(Thread.currentThread().getName());
+            sent.incrementAndGet();
+        }
+
+        @Override
+        public void onSamplingModeChanged(SamplingMode mode) {
+            threads.add(Thread.currentThread().getName());
+            modeChanges.incrementAndGet();
+        }
+
+        @Override
+        public void onStatus(LocationPipeline.Status status) {
+            threads.add(Thread.currentThread().getName());
+            statuses.add(status);
+        }
+    }
+
+    private static LocationPipeline pipeline(Recorder recorder, LocationStage... stages) {
+        LocationStage[] all = new LocationStage[stages.length + 1];
+        System.arraycopy(stages, 0, all, 0, stages.length);
+        all[stages.length] = recorder;
+        return new LocationPipeline("u", new AdaptiveSamplingPolicy(SamplingMode.CRUISE), all,
+                recorder, recorder, recorder.diagnostics, recorder.metrics);
+    }
+
+    /** Delivers the fixes the way the location client does: one callback per fix on the pipeline executor. */
+    private static void replay(LocationPipeline pipeline, List<LocationData> fixes) throws InterruptedException {
+        for (LocationData f : fixes) {
+            pipeline.executor().execute(() -> pipeline.process(f.getTimestamp(), f.getLatitude(), f.getLongitude(),
+                    f.getAccuracy(), f.getSpeed(), f.getBearing()));
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        pipeline.shutdown(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void noPipelineWorkRunsOnTheCallingThread() throws Exception {
+        Recorder recorder = new Recorder();
+        LocationPipeline pipeline = pipeline(recorder, new KalmanSmoother(), new DeadReckoningSimplifier(10, 30_000));
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+
+        replay(pipeline, fixes);
+
+        assertEquals(Collections.singleton("location-pipeline"), recorder.threads);
+        assertFalse(recorder.threads.contains(Thread.currentThread().getName()));
+        assertTrue(recorder.sent.get() > 0);
+        assertTrue(recorder.sent.get() < fixes.size());
+        assertTrue("fixture has parked and highway stretches", recorder.modeChanges.get() > 0);
+        assertEquals(fixes.size(), recorder.metrics.fixesReceived.get());
+        assertEquals(fixes.size() - recorder.sent.get(), recorder.metrics.fixesFiltered.get());
+        assertEquals(fixes.size(), recorder.metrics.fixAgeMillis.count());
+    }
+
+    @Test
+    public void processRefusesOtherThreads() {
+        LocationPipeline pipeline = pipeline(new Recorder());
+        assertThrows(IllegalStateException.class, () -> pipeline.process(0, 23.8, 90.4, 5, 0, 0));
+        pipeline.shutdown(() -> { });
+    }
+
+    @Test
+    public void statusAndDiagnosticsAreThrottled() throws Exception {
+        Recorder recorder = new Recorder();
+        LocationPipeline pipeline = pipeline(recorder);
+        List<LocationData> fixes = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+
+        long start = System.nanoTime();
+        replay(pipeline, fixes);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(fixes.size(), recorder.sent.get());
+        long allowed = 1 + elapsedMillis / LocationPipeline.STATUS_INTERVAL_MILLIS;
+        assertTrue(recorder.statuses.size() + " status updates", recorder.statuses.size() <= allowed);
+        assertEquals(1, recorder.statuses.get(0).received);
+        assertEquals("one line per minute at most, plus mode changes",
+                recorder.modeChanges.get() + 1, recorder.logLines.get());
+    }
+
+    @Test
+    public void missingSpeedAndBearingReachTheStagesAsUnknown() throws Exception {
+        Recorder recorder = new Recorder();
+        LocationData[] seen = new LocationData[1];
+        LocationPipeline pipeline = pipeline(recorder, fix -> {
+            seen[0] = new LocationData(fix.getUserId(), fix.getLatitude(), fix.getLongitude(),
+                    fix.getAccuracy(), fix.getSpeed(), fix.getBearing());
+            return true;
+        });
+        CountDownLatch done = new CountDownLatch(1);
+        pipeline.executor().execute(() -> pipeline.process(1000, 23.8, 90.4, 5, Double.NaN, Double.NaN));
+        pipeline.shutdown(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals("u", seen[0].getUserId());
+        assertTrue(Double.isNaN(seen[0].getSpeed()));
+        assertTrue(Double.isNaN(seen[0].getBearing()));
+    }
+
+    @Test
+    public void aSpeedWithoutABearingIsNotTakenAsHeadingNorth() throws Exception {
+        Recorder recorder = new Recorder();
+        List<LocationData> smoothed = new CopyOnWriteArrayList<>();
+        LocationPipeline pipeline = pipeline(recorder, new KalmanSmoother(), fix -> {
+            smoothed.add(new LocationData(fix.getUserId(), fix.getLatitude(), fix.getLongitude(),
+                    fix.getAccuracy(), fix.getSpeed(), fix.getBearing()));
+            return true;
+        }, new DeadReckoningSimplifier(10, 30_000));
+        CountDownLatch done = new CountDownLatch(1);
+        // Standing still, but with a speed reported; 20 m/s due north would put the second fix 20 m off
+        for (int i = 0; i < 2; i++) {
+            long t = 1000 + i * 1000L;
+            pipeline.executor().execute(() -> pipeline.process(t, 23.8, 90.4, 5, 20, Double.NaN));
+        }
+        pipeline.shutdown(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(2, smoothed.size());
+        assertEquals(23.8, smoothed.get(1).getLatitude(), 1e-6);
+        assertTrue(Double.isNaN(smoothed.get(1).getBearing()));
+        assertEquals("the second fix is where the first predicts", 1, recorder.sent.get());
+    }
+}
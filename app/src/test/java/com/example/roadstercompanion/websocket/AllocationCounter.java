@@ -0,0 +1,20 @@
+package com.example.roadstercompanion.websocket;
+
+import java.lang.management.ManagementFactory;
+
+/** Measures heap bytes allocated by the current thread (HotSpot only). */
+public final class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCounter() {
+    }
+
+    public static long allocatedBytes(Runnable work) {
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        work.run();
+        return THREADS.getThreadAllocatedBytes(threadId) - before;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.roadstercompanion.websocket;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+
+    @Test
+    public void growsWithJitterUpToTheCapAndNeverGivesUp() {
+        Backoff backoff = new Backoff(1000, 60_000, new Random(3));
+        long previousCeiling = 0;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long ceiling = Math.min(60_000, 1000L << Math.min(attempt, 30));
+            long delay = backoff.nextDelayMillis();
+            assertTrue("attempt " + attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+        assertEquals(100, backoff.attempts());
+    }
+
+    @Test
+    public void jitterSpreadsClientsApart() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int client = 0; client < 100; client++) {
+            Backoff backoff = new Backoff(1000, 60_000, new Random(client));
+            for (int i = 0; i < 5; i++) {
+                backoff.nextDelayMillis();
+            }
+            long delay = backoff.nextDelayMillis();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 10_000);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        Backoff backoff = new Backoff(1000, 60_000, new Random(1));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelayMillis();
+        }
+        backoff.reset();
+        assertTrue(backoff.nextDelayMillis() <= 1000);
+    }
+}
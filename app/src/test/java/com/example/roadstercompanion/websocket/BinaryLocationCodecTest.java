@@ -0,0 +1,201 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.TrackFixtures;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryLocationCodecTest {
+
+    private static LocationData fix(double lat, double lng, long t) {
+        LocationData data = new LocationData("android_user_001", lat, lng, 4.8, 16.73, 182.4);
+        data.setTimestamp(t);
+        return data;
+    }
+
+    private static LocationBatch binaryBatch(BinaryBatchWriter writer) {
+        return new LocationBatch(writer, 20, 8 * 1024, 5000);
+    }
+
+    @Test
+    public void varintAndZigZagRoundTrip() {
+        byte[] buf = new byte[10];
+        long[] values = {0, 1, -1, 63, -64, 300, -300, Integer.MAX_VALUE, Long.MIN_VALUE};
+        for (long v : values) {
+            assertEquals(v, BinaryLocationCodec.unZigZag(BinaryLocationCodec.zigZag(v)));
+            int end = BinaryLocationCodec.writeVarint(buf, 0, BinaryLocationCodec.zigZag(v));
+            assertEquals(BinaryLocationCodec.varintSize(BinaryLocationCodec.zigZag(v)), end);
+        }
+    }
+
+    @Test
+    public void roundTripWithinQuantization() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(1);
+        LocationBatch batch = binaryBatch(writer);
+        batch.add(fix(23.8103123, 90.4125456, 1_752_731_000_000L));
+        batch.add(fix(23.8103456, 90.4125001, 1_752_731_001_000L));
+        batch.add(fix(-33.8688197, 151.2092955, 1_752_731_000_500L)); // negative deltas
+
+        List<LocationData> decoded = BinaryLocationCodec.decode(batch.toBytes(), null);
+        assertEquals(3, decoded.size());
+        assertEquals("android_user_001", decoded.get(0).getUserId());
+        assertEquals(23.8103456, decoded.get(1).getLatitude(), 1e-7);
+        assertEquals(90.4125001, decoded.get(1).getLongitude(), 1e-7);
+        assertEquals(-33.8688197, decoded.get(2).getLatitude(), 1e-7);
+        assertEquals(1_752_731_000_500L, decoded.get(2).getTimestamp());
+        assertEquals(16.7, decoded.get(0).getSpeed(), 1e-9);
+        assertEquals(182.4, decoded.get(0).getBearing(), 1e-9);
+        assertEquals(4.8, decoded.get(0).getAccuracy(), 1e-9);
+    }
+
+    @Test
+    public void unknownSpeedAndBearingGoOutAsZero() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(1);
+        LocationBatch batch = binaryBatch(writer);
+        batch.add(new LocationData("android_user_001", 23.81, 90.41, 5, Double.NaN, Double.NaN));
+
+        LocationData decoded = BinaryLocationCodec.decode(batch.toBytes(), null).get(0);
+        assertEquals(0.0, decoded.getSpeed(), 0);
+        assertEquals(0.0, decoded.getBearing(), 0);
+    }
+
+    @Test
+    public void enqueueTimesOnlyOnceTracingIsOn() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(1);
+        LocationBatch batch = binaryBatch(writer);
+        LocationData first = fix(23.81, 90.41, 1_752_731_000_000L);
+        first.setEnqueuedAt(1_752_731_000_120L);
+        batch.add(first);
+        writer.setTraced(true); // takes effect from the next batch
+        byte[] untraced = batch.toBytes();
+        assertEquals(0, BinaryLocationCodec.decode(untraced, null).get(0).getEnqueuedAt());
+
+        batch.clear();
+        LocationData second = fix(23.82, 90.42, 1_752_731_001_000L);
+        second.setEnqueuedAt(1_752_731_000_990L); // clock stepped back between fix and queue
+        batch.add(first);
+        batch.add(second);
+        List<LocationData> decoded = BinaryLocationCodec.decode(batch.toBytes(), null);
+        assertEquals(1_752_731_000_120L, decoded.get(0).getEnqueuedAt());
+        assertEquals(1_752_731_000_990L, decoded.get(1).getEnqueuedAt());
+    }
+
+    @Test
+    public void userIdOnlyInFirstBatchOfSession() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(7);
+        LocationBatch batch = binaryBatch(writer);
+        batch.add(fix(23.81, 90.41, 1000));
+        byte[] first = batch.toBytes();
+        writer.onSent();
+
+        batch.clear();
+        batch.add(fix(23.81, 90.41, 2000));
+        byte[] second = batch.toBytes();
+
+        assertNotEquals(0, first[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+        assertEquals(0, second[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+        assertNull(BinaryLocationCodec.decode(second, null).get(0).getUserId());
+        assertEquals("known", BinaryLocationCodec.decode(second, "known").get(0).getUserId());
+
+        writer.startSession();
+        batch.clear();
+        batch.add(fix(23.81, 90.41, 3000));
+        assertNotEquals(0, batch.toBytes()[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+    }
+
+    @Test
+    public void aSessionStartedBetweenStageAndSendIsDeclaredTo() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(7);
+        LocationBatch batch = binaryBatch(writer);
+        batch.add(fix(23.81, 90.41, 1000));
+        batch.toBytes();
+        writer.onSent();
+
+        batch.clear();
+        batch.add(fix(23.81, 90.41, 2000));
+        // Reconnected while the batch was filled: its size and bytes still agree
+        writer.startSession();
+        byte[] unsent = batch.toBytes();
+        assertEquals(batch.byteSize(), unsent.length);
+        assertEquals(0, unsent[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+
+        writer.beforeSend();
+        byte[] sent = batch.toBytes();
+        assertEquals(batch.byteSize(), sent.length);
+        assertNotEquals(0, sent[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+        assertEquals("android_user_001", BinaryLocationCodec.decode(sent, null).get(0).getUserId());
+    }
+
+    @Test
+    public void aFrameOfTheOldSessionReportedSentLateDoesNotCountForTheNewOne() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(7);
+        LocationBatch batch = binaryBatch(writer);
+        batch.add(fix(23.81, 90.41, 1000));
+        writer.beforeSend();
+        batch.toBytes();
+        writer.startSession();
+        writer.onSent();
+
+        batch.clear();
+        batch.add(fix(23.81, 90.41, 2000));
+        writer.beforeSend();
+        assertNotEquals(0, batch.toBytes()[0] & BinaryLocationCodec.FLAG_DECLARES_USER);
+    }
+
+    @Test
+    public void byteSizeMatchesEncodedBody() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(1);
+        LocationBatch batch = new LocationBatch(writer, 1000, 300, 5000);
+        int i = 0;
+        while (batch.add(fix(23.81 + i * 1e-4, 90.41 - i * 1e-4, 1000L * i))) {
+            assertEquals(batch.byteSize(), batch.toBytes().length);
+            i++;
+        }
+        assertTrue(batch.byteSize() <= 300);
+    }
+
+    @Test
+    public void recordedTrackRoundTripsAndIsMuchSmallerThanJson() throws Exception {
+        List<LocationData> track = TrackFixtures.load(TrackFixtures.DHAKA_DRIVE);
+        BinaryBatchWriter binaryWriter = new BinaryBatchWriter(1);
+        LocationBatch binary = new LocationBatch(binaryWriter, 20, 8 * 1024, 5000);
+        LocationBatch json = new LocationBatch(new JsonBatchWriter(), 20, 8 * 1024, 5000);
+
+        long binaryBytes = 0;
+        long jsonBytes = 0;
+        for (int start = 0; start < track.size(); start += 20) {
+            binary.clear();
+            json.clear();
+            List<LocationData> chunk = track.subList(start, Math.min(track.size(), start + 20));
+            for (LocationData fix : chunk) {
+                assertTrue(binary.add(fix));
+                assertTrue(json.add(fix));
+            }
+            byte[] body = binary.toBytes();
+            binaryWriter.onSent();
+            binaryBytes += body.length;
+            jsonBytes += json.byteSize();
+
+            List<LocationData> decoded = BinaryLocationCodec.decode(body, "android_user_001");
+            assertEquals(chunk.size(), decoded.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                LocationData expected = chunk.get(i);
+                LocationData actual = decoded.get(i);
+                assertEquals(expected.getTimestamp(), actual.getTimestamp());
+                assertEquals(expected.getLatitude(), actual.getLatitude(), 0.6e-7);
+                assertEquals(expected.getLongitude(), actual.getLongitude(), 0.6e-7);
+                assertEquals(expected.getSpeed(), actual.getSpeed(), 0.05 + 1e-9);
+                assertEquals(expected.getBearing(), actual.getBearing(), 0.05 + 1e-9);
+                assertEquals(expected.getAccuracy(), actual.getAccuracy(), 0.05 + 1e-9);
+            }
+        }
+
+        double bytesPerFix = (double) binaryBytes / track.size();
+        assertTrue("binary " + bytesPerFix + " bytes/fix", bytesPerFix < 16);
+        assertTrue("json " + jsonBytes + " vs binary " + binaryBytes, jsonBytes > 8 * binaryBytes);
+    }
+}
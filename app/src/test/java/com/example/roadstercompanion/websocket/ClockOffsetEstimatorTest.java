@@ -0,0 +1,57 @@
+package com.example.roadstercompanion.websocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockOffsetEstimatorTest {
+
+    @Test
+    public void emptyUntilFirstSample() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator(4);
+        assertFalse(clock.hasEstimate());
+        assertEquals(0, clock.offsetMillis());
+        assertEquals(-1, clock.delayMillis());
+    }
+
+    @Test
+    public void symmetricPathRecoversOffsetExactly() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator(4);
+        // Server 5 s ahead, 40 ms each way, 2 ms to reply
+        assertTrue(clock.addSample(1000, 6040, 6042, 1082));
+        assertEquals(5000, clock.offsetMillis());
+        assertEquals(80, clock.delayMillis());
+    }
+
+    @Test
+    public void usesTheSampleWithTheSmallestDelay() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator(4);
+        clock.addSample(0, 5400, 5400, 500);   // 400 ms queued on the way out: offset reads 5150
+        clock.addSample(1000, 6020, 6020, 1040);
+        clock.addSample(2000, 7030, 7030, 2250); // slow way back: offset reads 4905
+        assertEquals(5000, clock.offsetMillis());
+        assertEquals(40, clock.delayMillis());
+        assertEquals(3, clock.sampleCount());
+    }
+
+    @Test
+    public void rejectsImpossibleSamples() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator(4);
+        assertFalse(clock.addSample(1000, 6000, 6000, 999));
+        assertFalse(clock.addSample(1000, 6000, 5999, 1100));
+        assertFalse(clock.hasEstimate());
+    }
+
+    @Test
+    public void oldSamplesRollOutOfTheWindow() {
+        ClockOffsetEstimator clock = new ClockOffsetEstimator(2);
+        clock.addSample(0, 5005, 5005, 10);
+        clock.addSample(1000, 7100, 7100, 1200);
+        clock.addSample(2000, 9050, 9050, 2100); // the clock was stepped: the 10 ms sample is gone
+        assertEquals(7000, clock.offsetMillis());
+        assertEquals(2, clock.sampleCount());
+
+        clock.reset();
+        assertFalse(clock.hasEstimate());
+    }
+}
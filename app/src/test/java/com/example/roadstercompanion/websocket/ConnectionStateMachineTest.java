@@ -0,0 +1,152 @@
+package com.example.roadstercompanion.websocket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ConnectionStateMachineTest {
+
+    @Test
+    public void walksThroughTheLifecycle() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        assertEquals(ConnectionState.DISCONNECTED, machine.state());
+
+        long generation = machine.beginConnect();
+        assertEquals(1, generation);
+        assertEquals(-1, machine.beginConnect());
+        assertTrue(machine.advance(generation, ConnectionState.CONNECTING, ConnectionState.OPEN));
+        assertFalse(machine.advance(generation, ConnectionState.CONNECTING, ConnectionState.OPEN));
+        assertTrue(machine.advance(generation, ConnectionState.OPEN, ConnectionState.STOMP_READY));
+
+        assertTrue(machine.lost(generation));
+        assertFalse("second callback for the same socket", machine.lost(generation));
+        assertEquals(ConnectionState.DISCONNECTED, machine.state());
+        assertEquals(2, machine.beginConnect());
+    }
+
+    @Test
+    public void staleSocketCallbacksAreIgnored() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        long first = machine.beginConnect();
+        assertTrue(machine.lost(first));
+        long second = machine.beginConnect();
+
+        assertFalse(machine.lost(first));
+        assertFalse(machine.advance(first, ConnectionState.CONNECTING, ConnectionState.OPEN));
+        assertEquals(ConnectionState.CONNECTING, machine.state());
+        assertTrue(machine.advance(second, ConnectionState.CONNECTING, ConnectionState.OPEN));
+    }
+
+    @Test
+    public void closingIsFinal() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        long generation = machine.beginConnect();
+        assertTrue(machine.close());
+        assertFalse(machine.close());
+
+        assertFalse(machine.lost(generation));
+        assertFalse(machine.advance(generation, ConnectionState.CONNECTING, ConnectionState.OPEN));
+        assertEquals(-1, machine.beginConnect());
+        assertEquals(ConnectionState.CLOSING, machine.state());
+    }
+
+    /**
+     * Eight threads act as the WebSocket thread, the reconnect timer and the
+     * network callback all at once: each starts connections, advances them and
+     * reports them lost at random. Every attempt must be won by exactly one
+     * thread, and only one thread may see each attempt die.
+     */
+    @Test
+    public void concurrentTransitionsStayConsistent() throws Exception {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        int threads = 8;
+        int iterations = 200_000;
+        AtomicLong connectsWon = new AtomicLong();
+        AtomicLong lossesWon = new AtomicLong();
+        AtomicLong readyReached = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < iterations; i++) {
+                    long generation = machine.generation();
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            if (machine.beginConnect() > 0) {
+                                connectsWon.incrementAndGet();
+                            }
+                            break;
+                        case 1:
+                            machine.advance(generation, ConnectionState.CONNECTING, ConnectionState.OPEN);
+                            break;
+                        case 2:
+                            if (machine.advance(generation, ConnectionState.OPEN, ConnectionState.STOMP_READY)) {
+                                readyReached.incrementAndGet();
+                            }
+                            break;
+                        default:
+                            if (machine.lost(generation)) {
+                                lossesWon.incrementAndGet();
+                            }
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertTrue(connectsWon.get() > 1000);
+        assertTrue(readyReached.get() > 0);
+        // Every attempt got exactly one generation and died at most once
+        assertEquals(connectsWon.get(), machine.generation());
+        long stillUp = machine.state() == ConnectionState.DISCONNECTED ? 0 : 1;
+        assertEquals(connectsWon.get(), lossesWon.get() + stillUp);
+    }
+
+    @Test
+    public void concurrentConnectsHaveOneWinner() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            ConnectionStateMachine machine = new ConnectionStateMachine();
+            AtomicInteger winners = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < 6; t++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (machine.beginConnect() > 0) {
+                        winners.incrementAndGet();
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(1, winners.get());
+        }
+    }
+}
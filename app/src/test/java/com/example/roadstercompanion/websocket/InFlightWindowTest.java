@@ -0,0 +1,48 @@
+package com.example.roadstercompanion.websocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void receiptsAreCumulative() {
+        InFlightWindow window = new InFlightWindow(3);
+        long first = window.add(19, 1000);
+        window.add(39, 1010);
+        long third = window.add(59, 1020);
+        assertTrue(window.isFull());
+
+        // The receipt of the first frame was lost, the third one covers it
+        assertEquals(59, window.acknowledge(third, null));
+        assertEquals(0, window.size());
+        assertEquals(-1, window.acknowledge(first, null));
+    }
+
+    @Test
+    public void staleReceiptsAreIgnoredAfterClear() {
+        InFlightWindow window = new InFlightWindow(4);
+        long old = window.add(19, 1000);
+        window.clear();
+        window.add(19, 2000);
+        assertEquals(-1, window.acknowledge(old, null));
+        assertEquals(-1, window.acknowledge(old + 5, null));
+        assertEquals(1, window.size());
+        assertEquals(2000, window.oldestSentAt());
+    }
+
+    @Test
+    public void framesWithoutJournalRecordsAndAbandonedOnes() {
+        InFlightWindow window = new InFlightWindow(4);
+        window.add(-1, 1000);
+        long direct = window.add(-1, 1001);
+        long unsent = window.add(7, 1002);
+        window.abandon(unsent);
+        assertEquals(2, window.size());
+        long[] released = new long[1];
+        assertEquals(-1, window.acknowledge(direct, sentAt -> released[0] += sentAt));
+        assertEquals(2001, released[0]);
+        assertEquals(-1, window.oldestSentAt());
+    }
+}
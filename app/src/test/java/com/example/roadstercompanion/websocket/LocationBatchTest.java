@@ -0,0 +1,80 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LocationBatchTest {
+
+    private static LocationData fix(long t) {
+        LocationData data = new LocationData("android_user_001", 23.8103, 90.4125, 4.5, 16.7, 182.0);
+        data.setTimestamp(t);
+        return data;
+    }
+
+    private static String json(LocationBatch batch) {
+        return new String(batch.toBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void producesJsonArray() {
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 10, 4096, 5000);
+        batch.add(fix(1));
+        batch.add(fix(2));
+
+        LocationData[] parsed = new Gson().fromJson(json(batch), LocationData[].class);
+        assertEquals(2, parsed.length);
+        assertEquals(2L, parsed[1].getTimestamp());
+        assertEquals(json(batch).length(), batch.byteSize());
+    }
+
+    @Test
+    public void fullAtMaxCount() {
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 3, 4096, 5000);
+        assertTrue(batch.add(fix(1)));
+        assertTrue(batch.add(fix(2)));
+        assertFalse(batch.isFull());
+        assertTrue(batch.add(fix(3)));
+        assertTrue(batch.isFull());
+        assertFalse(batch.add(fix(4)));
+        assertEquals(3, batch.size());
+    }
+
+    @Test
+    public void neverExceedsMaxBytes() {
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 100, 600, 5000);
+        int added = 0;
+        while (batch.add(fix(added))) {
+            added++;
+        }
+        assertTrue(added > 1);
+        assertTrue(batch.byteSize() <= 600);
+        assertEquals(json(batch).length(), batch.byteSize());
+    }
+
+    @Test
+    public void oversizedFixStillGoesOutAlone() {
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 100, 10, 5000);
+        assertTrue(batch.add(fix(1)));
+        assertTrue(batch.isFull());
+    }
+
+    @Test
+    public void dueAfterMaxAgeOfOldestFix() {
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 10, 4096, 5000);
+        assertFalse(batch.isDue(Long.MAX_VALUE));
+        batch.add(fix(1000));
+        batch.add(fix(3000));
+        assertFalse(batch.isDue(5999));
+        assertTrue(batch.isDue(6000));
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals("[]", json(batch));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LocationJsonWriterTest {
+
+    private static String write(LocationData fix) {
+        ByteBuffer out = ByteBuffer.allocate(LocationJsonWriter.maxSize(fix.getUserId()));
+        new LocationJsonWriter().write(out, fix);
+        return new String(out.array(), 0, out.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writesFixedPointFields() {
+        LocationData fix = new LocationData("android_user_001", 23.81031234, -90.4125, 4.8, 0.0, 359.996);
+        fix.setTimestamp(1752731000123L);
+        assertEquals("{\"userId\":\"android_user_001\",\"latitude\":23.8103123,\"longitude\":-90.4125000,"
+                + "\"accuracy\":4.80,\"speed\":0.00,\"bearing\":360.00,\"timestamp\":1752731000123}", write(fix));
+    }
+
+    @Test
+    public void writesEnqueueTimeWhenKnown() {
+        LocationData fix = new LocationData("u", 1.0, 2.0, 3.0, 4.0, 5.0);
+        fix.setTimestamp(1752731000123L);
+        fix.setEnqueuedAt(1752731000456L);
+        assertTrue(write(fix).endsWith("\"timestamp\":1752731000123,\"enqueuedAt\":1752731000456}"));
+    }
+
+    @Test
+    public void readableByGson() {
+        LocationData fix = new LocationData("driver \"7\" \\ ünïcødé 🚗", -33.8688197, 151.2092955, 12.5, 27.78, 90.0);
+        fix.setTimestamp(42);
+        LocationData parsed = new Gson().fromJson(write(fix), LocationData.class);
+        assertEquals(fix.getUserId(), parsed.getUserId());
+        assertEquals(fix.getLatitude(), parsed.getLatitude(), 1e-7);
+        assertEquals(fix.getLongitude(), parsed.getLongitude(), 1e-7);
+        assertEquals(27.78, parsed.getSpeed(), 1e-9);
+        assertEquals(42, parsed.getTimestamp());
+    }
+
+    @Test
+    public void nullUserIdAndNonFiniteNumbers() {
+        LocationData fix = new LocationData(null, Double.NaN, 1.0, Double.POSITIVE_INFINITY, -0.001, 0.0);
+        String json = write(fix);
+        assertTrue(json, json.startsWith("{\"userId\":null,\"latitude\":0,"));
+        assertTrue(json, json.contains("\"accuracy\":0,\"speed\":0.00,"));
+        assertNotNull(new Gson().fromJson(json, LocationData.class));
+    }
+
+    @Test
+    public void writingDoesNotAllocate() {
+        LocationJsonWriter writer = new LocationJsonWriter();
+        ByteBuffer out = ByteBuffer.allocate(LocationJsonWriter.maxSize("android_user_001"));
+        Runnable work = () -> {
+            for (int i = 0; i < 10_000; i++) {
+                out.clear();
+                writer.write(out, "android_user_001", 23.8103 + i * 1e-7, 90.4125, 4.8, 16.7, 182.4, 1752731000000L + i);
+            }
+        };
+        work.run();
+        long allocated = AllocationCounter.allocatedBytes(work);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
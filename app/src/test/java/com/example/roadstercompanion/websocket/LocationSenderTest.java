@@ -0,0 +1,443 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.journal.LocationJournal;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class LocationSenderTest {
+
+    /**
+     * Minimal STOMP server: answers CONNECT with CONNECTED and clock pings
+     * with its own clock, {@code clockAheadMillis} ahead of ours, and counts
+     * connections. Location frames get receipts if {@code sendReceipts} is
+     * set; they can be held back until {@link #releaseReceipts()}, or dropped
+     * for the rest of a connection with {@link #loseReceipts()}.
+     */
+    private static final class StubServer extends WebSocketServer {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger opened = new AtomicInteger();
+        final List<WebSocket> sockets = new CopyOnWriteArrayList<>();
+        final List<String> sends = new CopyOnWriteArrayList<>();
+        final List<String> subscribes = new CopyOnWriteArrayList<>();
+        final List<String> locationFrames = new CopyOnWriteArrayList<>();
+        volatile long clockAheadMillis;
+        volatile boolean sendReceipts;
+        volatile boolean holdReceipts;
+        private final List<WebSocket> losingReceipts = new CopyOnWriteArrayList<>();
+        private final List<Runnable> heldReceipts = new ArrayList<>();
+
+        StubServer() {
+            super(new InetSocketAddress("localhost", 0));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            opened.incrementAndGet();
+            sockets.add(conn);
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            sockets.remove(conn);
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            reply(conn, message);
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, ByteBuffer message) {
+            reply(conn, StandardCharsets.UTF_8.decode(message).toString());
+        }
+
+        private void reply(WebSocket conn, String frame) {
+            if (frame.startsWith("CONNECT\n")) {
+                conn.send("CONNECTED\nversion:1.1\nheart-beat:0,0\n\n\0");
+            } else if (frame.startsWith("SUBSCRIBE\n")) {
+                subscribes.add(frame);
+            } else if (frame.startsWith("SEND\n")) {
+                sends.add(frame);
+                if (frame.contains("\ndestination:/app/clock\n")) {
+                    String t0 = frame.replaceAll("(?s).*\nt0:(\\d+)\n.*", "$1");
+                    long now = System.currentTimeMillis() + clockAheadMillis;
+                    conn.send("MESSAGE\nsubscription:sub-clock\nt0:" + t0 + "\nt1:" + now + "\nt2:" + now
+                            + "\n\n\0");
+                } else if (frame.contains("\ndestination:/app/location\n")) {
+                    locationFrames.add(frame);
+                    receipt(conn, frame);
+                }
+            }
+        }
+
+        private void receipt(WebSocket conn, String frame) {
+            if (!sendReceipts || !frame.contains("\nreceipt:") || losingReceipts.contains(conn)) {
+                return;
+            }
+            String id = frame.replaceAll("(?s).*\nreceipt:(\\d+)\n.*", "$1");
+            Runnable send = () -> conn.send("RECEIPT\nreceipt-id:" + id + "\n\n\0");
+            synchronized (heldReceipts) {
+                if (holdReceipts) {
+                    heldReceipts.add(send);
+                    return;
+                }
+            }
+            send.run();
+        }
+
+        void releaseReceipts() {
+            synchronized (heldReceipts) {
+                holdReceipts = false;
+                for (Runnable send : heldReceipts) {
+                    send.run();
+                }
+                heldReceipts.clear();
+            }
+        }
+
+        void loseReceipts() {
+            losingReceipts.addAll(sockets);
+        }
+
+        // How many frames carried the fix with this journal sequence
+        int timesSent(long seq) {
+            int n = 0;
+            for (String frame : locationFrames) {
+                long first = Long.parseLong(frame.replaceAll("(?s).*\nseq:(\\d+)\n.*", "$1"));
+                int fixes = frame.split("\"timestamp\"", -1).length - 1;
+                n += seq >= first && seq < first + fixes ? 1 : 0;
+            }
+            return n;
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+        void dropAll() {
+            for (WebSocket socket : sockets) {
+                socket.close(1001, "going away");
+            }
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private StubServer server;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final List<LocationSender> senders = new ArrayList<>();
+    private final List<LocationJournal> journals = new ArrayList<>();
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StubServer();
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        for (LocationSender sender : senders) {
+            sender.disconnect();
+        }
+        for (LocationJournal journal : journals) {
+            journal.close();
+        }
+        server.stop(1000);
+    }
+
+    private LocationSender sender(long backoffBaseMillis, long backoffMaxMillis) {
+        LocationSender sender = new LocationSender("ws://localhost:" + server.getPort() + "/ws", "u", null,
+                WireFormat.JSON, metrics, new Backoff(backoffBaseMillis, backoffMaxMillis, new Random(1)));
+        senders.add(sender);
+        return sender;
+    }
+
+    private LocationSender journaledSender(LocationJournal journal, int maxFramesInFlight, long receiptTimeoutMillis) {
+        LocationSender sender = new LocationSender("ws://localhost:" + server.getPort() + "/ws", "u", journal,
+                WireFormat.JSON, metrics, new Backoff(50, 200, new Random(1)), null, maxFramesInFlight,
+                receiptTimeoutMillis);
+        senders.add(sender);
+        return sender;
+    }
+
+    private LocationJournal journal() throws IOException {
+        LocationJournal journal = LocationJournal.open(tmp.newFile(), 1000);
+        journals.add(journal);
+        return journal;
+    }
+
+    // Old enough to be due at once; queued before connecting they go out 20 to a frame
+    private static void queue(LocationSender sender, int count) {
+        long start = System.currentTimeMillis() - 60_000;
+        for (int i = 0; i < count; i++) {
+            sender.sendLocation(start + i, 23.8, 90.4, 5, 10, 90);
+        }
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(what, System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitState(LocationSender sender, ConnectionState state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sender.getConnectionState() != state) {
+            assertTrue("stuck in " + sender.getConnectionState() + ", expected " + state,
+                    System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void concurrentConnectRequestsOpenOneSocket() throws Exception {
+        LocationSender sender = sender(50, 200);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            boolean viaNetworkCallback = t % 2 == 0;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    if (viaNetworkCallback) {
+                        sender.reconnectNow();
+                    } else {
+                        sender.connectWebSocket();
+                    }
+                    sender.sendLocation(23.8, 90.4, 5, 10, 90);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        awaitState(sender, ConnectionState.STOMP_READY);
+        Thread.sleep(200);
+        assertEquals(1, server.opened.get());
+        assertTrue(sender.isConnected());
+        assertEquals(800, metrics.fixesSent.get() + metrics.fixesDropped.get());
+        assertEquals(metrics.fixesSent.get(), metrics.sendLatencyMillis.count());
+    }
+
+    @Test
+    public void reconnectsAfterTheServerDropsTheConnection() throws Exception {
+        LocationSender sender = sender(50, 200);
+        sender.connectWebSocket();
+        awaitState(sender, ConnectionState.STOMP_READY);
+
+        for (int drop = 0; drop < 5; drop++) {
+            server.dropAll();
+            awaitState(sender, ConnectionState.DISCONNECTED);
+            awaitState(sender, ConnectionState.STOMP_READY);
+        }
+        assertEquals(6, server.opened.get());
+        assertEquals(5, metrics.reconnects.get());
+    }
+
+    @Test
+    public void reconnectNowSkipsTheBackoff() throws Exception {
+        // A minute of backoff: only reconnectNow can bring the connection back in time
+        LocationSender sender = sender(60_000, 60_000);
+        sender.connectWebSocket();
+        awaitState(sender, ConnectionState.STOMP_READY);
+
+        server.dropAll();
+        awaitState(sender, ConnectionState.DISCONNECTED);
+        long start = System.nanoTime();
+        sender.reconnectNow();
+        awaitState(sender, ConnectionState.STOMP_READY);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, server.opened.get());
+    }
+
+    @Test
+    public void disconnectIsFinal() throws Exception {
+        LocationSender sender = sender(50, 200);
+        sender.connectWebSocket();
+        awaitState(sender, ConnectionState.STOMP_READY);
+
+        sender.disconnect();
+        assertEquals(ConnectionState.CLOSING, sender.getConnectionState());
+        sender.reconnectNow();
+        sender.connectWebSocket();
+        Thread.sleep(300);
+
+        assertEquals(ConnectionState.CLOSING, sender.getConnectionState());
+        assertEquals(1, server.opened.get());
+        assertFalse(sender.isConnected());
+    }
+
+    @Test
+    public void subscribesToNoUnfilteredLocationTopic() throws Exception {
+        LocationSender sender = sender(50, 200);
+        sender.connectWebSocket();
+        awaitState(sender, ConnectionState.STOMP_READY);
+        // Subscriptions go out before the first clock ping
+        await("no clock ping", () -> !server.sends.isEmpty());
+
+        assertFalse(server.subscribes.isEmpty());
+        for (String frame : server.subscribes) {
+            if (frame.contains("\ndestination:/topic/locations\n")) {
+                assertTrue(frame, frame.contains("\nregion:") || frame.contains("\nusers:"));
+            }
+        }
+    }
+
+    @Test
+    public void estimatesTheServerClockAndStampsFrames() throws Exception {
+        server.clockAheadMillis = 5000;
+        LocationSender sender = sender(50, 200);
+        sender.connectWebSocket();
+        awaitState(sender, ConnectionState.STOMP_READY);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.registry().value("clock.error_ms") < 0) {
+            assertTrue("no clock reply", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(5000, metrics.registry().value("clock.offset_ms"), 100);
+        assertEquals(1, metrics.clockRttMillis.count());
+
+        long before = System.currentTimeMillis();
+        sender.sendLocation(before - 800, 23.8, 90.4, 5, 10, 90);
+        String send = null;
+        while (send == null) {
+            assertTrue("location not sent", System.nanoTime() < deadline);
+            for (String frame : server.sends) {
+                if (frame.contains("destination:/app/location")) {
+                    send = frame;
+                }
+            }
+            Thread.sleep(5);
+        }
+        long sentAt = Long.parseLong(send.replaceAll("(?s).*\nsent-at:(\\d+)\n.*", "$1"));
+        assertTrue(sentAt >= before && sentAt <= System.currentTimeMillis());
+        assertTrue(send, send.contains("\"timestamp\":" + (before - 800)));
+        assertEquals(1000, metrics.sendLatencyMillis.max(), 200);
+    }
+
+    @Test
+    public void delayedReceiptsHoldBackFurtherFrames() throws Exception {
+        server.sendReceipts = true;
+        server.holdReceipts = true;
+        LocationJournal journal = journal();
+        LocationSender sender = journaledSender(journal, 2, 60_000);
+        queue(sender, 100);
+        sender.connectWebSocket();
+
+        await("window not filled", () -> server.locationFrames.size() == 2);
+        Thread.sleep(200);
+        assertEquals(2, server.locationFrames.size());
+        assertTrue(sender.isCongested());
+        assertEquals(2, metrics.registry().value("send.in_flight"));
+        assertEquals(100, journal.size());
+
+        server.releaseReceipts();
+        await("backlog not delivered", () -> journal.size() == 0);
+        assertEquals(5, server.locationFrames.size());
+        assertFalse(sender.isCongested());
+        assertEquals(5, metrics.receiptRttMillis.count());
+    }
+
+    @Test
+    public void unacknowledgedFramesAreSentAgainOnTheNextSession() throws Exception {
+        server.sendReceipts = true;
+        LocationJournal journal = journal();
+        LocationSender sender = journaledSender(journal, 8, 300);
+        queue(sender, 40);
+        sender.connectWebSocket();
+        await("first frames not acknowledged", () -> journal.size() == 0);
+
+        // Receipts stop coming on this connection: it is given up on and the next one sends the fixes again
+        server.loseReceipts();
+        queue(sender, 40);
+        await("lost frames not sent again", () -> server.opened.get() == 2 && journal.size() == 0);
+        for (long seq = 0; seq < 80; seq++) {
+            assertEquals("fix " + seq, seq < 40 ? 1 : 2, server.timesSent(seq));
+        }
+        assertEquals(1, metrics.reconnects.get());
+    }
+
+    @Test
+    public void serverWithoutReceiptsFallsBackToWrittenMeansDelivered() throws Exception {
+        LocationJournal journal = journal();
+        LocationSender sender = journaledSender(journal, 2, 300);
+        queue(sender, 100);
+        sender.connectWebSocket();
+
+        await("backlog not delivered", () -> server.locationFrames.size() == 5);
+        assertEquals(0, journal.size());
+        assertEquals(1, server.opened.get());
+        assertFalse(sender.isCongested());
+    }
+
+    @Test
+    public void geofenceEventsWaitForTheConnection() throws Exception {
+        LocationSender sender = sender(50, 200);
+        sender.sendGeofenceEvent("depot-1", "depot", true, 1_752_731_000_000L, 23.8, 90.4);
+        sender.connectWebSocket();
+        await("queued event", () -> geofenceFrames().size() == 1);
+        sender.sendGeofenceEvent("depot-1", "depot", false, 1_752_731_060_000L, 23.81, 90.41);
+        await("live event", () -> geofenceFrames().size() == 2);
+
+        String entered = geofenceFrames().get(0);
+        assertTrue(entered, entered.contains("\"fenceId\":\"depot-1\""));
+        assertTrue(entered, entered.contains("\"type\":\"ENTER\""));
+        assertTrue(entered, entered.contains("\"timestamp\":1752731000000"));
+        assertTrue(geofenceFrames().get(1).contains("\"type\":\"EXIT\""));
+        assertEquals(2, metrics.geofenceEventsSent.get());
+        assertEquals(0, metrics.fixesSent.get());
+    }
+
+    private List<String> geofenceFrames() {
+        List<String> frames = new ArrayList<>();
+        for (String frame : server.sends) {
+            if (frame.contains("\ndestination:/app/geofence\n")) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+}
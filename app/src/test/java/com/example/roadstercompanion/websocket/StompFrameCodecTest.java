@@ -0,0 +1,130 @@
+package com.example.roadstercompanion.websocket;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StompFrameCodecTest {
+
+    private static String text(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void encodesFrameWithoutBody() {
+        StompFrameEncoder encoder = new StompFrameEncoder(16);
+        ByteBuffer frame = encoder.begin("SUBSCRIBE")
+                .header("id", "sub-0")
+                .header("destination", "/topic/locations")
+                .end();
+        assertEquals("SUBSCRIBE\nid:sub-0\ndestination:/topic/locations\n\n\u0000", text(frame));
+    }
+
+    @Test
+    public void encodesBodyAndNumericHeader() {
+        StompFrameEncoder encoder = new StompFrameEncoder(8);
+        byte[] body = "[1,2]".getBytes(StandardCharsets.UTF_8);
+        encoder.begin("SEND")
+                .header("destination", "/app/location")
+                .header("content-length", body.length)
+                .body(body.length)
+                .put(body);
+        assertEquals("SEND\ndestination:/app/location\ncontent-length:5\n\n[1,2]\u0000", text(encoder.end()));
+    }
+
+    @Test
+    public void escapesHeadersExceptInConnect() {
+        StompFrameEncoder encoder = new StompFrameEncoder(64);
+        assertEquals("SEND\nx:a\\cb\\nc\\\\\n\n\u0000", text(encoder.begin("SEND").header("x", "a:b\nc\\").end()));
+        assertEquals("CONNECT\nhost:a:b\n\n\u0000", text(encoder.begin("CONNECT").header("host", "a:b").end()));
+    }
+
+    @Test
+    public void decodesConnectedFrame() {
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        assertTrue(decoder.decode("CONNECTED\nversion:1.1\nheart-beat:0,0\n\n\u0000"));
+        assertEquals(StompFrameDecoder.Command.CONNECTED, decoder.command());
+        assertTrue(decoder.hasHeader("version", "1.1"));
+        assertFalse(decoder.hasHeader("version", "1.2"));
+        assertNull(decoder.header("session"));
+    }
+
+    @Test
+    public void decodesMessageFromBytesWithCrLf() {
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        ByteBuffer frame = ByteBuffer.wrap("MESSAGE\r\ndestination:/topic/locations\r\ncontent-length:2\r\n\r\n{}\u0000".getBytes(StandardCharsets.UTF_8));
+        assertTrue(decoder.decode(frame));
+        assertEquals(StompFrameDecoder.Command.MESSAGE, decoder.command());
+        assertEquals("/topic/locations", decoder.header("destination"));
+        assertEquals(2, decoder.headerAsLong("content-length", -1));
+        assertEquals("{}", decoder.body());
+    }
+
+    @Test
+    public void heartBeatsAndGarbage() {
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        assertTrue(decoder.decode("\n"));
+        assertEquals(StompFrameDecoder.Command.HEARTBEAT, decoder.command());
+        assertFalse(decoder.decode("NOT A FRAME"));
+        assertTrue(decoder.decode("RECEIPT\nreceipt-id:77\n\n\u0000"));
+        assertEquals(StompFrameDecoder.Command.RECEIPT, decoder.command());
+        assertEquals(77, decoder.headerAsLong("receipt-id", -1));
+    }
+
+    @Test
+    public void encodingBatchFramesDoesNotAllocate() {
+        StompFrameEncoder encoder = new StompFrameEncoder(256);
+        LocationBatch batch = new LocationBatch(new JsonBatchWriter(), 20, 8 * 1024, 5000);
+        LocationData fix = new LocationData("android_user_001", 23.8103, 90.4125, 4.8, 16.7, 182.4);
+
+        Runnable sendPath = () -> {
+            for (int i = 0; i < 10_000; i++) {
+                batch.clear();
+                fix.setTimestamp(1_752_731_000_000L + i);
+                fix.setLatitude(23.8103 + i * 1e-6);
+                while (batch.add(fix)) {
+                    // fill to max count
+                }
+                int length = batch.byteSize();
+                encoder.begin("SEND")
+                        .header("destination", "/app/location")
+                        .header("content-type", "application/json")
+                        .header("content-length", length);
+                batch.getWriter().writeTo(encoder.body(length));
+                encoder.end();
+            }
+        };
+        sendPath.run(); // warm up, let buffers reach their steady size
+
+        long allocated = AllocationCounter.allocatedBytes(sendPath);
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    @Test
+    public void decodingDoesNotAllocate() {
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        String frame = "MESSAGE\ndestination:/topic/locations\nsubscription:sub-0\nmessage-id:abc-1\n"
+                + "content-type:application/json\n\n{\"userId\":\"u\"}\u0000";
+
+        Runnable receivePath = () -> {
+            for (int i = 0; i < 10_000; i++) {
+                decoder.decode(frame);
+                if (decoder.command() != StompFrameDecoder.Command.MESSAGE
+                        || !decoder.hasHeader("subscription", "sub-0")) {
+                    throw new AssertionError();
+                }
+            }
+        };
+        receivePath.run();
+
+        long allocated = AllocationCounter.allocatedBytes(receivePath);
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+}
@@ -0,0 +1,58 @@
+// JMH benchmarks for the send path. Plain JVM module: it compiles the
+// Android-free packages of :app straight from their sources, so the numbers
+// track the code that ships. Run with ./gradlew :benchmarks:jmh
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/example/roadstercompanion/models/**",
+                "com/example/roadstercompanion/journal/**",
+                "com/example/roadstercompanion/websocket/**",
+                "com/example/roadstercompanion/pipeline/**",
+                "com/example/roadstercompanion/geofence/**",
+                "com/example/roadstercompanion/metrics/**",
+                "com/example/roadstercompanion/diagnostics/**"
+            )
+            // Needs android.util.Log and a live socket
+            exclude("com/example/roadstercompanion/websocket/LocationSender.java")
+            // Parses GeoJSON with Gson; the benchmark builds its fences in code
+            exclude("com/example/roadstercompanion/geofence/GeofenceLoader.java")
+        }
+    }
+    named("jmh") {
+        // Recorded tracks shared with the app's unit tests
+        resources.srcDir("../app/src/test/resources")
+    }
+}
+
+dependencies {
+    // Gson is what LocationData was serialized with before LocationJsonWriter, kept as the baseline
+    jmhImplementation(libs.gson)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    // Throughput, plus sampled latencies for p50/p90/p99, plus allocation rate per op
+    benchmarkMode = listOf("thrpt", "sample")
+    timeUnit = "us"
+    profilers = listOf("gc")
+    fork = 1
+    warmupIterations = 3
+    warmup = "1s"
+    iterations = 5
+    timeOnIteration = "1s"
+    resultFormat = "JSON"
+    // ./gradlew :benchmarks:jmh -Pjmh.includes=Stomp runs a subset
+    project.findProperty("jmh.includes")?.let { includes = listOf(it.toString()) }
+}
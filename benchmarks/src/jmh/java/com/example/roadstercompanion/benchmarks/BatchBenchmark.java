@@ -0,0 +1,102 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.journal.JournalDrainer;
+import com.example.roadstercompanion.journal.LocationJournal;
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.BinaryBatchWriter;
+import com.example.roadstercompanion.websocket.JsonBatchWriter;
+import com.example.roadstercompanion.websocket.LocationBatch;
+import com.example.roadstercompanion.websocket.LocationBatchWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Filling and encoding a full batch (20 fixes, 8 KB, as LocationSender uses),
+ * and draining the same number of fixes out of the journal into a sink.
+ * One operation is one batch.
+ */
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    private static final int BATCH_FIXES = 20;
+
+    @Param({"JSON", "BINARY"})
+    public String format;
+
+    private LocationData[] track;
+    private int next;
+    private LocationBatch batch;
+    private ByteBuffer frameBody;
+    private File journalFile;
+    private LocationJournal journal;
+    private JournalDrainer drainer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        track = Tracks.load(Tracks.DHAKA_DRIVE);
+        LocationBatchWriter writer = "BINARY".equals(format) ? new BinaryBatchWriter(1) : new JsonBatchWriter();
+        batch = new LocationBatch(writer, BATCH_FIXES, 8 * 1024, 5000);
+        frameBody = ByteBuffer.allocate(8 * 1024 + 512);
+
+        journalFile = File.createTempFile("bench", ".journal");
+        journal = LocationJournal.open(journalFile, 16384);
+        LocationBatch drainBatch = new LocationBatch(
+                "BINARY".equals(format) ? new BinaryBatchWriter(1) : new JsonBatchWriter(), BATCH_FIXES, 8 * 1024, 5000);
+        drainer = new JournalDrainer(journal, drainBatch, "android_user_001", new JournalDrainer.Sink() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public boolean send(LocationBatch sent, long firstSeq) {
+                frameBody.clear();
+                sent.getWriter().writeTo(frameBody);
+                sent.getWriter().onSent();
+                drainer.acknowledge(firstSeq + sent.size() - 1);
+                return true;
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        journalFile.delete();
+    }
+
+    private LocationData nextFix() {
+        LocationData fix = track[next];
+        next = next + 1 == track.length ? 0 : next + 1;
+        return fix;
+    }
+
+    @Benchmark
+    public int fillAndEncode() {
+        batch.clear();
+        while (batch.add(nextFix())) {
+            // until full
+        }
+        frameBody.clear();
+        batch.getWriter().writeTo(frameBody);
+        return frameBody.position();
+    }
+
+    @Benchmark
+    public int appendAndDrain() {
+        for (int i = 0; i < BATCH_FIXES; i++) {
+            journal.append(nextFix());
+        }
+        return drainer.drain(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.geofence.Geofence;
+import com.example.roadstercompanion.geofence.GeofenceEngine;
+import com.example.roadstercompanion.models.LocationData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Per-fix cost of the geofence stage as the number of fences grows, against
+ * testing every fence's bounding box and polygon for every fix. Fences are
+ * random octagons of 50 to 400 m radius scattered around the recorded drive,
+ * so the car keeps crossing some of them.
+ */
+@State(Scope.Thread)
+public class GeofenceBenchmark {
+
+    private static final double METERS_PER_DEGREE = 111_195;
+
+    @Param({"100", "1000", "5000"})
+    public int fenceCount;
+
+    private LocationData[] track;
+    private int next;
+    private GeofenceEngine engine;
+    private Geofence[] fences;
+    private long transitions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        track = Tracks.load(Tracks.DHAKA_DRIVE);
+        Random random = new Random(7);
+        List<Geofence> list = new ArrayList<>();
+        for (int i = 0; i < fenceCount; i++) {
+            LocationData at = track[random.nextInt(track.length)];
+            double lat = at.getLatitude() + (random.nextDouble() - 0.5) * 4000 / METERS_PER_DEGREE;
+            double lng = at.getLongitude() + (random.nextDouble() - 0.5) * 4000 / METERS_PER_DEGREE;
+            double[] lats = new double[8];
+            double[] lngs = new double[8];
+            for (int v = 0; v < 8; v++) {
+                double radius = (50 + random.nextDouble() * 350) / METERS_PER_DEGREE;
+                lats[v] = lat + radius * Math.sin(v * Math.PI / 4);
+                lngs[v] = lng + radius * Math.cos(v * Math.PI / 4) / Math.cos(Math.toRadians(lat));
+            }
+            list.add(new Geofence("f" + i, "zone", lats, lngs));
+        }
+        fences = list.toArray(new Geofence[0]);
+        engine = new GeofenceEngine(list, 25, (fence, entered, fix) -> transitions++);
+    }
+
+    private LocationData nextFix() {
+        LocationData fix = track[next];
+        next = next + 1 == track.length ? 0 : next + 1;
+        return fix;
+    }
+
+    @Benchmark
+    public boolean indexed() {
+        return engine.process(nextFix());
+    }
+
+    /** What the stage would cost without the grid, minus the hysteresis bookkeeping. */
+    @Benchmark
+    public int scanAll() {
+        LocationData fix = nextFix();
+        int inside = 0;
+        for (Geofence fence : fences) {
+            if (fence.boundsContain(fix.getLatitude(), fix.getLongitude())
+                    && fence.signedDistanceMeters(fix.getLatitude(), fix.getLongitude()) >= 25) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.BinaryBatchWriter;
+import com.example.roadstercompanion.websocket.LocationJsonWriter;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Encoding one fix: Gson (the original path) against the hand-written JSON writer and the binary format. */
+@State(Scope.Thread)
+public class LocationJsonBenchmark {
+
+    private final Gson gson = new Gson();
+    private final LocationJsonWriter jsonWriter = new LocationJsonWriter();
+    private final BinaryBatchWriter binaryWriter = new BinaryBatchWriter(1);
+    private LocationData fix;
+    private ByteBuffer out;
+
+    @Setup
+    public void setUp() throws IOException {
+        LocationData[] fixes = Tracks.load(Tracks.DHAKA_DRIVE);
+        fix = fixes[fixes.length / 2];
+        out = ByteBuffer.allocate(LocationJsonWriter.maxSize(fix.getUserId()));
+    }
+
+    @Benchmark
+    public byte[] gson() {
+        return gson.toJson(fix).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int locationJsonWriter() {
+        out.clear();
+        jsonWriter.write(out, fix);
+        return out.position();
+    }
+
+    @Benchmark
+    public int binaryRecord() {
+        binaryWriter.reset();
+        binaryWriter.stage(fix);
+        binaryWriter.commit();
+        return binaryWriter.byteSize();
+    }
+}
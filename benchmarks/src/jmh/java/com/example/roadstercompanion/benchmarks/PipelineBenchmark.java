@@ -0,0 +1,111 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.journal.LocationJournal;
+import com.example.roadstercompanion.metrics.PipelineMetrics;
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.pipeline.AdaptiveSamplingPolicy;
+import com.example.roadstercompanion.pipeline.DeadReckoningSimplifier;
+import com.example.roadstercompanion.pipeline.KalmanSmoother;
+import com.example.roadstercompanion.pipeline.SamplingMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Per-fix work of the location callback, stage by stage and all together.
+ * Fixes are replayed from the recorded drive; timestamps keep increasing when
+ * the replay wraps around so the stages never see time go backwards.
+ */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    private LocationData[] track;
+    private long span;
+    private int next;
+    private long lap;
+
+    private final LocationData fix = new LocationData();
+    private final AdaptiveSamplingPolicy samplingPolicy = new AdaptiveSamplingPolicy(SamplingMode.CRUISE);
+    private final KalmanSmoother smoother = new KalmanSmoother();
+    private final DeadReckoningSimplifier simplifier = new DeadReckoningSimplifier(10, 30_000);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private File journalFile;
+    private LocationJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        track = Tracks.load(Tracks.DHAKA_DRIVE);
+        span = Tracks.span(track);
+        fix.setUserId("android_user_001");
+        journalFile = File.createTempFile("bench", ".journal");
+        journal = LocationJournal.open(journalFile, 16384);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        journalFile.delete();
+    }
+
+    // Copies the next recorded fix into the reused carrier, like the pipeline does
+    private LocationData nextFix() {
+        LocationData source = track[next];
+        fix.setTimestamp(source.getTimestamp() + lap * span);
+        fix.setLatitude(source.getLatitude());
+        fix.setLongitude(source.getLongitude());
+        fix.setAccuracy(source.getAccuracy());
+        fix.setSpeed(source.getSpeed());
+        fix.setBearing(source.getBearing());
+        if (++next == track.length) {
+            next = 0;
+            lap++;
+        }
+        return fix;
+    }
+
+    @Benchmark
+    public boolean samplingPolicy() {
+        LocationData f = nextFix();
+        return samplingPolicy.observe(f.getTimestamp(), f.getLatitude(), f.getLongitude(), f.getAccuracy(),
+                f.getSpeed(), f.getBearing());
+    }
+
+    @Benchmark
+    public boolean kalmanSmoother() {
+        return smoother.process(nextFix());
+    }
+
+    @Benchmark
+    public boolean deadReckoningSimplifier() {
+        return simplifier.process(nextFix());
+    }
+
+    @Benchmark
+    public long journalAppend() {
+        long seq = journal.append(nextFix());
+        journal.commit(seq);
+        return seq;
+    }
+
+    /** What LocationPipeline.process and LocationSender.sendLocation do for one fix, minus the socket. */
+    @Benchmark
+    public boolean fullCallback() {
+        LocationData f = nextFix();
+        metrics.fixesReceived.increment();
+        samplingPolicy.observe(f.getTimestamp(), f.getLatitude(), f.getLongitude(), f.getAccuracy(),
+                f.getSpeed(), f.getBearing());
+        if (!smoother.process(f) || !simplifier.process(f)) {
+            metrics.fixesFiltered.increment();
+            return false;
+        }
+        journal.commit(journal.append(f));
+        return true;
+    }
+}
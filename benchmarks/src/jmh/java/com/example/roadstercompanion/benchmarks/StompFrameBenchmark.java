@@ -0,0 +1,81 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.LocationJsonWriter;
+import com.example.roadstercompanion.websocket.StompFrameDecoder;
+import com.example.roadstercompanion.websocket.StompFrameEncoder;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Building a SEND frame for one fix and parsing an incoming MESSAGE frame,
+ * each against the string-concatenation/split code the sender started with.
+ */
+@State(Scope.Thread)
+public class StompFrameBenchmark {
+
+    private static final String DESTINATION = "/app/location";
+    private static final String CONTENT_TYPE = "application/json";
+
+    private final Gson gson = new Gson();
+    private final StompFrameEncoder encoder = new StompFrameEncoder(512);
+    private final StompFrameDecoder decoder = new StompFrameDecoder();
+    private final LocationJsonWriter jsonWriter = new LocationJsonWriter();
+    private LocationData fix;
+    private String messageText;
+    private ByteBuffer messageBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        LocationData[] fixes = Tracks.load(Tracks.DHAKA_DRIVE);
+        fix = fixes[fixes.length / 2];
+        messageText = "MESSAGE\ndestination:/topic/locations\ncontent-type:application/json\n"
+                + "subscription:sub-0\nmessage-id:a1b2c3-17\ncontent-length:" + gson.toJson(fix).length() + "\n\n"
+                + gson.toJson(fix) + "\0";
+        messageBytes = ByteBuffer.wrap(messageText.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public byte[] encodeWithStrings() {
+        String frame = "SEND\ndestination:" + DESTINATION + "\ncontent-type:" + CONTENT_TYPE + "\n\n"
+                + gson.toJson(fix) + "\0";
+        return frame.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int encodeWithFrameEncoder() {
+        encoder.begin("SEND")
+                .header("destination", DESTINATION)
+                .header("content-type", CONTENT_TYPE);
+        jsonWriter.write(encoder.body(LocationJsonWriter.maxSize(fix.getUserId())), fix);
+        return encoder.end().remaining();
+    }
+
+    @Benchmark
+    public int decodeWithSplit() {
+        String[] lines = messageText.split("\n");
+        int subscriptions = 0;
+        for (String line : lines) {
+            if (line.startsWith("subscription:")) {
+                subscriptions++;
+            }
+        }
+        return lines[0].equals("MESSAGE") ? subscriptions : -1;
+    }
+
+    @Benchmark
+    public boolean decodeWithFrameDecoder() {
+        messageBytes.rewind();
+        return decoder.decode(messageBytes)
+                && decoder.command() == StompFrameDecoder.Command.MESSAGE
+                && decoder.hasHeader("subscription", "sub-0");
+    }
+}
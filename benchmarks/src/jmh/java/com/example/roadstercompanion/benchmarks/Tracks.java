@@ -0,0 +1,48 @@
+package com.example.roadstercompanion.benchmarks;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Loads the recorded tracks from the app's test resources (see build.gradle.kts). */
+final class Tracks {
+
+    static final String DHAKA_DRIVE = "dhaka_drive_1hz.csv";
+
+    private Tracks() {
+    }
+
+    static LocationData[] load(String name) throws IOException {
+        InputStream in = Tracks.class.getResourceAsStream("/tracks/" + name);
+        if (in == null) {
+            throw new IOException("Missing track " + name);
+        }
+        List<LocationData> fixes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("time_ms")) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                LocationData fix = new LocationData("android_user_001",
+                        Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
+                        Double.parseDouble(parts[4]), Double.parseDouble(parts[5]));
+                fix.setTimestamp(Long.parseLong(parts[0]));
+                fixes.add(fix);
+            }
+        }
+        return fixes.toArray(new LocationData[0]);
+    }
+
+    /** Track duration plus one fix interval, to shift timestamps when a benchmark wraps around. */
+    static long span(LocationData[] fixes) {
+        return fixes[fixes.length - 1].getTimestamp() - fixes[0].getTimestamp() + 1000;
+    }
+}
@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Roadster Companion"
 include(":app")
- 
\ No newline at end of file
+include(":benchmarks")
+include(":simulator")
@@ -0,0 +1,55 @@
+// Headless fleet simulator: many simulated phones, one virtual thread each,
+// sending through the app's own batching and STOMP framing to a running
+// server. Like :benchmarks it compiles the app's Android-free packages from
+// their sources. Run with ./gradlew :simulator:run --args="--clients=1000"
+plugins {
+    application
+}
+
+java {
+    // Virtual threads
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/example/roadstercompanion/simulator/**",
+                "com/example/roadstercompanion/models/**",
+                "com/example/roadstercompanion/websocket/**",
+                "com/example/roadstercompanion/metrics/**"
+            )
+            // Needs android.util.Log and Java-WebSocket; the simulator uses the JDK client instead
+            exclude("com/example/roadstercompanion/websocket/LocationSender.java")
+        }
+        // Recorded tracks shared with the app's unit tests
+        resources.srcDir("../app/src/test/resources")
+    }
+    test {
+        java {
+            // The server's body decoders, to check they read what the app's writers write
+            srcDir("../src/main/java")
+            include(
+                "com/example/roadstercompanion/**",
+                "com/example/demo/models/PhoneLocation.java",
+                "com/example/demo/websocket/JsonLocationDecoder.java",
+                "com/example/demo/websocket/BinaryLocationDecoder.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    testImplementation(libs.junit)
+    // PhoneLocation's serialization hints
+    testImplementation(libs.jackson.annotations)
+}
+
+application {
+    mainClass = "com.example.roadstercompanion.simulator.FleetSimulator"
+    applicationDefaultJvmArgs = listOf("-Xss512k")
+}
@@ -0,0 +1,47 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.metrics.Counter;
+import com.example.roadstercompanion.metrics.Histogram;
+import com.example.roadstercompanion.metrics.MetricsRegistry;
+
+/**
+ * What the whole simulated fleet did, in the app's snapshot format so a run
+ * can be diffed against the previous one. Shared by every device thread.
+ */
+final class FleetMetrics {
+
+    private static final long[] LATENCY_BOUNDS_MS = {
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000, 30_000, 60_000, 300_000
+    };
+    private static final long[] FRAME_BOUNDS_BYTES = {64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    final Counter fixesGenerated = registry.counter("fixes.generated");
+    final Counter fixesSent = registry.counter("fixes.sent");
+    /** Fixes dropped because a disconnected phone's backlog was full. */
+    final Counter fixesDropped = registry.counter("fixes.dropped");
+    final Counter framesSent = registry.counter("frames.sent");
+    final Counter bytesSent = registry.counter("bytes.sent");
+    final Counter heartbeatsSent = registry.counter("heartbeats.sent");
+    final Counter connects = registry.counter("connection.connects");
+    final Counter connectFailures = registry.counter("connection.failures");
+    /** Connections lost without the simulator asking for it. */
+    final Counter connectionsLost = registry.counter("connection.lost");
+    final Counter injectedDrops = registry.counter("connection.injected_drops");
+    final Counter stompErrors = registry.counter("stomp.errors");
+    final Counter messagesReceived = registry.counter("observer.messages");
+    final Counter fixesObserved = registry.counter("observer.fixes");
+
+    /** From the fix's timestamp until its frame was written, including time spent batched or offline. */
+    final Histogram sendLatencyMillis = registry.histogram("send.latency_ms", LATENCY_BOUNDS_MS);
+    /** From the fix's timestamp until an observer subscribed to /topic/locations saw it. */
+    final Histogram endToEndMillis = registry.histogram("e2e.latency_ms", LATENCY_BOUNDS_MS);
+    /** From losing the connection until the next CONNECTED frame. */
+    final Histogram reconnectMillis = registry.histogram("reconnect.ms", LATENCY_BOUNDS_MS);
+    final Histogram frameBytes = registry.histogram("frame.bytes", FRAME_BOUNDS_BYTES);
+
+    MetricsRegistry registry() {
+        return registry;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.metrics.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drives a running server with a fleet of simulated phones and reports the
+ * sustained rate, latencies, reconnects and what it cost the server:
+ *
+ * <pre>
+ * # with the server already running on localhost:8080
+ * ./gradlew :simulator:run --args="--clients=2000 --duration=120 --disconnects=0.5 --seed=7"
+ * </pre>
+ *
+ * The same options and seed replay the same tracks and injected drops, so two
+ * runs differ only by what changed in the server (or the app's send path).
+ */
+public final class FleetSimulator {
+
+    private FleetSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatorOptions options;
+        try {
+            options = SimulatorOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(SimulatorOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        System.out.println("Fleet simulator: " + options);
+
+        FleetMetrics metrics = new FleetMetrics();
+        ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+        // One client, and so one selector thread, for the whole fleet
+        HttpClient client = HttpClient.newBuilder().executor(callbacks).build();
+
+        long startAt = System.currentTimeMillis() + 1_000;
+        long rampMillis = options.rampSeconds * 1_000L;
+        long measureFrom = startAt + rampMillis + options.warmupSeconds * 1_000L;
+        long endAt = startAt + rampMillis + options.durationSeconds * 1_000L;
+
+        Observer observer = new Observer(metrics);
+        try {
+            observer.start(client, URI.create(options.url));
+        } catch (IOException e) {
+            System.err.println("Can't reach the server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ServerStatsPoller poller = null;
+        Thread pollerThread = null;
+        if (options.statsUrl != null) {
+            poller = new ServerStatsPoller(client, options.statsUrl, measureFrom);
+            pollerThread = Thread.ofVirtual().name("stats-poller").start(poller);
+        }
+
+        List<Thread> devices = new ArrayList<>(options.clients);
+        for (int i = 0; i < options.clients; i++) {
+            // Spread connects evenly over the ramp instead of a thundering herd
+            long deviceStart = startAt + rampMillis * i / options.clients;
+            SimulatedDevice device = new SimulatedDevice(i, client, options, metrics, deviceStart, endAt);
+            devices.add(Thread.ofVirtual().name("device-" + i).start(device));
+        }
+
+        sleepUntil(measureFrom);
+        long fixesAtStart = metrics.fixesSent.get();
+        long framesAtStart = metrics.framesSent.get();
+        long bytesAtStart = metrics.bytesSent.get();
+        long observedAtStart = metrics.fixesObserved.get();
+        while (System.currentTimeMillis() < endAt) {
+            Thread.sleep(Math.min(10_000, Math.max(1, endAt - System.currentTimeMillis())));
+            System.out.printf(Locale.ROOT, "  %,d fixes sent, %,d connects, %,d lost, %,d failed%n",
+                    metrics.fixesSent.get(), metrics.connects.get(), metrics.connectionsLost.get(),
+                    metrics.connectFailures.get());
+        }
+        double seconds = (System.currentTimeMillis() - measureFrom) / 1000.0;
+        long fixes = metrics.fixesSent.get() - fixesAtStart;
+        long frames = metrics.framesSent.get() - framesAtStart;
+        long bytes = metrics.bytesSent.get() - bytesAtStart;
+        long observed = metrics.fixesObserved.get() - observedAtStart;
+
+        for (Thread device : devices) {
+            device.join(15_000);
+        }
+        // Give the fan-out one more flush interval to deliver the final batches
+        Thread.sleep(1_500);
+        observer.stop();
+        if (pollerThread != null) {
+            pollerThread.interrupt();
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Sustained over %.0f s after warm-up:%n", seconds));
+        report.append(String.format(Locale.ROOT, "  sent          %,.0f fixes/s, %,.0f frames/s, %,.0f KB/s%n",
+                fixes / seconds, frames / seconds, bytes / seconds / 1024));
+        report.append(String.format(Locale.ROOT, "  observed      %,.0f fixes/s on /topic/locations%n", observed / seconds));
+        report.append(line("send latency", metrics.sendLatencyMillis, "ms"));
+        report.append(line("e2e latency", metrics.endToEndMillis, "ms"));
+        report.append(line("reconnect", metrics.reconnectMillis, "ms"));
+        report.append(String.format(Locale.ROOT, "  connects      %,d ok, %,d failed, %,d injected drops, %,d lost, %,d STOMP errors%n",
+                metrics.connects.get(), metrics.connectFailures.get(), metrics.injectedDrops.get(),
+                metrics.connectionsLost.get(), metrics.stompErrors.get()));
+        if (metrics.fixesDropped.get() > 0) {
+            report.append(String.format(Locale.ROOT, "  dropped       %,d fixes from full backlogs%n", metrics.fixesDropped.get()));
+        }
+        if (poller != null && poller.hasSamples()) {
+            report.append(String.format(Locale.ROOT, "Server:%n"));
+            report.append(String.format(Locale.ROOT, "  accepted      %,.0f fixes/s, %,d stale in total%n",
+                    poller.fixesAcceptedWhileMeasuring() / seconds, poller.fixesStale()));
+            report.append(String.format(Locale.ROOT, "  cpu           avg %.0f%%, max %.0f%% of the machine%n",
+                    poller.cpu.average() * 100, poller.cpu.max() * 100));
+            report.append(String.format(Locale.ROOT, "  heap          avg %.0f MB, max %.0f MB%n",
+                    poller.heapBytes.average() / (1 << 20), poller.heapBytes.max() / (1 << 20)));
+            report.append(String.format(Locale.ROOT, "  threads       avg %.0f, max %.0f%n",
+                    poller.threads.average(), poller.threads.max()));
+        } else if (options.statsUrl != null) {
+            report.append("Server: no samples from ").append(options.statsUrl).append('\n');
+        }
+        System.out.print(report);
+
+        String snapshot = metrics.registry().snapshot("fleet-simulator " + options);
+        System.out.print(snapshot);
+        if (options.report != null) {
+            Files.writeString(Path.of(options.report), snapshot, StandardCharsets.UTF_8);
+            System.out.println("Wrote " + options.report);
+        }
+        callbacks.shutdownNow();
+        System.exit(metrics.fixesSent.get() > 0 ? 0 : 1);
+    }
+
+    private static String line(String name, Histogram histogram, String unit) {
+        if (histogram.count() == 0) {
+            return String.format(Locale.ROOT, "  %-13s none%n", name);
+        }
+        return String.format(Locale.ROOT, "  %-13s p50 %d, p90 %d, p99 %d, max %d %s (%,d samples)%n", name,
+                histogram.percentile(0.5), histogram.percentile(0.9), histogram.percentile(0.99),
+                histogram.max(), unit, histogram.count());
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long delay = time - System.currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.websocket.StompFrameDecoder;
+import com.example.roadstercompanion.websocket.StompFrameEncoder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+
+/**
+ * A dashboard-like subscriber to {@code /topic/locations}. Every fix it sees
+ * is compared with the fix's own timestamp, which gives the end-to-end
+ * latency through batching, ingestion and the fan-out's flush interval. That
+ * only means something when the simulator and the server share a clock.
+ */
+final class Observer {
+
+    private static final String TIMESTAMP = "\"timestamp\":";
+
+    private final FleetMetrics metrics;
+    private final StompFrameEncoder encoder = new StompFrameEncoder(256);
+    private StompConnection connection;
+
+    Observer(FleetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void start(HttpClient client, URI uri) throws IOException {
+        // No heart-beats: the fan-out sends at least once per flush interval while the fleet runs
+        connection = StompConnection.open(client, uri, encoder, "0,0", this::onFrame);
+        connection.send(encoder.begin("SUBSCRIBE")
+                .header("id", "sub-0")
+                .header("destination", "/topic/locations")
+                .end());
+    }
+
+    private void onFrame(StompFrameDecoder frame) {
+        if (frame.command() != StompFrameDecoder.Command.MESSAGE) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        metrics.messagesReceived.increment();
+        String body = frame.body();
+        // Bodies are the fan-out's JSON arrays; only the timestamps matter here
+        for (int i = body.indexOf(TIMESTAMP); i >= 0; i = body.indexOf(TIMESTAMP, i)) {
+            i += TIMESTAMP.length();
+            long timestamp = 0;
+            while (i < body.length() && Character.isDigit(body.charAt(i))) {
+                timestamp = timestamp * 10 + (body.charAt(i++) - '0');
+            }
+            metrics.fixesObserved.increment();
+            metrics.endToEndMillis.record(Math.max(0, now - timestamp));
+        }
+    }
+
+    boolean isConnected() {
+        return connection != null && connection.isOpen();
+    }
+
+    void stop() {
+        if (connection != null) {
+            connection.close(encoder);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.roadstercompanion.simulator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Samples the server's {@code /api/stats/runtime} once a second while the
+ * fleet runs, so a report shows what the load cost the server. Polling stops
+ * quietly if the endpoint isn't there.
+ */
+final class ServerStatsPoller implements Runnable {
+
+    private static final long PERIOD_MILLIS = 1_000;
+
+    private final HttpClient client;
+    private final HttpRequest request;
+    private final long measureFrom;
+
+    final Stat cpu = new Stat();
+    final Stat heapBytes = new Stat();
+    final Stat threads = new Stat();
+    private volatile long fixesAcceptedAtStart = -1;
+    private volatile long fixesAccepted = -1;
+    private volatile long fixesStale = -1;
+    private volatile int failures;
+
+    /** Samples taken before {@code measureFrom} (ramp-up and warm-up) are left out of the averages. */
+    ServerStatsPoller(HttpClient client, String url, long measureFrom) {
+        this.client = client;
+        this.request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(2)).GET().build();
+        this.measureFrom = measureFrom;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted() && failures < 5) {
+            try {
+                poll();
+                Thread.sleep(PERIOD_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void poll() throws InterruptedException {
+        String body;
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                failures++;
+                return;
+            }
+            body = response.body();
+        } catch (IOException e) {
+            failures++;
+            return;
+        }
+        failures = 0;
+        long accepted = (long) number(body, "fixesAccepted");
+        fixesAccepted = accepted;
+        fixesStale = (long) number(body, "fixesStale");
+        if (System.currentTimeMillis() < measureFrom) {
+            return;
+        }
+        if (fixesAcceptedAtStart < 0) {
+            fixesAcceptedAtStart = accepted;
+        }
+        cpu.add(number(body, "processCpuLoad"));
+        heapBytes.add(number(body, "heapUsedBytes"));
+        threads.add(number(body, "liveThreads"));
+    }
+
+    boolean hasSamples() {
+        return threads.count() > 0;
+    }
+
+    /** Fixes the server accepted since measuring started. */
+    long fixesAcceptedWhileMeasuring() {
+        return fixesAcceptedAtStart < 0 ? -1 : fixesAccepted - fixesAcceptedAtStart;
+    }
+
+    long fixesStale() {
+        return fixesStale;
+    }
+
+    // The endpoint's body is a flat JSON object of numbers
+    private static double number(String body, String name) {
+        Matcher m = Pattern.compile("\"" + name + "\"\\s*:\\s*(-?[0-9.eE+-]+)").matcher(body);
+        return m.find() ? Double.parseDouble(m.group(1)) : -1;
+    }
+
+    /** Running average and maximum of a sampled value; negative samples mean "not available". */
+    static final class Stat {
+        private double sum;
+        private double max;
+        private int count;
+
+        synchronized void add(double value) {
+            if (value < 0) {
+                return;
+            }
+            sum += value;
+            max = count == 0 ? value : Math.max(max, value);
+            count++;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized double average() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        synchronized double max() {
+            return count == 0 ? Double.NaN : max;
+        }
+    }
+}
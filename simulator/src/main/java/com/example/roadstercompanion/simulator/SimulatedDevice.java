@@ -0,0 +1,226 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.Backoff;
+import com.example.roadstercompanion.websocket.BinaryBatchWriter;
+import com.example.roadstercompanion.websocket.JsonBatchWriter;
+import com.example.roadstercompanion.websocket.LocationBatch;
+import com.example.roadstercompanion.websocket.StompFrameDecoder;
+import com.example.roadstercompanion.websocket.StompFrameEncoder;
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * One simulated phone. Produces a fix every interval, batches them with the
+ * app's {@link LocationBatch} limits and sends each batch as a STOMP SEND
+ * frame. While disconnected, fixes queue up (like the app's journal) and are
+ * replayed oldest first after reconnecting with the app's {@link Backoff}.
+ *
+ * Runs on its own virtual thread; everything but the socket callbacks stays
+ * on that thread.
+ */
+final class SimulatedDevice implements Runnable {
+
+    // The app's batch limits
+    private static final int BATCH_MAX_FIXES = 20;
+    private static final int BATCH_MAX_BYTES = 8 * 1024;
+    private static final long BATCH_MAX_AGE_MILLIS = 5_000;
+    private static final long HEARTBEAT_MILLIS = 10_000;
+    // Roughly a day of 1 Hz fixes, like the journal's capacity
+    private static final int MAX_BACKLOG = 86_400;
+    private static final String DESTINATION = "/app/location";
+
+    private final String userId;
+    private final HttpClient client;
+    private final URI uri;
+    private final SimulatorOptions options;
+    private final FleetMetrics metrics;
+    private final long startAt;
+    private final long endAt;
+
+    private final Random random;
+    private final TrackSource track;
+    private final Backoff backoff;
+    private final double dropChancePerTick;
+    private final LocationBatch batch;
+    private final StompFrameEncoder encoder = new StompFrameEncoder(1024);
+    private final ArrayDeque<LocationData> backlog = new ArrayDeque<>();
+
+    private StompConnection connection;
+    private long nextConnectAt;
+    private long disconnectedAt = -1;
+    private long lastSendAt;
+
+    SimulatedDevice(int index, HttpClient client, SimulatorOptions options, FleetMetrics metrics,
+                    long startAt, long endAt) throws IOException {
+        this.userId = String.format("sim-%05d", index);
+        this.client = client;
+        this.uri = URI.create(options.url);
+        this.options = options;
+        this.metrics = metrics;
+        this.startAt = startAt;
+        this.endAt = endAt;
+        // Every device gets its own stream so the fleet replays regardless of thread scheduling
+        this.random = new Random(options.seed * 1_000_003L + index);
+        this.track = TrackSource.create(options.track, new Random(random.nextLong()));
+        this.backoff = new Backoff(1_000, 60_000, new Random(random.nextLong()));
+        this.dropChancePerTick = options.disconnectsPerMinute * options.intervalMillis / 60_000.0;
+        this.batch = new LocationBatch(options.format == WireFormat.BINARY ? new BinaryBatchWriter(1) : new JsonBatchWriter(),
+                BATCH_MAX_FIXES, BATCH_MAX_BYTES, BATCH_MAX_AGE_MILLIS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            long tick = startAt;
+            nextConnectAt = startAt;
+            while (tick < endAt && !Thread.currentThread().isInterrupted()) {
+                sleepUntil(tick);
+                long now = System.currentTimeMillis();
+                LocationData fix = new LocationData();
+                fix.setUserId(userId);
+                // The scheduled time, not when this thread got to run: a busy simulator
+                // catching up on ticks must not produce fixes with the same timestamp
+                fix.setTimestamp(tick);
+                track.next(fix, options.intervalMillis);
+                enqueue(fix);
+
+                if (connection != null && !connection.isOpen()) {
+                    lost(now, false);
+                }
+                if (connection == null && now >= nextConnectAt) {
+                    connect();
+                }
+                if (connection != null && dropChancePerTick > 0 && random.nextDouble() < dropChancePerTick) {
+                    metrics.injectedDrops.increment();
+                    connection.abort();
+                    lost(now, true);
+                }
+                if (connection != null) {
+                    drain(System.currentTimeMillis());
+                }
+                if (connection != null && System.currentTimeMillis() - lastSendAt >= HEARTBEAT_MILLIS
+                        && connection.sendHeartbeat()) {
+                    metrics.heartbeatsSent.increment();
+                    lastSendAt = System.currentTimeMillis();
+                }
+                tick += options.intervalMillis;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (connection != null && connection.isOpen()) {
+                // Flush the partial batch so the last seconds of the run are counted
+                drain(Long.MAX_VALUE);
+                connection.close(encoder);
+            }
+        }
+    }
+
+    private void enqueue(LocationData fix) {
+        metrics.fixesGenerated.increment();
+        if (backlog.size() >= MAX_BACKLOG) {
+            backlog.pollFirst();
+            metrics.fixesDropped.increment();
+        }
+        backlog.addLast(fix);
+    }
+
+    private void connect() {
+        try {
+            connection = StompConnection.open(client, uri, encoder, HEARTBEAT_MILLIS + "," + HEARTBEAT_MILLIS,
+                    this::onFrame);
+        } catch (IOException e) {
+            metrics.connectFailures.increment();
+            nextConnectAt = System.currentTimeMillis() + backoff.nextDelayMillis();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        metrics.connects.increment();
+        backoff.reset();
+        if (disconnectedAt >= 0) {
+            metrics.reconnectMillis.record(now - disconnectedAt);
+            disconnectedAt = -1;
+        }
+        if (batch.getWriter() instanceof BinaryBatchWriter) {
+            ((BinaryBatchWriter) batch.getWriter()).startSession();
+        }
+        lastSendAt = now;
+    }
+
+    private void lost(long now, boolean injected) {
+        if (!injected) {
+            metrics.connectionsLost.increment();
+        }
+        connection = null;
+        disconnectedAt = now;
+        nextConnectAt = now + backoff.nextDelayMillis();
+    }
+
+    private void onFrame(StompFrameDecoder frame) {
+        if (frame.command() == StompFrameDecoder.Command.ERROR) {
+            metrics.stompErrors.increment();
+        }
+    }
+
+    // Sends every full batch, and the partial one once its oldest fix is due
+    private void drain(long now) {
+        while (!backlog.isEmpty()) {
+            batch.clear();
+            for (LocationData fix : backlog) {
+                if (!batch.add(fix)) {
+                    break;
+                }
+            }
+            if (!batch.isFull() && !batch.isDue(now)) {
+                break;
+            }
+            if (!sendBatch()) {
+                return;
+            }
+            for (int i = batch.size(); i > 0; i--) {
+                backlog.pollFirst();
+            }
+        }
+        batch.clear();
+    }
+
+    private boolean sendBatch() {
+        int length = batch.byteSize();
+        encoder.begin("SEND")
+                .header("destination", DESTINATION)
+                .header("content-type", batch.getFormat().getContentType())
+                .header("content-length", length);
+        batch.getWriter().writeTo(encoder.body(length));
+        ByteBuffer frame = encoder.end();
+        int frameLength = frame.remaining();
+        if (!connection.send(frame)) {
+            // Picked up as a lost connection on the next tick
+            return false;
+        }
+        batch.getWriter().onSent();
+        long now = System.currentTimeMillis();
+        lastSendAt = now;
+        metrics.framesSent.increment();
+        metrics.bytesSent.add(frameLength);
+        metrics.frameBytes.record(frameLength);
+        metrics.fixesSent.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            metrics.sendLatencyMillis.record(Math.max(0, now - batch.timestampAt(i)));
+        }
+        return true;
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long delay = time - System.currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command-line options of the fleet simulator, as {@code --name=value} or
+ * {@code --name value}. Everything random in a run is derived from
+ * {@code seed}, so two runs with the same options replay the same tracks and
+ * the same injected disconnects.
+ */
+final class SimulatorOptions {
+
+    static final String USAGE = String.join("\n",
+            "Usage: FleetSimulator [options]",
+            "  --url=ws://localhost:8080/ws   STOMP endpoint of the server",
+            "  --stats-url=URL                runtime stats endpoint (default: derived from --url,",
+            "                                 /api/stats/runtime; 'none' to skip)",
+            "  --clients=100                  simulated phones, one virtual thread each",
+            "  --duration=60                  seconds to run after ramp-up",
+            "  --warmup=10                    seconds at the start of the run left out of the rates",
+            "  --ramp=10                      seconds over which clients connect",
+            "  --interval=1000                milliseconds between fixes on each phone",
+            "  --track=synthetic              synthetic random drives, or a recorded track such as",
+            "                                 dhaka_drive_1hz.csv",
+            "  --format=json                  body encoding: json or binary",
+            "  --disconnects=0                injected connection drops per phone per minute",
+            "  --seed=1                       seed for tracks, ramp order and injected drops",
+            "  --report=FILE                  also write the metrics snapshot to FILE");
+
+    String url = "ws://localhost:8080/ws";
+    String statsUrl;
+    int clients = 100;
+    int durationSeconds = 60;
+    int warmupSeconds = 10;
+    int rampSeconds = 10;
+    long intervalMillis = 1000;
+    String track = "synthetic";
+    WireFormat format = WireFormat.JSON;
+    double disconnectsPerMinute = 0;
+    long seed = 1;
+    String report;
+
+    /** @throws IllegalArgumentException on an unknown option or a bad value */
+    static SimulatorOptions parse(String... args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                values.put(arg.substring(2), args[++i]);
+            } else {
+                values.put(arg.substring(2), "true");
+            }
+        }
+
+        SimulatorOptions options = new SimulatorOptions();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            String v = e.getValue();
+            switch (e.getKey()) {
+                case "url": options.url = v; break;
+                case "stats-url": options.statsUrl = v; break;
+                case "clients": options.clients = positive(e.getKey(), Integer.parseInt(v)); break;
+                case "duration": options.durationSeconds = positive(e.getKey(), Integer.parseInt(v)); break;
+                case "warmup": options.warmupSeconds = Integer.parseInt(v); break;
+                case "ramp": options.rampSeconds = Integer.parseInt(v); break;
+                case "interval": options.intervalMillis = positive(e.getKey(), Integer.parseInt(v)); break;
+                case "track": options.track = v; break;
+                case "format": options.format = WireFormat.valueOf(v.toUpperCase(Locale.ROOT)); break;
+                case "disconnects": options.disconnectsPerMinute = Double.parseDouble(v); break;
+                case "seed": options.seed = Long.parseLong(v); break;
+                case "report": options.report = v; break;
+                default: throw new IllegalArgumentException("Unknown option --" + e.getKey());
+            }
+        }
+        if (options.warmupSeconds < 0 || options.warmupSeconds >= options.durationSeconds) {
+            throw new IllegalArgumentException("--warmup must be shorter than --duration");
+        }
+        if (options.rampSeconds < 0 || options.disconnectsPerMinute < 0) {
+            throw new IllegalArgumentException("--ramp and --disconnects can't be negative");
+        }
+        if (options.statsUrl == null) {
+            URI ws = URI.create(options.url);
+            String scheme = "wss".equals(ws.getScheme()) ? "https" : "http";
+            options.statsUrl = scheme + "://" + ws.getAuthority() + "/api/stats/runtime";
+        } else if ("none".equals(options.statsUrl)) {
+            options.statsUrl = null;
+        }
+        return options;
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "url=" + url + " clients=" + clients + " duration=" + durationSeconds + "s warmup=" + warmupSeconds
+                + "s ramp=" + rampSeconds + "s interval=" + intervalMillis + "ms track=" + track
+                + " format=" + format.name().toLowerCase(Locale.ROOT) + " disconnects=" + disconnectsPerMinute
+                + "/min seed=" + seed;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.websocket.StompFrameDecoder;
+import com.example.roadstercompanion.websocket.StompFrameEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * One STOMP session over the JDK WebSocket client. Frames are built and parsed
+ * with the app's {@link StompFrameEncoder} and {@link StompFrameDecoder}, and
+ * like the app every frame goes out as a binary WebSocket message.
+ *
+ * Sends are synchronous: the JDK client allows one outstanding send, and a
+ * simulated phone has nothing better to do while its frame is written.
+ */
+final class StompConnection implements WebSocket.Listener {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final ByteBuffer HEARTBEAT = ByteBuffer.wrap(new byte[]{'\n'});
+
+    private final StompFrameDecoder decoder = new StompFrameDecoder();
+    private final Consumer<StompFrameDecoder> onFrame;
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+    private final StringBuilder text = new StringBuilder();
+    private final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    private volatile WebSocket socket;
+    private volatile boolean closed;
+    private volatile String error;
+
+    /** {@code onFrame} sees every MESSAGE, RECEIPT and ERROR on the WebSocket's thread. */
+    private StompConnection(Consumer<StompFrameDecoder> onFrame) {
+        this.onFrame = onFrame;
+    }
+
+    /** Opens the socket and completes the STOMP handshake. */
+    static StompConnection open(HttpClient client, URI uri, StompFrameEncoder encoder, String heartBeat,
+                                Consumer<StompFrameDecoder> onFrame) throws IOException {
+        StompConnection connection = new StompConnection(onFrame);
+        try {
+            connection.socket = client.newWebSocketBuilder()
+                    .connectTimeout(TIMEOUT)
+                    .buildAsync(uri, connection)
+                    .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            connection.send(encoder.begin("CONNECT")
+                    .header("accept-version", "1.1,1.0")
+                    .header("host", uri.getHost())
+                    .header("heart-beat", heartBeat)
+                    .end());
+            connection.connected.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.abort();
+            throw new IOException("Interrupted while connecting", e);
+        } catch (ExecutionException | TimeoutException e) {
+            connection.abort();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IOException("Connect to " + uri + " failed: " + cause, cause);
+        }
+    }
+
+    /** Writes one frame and waits until the client has taken it. Returns false if the socket is gone. */
+    boolean send(ByteBuffer frame) {
+        WebSocket ws = socket;
+        if (ws == null || closed) {
+            return false;
+        }
+        try {
+            ws.sendBinary(frame, true).get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            abort();
+            return false;
+        }
+    }
+
+    boolean sendHeartbeat() {
+        return send(HEARTBEAT.duplicate());
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    /** Last ERROR frame or transport error, for the log. */
+    String error() {
+        return error;
+    }
+
+    /** Drops the connection without a close handshake, like a phone losing coverage. */
+    void abort() {
+        closed = true;
+        WebSocket ws = socket;
+        if (ws != null) {
+            ws.abort();
+        }
+    }
+
+    void close(StompFrameEncoder encoder) {
+        if (!closed) {
+            send(encoder.begin("DISCONNECT").end());
+            WebSocket ws = socket;
+            closed = true;
+            if (ws != null) {
+                ws.sendClose(WebSocket.NORMAL_CLOSURE, "").orTimeout(1, TimeUnit.SECONDS)
+                        .whenComplete((w, e) -> ws.abort());
+            }
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+        text.append(data);
+        if (last) {
+            frame(decoder.decode(text));
+            text.setLength(0);
+        }
+        ws.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket ws, ByteBuffer data, boolean last) {
+        while (data.hasRemaining()) {
+            binary.write(data.get());
+        }
+        if (last) {
+            frame(decoder.decode(ByteBuffer.wrap(binary.toByteArray())));
+            binary.reset();
+        }
+        ws.request(1);
+        return null;
+    }
+
+    private void frame(boolean valid) {
+        if (!valid) {
+            return;
+        }
+        switch (decoder.command()) {
+            case CONNECTED:
+                connected.complete(null);
+                break;
+            case ERROR:
+                error = decoder.header("message");
+                connected.completeExceptionally(new IOException("STOMP error: " + error));
+                onFrame.accept(decoder);
+                break;
+            case HEARTBEAT:
+                break;
+            default:
+                onFrame.accept(decoder);
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+        closed = true;
+        connected.completeExceptionally(new IOException("Closed: " + statusCode + " " + reason));
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket ws, Throwable e) {
+        closed = true;
+        error = String.valueOf(e);
+        connected.completeExceptionally(e);
+    }
+}
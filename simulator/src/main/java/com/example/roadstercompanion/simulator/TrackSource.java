@@ -0,0 +1,134 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.models.LocationData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Where a simulated phone is on each tick. Positions depend only on the seed
+ * and the tick number, never on wall-clock time, so a run replays exactly.
+ */
+abstract class TrackSource {
+
+    static final String SYNTHETIC = "synthetic";
+
+    private static final double METERS_PER_DEGREE = 111_195;
+    // Synthetic drives start within ~15 km of central Dhaka, like the recorded track
+    private static final double CENTER_LAT = 23.8103;
+    private static final double CENTER_LNG = 90.4125;
+
+    /** Fills in the fix for the next tick, {@code intervalMillis} after the previous one. */
+    abstract void next(LocationData fix, long intervalMillis);
+
+    static TrackSource create(String track, Random random) throws IOException {
+        if (SYNTHETIC.equals(track)) {
+            return new Synthetic(random);
+        }
+        return new Recorded(load(track), random);
+    }
+
+    /** Random drive: cruises with slowly turning heading, with the occasional stop. */
+    static final class Synthetic extends TrackSource {
+        private final Random random;
+        private double lat;
+        private double lng;
+        private double bearing;
+        private double speed;
+        private double cruise;
+        private int stoppedTicks;
+
+        Synthetic(Random random) {
+            this.random = random;
+            this.lat = CENTER_LAT + (random.nextDouble() - 0.5) * 0.27;
+            this.lng = CENTER_LNG + (random.nextDouble() - 0.5) * 0.27;
+            this.bearing = random.nextDouble() * 360;
+            this.cruise = 5 + random.nextDouble() * 20;
+            this.speed = cruise;
+        }
+
+        @Override
+        void next(LocationData fix, long intervalMillis) {
+            double seconds = intervalMillis / 1000.0;
+            if (stoppedTicks > 0) {
+                stoppedTicks--;
+                speed = 0;
+            } else if (random.nextDouble() < 0.005) {
+                // Traffic light or a delivery stop
+                stoppedTicks = 10 + random.nextInt(50);
+                speed = 0;
+            } else {
+                speed += (cruise - speed) * 0.2 + random.nextGaussian() * 0.5;
+                speed = Math.max(0, speed);
+                bearing = (bearing + random.nextGaussian() * 8 * seconds + 360) % 360;
+            }
+            double meters = speed * seconds;
+            lat += meters * Math.cos(Math.toRadians(bearing)) / METERS_PER_DEGREE;
+            lng += meters * Math.sin(Math.toRadians(bearing)) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            fix.setLatitude(lat + random.nextGaussian() * 3 / METERS_PER_DEGREE);
+            fix.setLongitude(lng + random.nextGaussian() * 3 / METERS_PER_DEGREE);
+            fix.setAccuracy(3 + random.nextDouble() * 10);
+            fix.setSpeed(speed);
+            fix.setBearing(bearing);
+        }
+    }
+
+    /**
+     * A recorded track, looped. Each phone starts at a random point of it and
+     * is shifted by up to ~5 km so the fleet doesn't drive in one spot.
+     */
+    static final class Recorded extends TrackSource {
+        private final double[][] fixes;
+        private final double latOffset;
+        private final double lngOffset;
+        private int position;
+
+        Recorded(double[][] fixes, Random random) {
+            this.fixes = fixes;
+            this.position = random.nextInt(fixes.length);
+            this.latOffset = (random.nextDouble() - 0.5) * 0.09;
+            this.lngOffset = (random.nextDouble() - 0.5) * 0.09;
+        }
+
+        @Override
+        void next(LocationData fix, long intervalMillis) {
+            double[] f = fixes[position];
+            position = (position + 1) % fixes.length;
+            fix.setLatitude(f[0] + latOffset);
+            fix.setLongitude(f[1] + lngOffset);
+            fix.setAccuracy(f[2]);
+            fix.setSpeed(f[3]);
+            fix.setBearing(f[4]);
+        }
+    }
+
+    // Recorded-track CSV: time_ms,lat,lng,accuracy,speed,bearing[,...]
+    static double[][] load(String name) throws IOException {
+        InputStream in = TrackSource.class.getResourceAsStream("/tracks/" + name);
+        if (in == null) {
+            throw new IOException("No recorded track " + name + " on the classpath");
+        }
+        List<double[]> fixes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("time_ms")) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                fixes.add(new double[]{Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                        Double.parseDouble(parts[3]), Double.parseDouble(parts[4]), Double.parseDouble(parts[5])});
+            }
+        }
+        if (fixes.isEmpty()) {
+            throw new IOException("Recorded track " + name + " is empty");
+        }
+        return fixes.toArray(new double[0][]);
+    }
+}
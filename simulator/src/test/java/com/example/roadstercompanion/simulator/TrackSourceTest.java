@@ -0,0 +1,73 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackSourceTest {
+
+    @Test
+    public void sameSeedReplaysTheSameDrive() throws Exception {
+        for (String track : new String[]{"synthetic", "dhaka_drive_1hz.csv"}) {
+            TrackSource a = TrackSource.create(track, new Random(42));
+            TrackSource b = TrackSource.create(track, new Random(42));
+            LocationData fa = new LocationData();
+            LocationData fb = new LocationData();
+            for (int i = 0; i < 5_000; i++) {
+                a.next(fa, 1000);
+                b.next(fb, 1000);
+                assertEquals(track + " tick " + i, fa.getLatitude(), fb.getLatitude(), 0);
+                assertEquals(track + " tick " + i, fa.getLongitude(), fb.getLongitude(), 0);
+                assertEquals(fa.getSpeed(), fb.getSpeed(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void syntheticDrivesStayPlausible() throws Exception {
+        TrackSource source = TrackSource.create("synthetic", new Random(7));
+        LocationData previous = new LocationData();
+        LocationData fix = new LocationData();
+        source.next(previous, 1000);
+        for (int i = 0; i < 3_600; i++) {
+            source.next(fix, 1000);
+            assertTrue(fix.getSpeed() >= 0 && fix.getSpeed() < 50);
+            assertTrue(fix.getBearing() >= 0 && fix.getBearing() < 360);
+            // Noise included, no jump of more than ~100 m in a second
+            assertTrue(Math.abs(fix.getLatitude() - previous.getLatitude()) < 0.001);
+            assertTrue(Math.abs(fix.getLatitude() - 23.81) < 1);
+            previous.setLatitude(fix.getLatitude());
+        }
+    }
+
+    @Test
+    public void differentSeedsSpreadTheFleet() throws Exception {
+        LocationData a = new LocationData();
+        LocationData b = new LocationData();
+        TrackSource.create("dhaka_drive_1hz.csv", new Random(1)).next(a, 1000);
+        TrackSource.create("dhaka_drive_1hz.csv", new Random(2)).next(b, 1000);
+        assertNotEquals(a.getLatitude(), b.getLatitude(), 1e-6);
+    }
+
+    @Test
+    public void parsesOptionsAndDerivesTheStatsUrl() {
+        SimulatorOptions options = SimulatorOptions.parse("--url=ws://10.0.0.5:8080/ws", "--clients", "500",
+                "--format=binary", "--disconnects=0.5", "--seed=9");
+        assertEquals(500, options.clients);
+        assertEquals(WireFormat.BINARY, options.format);
+        assertEquals(0.5, options.disconnectsPerMinute, 0);
+        assertEquals(9, options.seed);
+        assertEquals("http://10.0.0.5:8080/api/stats/runtime", options.statsUrl);
+        assertNull(SimulatorOptions.parse("--stats-url=none").statsUrl);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownOptions() {
+        SimulatorOptions.parse("--clinets=10");
+    }
+}
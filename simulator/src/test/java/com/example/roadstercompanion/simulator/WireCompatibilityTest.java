@@ -0,0 +1,102 @@
+package com.example.roadstercompanion.simulator;
+
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.websocket.BinaryLocationDecoder;
+import com.example.demo.websocket.JsonLocationDecoder;
+import com.example.roadstercompanion.models.LocationData;
+import com.example.roadstercompanion.websocket.BinaryBatchWriter;
+import com.example.roadstercompanion.websocket.JsonBatchWriter;
+import com.example.roadstercompanion.websocket.LocationBatch;
+import com.example.roadstercompanion.websocket.WireFormat;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bodies built by the app's batch writers, read back by the server's
+ * decoders, which this module compiles from the server's sources. The two
+ * ends are written separately; this is what keeps them agreeing.
+ */
+public class WireCompatibilityTest {
+
+    private static final long T0 = 1_752_731_000_000L;
+    // Quotes and non-ASCII take the JSON writer's escapes
+    private static final String USER = "android_user_ü\"7";
+
+    private static LocationData[] drive() {
+        LocationData[] fixes = {
+                new LocationData(USER, 23.8103452, 90.4125181, 4.5, 12.3, 271.4, T0),
+                new LocationData(USER, 23.8102017, 90.4121004, 3.0, 14.1, 268.9, T0 + 1_000),
+                // Crossing into negative coordinates, and an older fix after a newer one
+                new LocationData(USER, -0.0000131, -0.0000552, 120.0, 0.0, 0.0, T0 - 60_000),
+        };
+        for (int i = 0; i < fixes.length; i++) {
+            fixes[i].setEnqueuedAt(fixes[i].getTimestamp() + 40 + i);
+        }
+        return fixes;
+    }
+
+    private static LocationBatch batch(LocationBatch batch, LocationData[] fixes) {
+        for (LocationData fix : fixes) {
+            assertTrue(batch.add(fix));
+        }
+        return batch;
+    }
+
+    private static void assertDecoded(LocationData[] sent, List<PhoneLocation> received, boolean enqueueTimes) {
+        assertEquals(sent.length, received.size());
+        for (int i = 0; i < sent.length; i++) {
+            LocationData s = sent[i];
+            PhoneLocation r = received.get(i);
+            String fix = "fix " + i;
+            assertEquals(fix, s.getUserId(), r.getUserId());
+            assertEquals(fix, s.getLatitude(), r.getLatitude(), 0.6e-7);
+            assertEquals(fix, s.getLongitude(), r.getLongitude(), 0.6e-7);
+            assertEquals(fix, s.getAccuracy(), r.getAccuracy(), 1e-9);
+            assertEquals(fix, s.getSpeed(), r.getSpeed(), 1e-9);
+            assertEquals(fix, s.getBearing(), r.getBearing(), 1e-9);
+            assertEquals(fix, s.getTimestamp(), r.getTimestamp());
+            assertEquals(fix, enqueueTimes ? s.getEnqueuedAt() : 0, r.getEnqueuedAt());
+        }
+    }
+
+    @Test
+    public void serverDecodesTheAppsJsonBatches() {
+        LocationData[] fixes = drive();
+        LocationBatch batch = batch(new LocationBatch(new JsonBatchWriter(), 20, 4096, 1000), fixes);
+
+        assertDecoded(fixes, JsonLocationDecoder.decode(batch.toBytes()), true);
+    }
+
+    @Test
+    public void serverDecodesTheAppsBinaryBatchesAcrossASession() {
+        BinaryBatchWriter writer = new BinaryBatchWriter(42);
+        writer.startSession();
+        LocationData[] fixes = drive();
+        LocationBatch batch = batch(new LocationBatch(writer, 20, 4096, 1000), fixes);
+        Map<Integer, String> sessionTokens = new HashMap<>();
+
+        // The first batch of the session declares the user, later ones only carry the token
+        writer.beforeSend();
+        List<PhoneLocation> first = BinaryLocationDecoder.decode(batch.toBytes(), sessionTokens);
+        writer.onSent();
+        assertDecoded(fixes, first, false);
+        assertEquals(Map.of(42, USER), sessionTokens);
+
+        writer.setTraced(true);
+        batch.clear();
+        batch(batch, fixes);
+        writer.beforeSend();
+        assertDecoded(fixes, BinaryLocationDecoder.decode(batch.toBytes(), sessionTokens), true);
+    }
+
+    @Test
+    public void contentTypesMatch() {
+        assertEquals(BinaryLocationDecoder.CONTENT_TYPE, WireFormat.BINARY.getContentType());
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.demo.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One stage of a {@link RingBuffer}: a thread that takes every event that
+ * has become available, from the ring or from the stages it runs after, and
+ * hands them to its {@link EventHandler} as one batch before advancing its
+ * own sequence. When there is nothing to do it spins briefly, then parks
+ * until a producer or an upstream stage wakes it; a stage only wakes the
+ * stages that run after it.
+ *
+ * A handler that throws has the error logged and the stage moves on to the
+ * next event; one bad event doesn't stall the ring.
+ */
+public final class BatchConsumer<E> {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchConsumer.class);
+
+    private static final int SPIN_TRIES = 100;
+    // Wakes are not expected to get lost; this only bounds the damage if one does
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    private final String name;
+    private final RingBuffer<E> ring;
+    private final EventHandler<E> handler;
+    private final BatchConsumer<?>[] upstream;
+    // Stages that run after this one; set when the ring starts
+    private BatchConsumer<?>[] downstream = new BatchConsumer<?>[0];
+    // Highest sequence this stage is done with; written only by its thread
+    private final AtomicLong sequence = new AtomicLong(-1);
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+    private volatile long errors;
+    private Thread thread;
+
+    BatchConsumer(String name, RingBuffer<E> ring, EventHandler<E> handler, List<BatchConsumer<E>> upstream) {
+        this.name = name;
+        this.ring = ring;
+        this.handler = handler;
+        this.upstream = upstream.toArray(new BatchConsumer<?>[0]);
+    }
+
+    List<BatchConsumer<?>> upstream() {
+        return List.of(upstream);
+    }
+
+    void start(BatchConsumer<?>[] downstream) {
+        this.downstream = downstream;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long next = sequence.get() + 1;
+        while (true) {
+            long available = waitFor(next);
+            if (available < next) {
+                return;
+            }
+            for (long s = next; s <= available; s++) {
+                try {
+                    handler.onEvent(ring.get(s), s, s == available);
+                } catch (RuntimeException e) {
+                    errors++;
+                    log.error("Stage {} failed on event {}", name, s, e);
+                }
+            }
+            sequence.set(available);
+            for (BatchConsumer<?> stage : downstream) {
+                stage.wake();
+            }
+            if (downstream.length == 0) {
+                ring.released();
+            }
+            next = available + 1;
+        }
+    }
+
+    // Highest sequence ready for this stage, at least next; next - 1 once halted
+    private long waitFor(long next) {
+        int tries = 0;
+        while (true) {
+            long available = available(next);
+            if (available >= next) {
+                return available;
+            }
+            if (!running) {
+                return next - 1;
+            }
+            if (tries++ < SPIN_TRIES) {
+                Thread.onSpinWait();
+                continue;
+            }
+            sleeping = true;
+            // A publish between the check above and this flag would not have woken us
+            if (available(next) < next && running) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            sleeping = false;
+        }
+    }
+
+    private long available(long next) {
+        if (upstream.length == 0) {
+            return ring.highestPublished(next);
+        }
+        long available = Long.MAX_VALUE;
+        for (BatchConsumer<?> stage : upstream) {
+            available = Math.min(available, stage.sequence());
+        }
+        return available;
+    }
+
+    void wake() {
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    long sequence() {
+        return sequence.get();
+    }
+
+    void halt() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    void join() {
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Events whose handler threw. */
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.demo.broker;
+
+/** One consumer stage of a {@link RingBuffer}, called on that stage's own thread. */
+@FunctionalInterface
+public interface EventHandler<E> {
+
+    /**
+     * Handles the event at {@code sequence}. {@code endOfBatch} is set on the
+     * last event that was available when the batch started, the place to
+     * flush anything the handler buffers. The event is owned by the ring and
+     * reused once every stage is done with it.
+     */
+    void onEvent(E event, long sequence, boolean endOfBatch);
+}
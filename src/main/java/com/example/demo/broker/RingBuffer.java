@@ -0,0 +1,269 @@
+package com.example.demo.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A preallocated ring of mutable events passed from producers through a
+ * graph of consumer stages, after the LMAX Disruptor. Producers claim a run
+ * of sequence numbers, fill the events in place and publish them; every
+ * stage then sees every event in sequence order, on its own thread, in
+ * batches of whatever has become available. A stage can be set to run after
+ * other stages, and sees an event only once they are all done with it.
+ *
+ * Nothing is allocated or locked per event. Each counter has one writer:
+ * a stage's progress is written only by its thread and a slot's publish flag
+ * only by the producer that claimed it; the claim counter is the one point
+ * where producers meet, on a compare-and-set. A producer only claims slots
+ * the slowest stage is done with and otherwise waits for it, so a full ring
+ * pushes back on the inbound threads instead of growing a queue.
+ *
+ * Events are published in claim order per producer thread, so everything a
+ * thread publishes reaches every stage in the order it was published.
+ */
+public final class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    private final int indexShift;
+    // Lap number of the last publish of each slot; -1 before the first
+    private final AtomicIntegerArray published;
+    // Highest sequence claimed so far
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<BatchConsumer<E>> stages = new ArrayList<>();
+    // Stages that take events straight from the producers; fixed once started
+    private volatile BatchConsumer<?>[] roots = new BatchConsumer<?>[0];
+    // Stages no other stage runs after; producers must not lap them
+    private volatile BatchConsumer<?>[] gating = new BatchConsumer<?>[0];
+    // Last seen progress of the slowest gating stage; only ever behind the truth
+    private volatile long gatingCache = -1;
+    private final LongAdder fullWaits = new LongAdder();
+    // Producers waiting for room block here rather than spin: there may be thousands of them
+    private final ReentrantLock roomLock = new ReentrantLock();
+    private final Condition room = roomLock.newCondition();
+    private volatile int waitingForRoom;
+    private volatile boolean started;
+
+    public RingBuffer(int size, Supplier<E> factory) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two: " + size);
+        }
+        entries = new Object[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+        }
+        mask = size - 1;
+        indexShift = Integer.numberOfTrailingZeros(size);
+        published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /** Adds a stage that handles each event as soon as it is published. */
+    public BatchConsumer<E> addStage(String name, EventHandler<E> handler) {
+        return addStage(name, handler, List.of());
+    }
+
+    /**
+     * Adds a stage that handles each event after every stage in {@code after}
+     * has. Stages are added before {@link #start}.
+     */
+    public synchronized BatchConsumer<E> addStage(String name, EventHandler<E> handler,
+                                                  List<BatchConsumer<E>> after) {
+        if (started) {
+            throw new IllegalStateException("Ring already started");
+        }
+        BatchConsumer<E> stage = new BatchConsumer<>(name, this, handler, after);
+        stages.add(stage);
+        return stage;
+    }
+
+    /** Starts one daemon thread per stage. */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("Ring already started");
+        }
+        List<BatchConsumer<E>> terminal = new ArrayList<>(stages);
+        List<BatchConsumer<E>> first = new ArrayList<>();
+        for (BatchConsumer<E> stage : stages) {
+            for (BatchConsumer<?> upstream : stage.upstream()) {
+                terminal.remove(upstream);
+            }
+            if (stage.upstream().isEmpty()) {
+                first.add(stage);
+            }
+        }
+        gating = terminal.toArray(new BatchConsumer<?>[0]);
+        roots = first.toArray(new BatchConsumer<?>[0]);
+        started = true;
+        for (BatchConsumer<E> stage : stages) {
+            List<BatchConsumer<E>> downstream = new ArrayList<>();
+            for (BatchConsumer<E> other : stages) {
+                if (other.upstream().contains(stage)) {
+                    downstream.add(other);
+                }
+            }
+            stage.start(downstream.toArray(new BatchConsumer<?>[0]));
+        }
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Claims the next {@code n} sequences, waiting while the ring has no room
+     * for them, and returns the highest. The caller fills the events of
+     * {@code highest - n + 1} to {@code highest} and must then
+     * {@link #publish} them, even if it has nothing to put in some.
+     */
+    public long claim(int n) {
+        if (n <= 0 || n > entries.length) {
+            throw new IllegalArgumentException("Cannot claim " + n + " of " + entries.length + " slots");
+        }
+        boolean waited = false;
+        while (true) {
+            long current = cursor.get();
+            long highest = current + n;
+            long wrapPoint = highest - entries.length;
+            if (wrapPoint > gatingCache) {
+                long slowest = slowestGating();
+                gatingCache = slowest;
+                if (wrapPoint > slowest) {
+                    if (!waited) {
+                        fullWaits.increment();
+                        waited = true;
+                    }
+                    awaitRoom(n);
+                    continue;
+                }
+            }
+            // Only claim what there is room for: a producer never holds a slot the stages are waiting on
+            if (cursor.compareAndSet(current, highest)) {
+                return highest;
+            }
+        }
+    }
+
+    private boolean hasRoom(int n) {
+        return cursor.get() + n - entries.length <= slowestGating();
+    }
+
+    // Room only ever appears when a last stage moves on, and it signals; no polling
+    private void awaitRoom(int n) {
+        roomLock.lock();
+        try {
+            waitingForRoom++;
+            try {
+                while (!hasRoom(n)) {
+                    // The caller has events to hand over, so an interrupt is only passed on
+                    room.awaitUninterruptibly();
+                }
+            } finally {
+                waitingForRoom--;
+            }
+            // Pass the wake on in case there is room left over
+            if (waitingForRoom > 0) {
+                room.signal();
+            }
+        } finally {
+            roomLock.unlock();
+        }
+    }
+
+    /** Called by the last stages as they move on, which makes room for producers. */
+    void released() {
+        if (waitingForRoom > 0) {
+            roomLock.lock();
+            try {
+                // As many as could each claim a slot; one that can't goes back to waiting
+                long free = entries.length - (cursor.get() - slowestGating());
+                for (long i = Math.min(free, waitingForRoom); i > 0; i--) {
+                    room.signal();
+                }
+            } finally {
+                roomLock.unlock();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    /** Hands the claimed events from {@code low} to {@code high} to the stages. */
+    public void publish(long low, long high) {
+        for (long sequence = low; sequence <= high; sequence++) {
+            published.set((int) sequence & mask, (int) (sequence >>> indexShift));
+        }
+        for (BatchConsumer<?> stage : roots) {
+            stage.wake();
+        }
+    }
+
+    /**
+     * Highest sequence from {@code from} on that is published with every
+     * sequence before it, or {@code from - 1} if {@code from} isn't yet.
+     */
+    long highestPublished(long from) {
+        long claimed = cursor.get();
+        long sequence = from;
+        while (sequence <= claimed && published.get((int) sequence & mask) == (int) (sequence >>> indexShift)) {
+            sequence++;
+        }
+        return sequence - 1;
+    }
+
+    private long slowestGating() {
+        long slowest = cursor.get();
+        for (BatchConsumer<?> stage : gating) {
+            slowest = Math.min(slowest, stage.sequence());
+        }
+        return slowest;
+    }
+
+    /** Events claimed but not yet through every stage. */
+    public long backlog() {
+        return Math.max(0, cursor.get() - slowestGating());
+    }
+
+    /** Times a producer found the ring full and had to wait. */
+    public long getFullWaits() {
+        return fullWaits.sum();
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for every event claimed so far to get
+     * through every stage; returns whether they did.
+     */
+    public boolean drain(long timeoutMillis) {
+        long target = cursor.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (slowestGating() < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    /** Stops the stages once they are idle; events not handled by then are dropped. */
+    public void stop() {
+        for (BatchConsumer<E> stage : stages) {
+            stage.halt();
+        }
+        for (BatchConsumer<E> stage : stages) {
+            stage.join();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.demo.controller;
+
+import com.example.demo.ingest.BacklogReceiver;
+import com.example.demo.models.BacklogAck;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.websocket.BinaryLocationDecoder;
+import com.example.demo.websocket.JsonLocationDecoder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.MimeType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Bulk upload of a phone's journal backlog, as gzip- or deflate-compressed
+ * chunks of a binary batch or a JSON array:
+ *
+ * <pre>
+ * GET  /api/backlog/{userId}?stream=S                  -> {"ackedSeq": 41999, ...}
+ * POST /api/backlog/{userId}?stream=S&amp;firstSeq=42000   Content-Encoding: gzip
+ * </pre>
+ *
+ * {@code stream} identifies the phone's journal and {@code firstSeq} is the
+ * journal sequence of the chunk's first fix. See {@link BacklogReceiver}.
+ */
+@RestController
+@RequestMapping("/api/backlog")
+public class BacklogController {
+
+    // Decompressed; a day of 1 Hz fixes is about 2 MB as JSON and well under 1 MB binary
+    static final int MAX_CHUNK_BYTES = 8 << 20;
+    private static final MimeType BINARY_LOCATION = MimeType.valueOf(BinaryLocationDecoder.CONTENT_TYPE);
+
+    private final BacklogReceiver receiver;
+
+    public BacklogController(BacklogReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @GetMapping("/{userId}")
+    public BacklogAck status(@PathVariable String userId, @RequestParam long stream) {
+        return receiver.status(userId, stream);
+    }
+
+    @PostMapping("/{userId}")
+    public BacklogAck upload(@PathVariable String userId, @RequestParam long stream, @RequestParam long firstSeq,
+                             @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+                             @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                             InputStream body) throws IOException {
+        byte[] chunk;
+        try (InputStream in = decoding(body, contentEncoding)) {
+            chunk = readChunk(in);
+        } catch (ZipException | EOFException e) {
+            throw new IllegalArgumentException("Corrupt " + contentEncoding + " body: " + e.getMessage());
+        }
+        List<PhoneLocation> fixes;
+        if (contentType != null && BINARY_LOCATION.equalsTypeAndSubtype(MimeType.valueOf(contentType))) {
+            // Every chunk declares its user, tokens don't carry over between requests
+            fixes = BinaryLocationDecoder.decode(chunk, new HashMap<>());
+        } else {
+            fixes = JsonLocationDecoder.decode(chunk);
+        }
+        return receiver.accept(userId, stream, firstSeq, fixes);
+    }
+
+    private static InputStream decoding(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equalsIgnoreCase(contentEncoding)) {
+            return body;
+        }
+        if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(body, 8192);
+        }
+        if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            // HTTP's "deflate" is the zlib format, which is what InflaterInputStream expects
+            return new InflaterInputStream(body);
+        }
+        throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding " + contentEncoding);
+    }
+
+    // Bounded, so a small compressed body can't inflate into the whole heap
+    private static byte[] readChunk(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (out.size() + n > MAX_CHUNK_BYTES) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Backlog chunks are limited to " + MAX_CHUNK_BYTES + " bytes uncompressed");
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+}
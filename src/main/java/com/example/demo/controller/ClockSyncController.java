@@ -0,0 +1,74 @@
+package com.example.demo.controller;
+
+import com.example.demo.tracing.LatencyTracker;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+/**
+ * Server side of the NTP-style clock exchange. A phone sends {@code /app/clock}
+ * with its send time in a {@code t0} header and gets {@code t0} back on
+ * {@code /user/queue/clock} with our receive and reply times as {@code t1} and
+ * {@code t2}. Once it has an estimate it includes it in its next ping as
+ * {@code offset} and {@code rtt} headers, which the {@link LatencyTracker}
+ * uses to place that session's timestamps on our clock.
+ */
+@Controller
+public class ClockSyncController {
+
+    static final String REPLY_DESTINATION = "/queue/clock";
+
+    private final SimpMessageSendingOperations messaging;
+    private final LatencyTracker latency;
+
+    public ClockSyncController(SimpMessageSendingOperations messaging, LatencyTracker latency) {
+        this.messaging = messaging;
+        this.latency = latency;
+    }
+
+    @MessageMapping("/clock")
+    public void ping(Message<byte[]> message) {
+        long t1 = System.currentTimeMillis();
+        SimpMessageHeaderAccessor ping = SimpMessageHeaderAccessor.wrap(message);
+        String sessionId = ping.getSessionId();
+        String t0 = ping.getFirstNativeHeader("t0");
+        if (sessionId == null || t0 == null) {
+            return;
+        }
+        Long offset = parse(ping.getFirstNativeHeader("offset"));
+        Long rtt = parse(ping.getFirstNativeHeader("rtt"));
+        if (offset != null && rtt != null && rtt >= 0) {
+            latency.updateClockOffset(sessionId, offset, rtt);
+        }
+
+        // Sessions have no user, so the reply goes to the session itself
+        SimpMessageHeaderAccessor reply = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        reply.setSessionId(sessionId);
+        reply.setNativeHeader("t0", t0);
+        reply.setNativeHeader("t1", Long.toString(t1));
+        reply.setLeaveMutable(true);
+        reply.setNativeHeader("t2", Long.toString(System.currentTimeMillis()));
+        messaging.convertAndSendToUser(sessionId, REPLY_DESTINATION, new byte[0], reply.getMessageHeaders());
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        latency.forgetSession(event.getSessionId());
+    }
+
+    private static Long parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.controller;
+
+import com.example.demo.models.GeofenceEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Controller;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fence entries and exits detected on the phones, sent to {@code /app/geofence}
+ * as one JSON object per frame. Phones test their fixes against the fences
+ * themselves, so the server sees one small event per transition instead of
+ * testing every fix. Events are stamped with their arrival time and passed on
+ * to subscribers of {@link #DESTINATION}.
+ */
+@Controller
+public class GeofenceEventController {
+
+    public static final String DESTINATION = "/topic/geofence-events";
+
+    private static final Logger log = LoggerFactory.getLogger(GeofenceEventController.class);
+
+    private final SimpMessageSendingOperations messaging;
+    private final ObjectMapper mapper;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public GeofenceEventController(SimpMessageSendingOperations messaging, ObjectMapper mapper) {
+        this.messaging = messaging;
+        this.mapper = mapper;
+    }
+
+    @MessageMapping("/geofence")
+    public void receive(Message<byte[]> message) {
+        long receivedAt = System.currentTimeMillis();
+        GeofenceEvent event;
+        try {
+            event = mapper.readValue(message.getPayload(), GeofenceEvent.class);
+        } catch (IOException e) {
+            rejected.increment();
+            log.warn("Dropping geofence event from session {}: {}",
+                    SimpMessageHeaderAccessor.getSessionId(message.getHeaders()), e.getMessage());
+            return;
+        }
+        if (event.getUserId() == null || event.getFenceId() == null || event.getType() == null) {
+            rejected.increment();
+            log.warn("Dropping incomplete geofence event {}", event);
+            return;
+        }
+        event.setReceivedAt(receivedAt);
+        received.increment();
+        messaging.convertAndSend(DESTINATION, event);
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.demo.controller;
+
+import com.example.demo.ingest.SpatialGridIndex;
+import com.example.demo.models.NearbyLocation;
+import com.example.demo.models.PhoneLocation;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Queries over the latest position of every user, answered from the
+ * {@link SpatialGridIndex}. Distances are in kilometres on the way in and
+ * metres on the way out.
+ */
+@RestController
+@RequestMapping("/api/locations")
+public class NearbyLocationController {
+
+    static final int MAX_K = 1000;
+    static final double MAX_RADIUS_KM = 500;
+
+    private final SpatialGridIndex index;
+
+    public NearbyLocationController(SpatialGridIndex index) {
+        this.index = index;
+    }
+
+    @GetMapping("/nearest")
+    public List<NearbyLocation> nearest(@RequestParam double lat, @RequestParam double lng,
+                                        @RequestParam(defaultValue = "10") int k,
+                                        @RequestParam(defaultValue = "50") double maxKm) {
+        if (k > MAX_K) {
+            throw new IllegalArgumentException("k is limited to " + MAX_K);
+        }
+        return index.nearest(lat, lng, k, checkRadius(maxKm) * 1000);
+    }
+
+    @GetMapping("/within")
+    public List<NearbyLocation> within(@RequestParam double lat, @RequestParam double lng,
+                                       @RequestParam double radiusKm) {
+        return index.withinRadius(lat, lng, checkRadius(radiusKm) * 1000);
+    }
+
+    @GetMapping("/box")
+    public List<PhoneLocation> box(@RequestParam double south, @RequestParam double west,
+                                   @RequestParam double north, @RequestParam double east) {
+        return index.withinBox(south, west, north, east);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    private static double checkRadius(double km) {
+        if (!(km > 0 && km <= MAX_RADIUS_KM)) {
+            throw new IllegalArgumentException("Radius must be in (0, " + MAX_RADIUS_KM + "] km: " + km);
+        }
+        return km;
+    }
+}
@@ -1 +1,139 @@
+package com.example.demo.controller;
 
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.tracing.LatencyTracker;
+import com.example.demo.websocket.BinaryLocationDecoder;
+import com.example.demo.websocket.JsonLocationDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Controller
+public class PhoneLocationController {
+
+    private static final Logger log = LoggerFactory.getLogger(PhoneLocationController.class);
+    private static final MimeType BINARY_LOCATION = MimeType.valueOf(BinaryLocationDecoder.CONTENT_TYPE);
+
+    private final LatencyTracker latency;
+    private final SequenceDeduplicator duplicates;
+    private final LocationIngest ingest;
+
+    // Binary user tokens declared by each STOMP session
+    private final Map<String, Map<Integer, String>> sessionTokens = new ConcurrentHashMap<>();
+
+    public PhoneLocationController(LatencyTracker latency, SequenceDeduplicator duplicates, LocationIngest ingest) {
+        this.latency = latency;
+        this.duplicates = duplicates;
+        this.ingest = ingest;
+    }
+
+    /**
+     * Accepts a single location object, a JSON array of them, or a binary batch,
+     * depending on the frame's content-type. Only fixes newer than the user's
+     * stored position are published. Fixes are stamped with the frame's
+     * {@code sent-at} header and their arrival time for latency tracing.
+     *
+     * Frames with {@code stream} and {@code seq} headers number their fixes
+     * from {@code seq} on; fixes already received under those numbers are
+     * dropped, since phones send frames again that weren't acknowledged. A
+     * frame with a {@code receipt} header is acknowledged once its fixes are
+     * stored and published, also when it was dropped: sending it again
+     * wouldn't help. Storing and publishing is left to {@link LocationIngest}.
+     */
+    @MessageMapping("/location")
+    public void receiveLocation(Message<byte[]> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        List<PhoneLocation> fresh = List.of();
+        try {
+            fresh = receive(message, accessor);
+        } finally {
+            ingest.submit(accessor.getSessionId(), fresh, accessor.getFirstNativeHeader("receipt"));
+        }
+    }
+
+    private List<PhoneLocation> receive(Message<byte[]> message, SimpMessageHeaderAccessor accessor) {
+        long receivedAt = System.currentTimeMillis();
+        MimeType contentType = accessor.getContentType();
+        long sentAt = parseLong(accessor.getFirstNativeHeader("sent-at"), 0);
+        String streamHeader = accessor.getFirstNativeHeader("stream");
+        long stream = parseLong(streamHeader, 0);
+        long firstSeq = streamHeader == null ? -1 : parseLong(accessor.getFirstNativeHeader("seq"), -1);
+
+        if (contentType != null && BINARY_LOCATION.equalsTypeAndSubtype(contentType)) {
+            Map<Integer, String> tokens = sessionTokens.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>());
+            List<PhoneLocation> locations;
+            try {
+                locations = BinaryLocationDecoder.decode(message.getPayload(), tokens);
+            } catch (IllegalArgumentException e) {
+                log.warn("Dropping binary location batch from session {}: {}", accessor.getSessionId(), e.getMessage());
+                return List.of();
+            }
+            return accept(accessor.getSessionId(), locations, stream, firstSeq, sentAt, receivedAt);
+        }
+
+        List<PhoneLocation> locations;
+        try {
+            locations = JsonLocationDecoder.decode(message.getPayload());
+        } catch (IllegalArgumentException e) {
+            log.warn("Dropping location frame from session {}: {}", accessor.getSessionId(), e.getMessage());
+            return List.of();
+        }
+        return accept(accessor.getSessionId(), locations, stream, firstSeq, sentAt, receivedAt);
+    }
+
+    // The fixes not seen before, stamped for latency tracing
+    private List<PhoneLocation> accept(String sessionId, List<PhoneLocation> locations, long stream, long firstSeq,
+                                       long sentAt, long receivedAt) {
+        if (firstSeq < 0) {
+            for (PhoneLocation location : locations) {
+                received(sessionId, location, sentAt, receivedAt);
+            }
+            return locations;
+        }
+        List<PhoneLocation> fresh = new ArrayList<>(locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            PhoneLocation location = locations.get(i);
+            if (location.getUserId() != null && !duplicates.firstSeen(location.getUserId(), stream, firstSeq + i)) {
+                continue;
+            }
+            received(sessionId, location, sentAt, receivedAt);
+            fresh.add(location);
+        }
+        return fresh;
+    }
+
+    private void received(String sessionId, PhoneLocation location, long sentAt, long receivedAt) {
+        location.setSentAt(sentAt);
+        location.setReceivedAt(receivedAt);
+        latency.received(sessionId, location);
+    }
+
+    private static long parseLong(String header, long fallback) {
+        if (header == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        sessionTokens.remove(event.getSessionId());
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.demo.controller;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.ingest.BacklogReceiver;
+import com.example.demo.ingest.LatestPositionStore;
+import com.example.demo.ingest.LiveStateSnapshot;
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.roads.MapMatcher;
+import com.example.demo.tracing.LatencyTracker;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process CPU, heap and thread figures plus the ingest, road matching and
+ * fan-out counters, for load tests to sample while they run. CPU loads are
+ * fractions of all cores in [0, 1], or -1 where the JVM can't measure them.
+ * {@code /latency} has the per-hop latency percentiles of live fixes.
+ */
+@RestController
+@RequestMapping("/api/stats")
+public class RuntimeStatsController {
+
+    private final LatestPositionStore positions;
+    private final LocationFanout fanout;
+    private final BacklogReceiver backlog;
+    private final LatencyTracker latency;
+    private final SequenceDeduplicator duplicates;
+    private final GeofenceEventController geofences;
+    private final LocationIngest ingest;
+    private final MapMatcher roads;
+    private final LiveStateSnapshot snapshot;
+
+    public RuntimeStatsController(LatestPositionStore positions, LocationFanout fanout, BacklogReceiver backlog,
+                                  LatencyTracker latency, SequenceDeduplicator duplicates,
+                                  GeofenceEventController geofences, LocationIngest ingest, MapMatcher roads,
+                                  LiveStateSnapshot snapshot) {
+        this.positions = positions;
+        this.fanout = fanout;
+        this.backlog = backlog;
+        this.latency = latency;
+        this.duplicates = duplicates;
+        this.geofences = geofences;
+        this.ingest = ingest;
+        this.roads = roads;
+        this.snapshot = snapshot;
+    }
+
+    @GetMapping("/runtime")
+    public Map<String, Object> runtime() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("timestamp", System.currentTimeMillis());
+        stats.put("uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime());
+        stats.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean hotspot) {
+            stats.put("processCpuLoad", hotspot.getProcessCpuLoad());
+            stats.put("systemCpuLoad", hotspot.getCpuLoad());
+            stats.put("processCpuTimeNanos", hotspot.getProcessCpuTime());
+        } else {
+            stats.put("processCpuLoad", -1.0);
+            stats.put("systemCpuLoad", -1.0);
+        }
+        stats.put("systemLoadAverage", os.getSystemLoadAverage());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        stats.put("heapUsedBytes", heap.getUsed());
+        stats.put("heapCommittedBytes", heap.getCommitted());
+        stats.put("heapMaxBytes", heap.getMax());
+        stats.put("liveThreads", ManagementFactory.getThreadMXBean().getThreadCount());
+        stats.put("peakThreads", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        stats.put("gcCount", gcCount);
+        stats.put("gcMillis", gcMillis);
+
+        stats.put("fixesAccepted", positions.getAccepted());
+        stats.put("fixesStale", positions.getStale());
+        stats.put("fixesDuplicate", duplicates.getDuplicates());
+        stats.put("users", positions.size());
+        stats.put("ingestBacklog", ingest.getBacklog());
+        stats.put("ingestFullWaits", ingest.getFullWaits());
+        stats.put("reorderHeld", ingest.getReorderHeld());
+        stats.put("fixesLate", ingest.getLate());
+        stats.put("reorderDuplicates", ingest.getReorderDuplicates());
+        stats.put("roadMatched", roads.getMatched());
+        stats.put("roadUnmatched", roads.getUnmatched());
+        stats.put("roadBreaks", roads.getBreaks());
+        stats.put("fanoutSubscriptions", fanout.getSubscriptionCount());
+        stats.put("fanoutFramesSent", fanout.getFramesSent());
+        stats.put("fanoutFixesSent", fanout.getFixesSent());
+        stats.put("fanoutFlushesSkipped", fanout.getFlushesSkipped());
+        stats.put("backlogChunks", backlog.getChunks());
+        stats.put("backlogFixesStored", backlog.getFixesStored());
+        stats.put("geofenceEvents", geofences.getReceived());
+        stats.put("geofenceEventsRejected", geofences.getRejected());
+        stats.put("snapshotWriteMillis", snapshot.getLastWriteMillis());
+        stats.put("snapshotBytes", snapshot.getLastWriteBytes());
+        return stats;
+    }
+
+    @GetMapping("/latency")
+    public Map<String, Object> latency() {
+        return latency.snapshot();
+    }
+}
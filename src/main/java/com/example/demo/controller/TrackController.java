@@ -0,0 +1,66 @@
+package com.example.demo.controller;
+
+import com.example.demo.history.TrackStore;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Replays a user's stored track as a JSON array of location objects. Fixes
+ * are written to the response as they are read from the segment files, so a
+ * long trip never sits on the heap as a whole.
+ */
+@RestController
+@RequestMapping("/api/tracks")
+public class TrackController {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final TrackStore tracks;
+
+    public TrackController(TrackStore tracks) {
+        this.tracks = tracks;
+    }
+
+    @GetMapping("/{userId}")
+    public ResponseEntity<StreamingResponseBody> track(@PathVariable String userId,
+                                                       @RequestParam(defaultValue = "0") long from,
+                                                       @RequestParam(required = false) Long to) {
+        long until = to == null ? Long.MAX_VALUE : to;
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = JSON.createGenerator(out)) {
+                json.writeStartArray();
+                tracks.query(userId, from, until, (timestamp, latitude, longitude, accuracy, speed, bearing) -> {
+                    try {
+                        json.writeStartObject();
+                        json.writeStringField("userId", userId);
+                        json.writeNumberField("latitude", latitude);
+                        json.writeNumberField("longitude", longitude);
+                        json.writeNumberField("accuracy", accuracy);
+                        json.writeNumberField("speed", speed);
+                        json.writeNumberField("bearing", bearing);
+                        json.writeNumberField("timestamp", timestamp);
+                        json.writeEndObject();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                json.writeEndArray();
+            } catch (UncheckedIOException e) {
+                // Client went away mid-stream
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
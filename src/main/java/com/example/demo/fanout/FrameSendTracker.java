@@ -0,0 +1,112 @@
+package com.example.demo.fanout;
+
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Tells {@link LocationFanout} when one of its frames has been written to a
+ * client's socket.
+ *
+ * The STOMP handler hands each frame to the session's
+ * {@link org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator},
+ * which only buffers it while another thread is still writing to that
+ * socket; so the outbound channel being done with a frame says nothing about
+ * a slow phone. This wraps the raw session underneath that buffer and, after
+ * each write of a {@code /topic/locations} MESSAGE frame, reports the frame's
+ * subscription.
+ */
+public class FrameSendTracker extends WebSocketHandlerDecorator {
+
+    private static final String COMMAND_LINE = "MESSAGE\n";
+    private static final String DESTINATION_LINE = "destination:" + LocationFanout.DESTINATION;
+    private static final String SUBSCRIPTION_PREFIX = "subscription:";
+
+    // Looked up per connection; the fan-out needs the outbound channel the decorated handler comes with
+    private final Supplier<LocationFanout> fanout;
+
+    public FrameSendTracker(WebSocketHandler delegate, Supplier<LocationFanout> fanout) {
+        super(delegate);
+        this.fanout = fanout;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        super.afterConnectionEstablished(new TrackedSession(session, fanout.get()));
+    }
+
+    /**
+     * The subscription of a {@code /topic/locations} MESSAGE frame, or null
+     * for any other frame. Fan-out frames carry JSON, so they are always text.
+     */
+    static String subscriptionOf(WebSocketMessage<?> message) {
+        if (!(message instanceof TextMessage text)) {
+            return null;
+        }
+        String frame = text.getPayload();
+        if (!frame.startsWith(COMMAND_LINE)) {
+            return null;
+        }
+        boolean locations = false;
+        String subscription = null;
+        // Headers run up to the first blank line
+        int line = COMMAND_LINE.length();
+        int end;
+        while ((end = frame.indexOf('\n', line)) > line) {
+            if (frame.startsWith(DESTINATION_LINE, line) && end == line + DESTINATION_LINE.length()) {
+                locations = true;
+            } else if (subscription == null && frame.startsWith(SUBSCRIPTION_PREFIX, line)) {
+                subscription = unescape(frame.substring(line + SUBSCRIPTION_PREFIX.length(), end));
+            }
+            line = end + 1;
+        }
+        return locations ? subscription : null;
+    }
+
+    // Undoes the STOMP header escapes the encoder applied
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                c = switch (escaped) {
+                    case 'c' -> ':';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> escaped;
+                };
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static final class TrackedSession extends WebSocketSessionDecorator {
+
+        private final LocationFanout fanout;
+
+        TrackedSession(WebSocketSession session, LocationFanout fanout) {
+            super(session);
+            this.fanout = fanout;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            super.sendMessage(message);
+            String subscription = subscriptionOf(message);
+            if (subscription != null) {
+                fanout.written(getId(), subscription);
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.example.demo.fanout;
+
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.InterceptableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers {@code /topic/locations} instead of the simple broker, so viewers
+ * don't each get every fix the moment it arrives.
+ *
+ * Subscriptions with the same {@link SubscriptionFilter} share a group with
+ * one pending map keyed by user id. A published fix is serialized once and put
+ * into the pending map of each matching group, where it replaces that user's
+ * previous fix. Every flush interval each group with pending fixes encodes one
+ * JSON array, with at most one fix per user, and sends that same body to each
+ * of its subscriptions as a MESSAGE frame.
+ *
+ * Frames go straight to the client outbound channel. Each subscription
+ * counts its frames until {@link FrameSendTracker} sees them written to the
+ * phone's socket; the outbound channel is done with a frame as soon as it
+ * sits in the session's send buffer, which would fill up behind a slow phone.
+ * A subscription whose last frame has not been written yet is skipped and
+ * conflates what it missed into a backlog of its own, which it is sent as one
+ * frame once it catches up. A slow phone therefore costs memory proportional
+ * to the users it watches, never a growing queue, and publishing never waits
+ * on a socket.
+ *
+ * Frames carry a {@code broadcast-at} header. When a group takes its pending
+ * fixes for a flush, the time since each arrived is recorded as the
+ * receive-to-broadcast hop of the {@link LatencyTracker}.
+ */
+@Component
+public class LocationFanout implements ExecutorChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationFanout.class);
+
+    public static final String DESTINATION = "/topic/locations";
+
+    // Frames a subscription may have on their way to its socket at once
+    static final int MAX_IN_FLIGHT = 1;
+
+    // Message header carrying the subscription a frame belongs to; never written to the wire
+    private static final String SUBSCRIPTION_HEADER = LocationFanout.class.getName() + ".subscription";
+    static final String BROADCAST_AT_HEADER = "broadcast-at";
+
+    /** A user's serialized fix waiting for a flush, with when it reached the server (0 if unknown). */
+    private record Pending(byte[] json, long receivedAt) {
+    }
+
+    static final class Subscription {
+        final String sessionId;
+        final String subscriptionId;
+        final SubscriptionFilter filter;
+        // Frames sent and not yet written to the socket
+        final AtomicInteger inFlight = new AtomicInteger();
+        // Fixes this subscription missed while it was busy; flush thread only
+        final Map<String, Pending> backlog = new LinkedHashMap<>();
+
+        Subscription(String sessionId, String subscriptionId, SubscriptionFilter filter) {
+            this.sessionId = sessionId;
+            this.subscriptionId = subscriptionId;
+            this.filter = filter;
+        }
+
+        // Never below zero: a frame of an earlier subscription with the same id may be written late
+        void done() {
+            inFlight.updateAndGet(n -> Math.max(0, n - 1));
+        }
+    }
+
+    private static final class Group {
+        final SubscriptionFilter filter;
+        final Subscription[] members;
+        final Map<String, Pending> pending;
+
+        Group(SubscriptionFilter filter, Subscription[] members, Map<String, Pending> pending) {
+            this.filter = filter;
+            this.members = members;
+            this.pending = pending;
+        }
+    }
+
+    private final MessageChannel outbound;
+    private final ObjectMapper objectMapper;
+    private final LatencyTracker latency;
+    private final long flushMillis;
+    // Keyed by session id, then subscription id
+    private final Map<String, Map<String, Subscription>> sessions = new ConcurrentHashMap<>();
+    private volatile Group[] groups = new Group[0];
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder fixesSent = new LongAdder();
+    private final LongAdder flushesSkipped = new LongAdder();
+
+    @Autowired
+    public LocationFanout(@Qualifier("clientOutboundChannel") MessageChannel outbound, ObjectMapper objectMapper,
+                          @Value("${roadster.fanout.flush-millis:1000}") long flushMillis, LatencyTracker latency) {
+        this.outbound = outbound;
+        this.objectMapper = objectMapper;
+        this.latency = latency;
+        this.flushMillis = flushMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "location-fanout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Without a flush schedule; the caller drives {@link #flush()}. */
+    LocationFanout(MessageChannel outbound, ObjectMapper objectMapper) {
+        this(outbound, objectMapper, 0, new LatencyTracker());
+    }
+
+    /** Watches the outbound channel for frames it fails on and starts the flush schedule. */
+    @PostConstruct
+    public void start() {
+        if (outbound instanceof InterceptableChannel channel) {
+            channel.addInterceptor(this);
+        }
+        if (flushMillis > 0) {
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Queues a fix for every subscription that wants it. */
+    public void publish(PhoneLocation location) {
+        published.increment();
+        Group[] current = groups;
+        if (current.length == 0) {
+            return;
+        }
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(location);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize " + location, e);
+        }
+        Pending fix = new Pending(json, location.getReceivedAt());
+        for (Group group : current) {
+            if (group.filter.matches(location) && group.pending.put(location.getUserId(), fix) != null) {
+                conflated.increment();
+            }
+        }
+    }
+
+    /**
+     * Sends every subscription with pending fixes its next frame, unless it is
+     * still busy with the last one. Runs on the fan-out thread; callers that
+     * drive it themselves must not call it concurrently.
+     */
+    public void flush() {
+        for (Group group : groups) {
+            Map<String, Pending> fixes = drain(group.pending);
+            recordBroadcast(fixes);
+            byte[] shared = null;
+            for (Subscription subscription : group.members) {
+                if (fixes.isEmpty() && subscription.backlog.isEmpty()) {
+                    continue;
+                }
+                if (subscription.inFlight.get() >= MAX_IN_FLIGHT) {
+                    subscription.backlog.putAll(fixes);
+                    flushesSkipped.increment();
+                } else if (!subscription.backlog.isEmpty()) {
+                    subscription.backlog.putAll(fixes);
+                    send(subscription, encode(subscription.backlog), subscription.backlog.size());
+                    subscription.backlog.clear();
+                } else {
+                    if (shared == null) {
+                        shared = encode(fixes);
+                    }
+                    send(subscription, shared, fixes.size());
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Keep the schedule alive
+            log.warn("Location fan-out flush failed", e);
+        }
+    }
+
+    // Removes entry by entry so a fix published meanwhile stays for the next flush
+    private static Map<String, Pending> drain(Map<String, Pending> pending) {
+        if (pending.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Pending> fixes = new LinkedHashMap<>();
+        for (Iterator<String> users = pending.keySet().iterator(); users.hasNext(); ) {
+            String userId = users.next();
+            Pending fix = pending.remove(userId);
+            if (fix != null) {
+                fixes.put(userId, fix);
+            }
+        }
+        return fixes;
+    }
+
+    private void recordBroadcast(Map<String, Pending> fixes) {
+        if (fixes.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Pending fix : fixes.values()) {
+            if (fix.receivedAt() != 0) {
+                latency.record(LatencyTracker.Hop.RECEIVE_TO_BROADCAST, now - fix.receivedAt());
+            }
+        }
+    }
+
+    private static byte[] encode(Map<String, Pending> fixes) {
+        int size = 1 + fixes.size();
+        for (Pending fix : fixes.values()) {
+            size += fix.json().length;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size);
+        body.write('[');
+        boolean first = true;
+        for (Pending fix : fixes.values()) {
+            if (!first) {
+                body.write(',');
+            }
+            body.writeBytes(fix.json());
+            first = false;
+        }
+        body.write(']');
+        return body.toByteArray();
+    }
+
+    private void send(Subscription subscription, byte[] body, int fixes) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(subscription.sessionId);
+        accessor.setSubscriptionId(subscription.subscriptionId);
+        accessor.setDestination(DESTINATION);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setNativeHeader(BROADCAST_AT_HEADER, Long.toString(System.currentTimeMillis()));
+        accessor.setHeader(SUBSCRIPTION_HEADER, subscription);
+        Message<byte[]> message = MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+
+        subscription.inFlight.incrementAndGet();
+        boolean sent = false;
+        try {
+            sent = outbound.send(message);
+        } finally {
+            if (!sent) {
+                subscription.inFlight.decrementAndGet();
+            }
+        }
+        if (sent) {
+            framesSent.increment();
+            fixesSent.add(fixes);
+        }
+    }
+
+    /** A frame of the subscription has been written to its session's socket. */
+    public void written(String sessionId, String subscriptionId) {
+        Map<String, Subscription> session = sessions.get(sessionId);
+        Subscription subscription = session == null ? null : session.get(subscriptionId);
+        if (subscription != null) {
+            subscription.done();
+        }
+    }
+
+    // A frame the outbound handler failed on never reaches the socket
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null && message.getHeaders().get(SUBSCRIPTION_HEADER) instanceof Subscription subscription) {
+            subscription.done();
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        if (!DESTINATION.equals(accessor.getDestination())) {
+            return;
+        }
+        SubscriptionFilter filter;
+        try {
+            filter = SubscriptionFilter.parse(accessor.getFirstNativeHeader(SubscriptionFilter.REGION_HEADER),
+                    accessor.getFirstNativeHeader(SubscriptionFilter.USERS_HEADER));
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring {} subscription {} from session {}: {}", DESTINATION,
+                    accessor.getSubscriptionId(), accessor.getSessionId(), e.getMessage());
+            return;
+        }
+        Subscription subscription = new Subscription(accessor.getSessionId(), accessor.getSubscriptionId(), filter);
+        sessions.computeIfAbsent(subscription.sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscription.subscriptionId, subscription);
+        rebuild();
+        log.debug("Session {} subscribed to {} ({})", subscription.sessionId, DESTINATION, filter);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, Subscription> session = sessions.get(accessor.getSessionId());
+        if (session != null && session.remove(accessor.getSubscriptionId()) != null) {
+            rebuild();
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        if (sessions.remove(event.getSessionId()) != null) {
+            rebuild();
+        }
+    }
+
+    // Subscriptions change rarely and fixes constantly, so publish() reads a plain array.
+    // Groups that survive keep their pending map so no queued fix is lost.
+    private synchronized void rebuild() {
+        Map<SubscriptionFilter, List<Subscription>> byFilter = new LinkedHashMap<>();
+        for (Map<String, Subscription> session : sessions.values()) {
+            for (Subscription subscription : session.values()) {
+                byFilter.computeIfAbsent(subscription.filter, f -> new ArrayList<>()).add(subscription);
+            }
+        }
+        Map<SubscriptionFilter, Map<String, Pending>> pending = new HashMap<>();
+        for (Group group : groups) {
+            pending.put(group.filter, group.pending);
+        }
+        List<Group> next = new ArrayList<>(byFilter.size());
+        byFilter.forEach((filter, members) -> next.add(new Group(filter, members.toArray(new Subscription[0]),
+                pending.getOrDefault(filter, new ConcurrentHashMap<>()))));
+        groups = next.toArray(new Group[0]);
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Group group : groups) {
+            count += group.members.length;
+        }
+        return count;
+    }
+
+    /** Distinct filters among the subscriptions; each costs one map update per matching fix. */
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    public long getPublished() { return published.sum(); }
+    public long getConflated() { return conflated.sum(); }
+    public long getFramesSent() { return framesSent.sum(); }
+    public long getFixesSent() { return fixesSent.sum(); }
+    public long getFlushesSkipped() { return flushesSkipped.sum(); }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdownNow();
+    }
+}
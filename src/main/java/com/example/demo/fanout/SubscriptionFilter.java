@@ -0,0 +1,118 @@
+package com.example.demo.fanout;
+
+import com.example.demo.models.PhoneLocation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Which fixes a {@code /topic/locations} subscription wants, taken from its
+ * SUBSCRIBE frame headers:
+ * <ul>
+ *   <li>{@code region: south,west,north,east} only fixes inside the box; a
+ *       west edge greater than the east edge crosses the antimeridian</li>
+ *   <li>{@code users: id1,id2,...} only fixes from these users</li>
+ * </ul>
+ * With both headers a fix has to match both; with neither it gets everything.
+ */
+final class SubscriptionFilter {
+
+    static final String REGION_HEADER = "region";
+    static final String USERS_HEADER = "users";
+
+    static final SubscriptionFilter ALL = new SubscriptionFilter(null, null);
+
+    private final double[] region;
+    private final Set<String> users;
+
+    private SubscriptionFilter(double[] region, Set<String> users) {
+        this.region = region;
+        this.users = users;
+    }
+
+    /**
+     * Parses the header values, either of which may be null.
+     *
+     * @throws IllegalArgumentException if a header is malformed
+     */
+    static SubscriptionFilter parse(String region, String users) {
+        if (region == null && users == null) {
+            return ALL;
+        }
+        return new SubscriptionFilter(region == null ? null : parseRegion(region), users == null ? null : parseUsers(users));
+    }
+
+    private static double[] parseRegion(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("region needs south,west,north,east: " + value);
+        }
+        double[] box = new double[4];
+        for (int i = 0; i < 4; i++) {
+            try {
+                box[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad region coordinate: " + parts[i]);
+            }
+        }
+        if (!(box[0] >= -90 && box[0] <= box[2] && box[2] <= 90)
+                || !(Math.abs(box[1]) <= 180 && Math.abs(box[3]) <= 180)) {
+            throw new IllegalArgumentException("Not a region: " + value);
+        }
+        return box;
+    }
+
+    private static Set<String> parseUsers(String value) {
+        Set<String> ids = new HashSet<>();
+        for (String id : value.split(",")) {
+            if (!id.trim().isEmpty()) {
+                ids.add(id.trim());
+            }
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+
+    boolean matches(PhoneLocation location) {
+        if (users != null && !users.contains(location.getUserId())) {
+            return false;
+        }
+        if (region == null) {
+            return true;
+        }
+        double lat = location.getLatitude();
+        double lng = location.getLongitude();
+        double west = region[1];
+        double east = region[3];
+        boolean inLng = west <= east ? lng >= west && lng <= east : lng >= west || lng <= east;
+        return lat >= region[0] && lat <= region[2] && inLng;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SubscriptionFilter)) {
+            return false;
+        }
+        SubscriptionFilter other = (SubscriptionFilter) o;
+        return Arrays.equals(region, other.region) && Objects.equals(users, other.users);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(region) + Objects.hashCode(users);
+    }
+
+    @Override
+    public String toString() {
+        if (this == ALL) {
+            return "all";
+        }
+        return (region == null ? "" : "region=" + Arrays.toString(region) + " ")
+                + (users == null ? "" : "users=" + users);
+    }
+}
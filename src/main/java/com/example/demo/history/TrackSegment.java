@@ -0,0 +1,259 @@
+package com.example.demo.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One file of a user's track: a fixed-capacity run of fixes stored column by
+ * column and read through a memory mapping.
+ *
+ * Columns hold the timestamp as an int delta from the previous fix, latitude
+ * and longitude as int deltas of 1e-7 degrees (longitude wraps at the
+ * antimeridian), and accuracy, speed and bearing as unsigned shorts. Every
+ * {@link #INDEX_INTERVAL}-th fix also gets a sparse index entry with its
+ * absolute values, so a time-range scan binary-searches the index and decodes
+ * forward from the nearest entry instead of from the start of the file.
+ *
+ * Appends write the columns and index entry first and bump the count in the
+ * header last. A crash mid-append loses only that fix. Appends must come
+ * from one thread at a time; scans can run concurrently with them.
+ */
+final class TrackSegment {
+
+    static final int MAGIC = 0x5254524B; // "RTRK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_INTERVAL = 128;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    // Header layout
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_COUNT = 12;
+    private static final int H_FIRST_TIMESTAMP = 16;
+
+    private static final double COORD_SCALE = 1e7;
+    private static final long LNG_RANGE = 3_600_000_000L;
+    private static final long LNG_HALF_RANGE = LNG_RANGE / 2;
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+    private final File file;
+    private final int capacity;
+    private final int indexOffset;
+    private final int timeOffset;
+    private final int latOffset;
+    private final int lngOffset;
+    private final int accuracyOffset;
+    private final int speedOffset;
+    private final int bearingOffset;
+    private final MappedByteBuffer buffer;
+
+    private final long firstTimestamp;
+    // Published to readers by the volatile count
+    private volatile int count;
+    private long lastTimestamp;
+    private int lastLat;
+    private int lastLng;
+
+    private TrackSegment(File file, int capacity, MappedByteBuffer buffer, long firstTimestamp) {
+        this.file = file;
+        this.capacity = capacity;
+        this.buffer = buffer;
+        this.firstTimestamp = firstTimestamp;
+        this.indexOffset = HEADER_SIZE;
+        this.timeOffset = indexOffset + indexEntries(capacity) * INDEX_ENTRY_SIZE;
+        this.latOffset = timeOffset + 4 * capacity;
+        this.lngOffset = latOffset + 4 * capacity;
+        this.accuracyOffset = lngOffset + 4 * capacity;
+        this.speedOffset = accuracyOffset + 2 * capacity;
+        this.bearingOffset = speedOffset + 2 * capacity;
+    }
+
+    static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) indexEntries(capacity) * INDEX_ENTRY_SIZE + 18L * capacity;
+    }
+
+    private static int indexEntries(int capacity) {
+        return (capacity + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+    }
+
+    /** Creates an empty segment whose first fix will be at {@code firstTimestamp}. */
+    static TrackSegment create(File file, int capacity, long firstTimestamp) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        MappedByteBuffer buffer = map(file, fileSize(capacity));
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putInt(H_CAPACITY, capacity);
+        buffer.putInt(H_COUNT, 0);
+        buffer.putLong(H_FIRST_TIMESTAMP, firstTimestamp);
+        TrackSegment segment = new TrackSegment(file, capacity, buffer, firstTimestamp);
+        segment.lastTimestamp = firstTimestamp;
+        return segment;
+    }
+
+    /** Maps an existing segment and recovers the append state from its last index entry. */
+    static TrackSegment open(File file) throws IOException {
+        int capacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE) {
+                throw new IOException("Truncated track segment " + file);
+            }
+            raf.seek(H_CAPACITY);
+            capacity = Integer.reverseBytes(raf.readInt());
+            if (capacity <= 0 || raf.length() != fileSize(capacity)) {
+                throw new IOException("Track segment " + file + " has a bad capacity " + capacity);
+            }
+        }
+        MappedByteBuffer buffer = map(file, fileSize(capacity));
+        if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION) {
+            throw new IOException("Not a track segment: " + file);
+        }
+        int count = buffer.getInt(H_COUNT);
+        if (count < 0 || count > capacity) {
+            throw new IOException("Track segment " + file + " has a bad count " + count);
+        }
+        TrackSegment segment = new TrackSegment(file, capacity, buffer, buffer.getLong(H_FIRST_TIMESTAMP));
+        segment.recover(count);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private void recover(int count) {
+        lastTimestamp = firstTimestamp;
+        if (count > 0) {
+            int from = (count - 1) / INDEX_INTERVAL * INDEX_INTERVAL;
+            int entry = indexOffset + from / INDEX_INTERVAL * INDEX_ENTRY_SIZE;
+            lastTimestamp = buffer.getLong(entry);
+            lastLat = buffer.getInt(entry + 8);
+            lastLng = buffer.getInt(entry + 12);
+            for (int i = from + 1; i < count; i++) {
+                lastTimestamp += buffer.getInt(timeOffset + 4 * i);
+                lastLat += buffer.getInt(latOffset + 4 * i);
+                lastLng = wrapLng((long) lastLng + buffer.getInt(lngOffset + 4 * i));
+            }
+        }
+        this.count = count;
+    }
+
+    /**
+     * Appends a fix. Returns false, leaving the segment unchanged, if it is full
+     * or the gap since the previous fix does not fit the timestamp column.
+     */
+    boolean append(long timestamp, double latitude, double longitude, double accuracy, double speed, double bearing) {
+        int n = count;
+        long dt = timestamp - lastTimestamp;
+        if (n >= capacity || dt < 0 || dt > Integer.MAX_VALUE) {
+            return false;
+        }
+        int lat = (int) Math.round(latitude * COORD_SCALE);
+        int lng = wrapLng(Math.round(longitude * COORD_SCALE));
+
+        buffer.putInt(timeOffset + 4 * n, n == 0 ? 0 : (int) dt);
+        buffer.putInt(latOffset + 4 * n, n == 0 ? 0 : lat - lastLat);
+        buffer.putInt(lngOffset + 4 * n, n == 0 ? 0 : wrapLng((long) lng - lastLng));
+        buffer.putShort(accuracyOffset + 2 * n, quantize(accuracy, 10));
+        buffer.putShort(speedOffset + 2 * n, quantize(speed, 100));
+        buffer.putShort(bearingOffset + 2 * n, quantize(bearing, 100));
+        if (n % INDEX_INTERVAL == 0) {
+            int entry = indexOffset + n / INDEX_INTERVAL * INDEX_ENTRY_SIZE;
+            buffer.putLong(entry, timestamp);
+            buffer.putInt(entry + 8, lat);
+            buffer.putInt(entry + 12, lng);
+        }
+        lastTimestamp = timestamp;
+        lastLat = lat;
+        lastLng = lng;
+        buffer.putInt(H_COUNT, n + 1);
+        count = n + 1;
+        return true;
+    }
+
+    /**
+     * Streams the fixes with {@code from <= timestamp <= to} to the visitor and
+     * returns how many there were.
+     */
+    int scan(long from, long to, TrackVisitor visitor) {
+        int n = count;
+        if (n == 0 || to < firstTimestamp) {
+            return 0;
+        }
+        // Last index entry at or before 'from'
+        int lo = 0;
+        int hi = (n - 1) / INDEX_INTERVAL;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (buffer.getLong(indexOffset + mid * INDEX_ENTRY_SIZE) <= from) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int entry = indexOffset + lo * INDEX_ENTRY_SIZE;
+        long timestamp = buffer.getLong(entry);
+        int lat = buffer.getInt(entry + 8);
+        int lng = buffer.getInt(entry + 12);
+
+        int visited = 0;
+        int start = lo * INDEX_INTERVAL;
+        for (int i = start; i < n; i++) {
+            if (i != start) {
+                timestamp += buffer.getInt(timeOffset + 4 * i);
+                lat += buffer.getInt(latOffset + 4 * i);
+                lng = wrapLng((long) lng + buffer.getInt(lngOffset + 4 * i));
+            }
+            if (timestamp > to) {
+                break;
+            }
+            if (timestamp >= from) {
+                visitor.visit(timestamp, lat / COORD_SCALE, lng / COORD_SCALE,
+                        Short.toUnsignedInt(buffer.getShort(accuracyOffset + 2 * i)) / 10.0,
+                        Short.toUnsignedInt(buffer.getShort(speedOffset + 2 * i)) / 100.0,
+                        Short.toUnsignedInt(buffer.getShort(bearingOffset + 2 * i)) / 100.0);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    // Longitude units into (-180, 180] degrees, so deltas across the antimeridian stay small
+    private static int wrapLng(long units) {
+        long wrapped = Math.floorMod(units + LNG_HALF_RANGE - 1, LNG_RANGE) - LNG_HALF_RANGE + 1;
+        return (int) wrapped;
+    }
+
+    private static short quantize(double value, double scale) {
+        if (!(value > 0)) {
+            return 0;
+        }
+        return (short) Math.min(MAX_UNSIGNED_SHORT, Math.round(value * scale));
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    File getFile() { return file; }
+    int getCapacity() { return capacity; }
+    int getCount() { return count; }
+    boolean isFull() { return count >= capacity; }
+    long getFirstTimestamp() { return firstTimestamp; }
+
+    /** Timestamp of the newest fix; only meaningful to the appending thread or once sealed. */
+    long getLastTimestamp() { return lastTimestamp; }
+}
@@ -0,0 +1,539 @@
+package com.example.demo.history;
+
+import com.example.demo.models.PhoneLocation;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File-backed history of every user's fixes, for replaying trips.
+ *
+ * Each user gets a directory of append-only {@link TrackSegment} files named
+ * {@code <first timestamp>.<generation>.seg}. The newest segment takes appends.
+ * It is sealed and a new one started when it is full, when it has covered a
+ * day, or when the gap to the next fix is too long for its timestamp column.
+ * Sealing schedules a compaction of that user's history on a background
+ * thread. Compaction merges runs of part-filled sealed segments, such as the
+ * days of a user who drives an hour a day, into tightly sized files. It also
+ * deletes segments whose newest fix is older than the retention period.
+ *
+ * Appends for one user are serialized on that user's track. Queries read a
+ * snapshot of the segment list and scan it through the mappings without
+ * locking, so they never wait for an append or a compaction.
+ */
+@Component
+public class TrackStore {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackStore.class);
+
+    static final int DEFAULT_SEGMENT_CAPACITY = 16_384; // about 4.5 h at one fix per second
+    static final long DEFAULT_SEGMENT_SPAN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final String SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File root;
+    private final int segmentCapacity;
+    private final long segmentSpanMillis;
+    private final long retentionMillis;
+    private final Map<String, Track> tracks = new ConcurrentHashMap<>();
+    private final Executor compactor;
+
+    @Autowired
+    public TrackStore(@Value("${roadster.tracks.dir:data/tracks}") File root,
+                      @Value("${roadster.tracks.retention-days:30}") int retentionDays) {
+        this(root, DEFAULT_SEGMENT_CAPACITY, DEFAULT_SEGMENT_SPAN_MILLIS, TimeUnit.DAYS.toMillis(retentionDays));
+    }
+
+    TrackStore(File root, int segmentCapacity, long segmentSpanMillis, long retentionMillis) {
+        this(root, segmentCapacity, segmentSpanMillis, retentionMillis, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "track-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    TrackStore(File root, int segmentCapacity, long segmentSpanMillis, long retentionMillis, Executor compactor) {
+        this.root = root;
+        this.compactor = compactor;
+        this.segmentCapacity = segmentCapacity;
+        this.segmentSpanMillis = segmentSpanMillis;
+        this.retentionMillis = retentionMillis;
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new UncheckedIOException(new IOException("Cannot create track directory " + root));
+        }
+    }
+
+    /**
+     * Appends a fix to its user's track. Fixes older than the user's newest
+     * stored fix are ignored; returns whether it was stored.
+     *
+     * @throws UncheckedIOException if a new segment could not be created
+     */
+    public boolean append(PhoneLocation location) {
+        Track track = track(location.getUserId());
+        synchronized (track) {
+            return track.append(location);
+        }
+    }
+
+    /**
+     * Stores fixes that arrive after newer ones, such as a phone's backlog
+     * uploaded after a dead zone, where they belong in time. Fixes older than
+     * the newest stored one are merged into the segments they overlap, or
+     * written to a segment of their own if they fall in a gap; newer ones are
+     * appended as usual. Fixes at a timestamp that is already stored, and fixes
+     * past the retention period, are skipped. Returns how many were stored.
+     *
+     * @throws UncheckedIOException if a merged segment could not be written
+     */
+    public int insert(String userId, List<PhoneLocation> fixes) {
+        long oldest = System.currentTimeMillis() - retentionMillis;
+        List<PhoneLocation> sorted = new ArrayList<>(fixes.size());
+        for (PhoneLocation fix : fixes) {
+            if (fix.getTimestamp() >= oldest) {
+                sorted.add(fix);
+            }
+        }
+        sorted.sort(Comparator.comparingLong(PhoneLocation::getTimestamp));
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return track(userId).insert(sorted);
+    }
+
+    /**
+     * Streams the user's fixes with {@code from <= timestamp <= to}, oldest
+     * first, and returns how many there were.
+     */
+    public long query(String userId, long from, long to, TrackVisitor visitor) {
+        Track track = tracks.containsKey(userId) || new File(root, directoryName(userId)).isDirectory()
+                ? track(userId) : null;
+        if (track == null || from > to) {
+            return 0;
+        }
+        TrackSegment[] segments = track.segments;
+        long visited = 0;
+        for (int i = 0; i < segments.length; i++) {
+            // A segment ends where the next one begins
+            if (i + 1 < segments.length && segments[i + 1].getFirstTimestamp() < from) {
+                continue;
+            }
+            if (segments[i].getFirstTimestamp() > to) {
+                break;
+            }
+            visited += segments[i].scan(from, to, visitor);
+        }
+        return visited;
+    }
+
+    /** Compacts every loaded user's history now; returns the number of segment files removed. */
+    public int compactAll() {
+        int removed = 0;
+        for (Track track : tracks.values()) {
+            removed += track.compact(System.currentTimeMillis());
+        }
+        return removed;
+    }
+
+    int segmentCount(String userId) {
+        Track track = tracks.get(userId);
+        return track == null ? 0 : track.segments.length;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (compactor instanceof ExecutorService executor) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Track track : tracks.values()) {
+            synchronized (track) {
+                for (TrackSegment segment : track.segments) {
+                    segment.force();
+                }
+            }
+        }
+    }
+
+    private Track track(String userId) {
+        if (userId == null) {
+            throw new IllegalArgumentException("Location without a user id");
+        }
+        return tracks.computeIfAbsent(userId, id -> new Track(new File(root, directoryName(id))));
+    }
+
+    // User ids are arbitrary strings; keep them out of path syntax
+    private static String directoryName(String userId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(userId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String segmentName(long firstTimestamp, int generation) {
+        return String.format("%020d.%d%s", firstTimestamp, generation, SUFFIX);
+    }
+
+    private static int generationOf(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        return Integer.parseInt(name.substring(dot + 1, name.length() - SUFFIX.length()));
+    }
+
+    private final class Track {
+        final File dir;
+        // Oldest first; replaced wholesale so readers can iterate without locking
+        volatile TrackSegment[] segments;
+        private boolean compactionQueued;
+        // Held for a whole compaction so a scheduled one and compactAll() don't interleave
+        private final Object compactionLock = new Object();
+
+        Track(File dir) {
+            this.dir = dir;
+            this.segments = load();
+        }
+
+        private TrackSegment[] load() {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX) || name.endsWith(TEMP_SUFFIX));
+            if (files == null) {
+                return new TrackSegment[0];
+            }
+            List<TrackSegment> opened = new ArrayList<>();
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a compaction that never finished
+                    delete(file);
+                    continue;
+                }
+                try {
+                    TrackSegment segment = TrackSegment.open(file);
+                    if (segment.getCount() > 0) {
+                        opened.add(segment);
+                    } else {
+                        delete(file);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Skipping unreadable track segment {}: {}", file, e.getMessage());
+                }
+            }
+            // By start time, newest generation first
+            opened.sort(Comparator.comparingLong(TrackSegment::getFirstTimestamp)
+                    .thenComparing(s -> -generationOf(s.getFile())));
+            List<TrackSegment> kept = new ArrayList<>();
+            for (TrackSegment segment : opened) {
+                // Sources a finished compaction had not yet deleted are covered by its output
+                if (!kept.isEmpty() && segment.getFirstTimestamp() <= kept.get(kept.size() - 1).getLastTimestamp()) {
+                    delete(segment.getFile());
+                    continue;
+                }
+                kept.add(segment);
+            }
+            return kept.toArray(new TrackSegment[0]);
+        }
+
+        boolean append(PhoneLocation l) {
+            TrackSegment[] current = segments;
+            TrackSegment active = current.length == 0 ? null : current[current.length - 1];
+            if (active != null && l.getTimestamp() <= active.getLastTimestamp()) {
+                return false;
+            }
+            if (active != null && l.getTimestamp() - active.getFirstTimestamp() < segmentSpanMillis
+                    && active.append(l.getTimestamp(), l.getLatitude(), l.getLongitude(),
+                    l.getAccuracy(), l.getSpeed(), l.getBearing())) {
+                return true;
+            }
+            if (active != null) {
+                active.force();
+            }
+            TrackSegment next = newSegment(l.getTimestamp(), segmentCapacity, 0);
+            next.append(l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy(), l.getSpeed(), l.getBearing());
+            TrackSegment[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = next;
+            segments = grown;
+            if (active != null) {
+                scheduleCompaction();
+            }
+            return true;
+        }
+
+        /*
+         * Takes the compaction lock as well, so a compaction can't swap in a
+         * segment list computed before the merge. The track lock holds off
+         * appends while the newest segment may be rewritten.
+         */
+        int insert(List<PhoneLocation> sorted) {
+            synchronized (compactionLock) {
+                synchronized (this) {
+                    return insertLocked(sorted);
+                }
+            }
+        }
+
+        private int insertLocked(List<PhoneLocation> sorted) {
+            TrackSegment[] current = segments;
+            long newest = current.length == 0 ? Long.MIN_VALUE : current[current.length - 1].getLastTimestamp();
+            int late = 0;
+            while (late < sorted.size() && sorted.get(late).getTimestamp() <= newest) {
+                late++;
+            }
+            // The newest stored fix sent again isn't worth rewriting its segment for
+            int toMerge = late;
+            while (toMerge > 0 && sorted.get(toMerge - 1).getTimestamp() == newest) {
+                toMerge--;
+            }
+            int stored = 0;
+            if (toMerge > 0) {
+                stored += merge(current, sorted.subList(0, toMerge));
+            }
+            for (PhoneLocation fix : sorted.subList(late, sorted.size())) {
+                if (append(fix)) {
+                    stored++;
+                }
+            }
+            return stored;
+        }
+
+        // Rewrites the segments overlapping the late fixes, together with them, into one segment
+        private int merge(TrackSegment[] current, List<PhoneLocation> late) {
+            long first = late.get(0).getTimestamp();
+            long last = late.get(late.size() - 1).getTimestamp();
+            int lo = 0;
+            while (lo < current.length && current[lo].getLastTimestamp() < first) {
+                lo++;
+            }
+            int hi = lo;
+            while (hi < current.length && current[hi].getFirstTimestamp() <= last) {
+                hi++;
+            }
+            // current[lo, hi) overlap the late fixes; an empty range means they fill a gap before current[lo]
+            List<TrackSegment> sources = Arrays.asList(current).subList(lo, hi);
+            int total = late.size();
+            int generation = 0;
+            for (TrackSegment source : sources) {
+                total += source.getCount();
+                generation = Math.max(generation, generationOf(source.getFile()) + 1);
+            }
+            boolean newest = hi == current.length;
+            // A rewritten newest segment keeps taking appends
+            int capacity = newest ? Math.max(total, segmentCapacity) : total;
+            long firstTimestamp = sources.isEmpty() ? first : Math.min(first, sources.get(0).getFirstTimestamp());
+            File temp = new File(dir, segmentName(firstTimestamp, generation) + TEMP_SUFFIX);
+            File target = new File(dir, segmentName(firstTimestamp, generation));
+            TrackSegment merged;
+            int[] next = {0};
+            try {
+                TrackSegment out = TrackSegment.create(temp, capacity, firstTimestamp);
+                for (TrackSegment source : sources) {
+                    source.scan(Long.MIN_VALUE, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> {
+                        next[0] = appendBefore(out, late, next[0], t);
+                        if (next[0] < late.size() && late.get(next[0]).getTimestamp() == t) {
+                            // Already stored
+                            next[0]++;
+                        }
+                        appendOrFail(out, t, lat, lng, acc, speed, bearing);
+                    });
+                }
+                appendBefore(out, late, next[0], Long.MAX_VALUE);
+                out.force();
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                merged = TrackSegment.open(target);
+            } catch (IOException | UncheckedIOException e) {
+                delete(temp);
+                throw new UncheckedIOException(new IOException("Could not merge late fixes into " + dir + ": "
+                        + e.getMessage(), e));
+            }
+            int stored = merged.getCount();
+            for (TrackSegment source : sources) {
+                stored -= source.getCount();
+            }
+
+            List<TrackSegment> kept = new ArrayList<>(current.length + 1);
+            kept.addAll(Arrays.asList(current).subList(0, lo));
+            kept.add(merged);
+            kept.addAll(Arrays.asList(current).subList(hi, current.length));
+            segments = kept.toArray(new TrackSegment[0]);
+            for (TrackSegment source : sources) {
+                delete(source.getFile());
+            }
+            if (!newest) {
+                scheduleCompaction();
+            }
+            return stored;
+        }
+
+        private TrackSegment newSegment(long firstTimestamp, int capacity, int generation) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new UncheckedIOException(new IOException("Cannot create track directory " + dir));
+            }
+            try {
+                return TrackSegment.create(new File(dir, segmentName(firstTimestamp, generation)), capacity, firstTimestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void scheduleCompaction() {
+            if (compactionQueued) {
+                return;
+            }
+            compactionQueued = true;
+            compactor.execute(() -> {
+                synchronized (this) {
+                    compactionQueued = false;
+                }
+                try {
+                    compact(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    log.warn("Compacting {} failed", dir, e);
+                }
+            });
+        }
+
+        /**
+         * Drops expired sealed segments and rewrites each run of part-filled
+         * sealed segments into one tightly sized segment. Holds the track lock
+         * only to read and swap the segment list.
+         */
+        int compact(long nowMillis) {
+            synchronized (compactionLock) {
+                return compactLocked(nowMillis);
+            }
+        }
+
+        private int compactLocked(long nowMillis) {
+            TrackSegment[] snapshot;
+            synchronized (this) {
+                snapshot = segments;
+            }
+            // The newest segment is still taking appends
+            int sealed = snapshot.length - 1;
+            List<TrackSegment> keep = new ArrayList<>();
+            List<TrackSegment> obsolete = new ArrayList<>();
+            List<TrackSegment> run = new ArrayList<>();
+            int runCount = 0;
+            for (int i = 0; i < sealed; i++) {
+                TrackSegment segment = snapshot[i];
+                if (segment.getLastTimestamp() < nowMillis - retentionMillis) {
+                    obsolete.add(segment);
+                    continue;
+                }
+                if (segment.isFull()) {
+                    runCount = flushRun(run, keep, obsolete);
+                    keep.add(segment);
+                    continue;
+                }
+                boolean fits = run.isEmpty() || (runCount + segment.getCount() <= segmentCapacity
+                        && segment.getFirstTimestamp() - run.get(run.size() - 1).getLastTimestamp() <= Integer.MAX_VALUE);
+                if (!fits) {
+                    runCount = flushRun(run, keep, obsolete);
+                }
+                run.add(segment);
+                runCount += segment.getCount();
+            }
+            flushRun(run, keep, obsolete);
+            if (obsolete.isEmpty()) {
+                return 0;
+            }
+
+            synchronized (this) {
+                // Appends only ever add segments after the sealed ones
+                TrackSegment[] current = segments;
+                List<TrackSegment> next = new ArrayList<>(keep);
+                next.addAll(Arrays.asList(current).subList(sealed, current.length));
+                segments = next.toArray(new TrackSegment[0]);
+            }
+            // Linux keeps the pages of a deleted file mapped for any query still reading them
+            for (TrackSegment segment : obsolete) {
+                delete(segment.getFile());
+            }
+            return obsolete.size();
+        }
+
+        /*
+         * Copies a run into one segment sized to fit it exactly. It becomes
+         * visible with a single rename, and on restart it shadows any source
+         * that was not deleted yet. Returns the new run count, always 0.
+         */
+        private int flushRun(List<TrackSegment> run, List<TrackSegment> keep, List<TrackSegment> obsolete) {
+            if (run.isEmpty()) {
+                return 0;
+            }
+            int total = 0;
+            int generation = 0;
+            for (TrackSegment segment : run) {
+                total += segment.getCount();
+                generation = Math.max(generation, generationOf(segment.getFile()) + 1);
+            }
+            long firstTimestamp = run.get(0).getFirstTimestamp();
+            File temp = new File(dir, segmentName(firstTimestamp, generation) + TEMP_SUFFIX);
+            File target = new File(dir, segmentName(firstTimestamp, generation));
+            try {
+                TrackSegment merged = TrackSegment.create(temp, total, firstTimestamp);
+                for (TrackSegment segment : run) {
+                    segment.scan(Long.MIN_VALUE, Long.MAX_VALUE, merged::append);
+                }
+                if (merged.getCount() != total) {
+                    throw new IOException("Merged " + merged.getCount() + " of " + total + " fixes");
+                }
+                merged.force();
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                keep.add(TrackSegment.open(target));
+                obsolete.addAll(run);
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not compact segments in {}: {}", dir, e.getMessage());
+                delete(temp);
+                keep.addAll(run);
+            }
+            run.clear();
+            return 0;
+        }
+    }
+
+    // Appends the fixes from index i on that are older than 'before'; returns the index of the first one left
+    private static int appendBefore(TrackSegment out, List<PhoneLocation> fixes, int i, long before) {
+        while (i < fixes.size() && fixes.get(i).getTimestamp() < before) {
+            PhoneLocation l = fixes.get(i++);
+            // Duplicates within the late fixes themselves
+            if (out.getCount() > 0 && l.getTimestamp() == out.getLastTimestamp()) {
+                continue;
+            }
+            appendOrFail(out, l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy(), l.getSpeed(), l.getBearing());
+        }
+        return i;
+    }
+
+    private static void appendOrFail(TrackSegment out, long timestamp, double latitude, double longitude,
+                                     double accuracy, double speed, double bearing) {
+        if (!out.append(timestamp, latitude, longitude, accuracy, speed, bearing)) {
+            throw new UncheckedIOException(new IOException("Gap before " + timestamp + " doesn't fit a segment"));
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("Could not delete {}", file);
+        }
+    }
+}
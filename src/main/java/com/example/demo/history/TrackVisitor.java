@@ -0,0 +1,7 @@
+package com.example.demo.history;
+
+/** Receives the fixes of a track query, oldest first, without a per-fix allocation. */
+@FunctionalInterface
+public interface TrackVisitor {
+    void visit(long timestamp, double latitude, double longitude, double accuracy, double speed, double bearing);
+}
@@ -0,0 +1,155 @@
+package com.example.demo.ingest;
+
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.BacklogAck;
+import com.example.demo.models.PhoneLocation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Takes in a phone's journal backlog in bulk, next to its live fixes.
+ *
+ * A phone that comes back from a long dead zone uploads its backlog in
+ * chunks, each tagged with the journal sequence of its first fix. The server
+ * remembers the last sequence it took per upload stream (a user and one
+ * journal file), so an upload cut off halfway resumes where it stopped and a
+ * retried chunk is not stored twice.
+ *
+ * Backlog fixes go into the user's track where they belong in time. Only the
+ * newest fix of a chunk is handed on to {@link LocationIngest}, as a live fix
+ * would be: reordered with the user's live fixes, matched to a road, stored
+ * as the live position and published. It isn't handed on once the phone's
+ * live fixes have moved past it, so a catch-up never floods
+ * {@code /topic/locations}.
+ */
+@Component
+public class BacklogReceiver {
+
+    private final LatestPositionStore positions;
+    private final LocationIngest ingest;
+    private final TrackStore tracks;
+
+    // Sequences are only meaningful within one journal; a reinstalled app starts a new stream
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder fixesReceived = new LongAdder();
+    private final LongAdder fixesStored = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    public BacklogReceiver(LatestPositionStore positions, LocationIngest ingest, TrackStore tracks) {
+        this.positions = positions;
+        this.ingest = ingest;
+        this.tracks = tracks;
+    }
+
+    private static final class Stream {
+        long ackedSeq = -1;
+    }
+
+    /** Where the upload stands; {@code ackedSeq} is -1 if nothing was received yet. */
+    public BacklogAck status(String userId, long stream) {
+        Stream s = streams.get(key(userId, stream));
+        long acked;
+        if (s == null) {
+            acked = -1;
+        } else {
+            synchronized (s) {
+                acked = s.ackedSeq;
+            }
+        }
+        return new BacklogAck(userId, stream, acked, 0, 0, 0);
+    }
+
+    /**
+     * Stores one chunk whose fixes carry consecutive journal sequences from
+     * {@code firstSeq} on. Fixes at or below the stream's ack are skipped.
+     * Chunks of one stream are applied one at a time. Waits while the
+     * ingest ring is full.
+     *
+     * @throws IllegalArgumentException     if the chunk carries another user's fixes
+     * @throws java.io.UncheckedIOException if the track could not be written; the ack is not advanced
+     */
+    public BacklogAck accept(String userId, long stream, long firstSeq, List<PhoneLocation> fixes) {
+        if (firstSeq < 0) {
+            throw new IllegalArgumentException("firstSeq can't be negative: " + firstSeq);
+        }
+        for (PhoneLocation fix : fixes) {
+            if (fix.getUserId() == null) {
+                fix.setUserId(userId);
+            } else if (!fix.getUserId().equals(userId)) {
+                throw new IllegalArgumentException("Backlog of " + userId + " carries a fix of " + fix.getUserId());
+            }
+        }
+        Stream s = streams.computeIfAbsent(key(userId, stream), k -> new Stream());
+        BacklogAck ack;
+        PhoneLocation newest = null;
+        synchronized (s) {
+            int skip = (int) Math.max(0, Math.min(fixes.size(), s.ackedSeq - firstSeq + 1));
+            List<PhoneLocation> fresh = fixes.subList(skip, fixes.size());
+            int stored = 0;
+            if (!fresh.isEmpty()) {
+                stored = tracks.insert(userId, fresh);
+                newest = newest(fresh);
+                s.ackedSeq = firstSeq + fixes.size() - 1;
+            }
+            chunks.increment();
+            fixesReceived.add(fresh.size());
+            fixesStored.add(stored);
+            duplicates.add(skip);
+            ack = new BacklogAck(userId, stream, s.ackedSeq, fresh.size(), skip, stored);
+        }
+        // Already in the track; the ingest's history stage skips it or puts it where it belongs
+        if (newest != null && isAheadOfLive(newest)) {
+            ingest.submit(null, List.of(newest), null);
+        }
+        return ack;
+    }
+
+    private static PhoneLocation newest(List<PhoneLocation> fixes) {
+        PhoneLocation newest = fixes.get(0);
+        for (PhoneLocation fix : fixes) {
+            if (fix.getTimestamp() > newest.getTimestamp()) {
+                newest = fix;
+            }
+        }
+        return newest;
+    }
+
+    // Live fixes the reorder buffer still holds don't count; it puts this one among them
+    private boolean isAheadOfLive(PhoneLocation fix) {
+        PhoneLocation live = positions.get(fix.getUserId());
+        return live == null || live.getTimestamp() < fix.getTimestamp();
+    }
+
+    private static String key(String userId, long stream) {
+        return userId + '\n' + stream;
+    }
+
+    /** Calls {@code visitor} with each upload stream's key and its ack. */
+    void forEachStream(ObjLongConsumer<String> visitor) {
+        streams.forEach((key, s) -> {
+            long acked;
+            synchronized (s) {
+                acked = s.ackedSeq;
+            }
+            visitor.accept(key, acked);
+        });
+    }
+
+    /** Puts back an upload stream's ack from a snapshot; a stream uploaded to since keeps its own. */
+    void restore(String key, long ackedSeq) {
+        Stream s = new Stream();
+        s.ackedSeq = ackedSeq;
+        streams.putIfAbsent(key, s);
+    }
+
+    public long getChunks() { return chunks.sum(); }
+    public long getFixesReceived() { return fixesReceived.sum(); }
+    public long getFixesStored() { return fixesStored.sum(); }
+    public long getDuplicates() { return duplicates.sum(); }
+}
@@ -0,0 +1,84 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latest known position of every user. Updates are lock-free compare-and-set
+ * swaps on a {@link ConcurrentHashMap}, so sessions of different users never
+ * wait on each other, and a fix only replaces the stored one if it is newer.
+ * Fixes that arrive late (a journal replay racing a live fix, or a retried
+ * batch) are counted as stale and not published.
+ */
+@Component
+public class LatestPositionStore {
+
+    private final Map<String, PhoneLocation> latest = new ConcurrentHashMap<>();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * Stores {@code location} if it is newer than the user's current position.
+     * Returns false if a fix with the same or a later timestamp is already stored.
+     */
+    public boolean update(PhoneLocation location) {
+        String userId = location.getUserId();
+        if (userId == null) {
+            throw new IllegalArgumentException("Location without a user id");
+        }
+        while (true) {
+            PhoneLocation current = latest.get(userId);
+            if (current == null) {
+                if (latest.putIfAbsent(userId, location) == null) {
+                    break;
+                }
+                continue;
+            }
+            if (location.getTimestamp() <= current.getTimestamp()) {
+                stale.increment();
+                return false;
+            }
+            // PhoneLocation uses identity equality, so this only succeeds if nobody got in first
+            if (latest.replace(userId, current, location)) {
+                break;
+            }
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Puts back a position from a snapshot unless a newer one is already
+     * stored; not counted as accepted. Returns whether it was put back.
+     */
+    boolean restore(PhoneLocation location) {
+        return latest.merge(location.getUserId(), location, (current, restored) ->
+                restored.getTimestamp() > current.getTimestamp() ? restored : current) == location;
+    }
+
+    public PhoneLocation get(String userId) {
+        return latest.get(userId);
+    }
+
+    public Collection<PhoneLocation> values() {
+        return Collections.unmodifiableCollection(latest.values());
+    }
+
+    public int size() {
+        return latest.size();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getStale() {
+        return stale.sum();
+    }
+}
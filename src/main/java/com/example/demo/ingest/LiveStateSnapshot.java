@@ -0,0 +1,323 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the live state in a file across restarts: every user's latest
+ * position and the sequences taken per phone stream, both by the live
+ * de-duplicator and by backlog uploads. Without it a restart forgets where
+ * everyone is until they move again, and takes frames phones send again as
+ * new.
+ *
+ * The state is written every {@code roadster.snapshot.interval-seconds} and
+ * on shutdown to {@code roadster.snapshot.file}, as a new file that replaces
+ * the old one once complete. It's read back through a memory mapping when
+ * the bean is created, before the server takes connections; a snapshot that
+ * is missing, of another version or damaged is logged and skipped.
+ *
+ * The file is little-endian: a header with the counts, then per user an id
+ * and the fix with coordinates in 1e-7 degrees and accuracy, speed and
+ * bearing in hundredths, as in track segments; per de-duplicator stream a key
+ * and its ranges; per backlog stream a key and its ack; and a CRC-32 of all
+ * of it. Strings are UTF-8 behind an unsigned short length.
+ */
+@Component
+public class LiveStateSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveStateSnapshot.class);
+
+    static final int MAGIC = 0x524C5354; // "RLST"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_WRITTEN_AT = 8;
+    private static final int H_POSITIONS = 16;
+    private static final int H_DEDUP_STREAMS = 20;
+    private static final int H_BACKLOG_STREAMS = 24;
+
+    private static final double COORD_SCALE = 1e7;
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+    private final LatestPositionStore positions;
+    private final SpatialGridIndex index;
+    private final SequenceDeduplicator duplicates;
+    private final BacklogReceiver backlog;
+    // Null when nothing else feeds the stores
+    private final LocationIngest ingest;
+    private final File file;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService writer;
+
+    private volatile long lastWriteMillis;
+    private volatile long lastWriteBytes;
+
+    @Autowired
+    public LiveStateSnapshot(LatestPositionStore positions, SpatialGridIndex index, SequenceDeduplicator duplicates,
+                             BacklogReceiver backlog, LocationIngest ingest,
+                             @Value("${roadster.snapshot.file:data/live-state.snap}") File file,
+                             @Value("${roadster.snapshot.interval-seconds:30}") long intervalSeconds) {
+        this.positions = positions;
+        this.index = index;
+        this.duplicates = duplicates;
+        this.backlog = backlog;
+        this.ingest = ingest;
+        this.file = file;
+        this.intervalSeconds = intervalSeconds;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Without a write schedule; the caller drives {@link #restore()} and {@link #write()}. */
+    LiveStateSnapshot(LatestPositionStore positions, SpatialGridIndex index, SequenceDeduplicator duplicates,
+                      BacklogReceiver backlog, LocationIngest ingest, File file) {
+        this(positions, index, duplicates, backlog, ingest, file, 0);
+    }
+
+    /** Restores the last snapshot and starts writing new ones, once the bean is fully built. */
+    @PostConstruct
+    public void start() {
+        restore();
+        if (intervalSeconds > 0) {
+            writer.scheduleWithFixedDelay(this::writeQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Loads the snapshot into the stores, keeping anything newer they already
+     * hold. Returns the number of users restored; 0 if there's no usable
+     * snapshot.
+     */
+    public int restore() {
+        if (!file.isFile()) {
+            log.info("No live state snapshot at {}, starting empty", file);
+            return 0;
+        }
+        long started = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            checkHeader(buffer);
+            buffer.position(HEADER_SIZE);
+            int users = 0;
+            for (int i = buffer.getInt(H_POSITIONS); i > 0; i--) {
+                String userId = string(buffer);
+                long timestamp = buffer.getLong();
+                double latitude = buffer.getInt() / COORD_SCALE;
+                double longitude = buffer.getInt() / COORD_SCALE;
+                double accuracy = Short.toUnsignedInt(buffer.getShort()) / 100.0;
+                double speed = Short.toUnsignedInt(buffer.getShort()) / 100.0;
+                double bearing = Short.toUnsignedInt(buffer.getShort()) / 100.0;
+                PhoneLocation location = new PhoneLocation(userId, latitude, longitude, accuracy, speed, bearing, timestamp);
+                if (positions.restore(location)) {
+                    index.update(location);
+                    users++;
+                }
+            }
+            int dedupStreams = buffer.getInt(H_DEDUP_STREAMS);
+            for (int i = dedupStreams; i > 0; i--) {
+                String key = string(buffer);
+                long[] pairs = new long[2 * Short.toUnsignedInt(buffer.getShort())];
+                for (int j = 0; j < pairs.length; j++) {
+                    pairs[j] = buffer.getLong();
+                }
+                duplicates.restore(key, pairs);
+            }
+            int backlogStreams = buffer.getInt(H_BACKLOG_STREAMS);
+            for (int i = backlogStreams; i > 0; i--) {
+                backlog.restore(string(buffer), buffer.getLong());
+            }
+            log.info("Restored {} users, {} live and {} backlog streams from {} written {} s ago in {} ms",
+                    users, dedupStreams, backlogStreams, file,
+                    (System.currentTimeMillis() - buffer.getLong(H_WRITTEN_AT)) / 1000,
+                    (System.nanoTime() - started) / 1_000_000);
+            return users;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            log.warn("Ignoring live state snapshot {}: {}", file, e.toString());
+            return 0;
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE + 4 || buffer.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a live state snapshot");
+        }
+        if (buffer.getInt(H_VERSION) != VERSION) {
+            throw new IOException("Snapshot version " + buffer.getInt(H_VERSION) + ", expected " + VERSION);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(buffer.capacity() - 4));
+        if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - 4)) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the stores' current state, replacing the last snapshot once complete. */
+    public synchronized void write() throws IOException {
+        long started = System.nanoTime();
+        Output out = new Output(HEADER_SIZE + 64 * positions.size());
+        out.buffer.position(HEADER_SIZE);
+        int users = 0;
+        for (PhoneLocation location : positions.values()) {
+            if (out.string(location.getUserId())) {
+                out.room(22);
+                out.buffer.putLong(location.getTimestamp());
+                out.buffer.putInt((int) Math.round(location.getLatitude() * COORD_SCALE));
+                out.buffer.putInt((int) Math.round(location.getLongitude() * COORD_SCALE));
+                out.buffer.putShort(quantize(location.getAccuracy()));
+                out.buffer.putShort(quantize(location.getSpeed()));
+                out.buffer.putShort(quantize(location.getBearing()));
+                users++;
+            }
+        }
+        int[] dedupStreams = new int[1];
+        duplicates.forEachStream((key, pairs) -> {
+            if (out.string(key)) {
+                out.room(2 + 8 * pairs.length);
+                out.buffer.putShort((short) (pairs.length / 2));
+                for (long bound : pairs) {
+                    out.buffer.putLong(bound);
+                }
+                dedupStreams[0]++;
+            }
+        });
+        int[] backlogStreams = new int[1];
+        backlog.forEachStream((key, ackedSeq) -> {
+            if (out.string(key)) {
+                out.room(8);
+                out.buffer.putLong(ackedSeq);
+                backlogStreams[0]++;
+            }
+        });
+
+        ByteBuffer buffer = out.buffer;
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putLong(H_WRITTEN_AT, System.currentTimeMillis());
+        buffer.putInt(H_POSITIONS, users);
+        buffer.putInt(H_DEDUP_STREAMS, dedupStreams[0]);
+        buffer.putInt(H_BACKLOG_STREAMS, backlogStreams[0]);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().flip());
+        out.room(4);
+        buffer = out.buffer;
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create snapshot directory " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        lastWriteBytes = buffer.limit();
+        lastWriteMillis = (System.nanoTime() - started) / 1_000_000;
+        log.debug("Wrote {} users, {} live and {} backlog streams to {} ({} bytes) in {} ms",
+                users, dedupStreams[0], backlogStreams[0], file, lastWriteBytes, lastWriteMillis);
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            // The previous snapshot stays in place; try again next time
+            log.warn("Could not write live state snapshot {}: {}", file, e.toString());
+        }
+    }
+
+    private static short quantize(double value) {
+        if (!(value > 0)) {
+            return 0;
+        }
+        return (short) Math.min(MAX_UNSIGNED_SHORT, Math.round(value * 100));
+    }
+
+    /** A little-endian heap buffer that grows as it's written. */
+    private static final class Output {
+        ByteBuffer buffer;
+
+        Output(int capacity) {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void room(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                larger.put(buffer.flip());
+                buffer = larger;
+            }
+        }
+
+        /** Writes {@code value} unless it doesn't fit a snapshot string; returns whether it was written. */
+        boolean string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_UNSIGNED_SHORT) {
+                return false;
+            }
+            room(2 + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+            return true;
+        }
+    }
+
+    /** Time the last snapshot took to write, in milliseconds. */
+    public long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    public long getLastWriteBytes() {
+        return lastWriteBytes;
+    }
+
+    @PreDestroy
+    public void close() {
+        // Lets a write that's under way finish; the last one below waits for it
+        writer.shutdown();
+        if (ingest != null) {
+            ingest.drain(10_000);
+        }
+        writeQuietly();
+    }
+}
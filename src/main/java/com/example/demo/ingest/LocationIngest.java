@@ -0,0 +1,421 @@
+package com.example.demo.ingest;
+
+import com.example.demo.broker.BatchConsumer;
+import com.example.demo.broker.RingBuffer;
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.roads.MapMatcher;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where decoded fixes go after the inbound threads: the latest-position store
+ * and spatial index, the road matcher, the track history, the live fan-out,
+ * and finally the frame's receipt. With a ring size set
+ * ({@code roadster.ingest.ring-size}, 0 for none) these run as stages of a
+ * {@link RingBuffer}, each on its own thread over batches of fixes, so an
+ * inbound thread only copies its fixes into the ring and moves on:
+ *
+ * <pre>
+ *   positions ─┬─ history ─────────┬─ receipts
+ *              └─ roads ─ fan-out ─┘
+ * </pre>
+ *
+ * Roads, history and fan-out only see fixes the position store accepted;
+ * without a road network there's no roads stage. Fan-out sends fixes with the
+ * road they were matched to, and a receipt goes out once its frame's fixes
+ * are stored and published. Frames a session sends are handled one after
+ * another, so their fixes and receipts go through the ring in the order they
+ * were sent.
+ *
+ * With a reorder lateness set ({@code roadster.ingest.reorder-millis}, 0 to
+ * let fixes straight through) fixes first pass a {@link ReorderBuffer} of up
+ * to {@code roadster.ingest.reorder-window} fixes per user, and go into the
+ * ring as it releases them. Fixes sent again are dropped there, and late ones
+ * skip the position store and fan-out: the history stage inserts them where
+ * they belong in time. A receipt covers every frame the session sent before,
+ * so a frame whose fixes are still held is acknowledged once they're through
+ * and the frames before it have been.
+ */
+@Component
+public class LocationIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationIngest.class);
+
+    // One slot of the ring: a fix, or the receipt of a frame without any, or both
+    private static final class Event {
+        String sessionId;
+        PhoneLocation location;
+        String receipt;
+        // A fix for history only, and the reordered frame it came in
+        boolean late;
+        Frame frame;
+        boolean accepted;
+
+        void clear() {
+            sessionId = null;
+            location = null;
+            receipt = null;
+            late = false;
+            frame = null;
+            accepted = false;
+        }
+    }
+
+    // A frame with a receipt whose fixes went into the reorder buffer
+    private static final class Frame {
+        final String sessionId;
+        final String receipt;
+        // Its fixes not through yet, plus one until the frame itself is
+        final AtomicInteger outstanding = new AtomicInteger(1);
+
+        Frame(String sessionId, String receipt) {
+            this.sessionId = sessionId;
+            this.receipt = receipt;
+        }
+    }
+
+    private final LocationFanout fanout;
+    private final LatestPositionStore positions;
+    private final SpatialGridIndex index;
+    private final TrackStore tracks;
+    private final MessageChannel outbound;
+    // Null when fixes aren't matched to roads
+    private final MapMatcher roads;
+    // Null when handling fixes on the caller's thread
+    private final RingBuffer<Event> ring;
+    // Null when fixes aren't reordered
+    private final ReorderBuffer reorder;
+    private final ScheduledExecutorService sweeper;
+    // Reordered frames waiting for their receipt, per session in the order sent
+    private final Map<String, ArrayDeque<Frame>> frames = new ConcurrentHashMap<>();
+    // Late fixes of the history stage's current batch
+    private final List<PhoneLocation> lateBatch = new ArrayList<>();
+
+    @Autowired
+    public LocationIngest(LocationFanout fanout, LatestPositionStore positions, SpatialGridIndex index,
+                          TrackStore tracks, @Qualifier("clientOutboundChannel") MessageChannel outbound,
+                          MapMatcher roads, @Value("${roadster.ingest.ring-size:65536}") int ringSize,
+                          @Value("${roadster.ingest.reorder-millis:1000}") long reorderMillis,
+                          @Value("${roadster.ingest.reorder-window:32}") int reorderWindow) {
+        this.fanout = fanout;
+        this.positions = positions;
+        this.index = index;
+        this.tracks = tracks;
+        this.outbound = outbound;
+        this.roads = roads != null && roads.isEnabled() ? roads : null;
+        if (reorderMillis > 0) {
+            reorder = new ReorderBuffer(positions, reorderMillis, reorderWindow, new ReorderBuffer.Output() {
+                @Override
+                public void release(PhoneLocation fix, Object tag) {
+                    emit(fix, false, (Frame) tag);
+                }
+
+                @Override
+                public void late(PhoneLocation fix, Object tag) {
+                    emit(fix, true, (Frame) tag);
+                }
+            });
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ingest-reorder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(10, reorderMillis / 4);
+            sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            reorder = null;
+            sweeper = null;
+        }
+        if (ringSize <= 0) {
+            ring = null;
+            return;
+        }
+        ring = new RingBuffer<>(ringSize, Event::new);
+        BatchConsumer<Event> stored = ring.addStage("ingest-positions", (event, sequence, endOfBatch) -> {
+            event.accepted = event.location != null && !event.late && store(event.location);
+        });
+        BatchConsumer<Event> history = ring.addStage("ingest-history", (event, sequence, endOfBatch) -> {
+            if (event.accepted) {
+                append(event.location);
+            } else if (event.late) {
+                lateBatch.add(event.location);
+            }
+            if (endOfBatch && !lateBatch.isEmpty()) {
+                insert(lateBatch);
+                lateBatch.clear();
+            }
+        }, List.of(stored));
+        BatchConsumer<Event> matched = this.roads == null ? stored
+                : ring.addStage("ingest-roads", (event, sequence, endOfBatch) -> {
+                    if (event.accepted) {
+                        this.roads.match(event.location);
+                    }
+                }, List.of(stored));
+        BatchConsumer<Event> published = ring.addStage("ingest-fanout", (event, sequence, endOfBatch) -> {
+            if (event.accepted) {
+                fanout.publish(event.location);
+            }
+        }, List.of(matched));
+        ring.addStage("ingest-receipts", (event, sequence, endOfBatch) -> {
+            if (event.receipt != null) {
+                acknowledge(event.sessionId, event.receipt);
+            }
+            if (event.frame != null) {
+                done(event.frame);
+            }
+            event.clear();
+        }, List.of(history, published));
+        ring.start();
+    }
+
+    /** Doesn't reorder fixes. */
+    public LocationIngest(LocationFanout fanout, LatestPositionStore positions, SpatialGridIndex index,
+                          TrackStore tracks, MessageChannel outbound, MapMatcher roads, int ringSize) {
+        this(fanout, positions, index, tracks, outbound, roads, ringSize, 0, 1);
+    }
+
+    /** Doesn't match fixes to roads or reorder them. */
+    public LocationIngest(LocationFanout fanout, LatestPositionStore positions, SpatialGridIndex index,
+                          TrackStore tracks, MessageChannel outbound, int ringSize) {
+        this(fanout, positions, index, tracks, outbound, null, ringSize);
+    }
+
+    /** Handles every fix on the calling thread and doesn't match them to roads or reorder them. */
+    public LocationIngest(LocationFanout fanout, LatestPositionStore positions, SpatialGridIndex index,
+                          TrackStore tracks, MessageChannel outbound) {
+        this(fanout, positions, index, tracks, outbound, null, 0);
+    }
+
+    /**
+     * Stores and publishes {@code fixes} from one frame, then acknowledges the
+     * frame with {@code receipt} if it isn't null. Waits while the ring is full.
+     */
+    public void submit(String sessionId, List<PhoneLocation> fixes, String receipt) {
+        if (reorder != null) {
+            reorder(sessionId, fixes, receipt);
+            return;
+        }
+        if (ring == null) {
+            for (PhoneLocation fix : fixes) {
+                if (store(fix)) {
+                    append(fix);
+                    if (roads != null) {
+                        roads.match(fix);
+                    }
+                    fanout.publish(fix);
+                }
+            }
+            if (receipt != null) {
+                acknowledge(sessionId, receipt);
+            }
+            return;
+        }
+        int from = 0;
+        do {
+            int n = Math.min(Math.max(1, fixes.size() - from), ring.size());
+            long high = ring.claim(n);
+            long low = high - n + 1;
+            for (long sequence = low; sequence <= high; sequence++, from++) {
+                Event event = ring.get(sequence);
+                event.sessionId = sessionId;
+                event.location = from < fixes.size() ? fixes.get(from) : null;
+                event.receipt = from >= fixes.size() - 1 ? receipt : null;
+            }
+            ring.publish(low, high);
+        } while (from < fixes.size());
+    }
+
+    private void reorder(String sessionId, List<PhoneLocation> fixes, String receipt) {
+        Frame frame = null;
+        if (receipt != null && sessionId != null) {
+            Frame f = frame = new Frame(sessionId, receipt);
+            frames.compute(sessionId, (id, queue) -> {
+                ArrayDeque<Frame> q = queue == null ? new ArrayDeque<>() : queue;
+                q.add(f);
+                return q;
+            });
+        }
+        for (PhoneLocation fix : fixes) {
+            if (fix.getUserId() == null) {
+                continue;
+            }
+            if (frame != null) {
+                frame.outstanding.incrementAndGet();
+            }
+            if (!reorder.offer(fix, frame) && frame != null) {
+                frame.outstanding.decrementAndGet();
+            }
+        }
+        if (frame != null) {
+            emit(null, false, frame);
+        }
+    }
+
+    // Hands a fix the reorder buffer let go, or a frame's own share of its receipt, to the stages
+    private void emit(PhoneLocation location, boolean late, Frame frame) {
+        if (ring == null) {
+            if (location != null) {
+                if (late) {
+                    insert(List.of(location));
+                } else if (store(location)) {
+                    append(location);
+                    if (roads != null) {
+                        roads.match(location);
+                    }
+                    fanout.publish(location);
+                }
+            }
+            if (frame != null) {
+                done(frame);
+            }
+            return;
+        }
+        long sequence = ring.claim(1);
+        Event event = ring.get(sequence);
+        event.location = location;
+        event.late = late;
+        event.frame = frame;
+        ring.publish(sequence, sequence);
+    }
+
+    // Acknowledges the session's frames that are through, up to the first that isn't
+    private void done(Frame frame) {
+        if (frame.outstanding.decrementAndGet() > 0) {
+            return;
+        }
+        frames.computeIfPresent(frame.sessionId, (id, queue) -> {
+            while (!queue.isEmpty() && queue.peek().outstanding.get() == 0) {
+                acknowledge(id, queue.poll().receipt);
+            }
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    private void sweep() {
+        try {
+            reorder.sweep(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.error("Reorder sweep failed", e);
+        }
+    }
+
+    private boolean store(PhoneLocation location) {
+        if (location.getUserId() == null || !positions.update(location)) {
+            return false;
+        }
+        index.update(location);
+        log.debug("Location from {}: {}, {}", location.getUserId(), location.getLatitude(), location.getLongitude());
+        return true;
+    }
+
+    private void append(PhoneLocation location) {
+        try {
+            // Behind fixes a backlog upload stored first
+            if (!tracks.append(location)) {
+                tracks.insert(location.getUserId(), List.of(location));
+            }
+        } catch (UncheckedIOException e) {
+            // Live updates keep flowing even if history can't be written
+            log.warn("Could not store fix for {}: {}", location.getUserId(), e.getMessage());
+        }
+    }
+
+    private void insert(List<PhoneLocation> late) {
+        Map<String, List<PhoneLocation>> byUser = new HashMap<>();
+        for (PhoneLocation fix : late) {
+            byUser.computeIfAbsent(fix.getUserId(), id -> new ArrayList<>()).add(fix);
+        }
+        byUser.forEach((userId, fixes) -> {
+            try {
+                tracks.insert(userId, fixes);
+            } catch (UncheckedIOException e) {
+                log.warn("Could not store {} late fixes for {}: {}", fixes.size(), userId, e.getMessage());
+            }
+        });
+    }
+
+    private void acknowledge(String sessionId, String receipt) {
+        if (sessionId == null) {
+            return;
+        }
+        StompHeaderAccessor reply = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        reply.setReceiptId(receipt);
+        reply.setSessionId(sessionId);
+        outbound.send(MessageBuilder.createMessage(new byte[0], reply.getMessageHeaders()));
+    }
+
+    /**
+     * Releases the fixes the reorder buffer holds and waits up to
+     * {@code timeoutMillis} for everything submitted so far to be handled;
+     * returns whether it was.
+     */
+    public boolean drain(long timeoutMillis) {
+        if (reorder != null) {
+            reorder.flush();
+        }
+        return ring == null || ring.drain(timeoutMillis);
+    }
+
+    /** Fixes and receipts submitted but not yet through every stage. */
+    public long getBacklog() {
+        return ring == null ? 0 : ring.backlog();
+    }
+
+    /** Times an inbound thread found the ring full and had to wait. */
+    public long getFullWaits() {
+        return ring == null ? 0 : ring.getFullWaits();
+    }
+
+    /** Fixes held for reordering right now. */
+    public long getReorderHeld() {
+        return reorder == null ? 0 : reorder.getHeld();
+    }
+
+    /** Fixes that came after newer ones of their user and only went to history. */
+    public long getLate() {
+        return reorder == null ? 0 : reorder.getLate();
+    }
+
+    /** Fixes dropped by the reorder buffer as ones already received. */
+    public long getReorderDuplicates() {
+        return reorder == null ? 0 : reorder.getDuplicates();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            reorder.flush();
+        }
+        if (ring == null) {
+            return;
+        }
+        if (!ring.drain(10_000)) {
+            log.warn("Stopping ingest with {} fixes not handled", ring.backlog());
+        }
+        ring.stop();
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Puts each user's fixes back in the order they were taken. Phones replay
+ * fixes they buffered while offline and send frames again that weren't
+ * acknowledged, so a user's fixes can arrive twice, or after newer ones.
+ *
+ * Per user we hold a small window of fixes sorted by device timestamp. The
+ * user's watermark trails the newest timestamp seen by the lateness, and
+ * fixes at or below it are released, oldest first. A fix isn't held for
+ * longer than the lateness either, so a user who stops sending isn't left
+ * waiting for the next fix; and when the window is full its oldest fix goes.
+ * A fix older than one already released is late: it can only go to history.
+ * A fix at a timestamp the user already has is the same fix sent again and
+ * is dropped, as the position store and track history would treat it.
+ *
+ * Fixes a window lets go join its outbox in order and are handed to the
+ * {@link Output} after the window's lock is released, by one thread at a
+ * time: whichever finds no other thread at it. So a user's fixes leave in
+ * order whichever thread releases them, and an output that blocks holds up
+ * only that thread, not others offering fixes for the same user. A window
+ * that has been empty for {@link #IDLE_MILLIS} is removed; when it comes
+ * back, it starts from the user's stored position.
+ */
+public class ReorderBuffer {
+
+    static final long IDLE_MILLIS = 10 * 60_000;
+
+    /** Where fixes go once the buffer is done with them, in each user's timestamp order. */
+    public interface Output {
+
+        /** {@code fix} is next in its user's order. */
+        void release(PhoneLocation fix, Object tag);
+
+        /** {@code fix} came after newer ones were released. */
+        void late(PhoneLocation fix, Object tag);
+    }
+
+    private final LatestPositionStore positions;
+    private final long latenessMillis;
+    private final int capacity;
+    private final Output output;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder held = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Holds fixes for up to {@code latenessMillis}, of event time and of
+     * wall-clock time, and at most {@code capacity} per user.
+     */
+    public ReorderBuffer(LatestPositionStore positions, long latenessMillis, int capacity, Output output) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Reorder window must hold at least one fix: " + capacity);
+        }
+        this.positions = positions;
+        this.latenessMillis = Math.max(0, latenessMillis);
+        this.capacity = capacity;
+        this.output = output;
+    }
+
+    /**
+     * Takes a fix with a {@code tag} for the output; returns false if it was
+     * dropped as a duplicate. Hands out the fixes this lets go, unless another
+     * thread is already handing out the user's; then that thread does.
+     */
+    public boolean offer(PhoneLocation fix, Object tag) {
+        return offer(fix, tag, System.currentTimeMillis());
+    }
+
+    boolean offer(PhoneLocation fix, Object tag, long now) {
+        while (true) {
+            Window window = windows.computeIfAbsent(fix.getUserId(), this::open);
+            boolean accepted;
+            Outbox handOff;
+            synchronized (window) {
+                // Removed while idle since we looked it up
+                if (window.closed) {
+                    continue;
+                }
+                accepted = window.offer(fix, tag, now);
+                handOff = window.takeHandOff();
+            }
+            if (handOff != null) {
+                window.handOff(handOff);
+            }
+            return accepted;
+        }
+    }
+
+    /**
+     * Releases the fixes held for the lateness or longer and removes windows
+     * idle since {@code now - IDLE_MILLIS}. Run every so often.
+     */
+    public void sweep(long now) {
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            Window window = entry.getValue();
+            Outbox handOff;
+            synchronized (window) {
+                window.releaseArrivedBefore(now - latenessMillis);
+                handOff = window.takeHandOff();
+                if (!window.handingOff && window.count == 0 && window.lastOffer <= now - IDLE_MILLIS) {
+                    window.closed = true;
+                    windows.remove(entry.getKey(), window);
+                }
+            }
+            if (handOff != null) {
+                window.handOff(handOff);
+            }
+        }
+    }
+
+    /**
+     * Releases every fix held, as at shutdown. Fixes another thread is
+     * handing out right now may reach the output after this returns.
+     */
+    public void flush() {
+        for (Window window : windows.values()) {
+            Outbox handOff;
+            synchronized (window) {
+                window.releaseFirst(window.count);
+                handOff = window.takeHandOff();
+            }
+            if (handOff != null) {
+                window.handOff(handOff);
+            }
+        }
+    }
+
+    private Window open(String userId) {
+        PhoneLocation stored = positions.get(userId);
+        return new Window(stored == null ? Long.MIN_VALUE : stored.getTimestamp());
+    }
+
+    /** Fixes held right now, over all users. */
+    public long getHeld() {
+        return held.sum();
+    }
+
+    public long getReleased() {
+        return released.sum();
+    }
+
+    public long getLate() {
+        return late.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /** Users with a window, holding fixes or not. */
+    public int getUserCount() {
+        return windows.size();
+    }
+
+    /** Fixes a window let go, oldest first, and how far they've been handed out. */
+    private final class Outbox {
+        // Made on first use; most windows let a fix go now and then
+        private PhoneLocation[] fixes;
+        private Object[] tags;
+        private boolean[] late;
+        private int count;
+        private int handed;
+
+        boolean isEmpty() {
+            return handed == count;
+        }
+
+        void add(PhoneLocation fix, Object tag, boolean isLate) {
+            if (fixes == null) {
+                fixes = new PhoneLocation[4];
+                tags = new Object[4];
+                late = new boolean[4];
+            } else if (count == fixes.length) {
+                fixes = Arrays.copyOf(fixes, count * 2);
+                tags = Arrays.copyOf(tags, count * 2);
+                late = Arrays.copyOf(late, count * 2);
+            }
+            fixes[count] = fix;
+            tags[count] = tag;
+            late[count] = isLate;
+            count++;
+        }
+
+        // Leaves the ones not handed out if the output throws
+        void handOut() {
+            while (handed < count) {
+                int i = handed++;
+                if (late[i]) {
+                    output.late(fixes[i], tags[i]);
+                } else {
+                    output.release(fixes[i], tags[i]);
+                }
+            }
+            clear();
+        }
+
+        // The ones not handed out yet, then those of 'after'
+        void keepBefore(Outbox after) {
+            System.arraycopy(fixes, handed, fixes, 0, count - handed);
+            System.arraycopy(tags, handed, tags, 0, count - handed);
+            System.arraycopy(late, handed, late, 0, count - handed);
+            Arrays.fill(fixes, count - handed, count, null);
+            Arrays.fill(tags, count - handed, count, null);
+            count -= handed;
+            handed = 0;
+            for (int i = after.handed; i < after.count; i++) {
+                add(after.fixes[i], after.tags[i], after.late[i]);
+            }
+            after.clear();
+        }
+
+        void clear() {
+            if (count > 0) {
+                Arrays.fill(fixes, 0, count, null);
+                Arrays.fill(tags, 0, count, null);
+            }
+            count = 0;
+            handed = 0;
+        }
+    }
+
+    /** One user's fixes, guarded by its own lock. */
+    private final class Window {
+        // Sorted by timestamp, with room for one more than the capacity
+        private PhoneLocation[] fixes = new PhoneLocation[Math.min(4, capacity + 1)];
+        private Object[] tags = new Object[fixes.length];
+        private long[] arrivedAt = new long[fixes.length];
+        private int count;
+        private long newest;
+        // Timestamp of the last fix released, and of the ones before it, to tell fixes sent again
+        private long last;
+        private final long[] recent = new long[capacity];
+        private int recentNext;
+        private long lastOffer;
+        private boolean closed;
+        // Let go and not yet handed to the output; the thread handing out has the other one
+        private Outbox outbox = new Outbox();
+        private Outbox spare = new Outbox();
+        private boolean handingOff;
+
+        Window(long storedTimestamp) {
+            newest = storedTimestamp;
+            last = storedTimestamp;
+            Arrays.fill(recent, Long.MIN_VALUE);
+            recent[0] = storedTimestamp;
+            recentNext = 1 % capacity;
+        }
+
+        boolean offer(PhoneLocation fix, Object tag, long now) {
+            lastOffer = now;
+            long timestamp = fix.getTimestamp();
+            if (timestamp <= last) {
+                if (timestamp == last || releasedRecently(timestamp)) {
+                    duplicates.increment();
+                    return false;
+                }
+                late.increment();
+                outbox.add(fix, tag, true);
+                return true;
+            }
+            // First fix newer than this one
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long t = fixes[mid].getTimestamp();
+                if (t == timestamp) {
+                    duplicates.increment();
+                    return false;
+                }
+                if (t < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (count == fixes.length) {
+                int size = Math.min(fixes.length * 2, capacity + 1);
+                fixes = Arrays.copyOf(fixes, size);
+                tags = Arrays.copyOf(tags, size);
+                arrivedAt = Arrays.copyOf(arrivedAt, size);
+            }
+            System.arraycopy(fixes, low, fixes, low + 1, count - low);
+            System.arraycopy(tags, low, tags, low + 1, count - low);
+            System.arraycopy(arrivedAt, low, arrivedAt, low + 1, count - low);
+            fixes[low] = fix;
+            tags[low] = tag;
+            arrivedAt[low] = now;
+            count++;
+            held.increment();
+            newest = Math.max(newest, timestamp);
+
+            long watermark = newest - latenessMillis;
+            int due = 0;
+            while (due < count && fixes[due].getTimestamp() <= watermark) {
+                due++;
+            }
+            releaseFirst(Math.max(due, count - capacity));
+            return true;
+        }
+
+        // Everything up to the last fix that arrived before 'before', so the order holds
+        void releaseArrivedBefore(long before) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (arrivedAt[i] <= before) {
+                    releaseFirst(i + 1);
+                    return;
+                }
+            }
+        }
+
+        void releaseFirst(int n) {
+            if (n <= 0) {
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                PhoneLocation fix = fixes[i];
+                Object tag = tags[i];
+                last = fix.getTimestamp();
+                recent[recentNext] = last;
+                recentNext = (recentNext + 1) % capacity;
+                outbox.add(fix, tag, false);
+            }
+            System.arraycopy(fixes, n, fixes, 0, count - n);
+            System.arraycopy(tags, n, tags, 0, count - n);
+            System.arraycopy(arrivedAt, n, arrivedAt, 0, count - n);
+            Arrays.fill(fixes, count - n, count, null);
+            Arrays.fill(tags, count - n, count, null);
+            count -= n;
+            held.add(-n);
+            released.add(n);
+        }
+
+        // Under the lock: the fixes the caller is to hand out once it lets go of the lock, or null
+        Outbox takeHandOff() {
+            if (handingOff || outbox.isEmpty()) {
+                return null;
+            }
+            handingOff = true;
+            return swap();
+        }
+
+        private Outbox swap() {
+            Outbox taken = outbox;
+            outbox = spare;
+            spare = null;
+            return taken;
+        }
+
+        // Without the lock; then what other threads let go meanwhile, until there's nothing left
+        void handOff(Outbox taken) {
+            while (true) {
+                try {
+                    taken.handOut();
+                } catch (RuntimeException | Error e) {
+                    synchronized (this) {
+                        // The rest goes first, with the next thread that lets a fix go
+                        taken.keepBefore(outbox);
+                        spare = outbox;
+                        outbox = taken;
+                        handingOff = false;
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    spare = taken;
+                    if (outbox.isEmpty()) {
+                        handingOff = false;
+                        return;
+                    }
+                    taken = swap();
+                }
+            }
+        }
+
+        private boolean releasedRecently(long timestamp) {
+            for (long t : recent) {
+                if (t == timestamp) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
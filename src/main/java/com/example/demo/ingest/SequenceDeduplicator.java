@@ -0,0 +1,148 @@
+package com.example.demo.ingest;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Tells fixes a phone sends again from ones it sends for the first time.
+ *
+ * Phones number their fixes with their journal's sequence and tag each
+ * location frame with the journal's stream id and the sequence of its first
+ * fix. Frames that were still waiting for a receipt when a connection
+ * dropped are sent again on the next one, so some of their fixes may already
+ * be here. Per user and stream we keep the ranges of sequences seen, merging
+ * them as gaps fill. Sequences don't arrive in one run: a bulk catch-up or
+ * journal evictions make the socket skip ahead, and a failed catch-up makes
+ * it go back. Only the {@link #MAX_RANGES} highest ranges are kept; a
+ * duplicate from below them gets through, but a new fix is never dropped.
+ */
+@Component
+public class SequenceDeduplicator {
+
+    static final int MAX_RANGES = 64;
+
+    private final Map<String, Ranges> streams = new ConcurrentHashMap<>();
+    private final LongAdder duplicates = new LongAdder();
+
+    /** Records {@code seq} as received on the stream; returns false if it was received before. */
+    public boolean firstSeen(String userId, long stream, long seq) {
+        Ranges ranges = streams.computeIfAbsent(userId + '\n' + stream, k -> new Ranges());
+        if (ranges.add(seq)) {
+            return true;
+        }
+        duplicates.increment();
+        return false;
+    }
+
+    /** Calls {@code visitor} with each stream's key and its ranges as from, to pairs. */
+    void forEachStream(BiConsumer<String, long[]> visitor) {
+        streams.forEach((key, ranges) -> visitor.accept(key, ranges.pairs()));
+    }
+
+    /** Puts back a stream's ranges from a snapshot; a stream already seen since keeps its own. */
+    void restore(String key, long[] pairs) {
+        streams.putIfAbsent(key, Ranges.of(pairs));
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /** Sorted, disjoint and non-adjacent ranges of sequences. */
+    static final class Ranges {
+        private long[] from = new long[4];
+        private long[] to = new long[4];
+        private int count;
+
+        synchronized boolean add(long seq) {
+            // First range starting above seq
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (from[mid] > seq) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            int next = low;
+            int prev = next - 1;
+            if (prev >= 0 && to[prev] >= seq) {
+                return false;
+            }
+            boolean extendsPrev = prev >= 0 && to[prev] == seq - 1;
+            boolean extendsNext = next < count && from[next] == seq + 1;
+            if (extendsPrev && extendsNext) {
+                to[prev] = to[next];
+                remove(next);
+            } else if (extendsPrev) {
+                to[prev] = seq;
+            } else if (extendsNext) {
+                from[next] = seq;
+            } else {
+                insert(next, seq);
+                if (count > MAX_RANGES) {
+                    remove(0);
+                }
+            }
+            return true;
+        }
+
+        private void insert(int i, long seq) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+            }
+            System.arraycopy(from, i, from, i + 1, count - i);
+            System.arraycopy(to, i, to, i + 1, count - i);
+            from[i] = seq;
+            to[i] = seq;
+            count++;
+        }
+
+        private void remove(int i) {
+            System.arraycopy(from, i + 1, from, i, count - i - 1);
+            System.arraycopy(to, i + 1, to, i, count - i - 1);
+            count--;
+        }
+
+        synchronized int rangeCount() {
+            return count;
+        }
+
+        synchronized long[] pairs() {
+            long[] pairs = new long[2 * count];
+            for (int i = 0; i < count; i++) {
+                pairs[2 * i] = from[i];
+                pairs[2 * i + 1] = to[i];
+            }
+            return pairs;
+        }
+
+        static Ranges of(long[] pairs) {
+            if (pairs.length % 2 != 0 || pairs.length > 2 * MAX_RANGES) {
+                throw new IllegalArgumentException(pairs.length + " range bounds");
+            }
+            Ranges ranges = new Ranges();
+            for (int i = 0; i < pairs.length; i += 2) {
+                // Sorted, disjoint and non-adjacent, like add() leaves them
+                if (pairs[i] > pairs[i + 1] || (i > 0 && pairs[i] <= pairs[i - 1] + 1)) {
+                    throw new IllegalArgumentException("Ranges out of order at " + pairs[i]);
+                }
+                ranges.insert(ranges.count, pairs[i]);
+                ranges.to[ranges.count - 1] = pairs[i + 1];
+            }
+            return ranges;
+        }
+    }
+}
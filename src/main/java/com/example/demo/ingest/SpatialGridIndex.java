@@ -0,0 +1,268 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.NearbyLocation;
+import com.example.demo.models.PhoneLocation;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest positions bucketed into a fixed grid of {@code cellDegrees} square
+ * cells, for radius, bounding-box and k-nearest queries that only look at the
+ * cells around the query instead of every user.
+ *
+ * A user moving between cells is handled inside {@link ConcurrentHashMap#compute}
+ * on that user's entry, so updates for one user are serialized while different
+ * users update in parallel; there is no index-wide lock. Queries read the cell
+ * maps concurrently and may see a user that is mid-move in both its old and
+ * new cell or, briefly, in neither. Empty cells are kept for reuse, so memory
+ * grows with the area covered rather than with the number of moves.
+ */
+@Component
+public class SpatialGridIndex {
+
+    static final double DEFAULT_CELL_DEGREES = 0.02; // about 2.2 km north-south
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    private static final Comparator<NearbyLocation> BY_DISTANCE =
+            Comparator.comparingDouble(NearbyLocation::getDistanceMeters);
+
+    private record Entry(PhoneLocation location, long cell) {
+    }
+
+    private final double cellDegrees;
+    private final int latCells;
+    private final int lngCells;
+    private final Map<String, Entry> users = new ConcurrentHashMap<>();
+    private final Map<Long, Map<String, PhoneLocation>> cells = new ConcurrentHashMap<>();
+
+    public SpatialGridIndex() {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    public SpatialGridIndex(double cellDegrees) {
+        if (!(cellDegrees > 0 && cellDegrees <= 90)) {
+            throw new IllegalArgumentException("Cell size out of range: " + cellDegrees);
+        }
+        this.cellDegrees = cellDegrees;
+        this.latCells = (int) Math.ceil(180 / cellDegrees);
+        this.lngCells = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * Moves the user to {@code location} unless the index already holds a fix
+     * with the same or a later timestamp. Returns whether it was applied.
+     */
+    public boolean update(PhoneLocation location) {
+        String userId = location.getUserId();
+        if (userId == null) {
+            throw new IllegalArgumentException("Location without a user id");
+        }
+        long cell = cellOf(location.getLatitude(), location.getLongitude());
+        boolean[] applied = new boolean[1];
+        users.compute(userId, (id, current) -> {
+            if (current != null && current.location().getTimestamp() >= location.getTimestamp()) {
+                return current;
+            }
+            cells.computeIfAbsent(cell, c -> new ConcurrentHashMap<>()).put(id, location);
+            if (current != null && current.cell() != cell) {
+                cells.get(current.cell()).remove(id);
+            }
+            applied[0] = true;
+            return new Entry(location, cell);
+        });
+        return applied[0];
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /** Everyone within {@code radiusMeters} of the point, nearest first. */
+    public List<NearbyLocation> withinRadius(double latitude, double longitude, double radiusMeters) {
+        checkPoint(latitude, longitude);
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double south = Math.max(-90, latitude - dLat);
+        double north = Math.min(90, latitude + dLat);
+        double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+        double dLng = cosLat <= 1e-9 ? 360 : dLat / cosLat;
+
+        List<NearbyLocation> result = new ArrayList<>();
+        forEachCell(south, north, longitude - dLng, longitude + dLng, cell -> {
+            for (PhoneLocation location : cell.values()) {
+                double d = distanceMeters(latitude, longitude, location.getLatitude(), location.getLongitude());
+                if (d <= radiusMeters) {
+                    result.add(new NearbyLocation(location, d));
+                }
+            }
+        });
+        result.sort(BY_DISTANCE);
+        return result;
+    }
+
+    /**
+     * Everyone inside the box. A box whose {@code west} is greater than its
+     * {@code east} crosses the antimeridian.
+     */
+    public List<PhoneLocation> withinBox(double south, double west, double north, double east) {
+        checkPoint(south, west);
+        checkPoint(north, east);
+        if (south > north) {
+            throw new IllegalArgumentException("South edge " + south + " is above north edge " + north);
+        }
+        double spanEast = west <= east ? east : east + 360;
+        List<PhoneLocation> result = new ArrayList<>();
+        forEachCell(south, north, west, spanEast, cell -> {
+            for (PhoneLocation location : cell.values()) {
+                double lat = location.getLatitude();
+                double lng = location.getLongitude();
+                boolean inLng = west <= east ? lng >= west && lng <= east : lng >= west || lng <= east;
+                if (lat >= south && lat <= north && inLng) {
+                    result.add(location);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The {@code k} users closest to the point and no further than
+     * {@code maxDistanceMeters}, nearest first. Searches rings of cells outward
+     * from the point's cell and stops once no unvisited cell can beat the
+     * current k-th distance.
+     */
+    public List<NearbyLocation> nearest(double latitude, double longitude, int k, double maxDistanceMeters) {
+        checkPoint(latitude, longitude);
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        // Furthest of the best k on top
+        PriorityQueue<NearbyLocation> best = new PriorityQueue<>(k + 1, BY_DISTANCE.reversed());
+        int centerLat = latIndex(latitude);
+        int centerLng = lngIndex(longitude);
+
+        for (int ring = 0; ; ring++) {
+            long side = 2L * ring + 1;
+            if (side > lngCells || side * side > 4L * users.size() + 64) {
+                // Sparse data or the rings wrapped the globe: checking everyone is cheaper
+                // than probing more empty cells
+                best.clear();
+                for (Entry entry : users.values()) {
+                    offer(best, k, maxDistanceMeters, latitude, longitude, entry.location());
+                }
+                break;
+            }
+            visitRing(centerLat, centerLng, ring, cell -> {
+                for (PhoneLocation location : cell.values()) {
+                    offer(best, k, maxDistanceMeters, latitude, longitude, location);
+                }
+            });
+
+            // Nothing outside the searched square is closer than this
+            double reachedLat = Math.min(90, Math.abs(latitude) + (ring + 1) * cellDegrees);
+            double bound = ring * cellDegrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(reachedLat));
+            if (bound > maxDistanceMeters || (best.size() == k && best.peek().getDistanceMeters() <= bound)) {
+                break;
+            }
+        }
+
+        List<NearbyLocation> result = new ArrayList<>(best);
+        result.sort(BY_DISTANCE);
+        return result;
+    }
+
+    private static void offer(PriorityQueue<NearbyLocation> best, int k, double maxDistanceMeters,
+                              double latitude, double longitude, PhoneLocation location) {
+        double d = distanceMeters(latitude, longitude, location.getLatitude(), location.getLongitude());
+        if (d > maxDistanceMeters) {
+            return;
+        }
+        if (best.size() < k) {
+            best.add(new NearbyLocation(location, d));
+        } else if (d < best.peek().getDistanceMeters()) {
+            best.poll();
+            best.add(new NearbyLocation(location, d));
+        }
+    }
+
+    private interface CellVisitor {
+        void visit(Map<String, PhoneLocation> cell);
+    }
+
+    private void visitRing(int centerLat, int centerLng, int ring, CellVisitor visitor) {
+        if (ring == 0) {
+            visit(centerLat, centerLng, visitor);
+            return;
+        }
+        for (int dLng = -ring; dLng <= ring; dLng++) {
+            visit(centerLat - ring, centerLng + dLng, visitor);
+            visit(centerLat + ring, centerLng + dLng, visitor);
+        }
+        for (int dLat = -ring + 1; dLat < ring; dLat++) {
+            visit(centerLat + dLat, centerLng - ring, visitor);
+            visit(centerLat + dLat, centerLng + ring, visitor);
+        }
+    }
+
+    // Visits the cells covering [south, north] x [west, east]; east may run past 180 to wrap
+    private void forEachCell(double south, double north, double west, double east, CellVisitor visitor) {
+        int latLo = latIndex(south);
+        int latHi = latIndex(north);
+        int span = east - west >= 360 ? lngCells : (int) Math.min(lngCells,
+                Math.floor((east + 180) / cellDegrees) - Math.floor((west + 180) / cellDegrees) + 1);
+        int lngLo = (int) Math.floor((west + 180) / cellDegrees);
+        for (int lat = latLo; lat <= latHi; lat++) {
+            for (int i = 0; i < span; i++) {
+                visit(lat, lngLo + i, visitor);
+            }
+        }
+    }
+
+    private void visit(int lat, int lng, CellVisitor visitor) {
+        if (lat < 0 || lat >= latCells) {
+            return;
+        }
+        Map<String, PhoneLocation> cell = cells.get(key(lat, Math.floorMod(lng, lngCells)));
+        if (cell != null && !cell.isEmpty()) {
+            visitor.visit(cell);
+        }
+    }
+
+    private long cellOf(double latitude, double longitude) {
+        return key(latIndex(latitude), lngIndex(longitude));
+    }
+
+    private int latIndex(double latitude) {
+        return Math.min(latCells - 1, Math.max(0, (int) Math.floor((latitude + 90) / cellDegrees)));
+    }
+
+    private int lngIndex(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), lngCells);
+    }
+
+    private static long key(int lat, int lng) {
+        return ((long) lat << 32) | (lng & 0xFFFFFFFFL);
+    }
+
+    private static void checkPoint(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90) || !(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Not a coordinate: " + latitude + ", " + longitude);
+        }
+    }
+
+    /** Great-circle distance by the haversine formula. */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
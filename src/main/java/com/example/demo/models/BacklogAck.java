@@ -0,0 +1,46 @@
+package com.example.demo.models;
+
+/**
+ * Answer to a backlog chunk upload, or to asking where an upload stands.
+ * {@code ackedSeq} is the last journal sequence the server has; the phone
+ * resumes with the record after it.
+ */
+public class BacklogAck {
+    private final String userId;
+    private final long stream;
+    private final long ackedSeq;
+    private final int received;
+    private final int duplicates;
+    private final int stored;
+
+    public BacklogAck(String userId, long stream, long ackedSeq, int received, int duplicates, int stored) {
+        this.userId = userId;
+        this.stream = stream;
+        this.ackedSeq = ackedSeq;
+        this.received = received;
+        this.duplicates = duplicates;
+        this.stored = stored;
+    }
+
+    public String getUserId() { return userId; }
+    public long getStream() { return stream; }
+    public long getAckedSeq() { return ackedSeq; }
+    /** Fixes in the chunk that were new to the server. */
+    public int getReceived() { return received; }
+    /** Fixes in the chunk at or below the previous ack, from a retried or overlapping upload. */
+    public int getDuplicates() { return duplicates; }
+    /** Fixes added to the user's track; less than received if some were already stored live. */
+    public int getStored() { return stored; }
+
+    @Override
+    public String toString() {
+        return "BacklogAck{" +
+                "userId='" + userId + '\'' +
+                ", stream=" + stream +
+                ", ackedSeq=" + ackedSeq +
+                ", received=" + received +
+                ", duplicates=" + duplicates +
+                ", stored=" + stored +
+                '}';
+    }
+}
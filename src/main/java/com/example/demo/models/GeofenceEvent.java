@@ -0,0 +1,50 @@
+package com.example.demo.models;
+
+/** A phone reporting that it entered or left one of its geofences. */
+public class GeofenceEvent {
+
+    public enum Type { ENTER, EXIT }
+
+    private String userId;
+    private String fenceId;
+    private String kind;
+    private Type type;
+    // Time of the fix that triggered the event, on the device's clock
+    private long timestamp;
+    private double latitude;
+    private double longitude;
+    // On our clock
+    private long receivedAt;
+
+    public GeofenceEvent() {
+    }
+
+    public String getUserId() { return userId; }
+    public String getFenceId() { return fenceId; }
+    public String getKind() { return kind; }
+    public Type getType() { return type; }
+    public long getTimestamp() { return timestamp; }
+    public double getLatitude() { return latitude; }
+    public double getLongitude() { return longitude; }
+    public long getReceivedAt() { return receivedAt; }
+
+    public void setUserId(String userId) { this.userId = userId; }
+    public void setFenceId(String fenceId) { this.fenceId = fenceId; }
+    public void setKind(String kind) { this.kind = kind; }
+    public void setType(Type type) { this.type = type; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    public void setLatitude(double latitude) { this.latitude = latitude; }
+    public void setLongitude(double longitude) { this.longitude = longitude; }
+    public void setReceivedAt(long receivedAt) { this.receivedAt = receivedAt; }
+
+    @Override
+    public String toString() {
+        return "GeofenceEvent{" +
+                "userId='" + userId + '\'' +
+                ", fenceId='" + fenceId + '\'' +
+                ", kind='" + kind + '\'' +
+                ", type=" + type +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
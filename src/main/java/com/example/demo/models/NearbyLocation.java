@@ -0,0 +1,23 @@
+package com.example.demo.models;
+
+/** A user's latest position together with its distance from a query point. */
+public class NearbyLocation {
+    private final PhoneLocation location;
+    private final double distanceMeters;
+
+    public NearbyLocation(PhoneLocation location, double distanceMeters) {
+        this.location = location;
+        this.distanceMeters = distanceMeters;
+    }
+
+    public PhoneLocation getLocation() { return location; }
+    public double getDistanceMeters() { return distanceMeters; }
+
+    @Override
+    public String toString() {
+        return "NearbyLocation{" +
+                "userId='" + location.getUserId() + '\'' +
+                ", distanceMeters=" + distanceMeters +
+                '}';
+    }
+}
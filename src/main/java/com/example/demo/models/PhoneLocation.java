@@ -0,0 +1,90 @@
+package com.example.demo.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+public class PhoneLocation {
+    private String userId;
+    private double latitude;
+    private double longitude;
+    private double accuracy;
+    private double speed;
+    private double bearing;
+    // When the fix was taken, on the device's clock
+    private long timestamp;
+
+    // Latency trace, 0 when unknown: queued and sent on the device's clock, received on ours
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long enqueuedAt;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long sentAt;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long receivedAt;
+
+    // The road the fix was matched to and the closest point on it, 0 when not matched
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long roadEdgeId;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private double roadLatitude;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private double roadLongitude;
+
+    public PhoneLocation() {
+    }
+
+    public PhoneLocation(String userId, double latitude, double longitude, double accuracy, double speed, double bearing, long timestamp) {
+        this.userId = userId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+        this.timestamp = timestamp;
+    }
+
+    public String getUserId() { return userId; }
+    public double getLatitude() { return latitude; }
+    public double getLongitude() { return longitude; }
+    public double getAccuracy() { return accuracy; }
+    public double getSpeed() { return speed; }
+    public double getBearing() { return bearing; }
+    public long getTimestamp() { return timestamp; }
+    public long getEnqueuedAt() { return enqueuedAt; }
+    public long getSentAt() { return sentAt; }
+    public long getReceivedAt() { return receivedAt; }
+    public long getRoadEdgeId() { return roadEdgeId; }
+    public double getRoadLatitude() { return roadLatitude; }
+    public double getRoadLongitude() { return roadLongitude; }
+
+    public void setUserId(String userId) { this.userId = userId; }
+    public void setLatitude(double latitude) { this.latitude = latitude; }
+    public void setLongitude(double longitude) { this.longitude = longitude; }
+    public void setAccuracy(double accuracy) { this.accuracy = accuracy; }
+    public void setSpeed(double speed) { this.speed = speed; }
+    public void setBearing(double bearing) { this.bearing = bearing; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+    public void setEnqueuedAt(long enqueuedAt) { this.enqueuedAt = enqueuedAt; }
+    public void setSentAt(long sentAt) { this.sentAt = sentAt; }
+    public void setReceivedAt(long receivedAt) { this.receivedAt = receivedAt; }
+    public void setRoadEdgeId(long roadEdgeId) { this.roadEdgeId = roadEdgeId; }
+    public void setRoadLatitude(double roadLatitude) { this.roadLatitude = roadLatitude; }
+    public void setRoadLongitude(double roadLongitude) { this.roadLongitude = roadLongitude; }
+
+    @Override
+    public String toString() {
+        return "PhoneLocation{" +
+                "userId='" + userId + '\'' +
+                ", latitude=" + latitude +
+                ", longitude=" + longitude +
+                ", accuracy=" + accuracy +
+                ", speed=" + speed +
+                ", bearing=" + bearing +
+                ", timestamp=" + timestamp +
+                ", enqueuedAt=" + enqueuedAt +
+                ", sentAt=" + sentAt +
+                ", receivedAt=" + receivedAt +
+                ", roadEdgeId=" + roadEdgeId +
+                ", roadLatitude=" + roadLatitude +
+                ", roadLongitude=" + roadLongitude +
+                '}';
+    }
+}
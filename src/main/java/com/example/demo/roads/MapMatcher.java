@@ -0,0 +1,405 @@
+package com.example.demo.roads;
+
+import com.example.demo.models.PhoneLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snaps each user's fixes to the road they're on, one fix at a time, with a
+ * hidden Markov model over the road segments near each fix. A candidate's
+ * score is how close the fix is to it, given the fix's accuracy, and, when
+ * the phone is moving, how well the road lines up with its bearing; plus how
+ * well the distance driven along the roads from the previous fix's
+ * candidates matches the straight-line distance between the two fixes.
+ * Parallel roads a few meters apart are told apart by which one the previous
+ * fixes lead to. The best candidate so far is the match; an earlier fix's
+ * match is never revised.
+ *
+ * A user's state is the {@link #MAX_CANDIDATES} best candidates of their
+ * last fix. It starts over after a gap of {@link #MAX_GAP_MILLIS}, a fix
+ * from before the last one, or a fix none of the last candidates can be
+ * driven to.
+ *
+ * Roads come from {@code roadster.roads.file}, an edge list as read by
+ * {@link RoadNetwork#load}, indexed into {@code roadster.roads.index}
+ * (the edge list's path plus {@code .idx} by default) at startup when the
+ * index is missing or older than the edge list. An index built ahead of time
+ * can be given alone. With neither set, no fix is matched.
+ */
+@Component
+public class MapMatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(MapMatcher.class);
+
+    static final int MAX_CANDIDATES = 8;
+    static final long MAX_GAP_MILLIS = 60_000;
+    private static final double MIN_SIGMA_METERS = 5;
+    private static final double MAX_SIGMA_METERS = 50;
+    private static final double MIN_SEARCH_METERS = 50;
+    // How much more than the straight line a route may be before it's improbable
+    private static final double BETA_METERS = 20;
+    // Below this a phone's bearing is mostly noise
+    private static final double MIN_BEARING_SPEED = 3;
+    // Score lost by a road across the bearing, as much as a fix 4 sigmas away
+    private static final double CROSSWISE_PENALTY = 8;
+
+    // Null when no roads are configured
+    private final SegmentIndex index;
+    private final Map<String, Track> tracks = new ConcurrentHashMap<>();
+    private final ThreadLocal<Scratch> scratch;
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final LongAdder breaks = new LongAdder();
+
+    @Autowired
+    public MapMatcher(@Value("${roadster.roads.file:}") String edgeList,
+                      @Value("${roadster.roads.index:}") String indexFile) {
+        this(openIndex(edgeList, indexFile));
+    }
+
+    MapMatcher(SegmentIndex index) {
+        this.index = index;
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    private static SegmentIndex openIndex(String edgeList, String indexFile) {
+        if (edgeList.isEmpty() && indexFile.isEmpty()) {
+            log.info("No road network configured, fixes won't be matched to roads");
+            return null;
+        }
+        File source = edgeList.isEmpty() ? null : new File(edgeList);
+        File target = new File(indexFile.isEmpty() ? edgeList + ".idx" : indexFile);
+        try {
+            if (source != null && (!target.isFile() || target.lastModified() < source.lastModified())) {
+                long started = System.nanoTime();
+                RoadNetwork network;
+                try (Reader reader = new FileReader(source, StandardCharsets.UTF_8)) {
+                    network = RoadNetwork.load(reader);
+                }
+                SegmentIndex.write(network, target, SegmentIndex.DEFAULT_CELL_DEGREES);
+                log.info("Indexed {} road segments from {} in {} ms", network.segmentCount(), source,
+                        (System.nanoTime() - started) / 1_000_000);
+            }
+            SegmentIndex index = SegmentIndex.open(target);
+            log.info("Matching fixes to {} road segments from {}", index.segmentCount(), target);
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load road network " + (source != null ? source : target), e);
+        }
+    }
+
+    /**
+     * Matches {@code location} to a road, setting its road fields to the
+     * matched edge and the closest point on it, or clearing them; returns
+     * whether it was matched. Fixes for one user must come in order.
+     */
+    public boolean match(PhoneLocation location) {
+        if (index == null) {
+            return false;
+        }
+        Track track = tracks.computeIfAbsent(location.getUserId(), k -> new Track());
+        Scratch s = scratch.get();
+        synchronized (track) {
+            int best = track.advance(location, s);
+            if (best < 0) {
+                location.setRoadEdgeId(0);
+                location.setRoadLatitude(0);
+                location.setRoadLongitude(0);
+                unmatched.increment();
+                return false;
+            }
+            location.setRoadEdgeId(index.edgeId(track.segment[best]));
+            location.setRoadLatitude(track.latitude[best]);
+            location.setRoadLongitude(track.longitude[best]);
+        }
+        matched.increment();
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return index != null;
+    }
+
+    public long getMatched() {
+        return matched.sum();
+    }
+
+    public long getUnmatched() {
+        return unmatched.sum();
+    }
+
+    /** Times a user's fix couldn't be reached from their last one and matching started over. */
+    public long getBreaks() {
+        return breaks.sum();
+    }
+
+    /** Candidates of a user's last fix. */
+    private final class Track {
+        long timestamp;
+        double fixLatitude;
+        double fixLongitude;
+        int count;
+        final int[] segment = new int[MAX_CANDIDATES];
+        final double[] fraction = new double[MAX_CANDIDATES];
+        final double[] latitude = new double[MAX_CANDIDATES];
+        final double[] longitude = new double[MAX_CANDIDATES];
+        final double[] score = new double[MAX_CANDIDATES];
+
+        /** Takes the next fix; returns the best candidate, or -1 if there's no road near it. */
+        int advance(PhoneLocation location, Scratch s) {
+            double sigma = Math.max(MIN_SIGMA_METERS, Math.min(MAX_SIGMA_METERS, location.getAccuracy()));
+            double lat = location.getLatitude();
+            double lng = location.getLongitude();
+            SegmentIndex.Nearby nearby = s.nearby;
+            index.nearby(lat, lng, Math.max(MIN_SEARCH_METERS, 3 * sigma), nearby);
+            if (nearby.count == 0) {
+                // Off the map or a wild fix; the next one may still follow on from the last candidates
+                return -1;
+            }
+            int n = s.closest(nearby);
+
+            long gap = location.getTimestamp() - timestamp;
+            boolean connected = count > 0 && gap > 0 && gap <= MAX_GAP_MILLIS;
+            double straight = connected ? SegmentIndex.lengthMeters(fixLatitude, fixLongitude, lat, lng) : 0;
+            if (connected) {
+                Arrays.fill(s.score, 0, n, Double.NEGATIVE_INFINITY);
+                for (int i = 0; i < count; i++) {
+                    s.router.route(segment[i], fraction[i], 2 * straight + 4 * sigma + 100);
+                    for (int j = 0; j < n; j++) {
+                        int c = s.order[j];
+                        double route = s.router.distanceTo(segment[i], fraction[i], nearby.segment[c], nearby.fraction[c]);
+                        double candidate = score[i] - Math.abs(route - straight) / BETA_METERS;
+                        if (candidate > s.score[j]) {
+                            s.score[j] = candidate;
+                        }
+                    }
+                }
+                boolean reachable = false;
+                for (int j = 0; j < n; j++) {
+                    reachable |= s.score[j] > Double.NEGATIVE_INFINITY;
+                }
+                if (!reachable) {
+                    breaks.increment();
+                    connected = false;
+                }
+            }
+            if (!connected) {
+                Arrays.fill(s.score, 0, n, 0);
+            }
+
+            boolean moving = location.getSpeed() >= MIN_BEARING_SPEED;
+            double headingEast = moving ? Math.sin(Math.toRadians(location.getBearing())) : 0;
+            double headingNorth = moving ? Math.cos(Math.toRadians(location.getBearing())) : 0;
+            double top = Double.NEGATIVE_INFINITY;
+            int best = 0;
+            for (int j = 0; j < n; j++) {
+                int c = s.order[j];
+                double d = nearby.distance[c] / sigma;
+                s.score[j] -= 0.5 * d * d;
+                if (moving) {
+                    // Roads are two-way, so only the angle to the road's line counts
+                    double aligned = Math.abs(headingEast * nearby.east[c] + headingNorth * nearby.north[c]);
+                    s.score[j] -= (1 - aligned) * CROSSWISE_PENALTY;
+                }
+                if (s.score[j] > top) {
+                    top = s.score[j];
+                    best = j;
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                int c = s.order[j];
+                segment[j] = nearby.segment[c];
+                fraction[j] = nearby.fraction[c];
+                latitude[j] = nearby.latitude[c];
+                longitude[j] = nearby.longitude[c];
+                // Relative to the best, so scores don't run off over a long drive
+                score[j] = s.score[j] - top;
+            }
+            count = n;
+            timestamp = location.getTimestamp();
+            fixLatitude = lat;
+            fixLongitude = lng;
+            return best;
+        }
+    }
+
+    /** Per-thread working space for one fix. */
+    private final class Scratch {
+        final SegmentIndex.Nearby nearby = new SegmentIndex.Nearby();
+        final Router router = new Router(index);
+        final int[] order = new int[MAX_CANDIDATES];
+        final double[] score = new double[MAX_CANDIDATES];
+
+        /** Puts the up to {@link #MAX_CANDIDATES} closest of {@code nearby} in {@link #order}; returns how many. */
+        int closest(SegmentIndex.Nearby nearby) {
+            int n = 0;
+            for (int c = 0; c < nearby.count; c++) {
+                double d = nearby.distance[c];
+                if (n == MAX_CANDIDATES && d >= nearby.distance[order[n - 1]]) {
+                    continue;
+                }
+                int j = n == MAX_CANDIDATES ? n - 1 : n++;
+                while (j > 0 && nearby.distance[order[j - 1]] > d) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = c;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Shortest distances along the roads from a point on a segment to the
+     * nodes within a limit, by Dijkstra's algorithm over the index's node
+     * adjacency. Nodes are kept in a small open-addressing table that is
+     * cleared by bumping a generation, so a search costs only the nodes it
+     * reaches.
+     */
+    static final class Router {
+        private static final int CAPACITY = 1 << 14;
+        // Searches stop here, well short of filling the table
+        private static final int MAX_NODES = CAPACITY / 4;
+
+        private final SegmentIndex index;
+        private final int[] nodes = new int[CAPACITY];
+        private final double[] distances = new double[CAPACITY];
+        private final int[] generations = new int[CAPACITY];
+        private int generation;
+        private int size;
+        private int heapSize;
+        private int[] heapNodes = new int[64];
+        private double[] heapDistances = new double[64];
+
+        Router(SegmentIndex index) {
+            this.index = index;
+        }
+
+        /** Finds the distance to every node within {@code limitMeters} of {@code fraction} along {@code segment}. */
+        void route(int segment, double fraction, double limitMeters) {
+            generation++;
+            size = 0;
+            heapSize = 0;
+            double length = index.length(segment);
+            relax(index.from(segment), fraction * length);
+            relax(index.to(segment), (1 - fraction) * length);
+            while (heapSize > 0) {
+                int node = heapNodes[0];
+                double distance = heapDistances[0];
+                pop();
+                if (distance > limitMeters) {
+                    break;
+                }
+                if (distance > distance(node)) {
+                    continue;
+                }
+                for (int i = 0, degree = index.degree(node); i < degree; i++) {
+                    int next = index.segmentAt(node, i);
+                    int other = index.from(next) == node ? index.to(next) : index.from(next);
+                    relax(other, distance + index.length(next));
+                }
+            }
+        }
+
+        /**
+         * Distance along the roads from where the last {@link #route} started
+         * to {@code toFraction} along {@code toSegment}, or infinity if it's
+         * beyond the limit.
+         */
+        double distanceTo(int fromSegment, double fromFraction, int toSegment, double toFraction) {
+            double length = index.length(toSegment);
+            if (fromSegment == toSegment) {
+                return Math.abs(toFraction - fromFraction) * length;
+            }
+            return Math.min(distance(index.from(toSegment)) + toFraction * length,
+                    distance(index.to(toSegment)) + (1 - toFraction) * length);
+        }
+
+        private double distance(int node) {
+            for (int slot = mix(node); ; slot = (slot + 1) & (CAPACITY - 1)) {
+                if (generations[slot] != generation) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                if (nodes[slot] == node) {
+                    return distances[slot];
+                }
+            }
+        }
+
+        private void relax(int node, double distance) {
+            int slot = mix(node);
+            while (generations[slot] == generation && nodes[slot] != node) {
+                slot = (slot + 1) & (CAPACITY - 1);
+            }
+            if (generations[slot] == generation) {
+                if (distances[slot] <= distance) {
+                    return;
+                }
+            } else if (size == MAX_NODES) {
+                return;
+            } else {
+                generations[slot] = generation;
+                nodes[slot] = node;
+                size++;
+            }
+            distances[slot] = distance;
+            push(node, distance);
+        }
+
+        private static int mix(int node) {
+            return (node * 0x9E3779B9 >>> 18) & (CAPACITY - 1);
+        }
+
+        private void push(int node, double distance) {
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+                heapDistances = Arrays.copyOf(heapDistances, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0 && heapDistances[(i - 1) >> 1] > distance) {
+                heapNodes[i] = heapNodes[(i - 1) >> 1];
+                heapDistances[i] = heapDistances[(i - 1) >> 1];
+                i = (i - 1) >> 1;
+            }
+            heapNodes[i] = node;
+            heapDistances[i] = distance;
+        }
+
+        private void pop() {
+            int node = heapNodes[--heapSize];
+            double distance = heapDistances[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapDistances[child + 1] < heapDistances[child]) {
+                    child++;
+                }
+                if (heapDistances[child] >= distance) {
+                    break;
+                }
+                heapNodes[i] = heapNodes[child];
+                heapDistances[i] = heapDistances[child];
+                i = child;
+            }
+            heapNodes[i] = node;
+            heapDistances[i] = distance;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.demo.roads;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A road graph as straight segments between numbered nodes, the input to
+ * {@link SegmentIndex#write}. Each edge is a polyline; its inner vertices get
+ * nodes of their own, so the matcher can route along it segment by segment.
+ *
+ * The edge list format is one edge per line:
+ * {@code edgeId,fromNode,toNode,lat,lng,lat,lng[,lat,lng...]}, with the
+ * polyline running from {@code fromNode} to {@code toNode}. Edges that share
+ * a node id are connected there. Blank lines and lines starting with
+ * {@code #} are skipped. Roads are treated as two-way.
+ */
+public final class RoadNetwork {
+
+    private static final double COORD_SCALE = 1e7;
+
+    private final Map<Long, Integer> nodeIds = new HashMap<>();
+    private int nodeCount;
+    private int segmentCount;
+    private long[] edgeIds = new long[1024];
+    private int[] from = new int[1024];
+    private int[] to = new int[1024];
+    private int[] lat1 = new int[1024];
+    private int[] lng1 = new int[1024];
+    private int[] lat2 = new int[1024];
+    private int[] lng2 = new int[1024];
+
+    public static RoadNetwork load(Reader edgeList) throws IOException {
+        RoadNetwork network = new RoadNetwork();
+        BufferedReader reader = edgeList instanceof BufferedReader buffered ? buffered : new BufferedReader(edgeList);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length < 7 || (fields.length - 3) % 2 != 0) {
+                throw new IOException("Line " + lineNumber + ": expected edgeId,fromNode,toNode and two or more lat,lng pairs");
+            }
+            try {
+                int points = (fields.length - 3) / 2;
+                double[] lats = new double[points];
+                double[] lngs = new double[points];
+                for (int i = 0; i < points; i++) {
+                    lats[i] = Double.parseDouble(fields[3 + 2 * i].trim());
+                    lngs[i] = Double.parseDouble(fields[4 + 2 * i].trim());
+                }
+                network.addEdge(Long.parseLong(fields[0].trim()), Long.parseLong(fields[1].trim()),
+                        Long.parseLong(fields[2].trim()), lats, lngs);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return network;
+    }
+
+    /** Adds an edge along the polyline {@code lats}/{@code lngs} from {@code fromNode} to {@code toNode}. */
+    public void addEdge(long edgeId, long fromNode, long toNode, double[] lats, double[] lngs) {
+        if (lats.length < 2 || lats.length != lngs.length) {
+            throw new IllegalArgumentException("Edge " + edgeId + " needs two or more points");
+        }
+        for (int i = 0; i < lats.length; i++) {
+            if (!(Math.abs(lats[i]) <= 90) || !(Math.abs(lngs[i]) <= 180)) {
+                throw new IllegalArgumentException("Edge " + edgeId + " has a point out of range: " + lats[i] + ", " + lngs[i]);
+            }
+        }
+        int previous = node(fromNode);
+        int end = node(toNode);
+        for (int i = 1; i < lats.length; i++) {
+            int next = i == lats.length - 1 ? end : nodeCount++;
+            addSegment(edgeId, previous, next, lats[i - 1], lngs[i - 1], lats[i], lngs[i]);
+            previous = next;
+        }
+    }
+
+    private int node(long id) {
+        return nodeIds.computeIfAbsent(id, k -> nodeCount++);
+    }
+
+    private void addSegment(long edgeId, int a, int b, double latA, double lngA, double latB, double lngB) {
+        if (segmentCount == edgeIds.length) {
+            int size = segmentCount * 2;
+            edgeIds = Arrays.copyOf(edgeIds, size);
+            from = Arrays.copyOf(from, size);
+            to = Arrays.copyOf(to, size);
+            lat1 = Arrays.copyOf(lat1, size);
+            lng1 = Arrays.copyOf(lng1, size);
+            lat2 = Arrays.copyOf(lat2, size);
+            lng2 = Arrays.copyOf(lng2, size);
+        }
+        edgeIds[segmentCount] = edgeId;
+        from[segmentCount] = a;
+        to[segmentCount] = b;
+        lat1[segmentCount] = (int) Math.round(latA * COORD_SCALE);
+        lng1[segmentCount] = (int) Math.round(lngA * COORD_SCALE);
+        lat2[segmentCount] = (int) Math.round(latB * COORD_SCALE);
+        lng2[segmentCount] = (int) Math.round(lngB * COORD_SCALE);
+        segmentCount++;
+    }
+
+    public int segmentCount() { return segmentCount; }
+    public int nodeCount() { return nodeCount; }
+
+    long edgeId(int s) { return edgeIds[s]; }
+    int from(int s) { return from[s]; }
+    int to(int s) { return to[s]; }
+    // Coordinates in 1e-7 degrees
+    int lat1(int s) { return lat1[s]; }
+    int lng1(int s) { return lng1[s]; }
+    int lat2(int s) { return lat2[s]; }
+    int lng2(int s) { return lng2[s]; }
+}
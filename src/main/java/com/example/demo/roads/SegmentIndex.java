@@ -0,0 +1,371 @@
+package com.example.demo.roads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A road network's segments in one file, read through a memory mapping, with
+ * a uniform grid of {@code cellDegrees} cells over the network's bounding box
+ * and each node's segments for routing. Nothing is deserialized on open: a
+ * lookup reads the cell's segment ids and then their columns straight out of
+ * the mapping, so opening a country-sized index is instant and the OS pages
+ * in only the areas that are driven through.
+ *
+ * Segments are stored column by column: edge id, from and to node, the end
+ * points as ints of 1e-7 degrees, and the length in meters. The grid and the
+ * node adjacency are compressed rows: a start offset per cell (or node) into
+ * one array of segment ids. A segment is listed in every cell its bounding
+ * box touches. Segments crossing the antimeridian aren't supported.
+ *
+ * The file is written once by {@link #write} and never changed afterwards, so
+ * any number of threads can read it.
+ */
+public final class SegmentIndex {
+
+    static final int MAGIC = 0x52534547; // "RSEG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    public static final double DEFAULT_CELL_DEGREES = 0.005; // about 550 m north-south
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_SEGMENTS = 8;
+    private static final int H_NODES = 12;
+    private static final int H_ROWS = 16;
+    private static final int H_COLS = 20;
+    private static final int H_ORIGIN_ROW = 24;
+    private static final int H_ORIGIN_COL = 28;
+    private static final int H_CELL_DEGREES = 32;
+    private static final int H_CELL_ENTRIES = 40;
+
+    // Beyond this a city-sized cell size was probably applied to a continent
+    private static final long MAX_CELLS = 1L << 26;
+    private static final double COORD_SCALE = 1e7;
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+    static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+    private final MappedByteBuffer buffer;
+    private final int segments;
+    private final int nodes;
+    private final int rows;
+    private final int cols;
+    private final int originRow;
+    private final int originCol;
+    private final double cellDegrees;
+    private final int edgeIdOffset;
+    private final int fromOffset;
+    private final int toOffset;
+    private final int lat1Offset;
+    private final int lng1Offset;
+    private final int lat2Offset;
+    private final int lng2Offset;
+    private final int lengthOffset;
+    private final int cellStartOffset;
+    private final int cellSegmentsOffset;
+    private final int nodeStartOffset;
+    private final int nodeSegmentsOffset;
+
+    /** Segments near a point, filled by {@link #nearby}; reused between lookups by one thread. */
+    static final class Nearby {
+        int count;
+        int[] segment = new int[16];
+        // Position along the segment from its from node, 0 to 1
+        double[] fraction = new double[16];
+        double[] distance = new double[16];
+        double[] latitude = new double[16];
+        double[] longitude = new double[16];
+        // The segment's direction as a unit vector east and north, 0 for a point
+        double[] east = new double[16];
+        double[] north = new double[16];
+
+        void clear() {
+            count = 0;
+        }
+
+        private void add(int s, double t, double d, double lat, double lng, double dx, double dy, double length) {
+            if (count == segment.length) {
+                int size = count * 2;
+                segment = Arrays.copyOf(segment, size);
+                fraction = Arrays.copyOf(fraction, size);
+                distance = Arrays.copyOf(distance, size);
+                latitude = Arrays.copyOf(latitude, size);
+                longitude = Arrays.copyOf(longitude, size);
+                east = Arrays.copyOf(east, size);
+                north = Arrays.copyOf(north, size);
+            }
+            segment[count] = s;
+            fraction[count] = t;
+            distance[count] = d;
+            latitude[count] = lat;
+            longitude[count] = lng;
+            east[count] = length == 0 ? 0 : dx / length;
+            north[count] = length == 0 ? 0 : dy / length;
+            count++;
+        }
+    }
+
+    private SegmentIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a road segment index");
+        }
+        if (buffer.getInt(H_VERSION) != VERSION) {
+            throw new IOException("Road segment index version " + buffer.getInt(H_VERSION) + ", expected " + VERSION);
+        }
+        segments = buffer.getInt(H_SEGMENTS);
+        nodes = buffer.getInt(H_NODES);
+        rows = buffer.getInt(H_ROWS);
+        cols = buffer.getInt(H_COLS);
+        originRow = buffer.getInt(H_ORIGIN_ROW);
+        originCol = buffer.getInt(H_ORIGIN_COL);
+        cellDegrees = buffer.getDouble(H_CELL_DEGREES);
+        int cellEntries = buffer.getInt(H_CELL_ENTRIES);
+        edgeIdOffset = HEADER_SIZE;
+        fromOffset = edgeIdOffset + 8 * segments;
+        toOffset = fromOffset + 4 * segments;
+        lat1Offset = toOffset + 4 * segments;
+        lng1Offset = lat1Offset + 4 * segments;
+        lat2Offset = lng1Offset + 4 * segments;
+        lng2Offset = lat2Offset + 4 * segments;
+        lengthOffset = lng2Offset + 4 * segments;
+        cellStartOffset = lengthOffset + 4 * segments;
+        cellSegmentsOffset = cellStartOffset + 4 * (rows * cols + 1);
+        nodeStartOffset = cellSegmentsOffset + 4 * cellEntries;
+        nodeSegmentsOffset = nodeStartOffset + 4 * (nodes + 1);
+        if (fileSize(segments, nodes, (long) rows * cols, cellEntries) != buffer.capacity()) {
+            throw new IOException("Road segment index is truncated or has a bad header");
+        }
+    }
+
+    private static long fileSize(int segments, int nodes, long cells, long cellEntries) {
+        return HEADER_SIZE + 36L * segments + 4 * (cells + 1) + 4 * cellEntries + 4L * (nodes + 1) + 8L * segments;
+    }
+
+    public static SegmentIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new SegmentIndex(buffer);
+        }
+    }
+
+    /** Writes {@code network} as an index file, replacing {@code file} once it's complete. */
+    public static void write(RoadNetwork network, File file, double cellDegrees) throws IOException {
+        int n = network.segmentCount();
+        if (n == 0) {
+            throw new IllegalArgumentException("Road network has no segments");
+        }
+        int[] rowMin = new int[n];
+        int[] rowMax = new int[n];
+        int[] colMin = new int[n];
+        int[] colMax = new int[n];
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        int minCol = Integer.MAX_VALUE;
+        int maxCol = Integer.MIN_VALUE;
+        for (int s = 0; s < n; s++) {
+            int r1 = cellOf(network.lat1(s) / COORD_SCALE, cellDegrees);
+            int r2 = cellOf(network.lat2(s) / COORD_SCALE, cellDegrees);
+            int c1 = cellOf(network.lng1(s) / COORD_SCALE, cellDegrees);
+            int c2 = cellOf(network.lng2(s) / COORD_SCALE, cellDegrees);
+            rowMin[s] = Math.min(r1, r2);
+            rowMax[s] = Math.max(r1, r2);
+            colMin[s] = Math.min(c1, c2);
+            colMax[s] = Math.max(c1, c2);
+            minRow = Math.min(minRow, rowMin[s]);
+            maxRow = Math.max(maxRow, rowMax[s]);
+            minCol = Math.min(minCol, colMin[s]);
+            maxCol = Math.max(maxCol, colMax[s]);
+        }
+        int rows = maxRow - minRow + 1;
+        int cols = maxCol - minCol + 1;
+        long cells = (long) rows * cols;
+        if (cells > MAX_CELLS) {
+            throw new IllegalArgumentException(rows + " x " + cols + " grid cells; use larger cells than " + cellDegrees);
+        }
+
+        int[] cellStart = new int[(int) cells + 1];
+        for (int s = 0; s < n; s++) {
+            for (int r = rowMin[s]; r <= rowMax[s]; r++) {
+                for (int c = colMin[s]; c <= colMax[s]; c++) {
+                    cellStart[(r - minRow) * cols + (c - minCol) + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < cells; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        int[] cellSegments = new int[cellStart[(int) cells]];
+        int[] fill = Arrays.copyOf(cellStart, (int) cells);
+        for (int s = 0; s < n; s++) {
+            for (int r = rowMin[s]; r <= rowMax[s]; r++) {
+                for (int c = colMin[s]; c <= colMax[s]; c++) {
+                    cellSegments[fill[(r - minRow) * cols + (c - minCol)]++] = s;
+                }
+            }
+        }
+
+        int nodes = network.nodeCount();
+        int[] nodeStart = new int[nodes + 1];
+        for (int s = 0; s < n; s++) {
+            nodeStart[network.from(s) + 1]++;
+            nodeStart[network.to(s) + 1]++;
+        }
+        for (int i = 0; i < nodes; i++) {
+            nodeStart[i + 1] += nodeStart[i];
+        }
+        int[] nodeSegments = new int[2 * n];
+        int[] nodeFill = Arrays.copyOf(nodeStart, nodes);
+        for (int s = 0; s < n; s++) {
+            nodeSegments[nodeFill[network.from(s)]++] = s;
+            nodeSegments[nodeFill[network.to(s)]++] = s;
+        }
+
+        long size = fileSize(n, nodes, cells, cellSegments.length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Road segment index would be " + size + " bytes; split the network");
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(H_VERSION, VERSION);
+            out.putInt(H_SEGMENTS, n);
+            out.putInt(H_NODES, nodes);
+            out.putInt(H_ROWS, rows);
+            out.putInt(H_COLS, cols);
+            out.putInt(H_ORIGIN_ROW, minRow);
+            out.putInt(H_ORIGIN_COL, minCol);
+            out.putDouble(H_CELL_DEGREES, cellDegrees);
+            out.putInt(H_CELL_ENTRIES, cellSegments.length);
+            out.position(HEADER_SIZE);
+            for (int s = 0; s < n; s++) {
+                out.putLong(network.edgeId(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.from(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.to(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.lat1(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.lng1(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.lat2(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putInt(network.lng2(s));
+            }
+            for (int s = 0; s < n; s++) {
+                out.putFloat((float) lengthMeters(network.lat1(s) / COORD_SCALE, network.lng1(s) / COORD_SCALE,
+                        network.lat2(s) / COORD_SCALE, network.lng2(s) / COORD_SCALE));
+            }
+            for (int v : cellStart) {
+                out.putInt(v);
+            }
+            for (int v : cellSegments) {
+                out.putInt(v);
+            }
+            for (int v : nodeStart) {
+                out.putInt(v);
+            }
+            for (int v : nodeSegments) {
+                out.putInt(v);
+            }
+            // Magic last, so a file cut short by a crash is never taken for an index
+            out.putInt(H_MAGIC, MAGIC);
+            out.force();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static int cellOf(double degrees, double cellDegrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    static double lengthMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE;
+        double dx = (lng2 - lng1) * METERS_PER_DEGREE * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Fills {@code out} with every segment that passes within
+     * {@code radiusMeters} of the point, with the closest point on each.
+     */
+    void nearby(double lat, double lng, double radiusMeters, Nearby out) {
+        out.clear();
+        double kx = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        double ky = METERS_PER_DEGREE;
+        double dLat = radiusMeters / ky;
+        double dLng = radiusMeters / Math.max(kx, 1);
+        int qRowMin = cellOf(lat - dLat, cellDegrees);
+        int qRowMax = cellOf(lat + dLat, cellDegrees);
+        int qColMin = cellOf(lng - dLng, cellDegrees);
+        int qColMax = cellOf(lng + dLng, cellDegrees);
+        double radiusSquared = radiusMeters * radiusMeters;
+        for (int row = Math.max(qRowMin, originRow); row <= Math.min(qRowMax, originRow + rows - 1); row++) {
+            for (int col = Math.max(qColMin, originCol); col <= Math.min(qColMax, originCol + cols - 1); col++) {
+                int cell = (row - originRow) * cols + (col - originCol);
+                int end = buffer.getInt(cellStartOffset + 4 * (cell + 1));
+                for (int i = buffer.getInt(cellStartOffset + 4 * cell); i < end; i++) {
+                    int s = buffer.getInt(cellSegmentsOffset + 4 * i);
+                    double lat1 = buffer.getInt(lat1Offset + 4 * s) / COORD_SCALE;
+                    double lng1 = buffer.getInt(lng1Offset + 4 * s) / COORD_SCALE;
+                    double lat2 = buffer.getInt(lat2Offset + 4 * s) / COORD_SCALE;
+                    double lng2 = buffer.getInt(lng2Offset + 4 * s) / COORD_SCALE;
+                    // A segment in several of the cells looked at is taken from the first of them only
+                    int firstRow = Math.max(cellOf(Math.min(lat1, lat2), cellDegrees), qRowMin);
+                    int firstCol = Math.max(cellOf(Math.min(lng1, lng2), cellDegrees), qColMin);
+                    if (firstRow != row || firstCol != col) {
+                        continue;
+                    }
+                    double ax = (lng1 - lng) * kx;
+                    double ay = (lat1 - lat) * ky;
+                    double bx = (lng2 - lng) * kx - ax;
+                    double by = (lat2 - lat) * ky - ay;
+                    double lengthSquared = bx * bx + by * by;
+                    double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * bx + ay * by) / lengthSquared));
+                    double px = ax + t * bx;
+                    double py = ay + t * by;
+                    double distanceSquared = px * px + py * py;
+                    if (distanceSquared <= radiusSquared) {
+                        out.add(s, t, Math.sqrt(distanceSquared), lat + py / ky, lng + px / kx, bx, by,
+                                Math.sqrt(lengthSquared));
+                    }
+                }
+            }
+        }
+    }
+
+    public int segmentCount() { return segments; }
+    public int nodeCount() { return nodes; }
+    public long sizeBytes() { return buffer.capacity(); }
+
+    long edgeId(int s) { return buffer.getLong(edgeIdOffset + 8 * s); }
+    int from(int s) { return buffer.getInt(fromOffset + 4 * s); }
+    int to(int s) { return buffer.getInt(toOffset + 4 * s); }
+    double length(int s) { return buffer.getFloat(lengthOffset + 4 * s); }
+
+    int degree(int node) {
+        return buffer.getInt(nodeStartOffset + 4 * (node + 1)) - buffer.getInt(nodeStartOffset + 4 * node);
+    }
+
+    /** The {@code i}-th segment ending at {@code node}. */
+    int segmentAt(int node, int i) {
+        return buffer.getInt(nodeSegmentsOffset + 4 * (buffer.getInt(nodeStartOffset + 4 * node) + i));
+    }
+}
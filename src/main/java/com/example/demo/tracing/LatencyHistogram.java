@@ -0,0 +1,89 @@
+package com.example.demo.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Millisecond latencies over fixed buckets, from 1 ms to an hour. Recording
+ * is a binary search and a few atomic adds. Percentiles report the upper
+ * bound of the bucket they fall into, capped at the largest value seen.
+ */
+public final class LatencyHistogram {
+
+    // The long tail covers fixes that sat in a phone's journal through an outage
+    private static final long[] BOUNDS_MS = {
+            1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000, 30_000, 60_000, 300_000, 3_600_000
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Records one latency; negative values, from clock-offset error, count as 0. */
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    private static int bucketOf(long value) {
+        int low = 0;
+        int high = BOUNDS_MS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (value <= BOUNDS_MS[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /** Approximate value below which a fraction {@code q} (0..1) of the recordings fall; 0 if empty. */
+    public long percentile(double q) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS_MS[i], max());
+            }
+        }
+        return max();
+    }
+
+    /** Count, mean and percentiles, for the stats endpoint. */
+    public Map<String, Object> summary() {
+        long n = count();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", n);
+        summary.put("meanMillis", n == 0 ? 0 : sum.sum() / n);
+        summary.put("p50Millis", percentile(0.50));
+        summary.put("p90Millis", percentile(0.90));
+        summary.put("p99Millis", percentile(0.99));
+        summary.put("maxMillis", max());
+        return summary;
+    }
+}
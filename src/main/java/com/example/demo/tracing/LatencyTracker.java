@@ -0,0 +1,114 @@
+package com.example.demo.tracing;
+
+import com.example.demo.models.PhoneLocation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-hop latency of live fixes, from the phone's fix to the fan-out.
+ *
+ * Phones stamp each fix with when it was taken and queued, and each frame
+ * with when it was sent, all on the phone's clock; the server adds when the
+ * frame arrived and when the fix left in a fan-out flush. Hops within one
+ * clock are plain differences. Hops that cross from the phone to the server
+ * need the session's clock offset, which the phone estimates over
+ * {@code /app/clock} and reports back; until it has, those hops aren't
+ * recorded.
+ */
+@Component
+public class LatencyTracker {
+
+    public enum Hop {
+        /** Fix taken to queued in the phone's journal. */
+        FIX_TO_QUEUE("fixToQueue"),
+        /** Queued to written to the socket, including batching and outages. */
+        QUEUE_TO_SEND("queueToSend"),
+        /** Written by the phone to received here. Needs the clock offset. */
+        NETWORK("network"),
+        /** Received here to sent to viewers, mostly the fan-out's flush interval. */
+        RECEIVE_TO_BROADCAST("receiveToBroadcast"),
+        /** Fix taken to received here, every phone-side hop plus the network. Needs the clock offset. */
+        FIX_TO_RECEIVE("fixToReceive");
+
+        private final String key;
+
+        Hop(String key) {
+            this.key = key;
+        }
+    }
+
+    /** Offset a phone reported: server time minus device time, with its round-trip delay. */
+    record ClockOffset(long offsetMillis, long rttMillis) {
+    }
+
+    private final LatencyHistogram[] hops = new LatencyHistogram[Hop.values().length];
+    private final Map<String, ClockOffset> offsets = new ConcurrentHashMap<>();
+
+    public LatencyTracker() {
+        for (int i = 0; i < hops.length; i++) {
+            hops[i] = new LatencyHistogram();
+        }
+    }
+
+    public void updateClockOffset(String sessionId, long offsetMillis, long rttMillis) {
+        offsets.put(sessionId, new ClockOffset(offsetMillis, rttMillis));
+    }
+
+    public void forgetSession(String sessionId) {
+        offsets.remove(sessionId);
+    }
+
+    /** The session's device-to-server clock offset in milliseconds, or null if it hasn't reported one. */
+    public Long clockOffset(String sessionId) {
+        ClockOffset offset = sessionId == null ? null : offsets.get(sessionId);
+        return offset == null ? null : offset.offsetMillis();
+    }
+
+    /** Records the hops up to arrival of a fix the session sent; unknown stamps are skipped. */
+    public void received(String sessionId, PhoneLocation location) {
+        long enqueuedAt = location.getEnqueuedAt();
+        long sentAt = location.getSentAt();
+        if (enqueuedAt != 0) {
+            record(Hop.FIX_TO_QUEUE, enqueuedAt - location.getTimestamp());
+            if (sentAt != 0) {
+                record(Hop.QUEUE_TO_SEND, sentAt - enqueuedAt);
+            }
+        }
+        Long offset = clockOffset(sessionId);
+        if (offset == null || location.getReceivedAt() == 0) {
+            return;
+        }
+        if (sentAt != 0) {
+            record(Hop.NETWORK, location.getReceivedAt() - (sentAt + offset));
+        }
+        record(Hop.FIX_TO_RECEIVE, location.getReceivedAt() - (location.getTimestamp() + offset));
+    }
+
+    public void record(Hop hop, long millis) {
+        hops[hop.ordinal()].record(millis);
+    }
+
+    public LatencyHistogram histogram(Hop hop) {
+        return hops[hop.ordinal()];
+    }
+
+    /** Percentiles of every hop plus the clock offsets in use, for the stats endpoint. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> hopStats = new LinkedHashMap<>();
+        for (Hop hop : Hop.values()) {
+            hopStats.put(hop.key, histogram(hop).summary());
+        }
+        long maxError = 0;
+        for (ClockOffset offset : offsets.values()) {
+            maxError = Math.max(maxError, (offset.rttMillis() + 1) / 2);
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("sessionsWithClockOffset", offsets.size());
+        snapshot.put("maxClockErrorMillis", maxError);
+        snapshot.put("hops", hopStats);
+        return snapshot;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.demo.websocket;
+
+import com.example.demo.models.PhoneLocation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the app's compact binary location batches
+ * ({@code application/x-roadster-location}).
+ *
+ * A batch starts with a version byte, a varint user token and, in the first
+ * batch of a STOMP session, the user id the token stands for. Records follow
+ * as zig-zag varint deltas of 1e-7 degree latitude/longitude and millisecond
+ * timestamps, plus speed, bearing and accuracy quantized to tenths. Batches
+ * flagged as traced add each fix's enqueue time, as milliseconds after its
+ * timestamp.
+ */
+public final class BinaryLocationDecoder {
+
+    public static final String CONTENT_TYPE = "application/x-roadster-location";
+
+    private static final int VERSION = 1;
+    private static final int FLAG_DECLARES_USER = 0x80;
+    private static final int FLAG_TRACED = 0x40;
+    private static final int VERSION_MASK = 0x3F;
+    private static final double COORD_SCALE = 1e7;
+    private static final double TENTHS = 10;
+
+    private BinaryLocationDecoder() {
+    }
+
+    /**
+     * Decodes one batch. {@code sessionTokens} maps the session's user tokens to
+     * user ids; a batch that declares its user id adds it to the map.
+     *
+     * @throws IllegalArgumentException if the body is malformed or uses a token
+     *                                  the session never declared
+     */
+    public static List<PhoneLocation> decode(byte[] body, Map<Integer, String> sessionTokens) {
+        Reader in = new Reader(body);
+        int header = in.readByte();
+        if ((header & VERSION_MASK) != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary location version " + (header & VERSION_MASK));
+        }
+        boolean traced = (header & FLAG_TRACED) != 0;
+        int token = (int) in.readVarint();
+        String userId;
+        if ((header & FLAG_DECLARES_USER) != 0) {
+            int length = (int) in.readVarint();
+            userId = in.readString(length);
+            sessionTokens.put(token, userId);
+        } else {
+            userId = sessionTokens.get(token);
+            if (userId == null) {
+                throw new IllegalArgumentException("Unknown user token " + token);
+            }
+        }
+
+        int count = (int) in.readVarint();
+        List<PhoneLocation> locations = new ArrayList<>(Math.min(count, body.length));
+        long lat = 0;
+        long lng = 0;
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            lat += unZigZag(in.readVarint());
+            lng += unZigZag(in.readVarint());
+            time += unZigZag(in.readVarint());
+            double speed = in.readVarint() / TENTHS;
+            double bearing = in.readVarint() / TENTHS;
+            double accuracy = in.readVarint() / TENTHS;
+            PhoneLocation location = new PhoneLocation(userId, lat / COORD_SCALE, lng / COORD_SCALE, accuracy, speed,
+                    bearing, time);
+            if (traced) {
+                location.setEnqueuedAt(time + unZigZag(in.readVarint()));
+            }
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated binary location batch");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString(int length) {
+            if (length < 0 || pos + length > buf.length) {
+                throw new IllegalArgumentException("Truncated binary location batch");
+            }
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.demo.websocket;
+
+import com.example.demo.models.PhoneLocation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads {@link PhoneLocation} JSON, a single object or an array of them,
+ * straight from the frame bytes. Field names are matched on the raw bytes and
+ * numbers are parsed in place, so the only allocations are the locations and
+ * their user id strings. Unknown fields are skipped; missing or null numbers
+ * stay 0.
+ */
+public final class JsonLocationDecoder {
+
+    private static final byte[] USER_ID = ascii("userId");
+    private static final byte[] LATITUDE = ascii("latitude");
+    private static final byte[] LONGITUDE = ascii("longitude");
+    private static final byte[] ACCURACY = ascii("accuracy");
+    private static final byte[] SPEED = ascii("speed");
+    private static final byte[] BEARING = ascii("bearing");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] ENQUEUED_AT = ascii("enqueuedAt");
+
+    // Powers of ten that are exact doubles
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+    // Decimal mantissas below this are exact in a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final byte[] buf;
+    private int pos;
+
+    private JsonLocationDecoder(byte[] buf) {
+        this.buf = buf;
+    }
+
+    /**
+     * Decodes a location object or an array of them.
+     *
+     * @throws IllegalArgumentException if the body is not valid JSON of that shape
+     */
+    public static List<PhoneLocation> decode(byte[] body) {
+        JsonLocationDecoder in = new JsonLocationDecoder(body);
+        List<PhoneLocation> locations;
+        in.skipWhitespace();
+        if (in.peek() == '[') {
+            in.pos++;
+            locations = new ArrayList<>();
+            in.skipWhitespace();
+            if (in.peek() == ']') {
+                in.pos++;
+            } else {
+                while (true) {
+                    locations.add(in.readLocation());
+                    in.skipWhitespace();
+                    byte b = in.next();
+                    if (b == ']') {
+                        break;
+                    }
+                    if (b != ',') {
+                        throw in.error("Expected ',' or ']'");
+                    }
+                    in.skipWhitespace();
+                }
+            }
+        } else {
+            locations = new ArrayList<>(1);
+            locations.add(in.readLocation());
+        }
+        in.skipWhitespace();
+        if (in.pos != body.length) {
+            throw in.error("Trailing data");
+        }
+        return locations;
+    }
+
+    private PhoneLocation readLocation() {
+        expect('{');
+        PhoneLocation location = new PhoneLocation();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return location;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = pos;
+            boolean escaped = skipStringBody();
+            int keyEnd = pos - 1;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (escaped) {
+                // Escaped field names never come from our clients; treat as unknown
+                skipValue();
+            } else if (keyIs(keyStart, keyEnd, USER_ID)) {
+                location.setUserId(readStringOrNull());
+            } else if (keyIs(keyStart, keyEnd, LATITUDE)) {
+                location.setLatitude(readDouble());
+            } else if (keyIs(keyStart, keyEnd, LONGITUDE)) {
+                location.setLongitude(readDouble());
+            } else if (keyIs(keyStart, keyEnd, ACCURACY)) {
+                location.setAccuracy(readDouble());
+            } else if (keyIs(keyStart, keyEnd, SPEED)) {
+                location.setSpeed(readDouble());
+            } else if (keyIs(keyStart, keyEnd, BEARING)) {
+                location.setBearing(readDouble());
+            } else if (keyIs(keyStart, keyEnd, TIMESTAMP)) {
+                location.setTimestamp(readLong());
+            } else if (keyIs(keyStart, keyEnd, ENQUEUED_AT)) {
+                location.setEnqueuedAt(readLong());
+            } else {
+                skipValue();
+            }
+
+            skipWhitespace();
+            byte b = next();
+            if (b == '}') {
+                return location;
+            }
+            if (b != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private boolean keyIs(int start, int end, byte[] name) {
+        return end - start == name.length && Arrays.equals(buf, start, end, name, 0, name.length);
+    }
+
+    private String readStringOrNull() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        if (!skipStringBody()) {
+            return new String(buf, start, pos - 1 - start, StandardCharsets.UTF_8);
+        }
+        return unescape(start, pos - 1);
+    }
+
+    // Moves past the closing quote; returns true if the string had escapes
+    private boolean skipStringBody() {
+        boolean escaped = false;
+        while (true) {
+            byte b = next();
+            if (b == '"') {
+                return escaped;
+            }
+            if (b == '\\') {
+                escaped = true;
+                next();
+            } else if ((b & 0xFF) < 0x20) {
+                throw error("Control character in string");
+            }
+        }
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            if (buf[i] != '\\') {
+                i++;
+                continue;
+            }
+            out.append(new String(buf, runStart, i - runStart, StandardCharsets.UTF_8));
+            byte c = buf[i + 1];
+            i += 2;
+            switch (c) {
+                case '"': out.append('"'); break;
+                case '\\': out.append('\\'); break;
+                case '/': out.append('/'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw error("Truncated \\u escape");
+                    }
+                    out.append((char) Integer.parseInt(new String(buf, i, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default:
+                    throw error("Bad escape \\" + (char) c);
+            }
+            runStart = i;
+        }
+        out.append(new String(buf, runStart, end - runStart, StandardCharsets.UTF_8));
+        return out.toString();
+    }
+
+    private double readDouble() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return 0;
+        }
+        int start = pos;
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        boolean exact = true;
+        int intDigits = 0;
+        while (pos < buf.length && isDigit(buf[pos])) {
+            if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (buf[pos] - '0');
+            } else {
+                exact = false;
+            }
+            intDigits++;
+            pos++;
+        }
+        if (intDigits == 0) {
+            throw error("Expected a number");
+        }
+        if (pos < buf.length && buf[pos] == '.') {
+            pos++;
+            int fracDigits = 0;
+            while (pos < buf.length && isDigit(buf[pos])) {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (buf[pos] - '0');
+                    scale--;
+                } else if (buf[pos] != '0') {
+                    exact = false;
+                }
+                fracDigits++;
+                pos++;
+            }
+            if (fracDigits == 0) {
+                throw error("Expected digits after '.'");
+            }
+        }
+        if (pos < buf.length && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < buf.length && (buf[pos] == '+' || buf[pos] == '-')) {
+                negativeExponent = buf[pos] == '-';
+                pos++;
+            }
+            int exponent = 0;
+            int expDigits = 0;
+            while (pos < buf.length && isDigit(buf[pos])) {
+                exponent = Math.min(exponent * 10 + (buf[pos] - '0'), 10_000);
+                expDigits++;
+                pos++;
+            }
+            if (expDigits == 0) {
+                throw error("Expected exponent digits");
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        // Exact mantissa and power of ten: one correctly rounded multiply or divide
+        if (exact && scale >= -22 && scale <= 22) {
+            double value = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(buf, start, pos - start, StandardCharsets.US_ASCII));
+    }
+
+    private long readLong() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return 0;
+        }
+        int start = pos;
+        boolean negative = peek() == '-';
+        if (negative) {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < buf.length && isDigit(buf[pos]) && digits < 18) {
+            value = value * 10 + (buf[pos] - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) {
+            throw error("Expected a number");
+        }
+        if (pos < buf.length && (isDigit(buf[pos]) || buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E')) {
+            // Not a plain long (very large, fractional or exponent form)
+            pos = start;
+            return (long) readDouble();
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue() {
+        byte b = peek();
+        switch (b) {
+            case '"':
+                pos++;
+                skipStringBody();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            case 't':
+                expectLiteral("true");
+                break;
+            case 'f':
+                expectLiteral("false");
+                break;
+            case 'n':
+                expectLiteral("null");
+                break;
+            default:
+                readDouble();
+        }
+    }
+
+    // Skips a nested object or array by tracking depth; strings are skipped whole
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            byte b = next();
+            if (b == '"') {
+                skipStringBody();
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+        }
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < buf.length) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= buf.length) {
+            throw error("Unexpected end of input");
+        }
+        return buf[pos];
+    }
+
+    private byte next() {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
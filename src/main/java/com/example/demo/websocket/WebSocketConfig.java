@@ -1 +1,103 @@
+package com.example.demo.websocket;
 
+import com.example.demo.fanout.FrameSendTracker;
+import com.example.demo.fanout.LocationFanout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * STOMP over plain WebSocket at {@code /ws}. Phones send to {@code /app/location}
+ * and, for fence entries and exits, {@code /app/geofence};
+ * subscribers of {@code /topic/locations} get conflated batches from
+ * {@link com.example.demo.fanout.LocationFanout} rather than the simple broker.
+ * Location frames don't go through the simple broker either: after decoding
+ * they are passed through {@link com.example.demo.ingest.LocationIngest}'s
+ * ring, which also sends their receipts.
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+
+    // The app asks for 10 s heart-beats in its CONNECT frame
+    private static final long HEARTBEAT_MS = 10_000;
+    private static final int SEND_TIME_LIMIT_MS = 15_000;
+    private static final int SEND_BUFFER_LIMIT_BYTES = 512 * 1024;
+
+    // Through a provider: the fan-out needs the outbound channel this configuration sets up
+    private final ObjectProvider<LocationFanout> fanout;
+
+    public WebSocketConfig(ObjectProvider<LocationFanout> fanout) {
+        this.fanout = fanout;
+    }
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // No SockJS: the app speaks raw WebSocket
+        registry.addEndpoint("/ws").setAllowedOriginPatterns("*");
+        // One session's frames are handled in the order they arrived, even on a thread pool
+        registry.setPreserveReceiveOrder(true);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // A client that can't take its frames within these limits is disconnected rather than buffered for
+        registration.setSendTimeLimit(SEND_TIME_LIMIT_MS).setSendBufferSizeLimit(SEND_BUFFER_LIMIT_BYTES);
+        // The fan-out holds back a subscription's next frame until its last one is on the socket
+        registration.addDecoratorFactory(handler -> new FrameSendTracker(handler, fanout::getObject));
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[]{HEARTBEAT_MS, HEARTBEAT_MS})
+                .setTaskScheduler(heartbeatScheduler());
+        registry.setApplicationDestinationPrefixes("/app");
+        registry.setUserDestinationPrefix("/user");
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.executor(inboundExecutor());
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler heartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-heartbeat-");
+        return scheduler;
+    }
+
+    /**
+     * Inbound frames are decoded on this executor and, for locations, handed
+     * to the ingest ring; other frames are handled here. With virtual
+     * threads a thread per frame is cheap and blocking in a handler doesn't
+     * starve other sessions; older JDKs get a pool sized to the machine.
+     */
+    @Bean
+    public TaskExecutor inboundExecutor() {
+        if (Runtime.version().feature() >= 21) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("ws-inbound-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(cores * 2);
+        executor.setMaxPoolSize(cores * 2);
+        executor.setQueueCapacity(10_000);
+        executor.setThreadNamePrefix("ws-inbound-");
+        return executor;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.demo.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    private static final class Slot {
+        int producer;
+        long value;
+        boolean seenByFirst;
+    }
+
+    @Test
+    void everyStageSeesEachProducersEventsInOrderAfterItsUpstream() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        RingBuffer<Slot> ring = new RingBuffer<>(256, Slot::new);
+        long[] lastSeen = new long[producers];
+        Arrays.fill(lastSeen, -1);
+        AtomicLong outOfOrder = new AtomicLong();
+        AtomicLong unseen = new AtomicLong();
+        AtomicLong handled = new AtomicLong();
+        BatchConsumer<Slot> first = ring.addStage("first", (slot, sequence, endOfBatch) -> {
+            if (slot.value != lastSeen[slot.producer] + 1) {
+                outOfOrder.incrementAndGet();
+            }
+            lastSeen[slot.producer] = slot.value;
+            slot.seenByFirst = true;
+        });
+        ring.addStage("second", (slot, sequence, endOfBatch) -> {
+            if (!slot.seenByFirst) {
+                unseen.incrementAndGet();
+            }
+            slot.seenByFirst = false;
+            handled.incrementAndGet();
+        }, List.of(first));
+        ring.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (long v = 0; v < perProducer; v += 4) {
+                    long high = ring.claim(4);
+                    for (long s = high - 3, value = v; s <= high; s++, value++) {
+                        Slot slot = ring.get(s);
+                        slot.producer = producer;
+                        slot.value = value;
+                    }
+                    ring.publish(high - 3, high);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(ring.drain(10_000));
+        ring.stop();
+
+        assertEquals((long) producers * perProducer, handled.get());
+        assertEquals(0, outOfOrder.get());
+        assertEquals(0, unseen.get());
+        assertEquals(0, ring.backlog());
+    }
+
+    @Test
+    void producersWaitForTheSlowestStageInsteadOfOverwriting() throws Exception {
+        RingBuffer<Slot> ring = new RingBuffer<>(8, Slot::new);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> values = new ArrayList<>();
+        ring.addStage("slow", (slot, sequence, endOfBatch) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            values.add(slot.value);
+        });
+        ring.start();
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread producer = Thread.ofPlatform().start(() -> {
+            for (long v = 0; v < 20; v++) {
+                long s = ring.claim(1);
+                ring.get(s).value = v;
+                ring.publish(s, s);
+            }
+            done.set(true);
+        });
+        producer.join(200);
+        assertFalse(done.get(), "producer lapped a stage that hasn't moved");
+        assertTrue(ring.getFullWaits() > 0);
+
+        release.countDown();
+        producer.join(5_000);
+        assertTrue(done.get());
+        assertTrue(ring.drain(5_000));
+        ring.stop();
+        List<Long> expected = new ArrayList<>();
+        for (long v = 0; v < 20; v++) {
+            expected.add(v);
+        }
+        assertEquals(expected, values);
+    }
+
+    @Test
+    void aFailingHandlerDoesNotStallTheRing() throws Exception {
+        RingBuffer<Slot> ring = new RingBuffer<>(16, Slot::new);
+        CountDownLatch last = new CountDownLatch(1);
+        BatchConsumer<Slot> stage = ring.addStage("flaky", (slot, sequence, endOfBatch) -> {
+            if (slot.value % 3 == 0) {
+                throw new IllegalStateException("bad event " + slot.value);
+            }
+            if (slot.value == 100) {
+                last.countDown();
+            }
+        });
+        ring.start();
+        for (long v = 1; v <= 100; v++) {
+            long s = ring.claim(1);
+            ring.get(s).value = v;
+            ring.publish(s, s);
+        }
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        ring.stop();
+        assertEquals(33, stage.getErrors());
+    }
+
+    @Test
+    void sizeMustBeAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<>(12, Slot::new));
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.demo.controller;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.ingest.BacklogReceiver;
+import com.example.demo.ingest.LatestPositionStore;
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.ingest.SpatialGridIndex;
+import com.example.demo.tracing.LatencyTracker;
+import com.example.demo.models.BacklogAck;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BacklogUploadTest {
+
+    private static final String USER = "android_user_001";
+    private static final long STREAM = 0x5EEDL;
+    private static final int BACKLOG = 20_000;
+    private static final int CHUNK = 2_000;
+    // What JournalDrainer puts in one SEND frame
+    private static final int FRAME = 20;
+
+    @TempDir
+    File trackDir;
+
+    private LocationFanout fanout;
+    private LatestPositionStore positions;
+    private TrackStore tracks;
+    private BacklogController backlog;
+    private PhoneLocationController live;
+    // Five and a half hours ago, so the backlog is well inside the retention period
+    private final long start = System.currentTimeMillis() - BACKLOG * 1000L;
+
+    @BeforeEach
+    void setUp() {
+        fanout = new LocationFanout(new ExecutorSubscribableChannel(), new ObjectMapper(), 3_600_000, new LatencyTracker());
+        positions = new LatestPositionStore();
+        SpatialGridIndex index = new SpatialGridIndex();
+        tracks = new TrackStore(trackDir, 30);
+        LocationIngest ingest = new LocationIngest(fanout, positions, index, tracks, new ExecutorSubscribableChannel());
+        backlog = new BacklogController(new BacklogReceiver(positions, ingest, tracks));
+        live = new PhoneLocationController(new LatencyTracker(), new SequenceDeduplicator(), ingest);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fanout.close();
+        tracks.close();
+    }
+
+    private String fix(int seq) {
+        return "{\"userId\":\"" + USER + "\",\"latitude\":" + (23.8103 + seq * 1e-5) + ",\"longitude\":"
+                + (90.4125 - seq * 1e-5) + ",\"accuracy\":4.50,\"speed\":12.34,\"bearing\":" + (seq % 360)
+                + ".00,\"timestamp\":" + (start + seq * 1000L) + "}";
+    }
+
+    private byte[] json(int from, int to) {
+        StringBuilder body = new StringBuilder("[");
+        for (int seq = from; seq < to; seq++) {
+            body.append(seq == from ? "" : ",").append(fix(seq));
+        }
+        return body.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(byte[] body, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream z = gzip ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+            z.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private BacklogAck upload(int from, int to) throws IOException {
+        return backlog.upload(USER, STREAM, from, "application/json", "gzip",
+                new ByteArrayInputStream(compress(json(from, to), true)));
+    }
+
+    private long stored() {
+        return tracks.query(USER, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { });
+    }
+
+    @Test
+    void resumesAPartialUploadWithoutStoringAnythingTwice() throws IOException {
+        assertEquals(-1, backlog.status(USER, STREAM).getAckedSeq());
+        for (int from = 0; from < 3 * CHUNK; from += CHUNK) {
+            assertEquals(from + CHUNK - 1, upload(from, from + CHUNK).getAckedSeq());
+        }
+        // The connection dropped before the phone saw the third ack: it asks, then resends what it can't be sure of
+        assertEquals(3 * CHUNK - 1, backlog.status(USER, STREAM).getAckedSeq());
+        BacklogAck retried = upload(2 * CHUNK, 3 * CHUNK);
+        assertEquals(CHUNK, retried.getDuplicates());
+        assertEquals(0, retried.getReceived());
+        // A chunk straddling the ack only stores its new part
+        BacklogAck straddling = upload(3 * CHUNK - 500, 4 * CHUNK);
+        assertEquals(500, straddling.getDuplicates());
+        assertEquals(CHUNK, straddling.getStored());
+        for (int from = 4 * CHUNK; from < BACKLOG; from += CHUNK) {
+            upload(from, from + CHUNK);
+        }
+
+        assertEquals(BACKLOG - 1, backlog.status(USER, STREAM).getAckedSeq());
+        assertEquals(BACKLOG, stored());
+        assertEquals(start + (BACKLOG - 1) * 1000L, positions.get(USER).getTimestamp());
+        // Another journal of the same user starts from scratch
+        assertEquals(-1, backlog.status(USER, STREAM + 1).getAckedSeq());
+    }
+
+    @Test
+    void acceptsDeflateAndRejectsBadBodies() throws IOException {
+        BacklogAck ack = backlog.upload(USER, STREAM, 0, "application/json", "deflate",
+                new ByteArrayInputStream(compress(json(0, 100), false)));
+        assertEquals(99, ack.getAckedSeq());
+        assertEquals(100, ack.getStored());
+
+        assertThrows(IllegalArgumentException.class, () -> backlog.upload(USER, STREAM, 100, "application/json",
+                "gzip", new ByteArrayInputStream(json(100, 110))));
+        assertThrows(IllegalArgumentException.class, () -> backlog.upload("someone_else", STREAM, 0,
+                "application/json", null, new ByteArrayInputStream(json(0, 10))));
+        ResponseStatusException unsupported = assertThrows(ResponseStatusException.class, () -> backlog.upload(USER,
+                STREAM, 100, "application/json", "br", new ByteArrayInputStream(json(100, 110))));
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, unsupported.getStatusCode());
+        // Zeros compress about a thousandfold: a small body must not inflate without limit
+        byte[] bomb = compress(new byte[BacklogController.MAX_CHUNK_BYTES + 1], true);
+        ResponseStatusException tooLarge = assertThrows(ResponseStatusException.class, () -> backlog.upload(USER,
+                STREAM, 100, "application/json", "gzip", new ByteArrayInputStream(bomb)));
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, tooLarge.getStatusCode());
+        assertEquals(99, backlog.status(USER, STREAM).getAckedSeq());
+    }
+
+    @Test
+    void bulkCatchUpBeatsPerFrameReplayAndKeepsLiveFixesFlowing() throws IOException {
+        // Per-frame replay, as the journal drainer does it over the socket
+        long replayBytes = 0;
+        int frames = 0;
+        long started = System.nanoTime();
+        for (int from = 0; from < BACKLOG; from += FRAME) {
+            byte[] body = json(from, from + FRAME);
+            replayBytes += body.length;
+            frames++;
+            live.receiveLocation(frame("replay", body));
+        }
+        long replayNanos = System.nanoTime() - started;
+        assertEquals(BACKLOG, stored());
+        assertEquals(BACKLOG, fanout.getPublished());
+
+        // Bulk catch-up of the same backlog for a second phone while its live fixes keep arriving
+        tearDown();
+        trackDir = new File(trackDir, "bulk");
+        setUp();
+        long bulkBytes = 0;
+        int requests = 0;
+        started = System.nanoTime();
+        for (int from = 0; from < BACKLOG; from += CHUNK) {
+            byte[] body = compress(json(from, from + CHUNK), true);
+            bulkBytes += body.length;
+            requests++;
+            backlog.upload(USER, STREAM, from, "application/json", "gzip", new ByteArrayInputStream(body));
+            live.receiveLocation(frame("live", json(BACKLOG + requests - 1, BACKLOG + requests)));
+        }
+        long bulkNanos = System.nanoTime() - started;
+
+        System.out.printf("Backlog of %d fixes: per-frame replay %d frames, %d KB, %d ms (%.0f fixes/s); "
+                        + "bulk %d requests, %d KB gzip, %d ms (%.0f fixes/s)%n",
+                BACKLOG, frames, replayBytes / 1024, replayNanos / 1_000_000, BACKLOG * 1e9 / replayNanos,
+                requests, bulkBytes / 1024, bulkNanos / 1_000_000, BACKLOG * 1e9 / bulkNanos);
+
+        assertEquals(BACKLOG + requests, stored());
+        // The live topic only saw the live fixes and the first chunk's newest fix, not the backlog
+        assertEquals(requests + 1, fanout.getPublished());
+        assertEquals(start + (BACKLOG + requests - 1) * 1000L, positions.get(USER).getTimestamp());
+        assertTrue(requests * 50 <= frames);
+        assertTrue(bulkBytes * 4 < replayBytes, bulkBytes + " vs " + replayBytes);
+    }
+
+    private static Message<byte[]> frame(String sessionId, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/app/location");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+    }
+}
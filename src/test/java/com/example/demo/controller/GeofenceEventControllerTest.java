@@ -0,0 +1,70 @@
+package com.example.demo.controller;
+
+import com.example.demo.models.GeofenceEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeofenceEventControllerTest {
+
+    private final List<Message<?>> broadcast = new CopyOnWriteArrayList<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private GeofenceEventController controller() {
+        ExecutorSubscribableChannel broker = new ExecutorSubscribableChannel();
+        broker.subscribe(broadcast::add);
+        SimpMessagingTemplate template = new SimpMessagingTemplate(broker);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        return new GeofenceEventController(template, mapper);
+    }
+
+    private static Message<byte[]> frame(String json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("phone");
+        accessor.setDestination("/app/geofence");
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    @Test
+    void passesEventsOnToSubscribers() throws Exception {
+        GeofenceEventController controller = controller();
+        long before = System.currentTimeMillis();
+        // As the phone's Gson writes it
+        controller.receive(frame("{\"userId\":\"phone_1\",\"fenceId\":\"depot-1\",\"kind\":\"depot\","
+                + "\"type\":\"ENTER\",\"timestamp\":1752731000000,\"latitude\":23.81,\"longitude\":90.41}"));
+
+        assertEquals(1, controller.getReceived());
+        assertEquals(1, broadcast.size());
+        Message<?> message = broadcast.get(0);
+        assertEquals(GeofenceEventController.DESTINATION, SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        GeofenceEvent event = mapper.readValue((byte[]) message.getPayload(), GeofenceEvent.class);
+        assertEquals("depot-1", event.getFenceId());
+        assertEquals(GeofenceEvent.Type.ENTER, event.getType());
+        assertEquals(1_752_731_000_000L, event.getTimestamp());
+        assertTrue(event.getReceivedAt() >= before);
+    }
+
+    @Test
+    void dropsMalformedAndIncompleteEvents() {
+        GeofenceEventController controller = controller();
+        controller.receive(frame("{\"userId\":"));
+        controller.receive(frame("{\"userId\":\"phone_1\",\"type\":\"EXIT\"}"));
+        controller.receive(frame("{\"userId\":\"phone_1\",\"fenceId\":\"depot-1\",\"type\":\"LEFT\"}"));
+
+        assertEquals(0, controller.getReceived());
+        assertEquals(3, controller.getRejected());
+        assertTrue(broadcast.isEmpty());
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.demo.controller;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.ingest.LatestPositionStore;
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.ingest.SpatialGridIndex;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A phone whose connection drops before the receipts of its last frames
+ * arrive, and that sends those frames again on the next session. Fixes go
+ * through the ingest ring, so receipts come from its last stage.
+ */
+class LocationReceiptTest {
+
+    private static final String USER = "phone_1";
+    private static final long STREAM = 0x5eed;
+    private static final long START = System.currentTimeMillis() - 3_600_000;
+
+    @TempDir
+    File trackDir;
+
+    private final List<Message<?>> outboundFrames = new CopyOnWriteArrayList<>();
+    private LocationFanout fanout;
+    private LatestPositionStore positions;
+    private TrackStore tracks;
+    private SequenceDeduplicator duplicates;
+    private LatencyTracker latency;
+    private LocationIngest ingest;
+    private PhoneLocationController controller;
+
+    @BeforeEach
+    void setUp() {
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(outboundFrames::add);
+        latency = new LatencyTracker();
+        fanout = new LocationFanout(outbound, new ObjectMapper(), 3_600_000, latency);
+        positions = new LatestPositionStore();
+        tracks = new TrackStore(trackDir, 30);
+        duplicates = new SequenceDeduplicator();
+        ingest = new LocationIngest(fanout, positions, new SpatialGridIndex(), tracks, outbound, 16);
+        controller = new PhoneLocationController(latency, duplicates, ingest);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingest.close();
+        fanout.close();
+        tracks.close();
+    }
+
+    private static Message<byte[]> send(String session, String body, String... nativeHeaders) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(session);
+        accessor.setDestination("/app/location");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        for (int i = 0; i < nativeHeaders.length; i += 2) {
+            accessor.setNativeHeader(nativeHeaders[i], nativeHeaders[i + 1]);
+        }
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static String fixes(int from, int to) {
+        StringBuilder body = new StringBuilder("[");
+        for (int seq = from; seq < to; seq++) {
+            body.append(seq == from ? "" : ",").append("{\"userId\":\"").append(USER)
+                    .append("\",\"latitude\":").append(23.81 + seq * 1e-5).append(",\"longitude\":90.41")
+                    .append(",\"accuracy\":5,\"speed\":10,\"bearing\":90,\"timestamp\":").append(START + seq * 1000L)
+                    .append(",\"enqueuedAt\":").append(START + seq * 1000L + 10).append('}');
+        }
+        return body.append(']').toString();
+    }
+
+    private void sendBatch(String session, int from, int to, long receipt) {
+        controller.receiveLocation(send(session, fixes(from, to), "receipt", Long.toString(receipt),
+                "stream", Long.toString(STREAM), "seq", Integer.toString(from)));
+    }
+
+    private List<String> receipts(String session) {
+        assertTrue(ingest.drain(5_000), "Ingest ring not drained in time");
+        return receipts(outboundFrames, session);
+    }
+
+    private long stored() {
+        assertTrue(ingest.drain(5_000), "Ingest ring not drained in time");
+        return tracks.query(USER, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { });
+    }
+
+    @Test
+    void framesSentAgainAfterAReconnectAreAcknowledgedButNotStoredTwice() {
+        for (int frame = 0; frame < 4; frame++) {
+            sendBatch("first", frame * 20, frame * 20 + 20, frame + 1);
+        }
+        assertEquals(List.of("1", "2", "3", "4"), receipts("first"));
+
+        // The phone only saw the first two receipts: the next session starts over at fix 40
+        sendBatch("second", 40, 60, 1);
+        sendBatch("second", 60, 100, 2);
+        assertEquals(List.of("1", "2"), receipts("second"));
+        assertEquals(40, duplicates.getDuplicates());
+        assertEquals(100, stored());
+        assertEquals(START + 99_000, positions.get(USER).getTimestamp());
+        assertEquals(0, positions.getStale());
+        assertEquals(100, latency.histogram(LatencyTracker.Hop.FIX_TO_QUEUE).count());
+    }
+
+    @Test
+    void framesThatCantBeUsedAreAcknowledgedToo() {
+        controller.receiveLocation(send("s", "{not json", "receipt", "1"));
+        assertEquals(List.of("1"), receipts("s"));
+
+        // Without a stream there is nothing to deduplicate by; the older fix is only rejected as stale
+        controller.receiveLocation(send("s", fixes(0, 2)));
+        controller.receiveLocation(send("s", fixes(0, 1)));
+        assertTrue(ingest.drain(5_000), "Ingest ring not drained in time");
+        assertEquals(0, duplicates.getDuplicates());
+        assertEquals(1, positions.getStale());
+        assertEquals(List.of("1"), receipts("s"));
+    }
+
+    @Test
+    void reorderedFramesAreAcknowledgedInTheOrderSent() throws InterruptedException {
+        ingest.close();
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(outboundFrames::add);
+        // Nothing is let go for lateness in wall-clock time while the test runs
+        ingest = new LocationIngest(fanout, positions, new SpatialGridIndex(), tracks, outbound, null, 16, 60_000, 32);
+        controller = new PhoneLocationController(latency, duplicates, ingest);
+
+        sendBatch("s", 10, 20, 1);
+        sendBatch("s", 0, 10, 2);
+        // Far enough ahead to let the first two frames through, but held itself
+        sendBatch("s", 100, 101, 3);
+        while (ingest.getBacklog() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(List.of("1", "2"), receipts(outboundFrames, "s"));
+        assertEquals(20, tracks.query(USER, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { }));
+        assertEquals(0, positions.getStale());
+
+        // Sent again without a stream, and from before what was let through
+        controller.receiveLocation(send("s", fixes(15, 16), "receipt", "4"));
+        controller.receiveLocation(send("s", fixes(-5, -4), "receipt", "5"));
+        while (ingest.getBacklog() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(List.of("1", "2"), receipts(outboundFrames, "s"), "behind the held fix of frame 3");
+        assertEquals(1, ingest.getReorderHeld());
+        assertEquals(1, ingest.getReorderDuplicates());
+        assertEquals(1, ingest.getLate());
+
+        assertEquals(List.of("1", "2", "3", "4", "5"), receipts("s"));
+        assertEquals(22, stored());
+        assertEquals(START + 100_000, positions.get(USER).getTimestamp());
+        assertEquals(0, positions.getStale());
+    }
+
+    private static List<String> receipts(List<Message<?>> frames, String session) {
+        List<String> ids = new ArrayList<>();
+        for (Message<?> frame : frames) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(frame);
+            if (accessor.getCommand() == StompCommand.RECEIPT && session.equals(accessor.getSessionId())) {
+                ids.add(accessor.getReceiptId());
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.demo.controller;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.ingest.LatestPositionStore;
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.ingest.SpatialGridIndex;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the controller through in-process client channels: devices send on
+ * virtual threads into an executor-backed inbound channel, the controller
+ * hands fixes to the ingest ring to store and publish, and one viewer
+ * subscription counts what the fan-out sends out.
+ */
+class PhoneLocationIngestThroughputTest {
+
+    private static final int DEVICES = 2_000;
+    private static final int FIXES_PER_DEVICE = 25;
+    private static final long START = 1_752_731_000_000L;
+
+    @TempDir
+    File trackDir;
+
+    @Test
+    void ingestsThousandsOfDevicesAndPublishesOnlyNewerFixes() throws Exception {
+        ExecutorService inboundExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel(inboundExecutor);
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+
+        LocationFanout fanout = new LocationFanout(clientOutbound, new ObjectMapper(), 3_600_000, new LatencyTracker());
+        LatestPositionStore store = new LatestPositionStore();
+        SpatialGridIndex index = new SpatialGridIndex();
+        TrackStore tracks = new TrackStore(trackDir, 30);
+        LocationIngest ingest = new LocationIngest(fanout, store, index, tracks, clientOutbound, 65536);
+        PhoneLocationController controller = new PhoneLocationController(new LatencyTracker(),
+                new SequenceDeduplicator(), ingest);
+
+        CountDownLatch handled = new CountDownLatch(DEVICES * FIXES_PER_DEVICE);
+        clientInbound.subscribe(message -> {
+            SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+            if (type == SimpMessageType.SUBSCRIBE) {
+                // What StompSubProtocolHandler announces for a SUBSCRIBE frame
+                @SuppressWarnings("unchecked")
+                Message<byte[]> subscribe = (Message<byte[]>) message;
+                fanout.onSubscribe(new SessionSubscribeEvent(this, subscribe));
+            } else if ("/app/location".equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+                @SuppressWarnings("unchecked")
+                Message<byte[]> send = (Message<byte[]>) message;
+                controller.receiveLocation(send);
+                handled.countDown();
+            }
+        });
+        AtomicLong frames = new AtomicLong();
+        AtomicLong fixesOut = new AtomicLong();
+        clientOutbound.subscribe(message -> {
+            frames.incrementAndGet();
+            String body = new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+            fixesOut.addAndGet(body.split("\\{").length - 1);
+        });
+
+        SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        subscribe.setSessionId("viewer");
+        subscribe.setSubscriptionId("sub-0");
+        subscribe.setDestination(LocationFanout.DESTINATION);
+        clientInbound.send(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+        Thread.sleep(100);
+        assertEquals(1, fanout.getSubscriptionCount());
+
+        long started = System.nanoTime();
+        List<Thread> devices = new ArrayList<>();
+        for (int d = 0; d < DEVICES; d++) {
+            int device = d;
+            devices.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < FIXES_PER_DEVICE; i++) {
+                    String json = "{\"userId\":\"device_" + device + "\",\"latitude\":23.81" + device
+                            + ",\"longitude\":90.41,\"accuracy\":5.00,\"speed\":12.50,\"bearing\":90.00,"
+                            + "\"timestamp\":" + (START + i * 1000L) + "}";
+                    clientInbound.send(frame(SimpMessageType.MESSAGE, "device-" + device, "/app/location",
+                            json.getBytes(StandardCharsets.UTF_8)));
+                }
+            }));
+        }
+        for (Thread device : devices) {
+            device.join();
+        }
+        assertTrue(handled.await(60, TimeUnit.SECONDS), "Inbound frames not handled in time");
+        assertTrue(ingest.drain(60_000), "Ingest ring not drained in time");
+        long elapsed = System.nanoTime() - started;
+        inboundExecutor.shutdown();
+        ingest.close();
+        fanout.flush();
+        fanout.close();
+
+        int total = DEVICES * FIXES_PER_DEVICE;
+        System.out.printf("Ingested %d fixes from %d devices in %d ms (%.0f msgs/s), %d stale, %d full ring waits%n",
+                total, DEVICES, elapsed / 1_000_000, total * 1e9 / elapsed, store.getStale(), ingest.getFullWaits());
+
+        // Frames are dispatched concurrently, so some arrive out of order and must be held back
+        assertEquals(DEVICES, store.size());
+        assertEquals(DEVICES, index.size());
+        for (int d = 0; d < DEVICES; d++) {
+            assertEquals(START + (FIXES_PER_DEVICE - 1) * 1000L, store.get("device_" + d).getTimestamp());
+        }
+        assertEquals(total, store.getAccepted() + store.getStale());
+        assertEquals(store.getAccepted(), fanout.getPublished());
+        // The viewer gets one conflated frame holding each device's newest fix
+        assertEquals(1, frames.get());
+        assertEquals(DEVICES, fixesOut.get());
+        // History is append-only, so a fix overtaken on its way to the track store is dropped there too
+        long stored = 0;
+        long last = START + (FIXES_PER_DEVICE - 1) * 1000L;
+        for (int d = 0; d < DEVICES; d++) {
+            stored += tracks.query("device_" + d, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { });
+            assertEquals(1, tracks.query("device_" + d, last, last, (t, lat, lng, acc, speed, bearing) -> { }));
+        }
+        assertTrue(stored <= store.getAccepted());
+        tracks.close();
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String destination, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        if (destination != null) {
+            accessor.setDestination(destination);
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        }
+        return MessageBuilder.createMessage(body != null ? body : new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.demo.fanout;
+
+import com.example.demo.models.PhoneLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Broadcast cost as the number of subscribers grows. 2,000 users report once
+ * per one-second flush interval. Half the subscribers watch everything and the
+ * other half a box holding about a tenth of the users, so they form two
+ * groups. Prints publish and flush times and compares the frames sent with a
+ * plain per-fix broadcast.
+ *
+ * Then a slow phone next to a fast one, both through the real STOMP handler
+ * and its per-session send buffer, with flushes every 50 ms. The slow phone
+ * watches the box and its link stalls for most of each half second, while it
+ * keeps getting small frames of its own such as receipts; so a location frame
+ * can land in the send buffer behind one of those whose write is blocked.
+ * Prints the frames each phone got; asserts the slow phone never had more
+ * than one location frame waiting for its socket, kept its connection and
+ * ends up with the newest fix of every user in the box.
+ */
+class LocationFanoutLoadTest {
+
+    private static final int USERS = 2_000;
+    private static final int ROUNDS = 5;
+    private static final int[] SUBSCRIBERS = {10, 100, 1_000, 5_000};
+    // Holds about a tenth of the users
+    private static final String BOX = "23.3,89.9,23.4,90.9";
+
+    private static final int SLOW_ROUNDS = 100;
+    private static final long FLUSH_MILLIS = 50;
+    private static final int SEND_BUFFER_LIMIT_BYTES = 512 * 1024;
+
+    @Test
+    void broadcastThroughputBySubscriberCount() {
+        System.out.println("subscribers  publish ns/fix  flush ms  frames  fixes out  bytes out  naive frames");
+        for (int subscribers : SUBSCRIBERS) {
+            AtomicLong frames = new AtomicLong();
+            AtomicLong bytes = new AtomicLong();
+            ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+            LocationFanout fanout = new LocationFanout(outbound, new ObjectMapper());
+            outbound.subscribe(message -> {
+                frames.incrementAndGet();
+                bytes.addAndGet(((byte[]) message.getPayload()).length);
+                SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+                fanout.written(headers.getSessionId(), headers.getSubscriptionId());
+            });
+            fanout.start();
+            for (int s = 0; s < subscribers; s++) {
+                subscribe(fanout, "viewer-" + s, s % 2 == 1 ? BOX : null);
+            }
+
+            assertEquals(2, fanout.getGroupCount());
+
+            long publishNanos = 0;
+            long flushNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long started = System.nanoTime();
+                publishRound(fanout, round);
+                long published = System.nanoTime();
+                fanout.flush();
+                publishNanos += published - started;
+                flushNanos += System.nanoTime() - published;
+            }
+            fanout.close();
+
+            long fixes = fanout.getFixesSent();
+            System.out.printf("%11d  %14.0f  %8.1f  %6d  %9d  %9d  %12d%n", subscribers,
+                    (double) publishNanos / ((long) USERS * ROUNDS), flushNanos / 1e6 / ROUNDS,
+                    frames.get(), fixes, bytes.get(), (long) USERS * ROUNDS * subscribers);
+
+            assertEquals((long) subscribers * ROUNDS, frames.get());
+            long expected = (long) ROUNDS * ((subscribers + 1) / 2 * USERS + subscribers / 2 * (USERS / 10));
+            assertEquals(expected, fixes);
+        }
+    }
+
+    @Test
+    void slowConsumerNeverQueuesFramesInItsSendBuffer() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel(pool);
+        SubProtocolWebSocketHandler stomp = new SubProtocolWebSocketHandler(new ExecutorSubscribableChannel(), outbound);
+        stomp.addProtocolHandler(new StompSubProtocolHandler());
+        stomp.setSendTimeLimit(15_000);
+        stomp.setSendBufferSizeLimit(SEND_BUFFER_LIMIT_BYTES);
+        stomp.start();
+        LocationFanout fanout = new LocationFanout(outbound, new ObjectMapper());
+        fanout.start();
+        FrameSendTracker tracker = new FrameSendTracker(stomp, () -> fanout);
+
+        // The slow phone watches the box and reads at 200 KB/s for 100 ms in every 500, behind a 64 KB socket buffer
+        Socket fast = new Socket("fast", 0, 0);
+        Socket slow = new Socket("slow", 200_000, 100);
+        tracker.afterConnectionEstablished(fast);
+        tracker.afterConnectionEstablished(slow);
+        subscribe(fanout, fast.getId(), null);
+        subscribe(fanout, slow.getId(), BOX);
+        AtomicInteger handed = new AtomicInteger();
+        AtomicInteger mostWaiting = new AtomicInteger();
+        outbound.addInterceptor(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+                if ("slow".equals(headers.getSessionId()) && LocationFanout.DESTINATION.equals(headers.getDestination())) {
+                    mostWaiting.accumulateAndGet(handed.incrementAndGet() - slow.frames.get(), Math::max);
+                }
+                return message;
+            }
+        });
+        Thread receipts = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                accessor.setSessionId("slow");
+                accessor.setSubscriptionId("sub-9");
+                accessor.setDestination("/user/queue/receipts");
+                outbound.send(MessageBuilder.createMessage(new byte[300], accessor.getMessageHeaders()));
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        receipts.start();
+
+        for (int round = 0; round < SLOW_ROUNDS; round++) {
+            publishRound(fanout, round);
+            fanout.flush();
+            Thread.sleep(FLUSH_MILLIS);
+        }
+        long newest = (SLOW_ROUNDS - 1) * 10_000L;
+        for (long deadline = System.currentTimeMillis() + 20_000; slow.oldestInLastFrame(USERS / 10) < newest
+                && System.currentTimeMillis() < deadline; ) {
+            fanout.flush();
+            Thread.sleep(FLUSH_MILLIS);
+        }
+        receipts.interrupt();
+        receipts.join();
+        boolean connected = slow.open;
+        stomp.stop();
+        pool.shutdownNow();
+        fanout.close();
+
+        System.out.printf("fast phone %d frames, slow phone %d frames, at most %d waiting for its socket, "
+                + "%d flushes skipped%n", fast.frames.get(), slow.frames.get(), mostWaiting.get(), fanout.getFlushesSkipped());
+
+        assertTrue(connected, "slow phone disconnected");
+        assertEquals(SLOW_ROUNDS, fast.frames.get());
+        assertTrue(slow.frames.get() < SLOW_ROUNDS / 2, slow.frames + " frames to the slow phone");
+        assertTrue(mostWaiting.get() <= LocationFanout.MAX_IN_FLIGHT, mostWaiting + " frames waiting");
+        assertEquals(newest, slow.oldestInLastFrame(USERS / 10));
+    }
+
+    private static void subscribe(LocationFanout fanout, String sessionId, String region) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(LocationFanout.DESTINATION);
+        if (region != null) {
+            accessor.addNativeHeader(SubscriptionFilter.REGION_HEADER, region);
+        }
+        fanout.onSubscribe(new SessionSubscribeEvent(LocationFanoutLoadTest.class,
+                MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())));
+    }
+
+    private static void publishRound(LocationFanout fanout, int round) {
+        for (int u = 0; u < USERS; u++) {
+            // Users spread over a 1 x 1 degree square, so the box holds about 10%
+            fanout.publish(new PhoneLocation("user_" + u, 23.3 + (u % 100) / 100.0, 89.9 + (u / 100) / 20.0,
+                    5, 10, 90, round * 10_000L + u));
+        }
+    }
+
+    /**
+     * A phone's socket. Writes go into a 64 KB kernel buffer and block while it
+     * is full; the phone drains it at {@code bytesPerSecond} for the first
+     * {@code readMillis} of every 500 ms, or at once if the rate is 0.
+     */
+    private static final class Socket implements WebSocketSession {
+
+        private static final int BUFFER_BYTES = 64 * 1024;
+        private static final long PERIOD_MILLIS = 500;
+
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final String id;
+        private final int bytesPerSecond;
+        private final long readMillis;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private long buffered;
+        private long drainedAt = System.currentTimeMillis();
+        private volatile String lastFrame;
+        final AtomicInteger frames = new AtomicInteger();
+        volatile boolean open = true;
+
+        Socket(String id, int bytesPerSecond, long readMillis) {
+            this.id = id;
+            this.bytesPerSecond = bytesPerSecond;
+            this.readMillis = readMillis;
+        }
+
+        @Override
+        public synchronized void sendMessage(WebSocketMessage<?> message) {
+            if (bytesPerSecond > 0) {
+                buffered += message.getPayloadLength();
+                while (drain() > BUFFER_BYTES) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            if (FrameSendTracker.subscriptionOf(message) != null) {
+                lastFrame = ((TextMessage) message).getPayload();
+                frames.incrementAndGet();
+            }
+        }
+
+        private long drain() {
+            long now = System.currentTimeMillis();
+            for (long t = drainedAt; t < now; t++) {
+                if (t % PERIOD_MILLIS < readMillis) {
+                    buffered = Math.max(0, buffered - bytesPerSecond / 1000);
+                }
+            }
+            drainedAt = now;
+            return buffered;
+        }
+
+        // Oldest timestamp in the last location frame, or -1 if it didn't have a fix of each of 'users'
+        long oldestInLastFrame(int users) throws Exception {
+            String frame = lastFrame;
+            if (frame == null) {
+                return -1;
+            }
+            String body = frame.substring(frame.indexOf("\n\n") + 2, frame.lastIndexOf('\0'));
+            PhoneLocation[] fixes = mapper.readValue(body, PhoneLocation[].class);
+            long oldest = Long.MAX_VALUE;
+            for (PhoneLocation fix : fixes) {
+                oldest = Math.min(oldest, fix.getTimestamp());
+            }
+            return fixes.length == users ? oldest : -1;
+        }
+
+        @Override
+        public String getId() { return id; }
+        @Override
+        public URI getUri() { return null; }
+        @Override
+        public HttpHeaders getHandshakeHeaders() { return new HttpHeaders(); }
+        @Override
+        public Map<String, Object> getAttributes() { return attributes; }
+        @Override
+        public Principal getPrincipal() { return null; }
+        @Override
+        public InetSocketAddress getLocalAddress() { return null; }
+        @Override
+        public InetSocketAddress getRemoteAddress() { return null; }
+        @Override
+        public String getAcceptedProtocol() { return null; }
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) { }
+        @Override
+        public int getTextMessageSizeLimit() { return 64 * 1024; }
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) { }
+        @Override
+        public int getBinaryMessageSizeLimit() { return 64 * 1024; }
+        @Override
+        public List<WebSocketExtension> getExtensions() { return List.of(); }
+        @Override
+        public boolean isOpen() { return open; }
+        @Override
+        public void close() { open = false; }
+        @Override
+        public void close(CloseStatus status) { open = false; }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.demo.fanout;
+
+import com.example.demo.models.PhoneLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationFanoutTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Message<?>> delivered = new ArrayList<>();
+
+    // The handler stands in for the socket, which writes each frame it's given
+    private LocationFanout fanout(ExecutorSubscribableChannel outbound) {
+        LocationFanout fanout = new LocationFanout(outbound, mapper);
+        outbound.subscribe(message -> {
+            delivered.add(message);
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            fanout.written(headers.getSessionId(), headers.getSubscriptionId());
+        });
+        fanout.start();
+        return fanout;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String... nativeHeaders) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(LocationFanout.DESTINATION);
+        for (int i = 0; i < nativeHeaders.length; i += 2) {
+            accessor.addNativeHeader(nativeHeaders[i], nativeHeaders[i + 1]);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static void subscribe(LocationFanout fanout, String sessionId, String subscriptionId, String... nativeHeaders) {
+        fanout.onSubscribe(new SessionSubscribeEvent(LocationFanoutTest.class,
+                frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, nativeHeaders)));
+    }
+
+    private static PhoneLocation at(String userId, double lat, double lng, long timestamp) {
+        return new PhoneLocation(userId, lat, lng, 5, 0, 0, timestamp);
+    }
+
+    // Delivered fixes for one session, flattened and in frame order
+    private List<PhoneLocation> received(String sessionId) throws Exception {
+        List<PhoneLocation> out = new ArrayList<>();
+        for (Message<?> message : delivered) {
+            if (sessionId.equals(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+                out.addAll(Arrays.asList(mapper.readValue((byte[]) message.getPayload(), PhoneLocation[].class)));
+            }
+        }
+        return out;
+    }
+
+    private static List<String> users(List<PhoneLocation> locations) {
+        return locations.stream().map(PhoneLocation::getUserId).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    void conflatesToTheNewestFixPerUser() throws Exception {
+        LocationFanout fanout = fanout(new ExecutorSubscribableChannel());
+        subscribe(fanout, "s1", "sub-0");
+
+        for (int t = 1; t <= 5; t++) {
+            fanout.publish(at("a", 1, 1, t));
+            fanout.publish(at("b", 2, 2, t));
+        }
+        fanout.flush();
+        fanout.flush();
+
+        assertEquals(1, delivered.size());
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(delivered.get(0));
+        assertEquals("sub-0", headers.getSubscriptionId());
+        assertEquals(LocationFanout.DESTINATION, headers.getDestination());
+        List<PhoneLocation> fixes = received("s1");
+        assertEquals(List.of("a", "b"), users(fixes));
+        assertTrue(fixes.stream().allMatch(l -> l.getTimestamp() == 5));
+        assertEquals(8, fanout.getConflated());
+    }
+
+    @Test
+    void filtersByRegionAndUsers() throws Exception {
+        LocationFanout fanout = fanout(new ExecutorSubscribableChannel());
+        subscribe(fanout, "dhaka", "sub-0", "region", "23.6,90.2,24.0,90.6");
+        subscribe(fanout, "friends", "sub-0", "users", "a, c");
+        subscribe(fanout, "pacific", "sub-0", "region", "-20,179,-15,-179");
+        subscribe(fanout, "bad", "sub-0", "region", "north");
+
+        fanout.publish(at("a", 23.81, 90.41, 1));
+        fanout.publish(at("b", 23.70, 90.30, 1));
+        fanout.publish(at("c", 51.50, -0.12, 1));
+        fanout.publish(at("d", -17.0, -179.5, 1));
+        fanout.flush();
+
+        assertEquals(3, fanout.getSubscriptionCount());
+        assertEquals(List.of("a", "b"), users(received("dhaka")));
+        assertEquals(List.of("a", "c"), users(received("friends")));
+        assertEquals(List.of("d"), users(received("pacific")));
+    }
+
+    @Test
+    void slowSubscriberIsSkippedAndKeepsConflating() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        // Outbound handler tasks wait here, as if the socket were slow
+        LocationFanout fanout = fanout(new ExecutorSubscribableChannel(queued::add));
+        subscribe(fanout, "s1", "sub-0");
+
+        fanout.publish(at("a", 1, 1, 1));
+        fanout.flush();
+        fanout.publish(at("a", 1, 1, 2));
+        fanout.flush();
+        fanout.publish(at("a", 1, 1, 3));
+        fanout.flush();
+        assertEquals(1, queued.size());
+        assertEquals(2, fanout.getFlushesSkipped());
+
+        queued.remove(0).run();
+        fanout.flush();
+        queued.remove(0).run();
+
+        List<PhoneLocation> fixes = received("s1");
+        assertEquals(2, fixes.size());
+        assertEquals(1, fixes.get(0).getTimestamp());
+        assertEquals(3, fixes.get(1).getTimestamp());
+    }
+
+    @Test
+    void aFrameIsInFlightUntilItsSocketHasWrittenIt() throws Exception {
+        List<Message<?>> buffered = new ArrayList<>();
+        // The session's send buffer takes each frame, but a blocked write is ahead of them
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(buffered::add);
+        LocationFanout fanout = new LocationFanout(outbound, mapper);
+        fanout.start();
+        subscribe(fanout, "s1", "sub-0");
+
+        fanout.publish(at("a", 1, 1, 1));
+        fanout.flush();
+        fanout.publish(at("a", 1, 1, 2));
+        fanout.flush();
+        assertEquals(1, buffered.size());
+        assertEquals(1, fanout.getFlushesSkipped());
+
+        fanout.written("s1", "sub-0");
+        fanout.flush();
+        assertEquals(2, buffered.size());
+        PhoneLocation[] caughtUp = mapper.readValue((byte[]) buffered.get(1).getPayload(), PhoneLocation[].class);
+        assertEquals(2, caughtUp[0].getTimestamp());
+    }
+
+    @Test
+    void trackerTellsLocationFramesFromOthers() {
+        StompEncoder encoder = new StompEncoder();
+        StompHeaderAccessor locations = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        locations.setDestination(LocationFanout.DESTINATION);
+        locations.setSubscriptionId("map:1");
+        locations.setMessageId("m-1");
+        StompHeaderAccessor receipts = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        receipts.setDestination("/user/queue/receipts");
+        receipts.setSubscriptionId("sub-1");
+        receipts.setMessageId("m-2");
+
+        assertEquals("map:1", FrameSendTracker.subscriptionOf(new TextMessage(
+                encoder.encode(MessageBuilder.createMessage("[]".getBytes(), locations.getMessageHeaders())))));
+        assertNull(FrameSendTracker.subscriptionOf(new TextMessage(
+                encoder.encode(MessageBuilder.createMessage("{}".getBytes(), receipts.getMessageHeaders())))));
+        assertNull(FrameSendTracker.subscriptionOf(new TextMessage("\n")));
+    }
+
+    @Test
+    void stopsDeliveringAfterUnsubscribeOrDisconnect() {
+        LocationFanout fanout = fanout(new ExecutorSubscribableChannel());
+        subscribe(fanout, "s1", "sub-0");
+        subscribe(fanout, "s1", "sub-1", "users", "a");
+        subscribe(fanout, "s2", "sub-0");
+        assertEquals(3, fanout.getSubscriptionCount());
+
+        fanout.onUnsubscribe(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "s1", "sub-1")));
+        assertEquals(2, fanout.getSubscriptionCount());
+        fanout.onDisconnect(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s1", null), "s1", CloseStatus.NORMAL));
+        assertEquals(1, fanout.getSubscriptionCount());
+
+        fanout.publish(at("a", 1, 1, 1));
+        fanout.flush();
+        assertEquals(1, delivered.size());
+        assertEquals("s2", SimpMessageHeaderAccessor.getSessionId(delivered.get(0).getHeaders()));
+    }
+}
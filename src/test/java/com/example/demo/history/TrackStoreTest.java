@@ -0,0 +1,221 @@
+package com.example.demo.history;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackStoreTest {
+
+    private static final long T0 = 1_752_731_000_000L;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long FOREVER = Long.MAX_VALUE;
+    // Leaves compaction to the test's own compactAll() calls
+    private static final Executor MANUAL = task -> { };
+
+    @TempDir
+    File dir;
+
+    private static PhoneLocation fix(String userId, int i, long timestamp) {
+        return new PhoneLocation(userId, 23.8103123 + i * 1e-5, 90.4125456 - i * 2e-5, 4.5, 12.34, (i * 7) % 360, timestamp);
+    }
+
+    private static List<long[]> timestamps(TrackStore store, String userId, long from, long to) {
+        List<long[]> out = new ArrayList<>();
+        store.query(userId, from, to, (t, lat, lng, acc, speed, bearing) -> out.add(new long[]{t}));
+        return out;
+    }
+
+    @Test
+    void roundTripsFixesAcrossSegments() {
+        TrackStore store = new TrackStore(dir, 300, DAY, FOREVER);
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(store.append(fix("car", i, T0 + i * 1000L)));
+        }
+        assertFalse(store.append(fix("car", 0, T0)));
+        assertEquals(4, store.segmentCount("car"));
+
+        List<PhoneLocation> read = new ArrayList<>();
+        long n = store.query("car", T0 + 250_000, T0 + 700_000, (t, lat, lng, acc, speed, bearing) ->
+                read.add(new PhoneLocation("car", lat, lng, acc, speed, bearing, t)));
+        assertEquals(451, n);
+        for (int k = 0; k < read.size(); k++) {
+            PhoneLocation expected = fix("car", 250 + k, T0 + (250 + k) * 1000L);
+            PhoneLocation actual = read.get(k);
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 1e-7);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 1e-7);
+            assertEquals(4.5, actual.getAccuracy());
+            assertEquals(12.34, actual.getSpeed());
+            assertEquals(expected.getBearing(), actual.getBearing(), 0.01);
+        }
+        assertEquals(0, store.query("nobody", 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> fail()));
+    }
+
+    @Test
+    void longitudeDeltasWrapAtTheAntimeridian() {
+        TrackStore store = new TrackStore(dir, 100, DAY, FOREVER);
+        double[] lngs = {179.9999999, -179.9999999, 180.0, -179.5, 0.0};
+        for (int i = 0; i < lngs.length; i++) {
+            store.append(new PhoneLocation("ship", -17, lngs[i], 0, 0, 0, T0 + i));
+        }
+        List<Double> read = new ArrayList<>();
+        store.query("ship", 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> read.add(lng));
+        assertEquals(List.of(179.9999999, -179.9999999, 180.0, -179.5, 0.0), read);
+    }
+
+    @Test
+    void survivesRestartAndKeepsAppendingToTheActiveSegment() {
+        TrackStore store = new TrackStore(dir, 300, DAY, FOREVER);
+        for (int i = 0; i < 450; i++) {
+            store.append(fix("car", i, T0 + i * 1000L));
+        }
+        store.close();
+
+        TrackStore reopened = new TrackStore(dir, 300, DAY, FOREVER);
+        assertFalse(reopened.append(fix("car", 449, T0 + 449_000L)));
+        assertTrue(reopened.append(fix("car", 450, T0 + 450_000L)));
+        assertEquals(451, timestamps(reopened, "car", 0, Long.MAX_VALUE).size());
+        assertEquals(2, reopened.segmentCount("car"));
+    }
+
+    @Test
+    void recoversFromATornAppend() throws IOException {
+        TrackStore store = new TrackStore(dir, 300, DAY, FOREVER);
+        for (int i = 0; i < 10; i++) {
+            store.append(fix("car", i, T0 + i * 1000L));
+        }
+        store.close();
+
+        // A crash after writing the columns but before bumping the count leaves junk past the end
+        File segment = dir.listFiles()[0].listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(TrackSegment.fileSize(300) - 1);
+            raf.write(0x7F);
+        }
+        TrackStore reopened = new TrackStore(dir, 300, DAY, FOREVER);
+        assertTrue(reopened.append(fix("car", 10, T0 + 10_000L)));
+        assertEquals(11, timestamps(reopened, "car", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void compactionMergesPartFilledDaysAndDropsExpiredOnes() {
+        long now = System.currentTimeMillis();
+        long start = now - 10 * DAY;
+        TrackStore store = new TrackStore(dir, 1_000, DAY, 7 * DAY, MANUAL);
+        // An hour-long drive a day, one fix a minute: each day seals a mostly empty segment
+        for (int day = 0; day < 10; day++) {
+            for (int m = 0; m < 60; m++) {
+                store.append(fix("car", m, start + day * DAY + m * 60_000L));
+            }
+        }
+        store.append(fix("car", 0, now));
+        assertEquals(11, store.segmentCount("car"));
+
+        store.compactAll();
+
+        // Days 0-2 expired; days 3-9 share one tight segment; today's is still active
+        assertEquals(2, store.segmentCount("car"));
+        assertEquals(7 * 60 + 1, timestamps(store, "car", 0, Long.MAX_VALUE).size());
+        assertEquals(60, timestamps(store, "car", start + 5 * DAY, start + 5 * DAY + 3_600_000L).size());
+        assertEquals(2, dir.listFiles()[0].listFiles().length);
+
+        store.close();
+        TrackStore reopened = new TrackStore(dir, 1_000, DAY, 7 * DAY);
+        assertEquals(7 * 60 + 1, timestamps(reopened, "car", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void restartIgnoresSourcesOfAFinishedCompaction() throws IOException {
+        TrackStore store = new TrackStore(dir, 1_000, DAY, FOREVER, MANUAL);
+        long start = System.currentTimeMillis() - 5 * DAY;
+        for (int day = 0; day < 4; day++) {
+            for (int m = 0; m < 10; m++) {
+                store.append(fix("car", m, start + day * DAY + m * 60_000L));
+            }
+        }
+        File userDir = dir.listFiles()[0];
+        File[] before = userDir.listFiles();
+        File kept = new File(dir, "kept");
+        assertTrue(kept.mkdir());
+        for (File f : before) {
+            java.nio.file.Files.copy(f.toPath(), new File(kept, f.getName()).toPath());
+        }
+        store.compactAll();
+        store.close();
+
+        // Put the sources back as if the process died before deleting them
+        for (File f : kept.listFiles()) {
+            java.nio.file.Files.copy(f.toPath(), new File(userDir, f.getName()).toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+        assertTrue(new File(kept, before[0].getName()).delete());
+        for (File f : kept.listFiles()) {
+            assertTrue(f.delete());
+        }
+        assertTrue(kept.delete());
+
+        TrackStore reopened = new TrackStore(dir, 1_000, DAY, FOREVER);
+        assertEquals(40, timestamps(reopened, "car", 0, Long.MAX_VALUE).size());
+        assertEquals(2, reopened.segmentCount("car"));
+    }
+
+    @Test
+    void insertsLateFixesWhereTheyBelong() {
+        TrackStore store = new TrackStore(dir, 300, DAY, FOREVER, MANUAL);
+        // Day 0 drive, then a dead zone on day 1 whose fixes are live again from minute 30
+        for (int i = 0; i < 100; i++) {
+            store.append(fix("car", i, T0 + i * 1000L));
+        }
+        for (int i = 30; i < 60; i++) {
+            store.append(fix("car", i, T0 + DAY + i * 1000L));
+        }
+        assertEquals(2, store.segmentCount("car"));
+
+        // A gap on day 0.5 the live stream never saw gets a segment of its own
+        List<PhoneLocation> gap = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            gap.add(fix("car", i, T0 + DAY / 2 + i * 1000L));
+        }
+        assertEquals(10, store.insert("car", gap));
+        assertEquals(3, store.segmentCount("car"));
+
+        // The dead zone's backlog is merged into the live segment it overlaps, out of order,
+        // with a fix that's already stored, a repeated one and one newer than anything stored
+        List<PhoneLocation> backlog = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            backlog.add(fix("car", i, T0 + DAY + i * 1000L));
+        }
+        java.util.Collections.reverse(backlog);
+        backlog.add(fix("car", 5, T0 + DAY + 5_000L));
+        backlog.add(fix("car", 99, T0 + DAY + 99_000L));
+        assertEquals(30 + 1, store.insert("car", backlog));
+        assertEquals(3, store.segmentCount("car"));
+
+        List<long[]> all = timestamps(store, "car", 0, Long.MAX_VALUE);
+        assertEquals(100 + 10 + 60 + 1, all.size());
+        for (int k = 1; k < all.size(); k++) {
+            assertTrue(all.get(k)[0] > all.get(k - 1)[0]);
+        }
+        assertEquals(0, store.insert("car", backlog));
+        assertEquals(0, store.insert("car", gap));
+
+        // The rewritten newest segment keeps taking appends, and all of it survives a restart
+        assertTrue(store.append(fix("car", 100, T0 + DAY + 100_000L)));
+        assertFalse(store.append(fix("car", 98, T0 + DAY + 98_000L)));
+        store.close();
+        TrackStore reopened = new TrackStore(dir, 300, DAY, FOREVER);
+        assertEquals(100 + 10 + 60 + 2, timestamps(reopened, "car", 0, Long.MAX_VALUE).size());
+        assertEquals(3, reopened.segmentCount("car"));
+        assertEquals(10, timestamps(reopened, "car", T0 + DAY / 2, T0 + DAY / 2 + 60_000).size());
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.demo.ingest;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.roads.MapMatcher;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BacklogReceiverTest {
+
+    private static final String USER = "android_user_001";
+    private static final double LAT = 23.8;
+    private static final double LNG = 90.4;
+    private static final double METERS_PER_DEGREE = 111_195;
+    private static final long ROAD = 7;
+
+    @TempDir
+    File dir;
+
+    private final long t0 = System.currentTimeMillis() - 600_000;
+    private final List<PhoneLocation> published = Collections.synchronizedList(new ArrayList<>());
+    private final LatestPositionStore positions = new LatestPositionStore();
+    private LocationFanout fanout;
+    private TrackStore tracks;
+    private LocationIngest ingest;
+    private BacklogReceiver backlog;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // A street running east along which the phone drives at 15 m/s
+        File roads = new File(dir, "roads.csv");
+        Files.writeString(roads.toPath(), ROAD + ",1,2," + LAT + "," + LNG + "," + LAT + "," + lng(2_000) + "\n");
+        fanout = new LocationFanout(new ExecutorSubscribableChannel(), new ObjectMapper(), 3_600_000,
+                new LatencyTracker()) {
+            @Override
+            public void publish(PhoneLocation location) {
+                published.add(location);
+                super.publish(location);
+            }
+        };
+        tracks = new TrackStore(new File(dir, "tracks"), 30);
+        // Held until drained, so the live fix and the backlog meet in the reorder buffer
+        ingest = new LocationIngest(fanout, positions, new SpatialGridIndex(), tracks,
+                new ExecutorSubscribableChannel(), new MapMatcher(roads.getPath(), ""), 1024, 60_000, 32);
+        backlog = new BacklogReceiver(positions, ingest, tracks);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingest.close();
+        fanout.close();
+        tracks.close();
+    }
+
+    private static double lng(double eastMeters) {
+        return LNG + eastMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+    }
+
+    private PhoneLocation fix(long millis) {
+        return new PhoneLocation(USER, LAT, lng(millis * 0.015), 5, 15, 90, t0 + millis);
+    }
+
+    @Test
+    void backlogAndLiveFixesOfAUserGoThroughTheIngestInOrder() throws Exception {
+        List<PhoneLocation> chunk = new ArrayList<>();
+        for (int i = 0; i <= 11; i++) {
+            chunk.add(fix(i * 1_000L));
+        }
+        // Sent live between the chunk's last two fixes, while the phone was still uploading
+        PhoneLocation live = fix(10_500);
+        CountDownLatch start = new CountDownLatch(1);
+        CompletableFuture<Void> uploaded = CompletableFuture.runAsync(() -> {
+            await(start);
+            backlog.accept(USER, 1, 0, chunk);
+        });
+        CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+            await(start);
+            ingest.submit("live", List.of(live), null);
+        });
+        start.countDown();
+        CompletableFuture.allOf(uploaded, sent).get(5, TimeUnit.SECONDS);
+        assertTrue(ingest.drain(5_000));
+
+        // The live fix isn't lost behind the backlog's newest, and both are matched like any live fix
+        List<Long> offsets = new ArrayList<>();
+        for (PhoneLocation location : published) {
+            offsets.add(location.getTimestamp() - t0);
+            assertEquals(ROAD, location.getRoadEdgeId(), "fix at " + (location.getTimestamp() - t0));
+        }
+        assertEquals(List.of(10_500L, 11_000L), offsets);
+        assertEquals(t0 + 11_000, positions.get(USER).getTimestamp());
+        assertEquals(13, tracks.query(USER, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { }));
+    }
+
+    @Test
+    void doesNotHandOnABacklogTheLiveFixesHaveMovedPast() {
+        ingest.submit("live", List.of(fix(20_000)), null);
+        assertTrue(ingest.drain(5_000));
+        backlog.accept(USER, 1, 0, List.of(fix(0), fix(1_000)));
+        assertTrue(ingest.drain(5_000));
+
+        assertEquals(1, published.size());
+        assertEquals(t0 + 20_000, positions.get(USER).getTimestamp());
+        assertEquals(3, tracks.query(USER, 0, Long.MAX_VALUE, (t, lat, lng, acc, speed, bearing) -> { }));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
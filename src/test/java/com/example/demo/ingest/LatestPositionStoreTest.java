@@ -0,0 +1,71 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatestPositionStoreTest {
+
+    private static PhoneLocation fix(String userId, long timestamp) {
+        return new PhoneLocation(userId, 1, 2, 3, 4, 5, timestamp);
+    }
+
+    @Test
+    void keepsOnlyNewerFixes() {
+        LatestPositionStore store = new LatestPositionStore();
+
+        assertTrue(store.update(fix("a", 100)));
+        assertTrue(store.update(fix("a", 200)));
+        assertFalse(store.update(fix("a", 150)));
+        assertFalse(store.update(fix("a", 200)));
+        assertTrue(store.update(fix("b", 50)));
+
+        assertEquals(200, store.get("a").getTimestamp());
+        assertEquals(2, store.size());
+        assertEquals(3, store.getAccepted());
+        assertEquals(2, store.getStale());
+    }
+
+    @Test
+    void concurrentWritersNeverGoBackwards() throws Exception {
+        LatestPositionStore store = new LatestPositionStore();
+        int users = 64;
+        int writers = 8;
+        int fixes = 20_000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int offset = w;
+            done.add(pool.submit(() -> {
+                // Every writer covers every user, interleaved with the others' timestamps
+                for (int i = 0; i < fixes; i++) {
+                    long timestamp = (long) i * writers + offset;
+                    String user = "u" + (i % users);
+                    store.update(fix(user, timestamp));
+                    assertTrue(store.get(user).getTimestamp() >= timestamp);
+                }
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get();
+        }
+        pool.shutdown();
+
+        for (int u = 0; u < users; u++) {
+            long newest = 0;
+            for (int i = u; i < fixes; i += users) {
+                newest = Math.max(newest, (long) i * writers + writers - 1);
+            }
+            assertEquals(newest, store.get("u" + u).getTimestamp());
+        }
+        assertEquals((long) writers * fixes, store.getAccepted() + store.getStale());
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.demo.ingest;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 100k users, each with a position and a live stream with a few gaps in its
+ * sequences, and one in five with a backlog upload stream. Writes a snapshot
+ * and restores it into fresh stores several times, as restarts would. Prints
+ * the write time, the file size and the time until the stores are ready;
+ * asserts that everything came back.
+ */
+class LiveStateSnapshotLoadTest {
+
+    private static final int USERS = 100_000;
+    private static final int RESTARTS = 5;
+    private static final long T0 = 1_752_731_000_000L;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void timeToReadyForAHundredThousandUsers() throws Exception {
+        File file = new File(dir, "live.snap");
+        LatestPositionStore positions = new LatestPositionStore();
+        SpatialGridIndex index = new SpatialGridIndex();
+        SequenceDeduplicator duplicates = new SequenceDeduplicator();
+        LocationFanout fanout = new LocationFanout(new ExecutorSubscribableChannel(), new ObjectMapper(),
+                3_600_000, new LatencyTracker());
+        TrackStore tracks = new TrackStore(new File(dir, "tracks"), 30);
+        BacklogReceiver backlog = new BacklogReceiver(positions,
+                new LocationIngest(fanout, positions, index, tracks, new ExecutorSubscribableChannel()), tracks);
+        Random random = new Random(5);
+        for (int u = 0; u < USERS; u++) {
+            String user = "android_user_" + u;
+            PhoneLocation location = new PhoneLocation(user, 23.3 + random.nextDouble(), 89.9 + random.nextDouble(),
+                    3 + random.nextDouble() * 20, random.nextDouble() * 30, random.nextDouble() * 360,
+                    T0 + random.nextInt(3_600_000));
+            positions.update(location);
+            index.update(location);
+            // A few hundred fixes in with some skipped, as evictions and catch-ups leave them
+            for (long seq = 0; seq < 300; seq++) {
+                if (seq % 97 != 50) {
+                    duplicates.firstSeen(user, u, seq);
+                }
+            }
+            if (u % 5 == 0) {
+                backlog.restore(user + '\n' + (u + 1), 1_000 + u);
+            }
+        }
+        LiveStateSnapshot snapshot = new LiveStateSnapshot(positions, index, duplicates, backlog, null, file);
+        snapshot.write();
+        System.out.printf("Snapshot of %d users written in %d ms, %d KB%n",
+                USERS, snapshot.getLastWriteMillis(), file.length() / 1024);
+        fanout.close();
+        tracks.close();
+
+        for (int restart = 1; restart <= RESTARTS; restart++) {
+            long started = System.nanoTime();
+            LatestPositionStore restoredPositions = new LatestPositionStore();
+            SpatialGridIndex restoredIndex = new SpatialGridIndex();
+            SequenceDeduplicator restoredDuplicates = new SequenceDeduplicator();
+            BacklogReceiver restoredBacklog = new BacklogReceiver(restoredPositions, null, null);
+            int users = new LiveStateSnapshot(restoredPositions, restoredIndex, restoredDuplicates, restoredBacklog,
+                    null, file).restore();
+            long elapsed = System.nanoTime() - started;
+            System.out.printf("Restart %d: %d users ready in %d ms%n", restart, users, elapsed / 1_000_000);
+
+            assertEquals(USERS, users);
+            assertEquals(USERS, restoredPositions.size());
+            assertEquals(USERS, restoredIndex.size());
+            assertEquals(USERS, restoredDuplicates.getStreamCount());
+            assertFalse(restoredDuplicates.firstSeen("android_user_7", 7, 299));
+            assertTrue(restoredDuplicates.firstSeen("android_user_7", 7, 147));
+            assertEquals(1_010, restoredBacklog.status("android_user_10", 11).getAckedSeq());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.demo.ingest;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveStateSnapshotTest {
+
+    private static final long T0 = 1_752_731_000_000L;
+
+    @TempDir
+    File dir;
+
+    private final List<Live> opened = new ArrayList<>();
+
+    /** One process's worth of stores. */
+    private final class Live {
+        final LatestPositionStore positions = new LatestPositionStore();
+        final SpatialGridIndex index = new SpatialGridIndex();
+        final SequenceDeduplicator duplicates = new SequenceDeduplicator();
+        final LocationFanout fanout = new LocationFanout(new ExecutorSubscribableChannel(), new ObjectMapper(),
+                3_600_000, new LatencyTracker());
+        final TrackStore tracks;
+        final BacklogReceiver backlog;
+        final LiveStateSnapshot snapshot;
+
+        Live(String name) {
+            tracks = new TrackStore(new File(dir, name), 30);
+            backlog = new BacklogReceiver(positions,
+                    new LocationIngest(fanout, positions, index, tracks, new ExecutorSubscribableChannel()), tracks);
+            snapshot = new LiveStateSnapshot(positions, index, duplicates, backlog, null, new File(dir, "live.snap"));
+            opened.add(this);
+        }
+
+        void store(PhoneLocation location) {
+            assertTrue(positions.update(location));
+            index.update(location);
+        }
+    }
+
+    private File file;
+
+    @BeforeEach
+    void setUp() {
+        file = new File(dir, "live.snap");
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Live live : opened) {
+            live.fanout.close();
+            live.tracks.close();
+        }
+    }
+
+    @Test
+    void restoresPositionsAndStreamsAfterARestart() throws IOException {
+        Live before = new Live("before");
+        before.store(new PhoneLocation("ana", 23.8103123, 90.4125456, 4.5, 12.34, 271.5, T0));
+        before.store(new PhoneLocation("bo", -33.8688197, 151.2092955, 8, 0, 0, T0 + 5));
+        before.store(new PhoneLocation("জয়", 51.5072178, -0.1275862, 3.25, 1.5, 359.99, T0 + 9));
+        for (long seq : new long[]{0, 1, 2, 3, 10, 11, 40}) {
+            assertTrue(before.duplicates.firstSeen("ana", 7, seq));
+        }
+        long recent = System.currentTimeMillis() - 60_000;
+        before.backlog.accept("bo", 3, 0, List.of(new PhoneLocation("bo", -33.87, 151.2, 8, 0, 0, recent),
+                new PhoneLocation("bo", -33.87, 151.2, 8, 0, 0, recent + 1000)));
+        before.snapshot.write();
+        assertTrue(before.snapshot.getLastWriteBytes() > LiveStateSnapshot.HEADER_SIZE);
+
+        Live after = new Live("after");
+        assertEquals(3, after.snapshot.restore());
+        assertEquals(3, after.positions.size());
+        assertEquals(3, after.index.size());
+        assertEquals(0, after.positions.getAccepted());
+        for (PhoneLocation original : before.positions.values()) {
+            PhoneLocation restored = after.positions.get(original.getUserId());
+            assertEquals(original.getTimestamp(), restored.getTimestamp());
+            assertEquals(original.getLatitude(), restored.getLatitude(), 1e-7);
+            assertEquals(original.getLongitude(), restored.getLongitude(), 1e-7);
+            assertEquals(original.getAccuracy(), restored.getAccuracy(), 0.005);
+            assertEquals(original.getSpeed(), restored.getSpeed(), 0.005);
+            assertEquals(original.getBearing(), restored.getBearing(), 0.005);
+        }
+        assertEquals(1, after.index.withinRadius(23.8103, 90.4125, 100).size());
+        assertFalse(after.positions.update(new PhoneLocation("ana", 23.81, 90.41, 5, 0, 0, T0)), "not newer");
+
+        // Frames sent again after the restart are still recognised, new ones are not
+        assertFalse(after.duplicates.firstSeen("ana", 7, 2));
+        assertFalse(after.duplicates.firstSeen("ana", 7, 40));
+        assertTrue(after.duplicates.firstSeen("ana", 7, 5));
+        assertTrue(after.duplicates.firstSeen("ana", 8, 0));
+        assertEquals(1, after.backlog.status("bo", 3).getAckedSeq());
+    }
+
+    @Test
+    void keepsWhatArrivedBeforeTheSnapshotWasLoaded() throws IOException {
+        Live before = new Live("before");
+        before.store(new PhoneLocation("ana", 23.81, 90.41, 5, 0, 0, T0));
+        before.snapshot.write();
+
+        Live after = new Live("after");
+        after.store(new PhoneLocation("ana", 23.82, 90.42, 5, 0, 0, T0 + 1000));
+        assertEquals(0, after.snapshot.restore());
+        assertEquals(T0 + 1000, after.positions.get("ana").getTimestamp());
+    }
+
+    @Test
+    void startsEmptyWithoutAUsableSnapshot() throws IOException {
+        Live live = new Live("none");
+        assertEquals(0, live.snapshot.restore());
+
+        Live before = new Live("before");
+        for (int i = 0; i < 100; i++) {
+            before.store(new PhoneLocation("u" + i, 23.8, 90.4, 5, 0, 0, T0));
+        }
+        before.snapshot.write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0x40);
+        }
+        Live damaged = new Live("damaged");
+        assertEquals(0, damaged.snapshot.restore());
+        assertEquals(0, damaged.positions.size());
+
+        before.snapshot.write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        Live truncated = new Live("truncated");
+        assertEquals(0, truncated.snapshot.restore());
+        assertEquals(0, truncated.positions.size());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.demo.ingest;
+
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.models.PhoneLocation;
+import com.example.demo.tracing.LatencyHistogram;
+import com.example.demo.tracing.LatencyTracker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Frames of ten fixes offered at increasing rates by many inbound threads,
+ * handled inline on those threads (how the controller stored and published
+ * before the ring) and through the ingest ring. Every user has a track
+ * before timing starts: a user's first fix creates a segment file, which on
+ * the ring holds up the one history stage. Prints the rate reached and the
+ * time from submitting a frame to its receipt; asserts only that every frame
+ * was acknowledged and every fix stored.
+ */
+class LocationIngestLoadTest {
+
+    private static final int PRODUCERS = 64;
+    private static final int USERS = 2_048;
+    private static final int FIXES_PER_FRAME = 10;
+    private static final long MILLIS_PER_RATE = 1_000;
+    private static final int[] FIXES_PER_SECOND = {20_000, 50_000, 100_000, 200_000};
+    private static final long START = 1_752_731_000_000L;
+
+    @TempDir
+    File trackDir;
+
+    @Test
+    void inlineAgainstRingAtIncreasingRates() throws Exception {
+        for (int rate : FIXES_PER_SECOND) {
+            run("inline", 0, rate);
+            run("ring", 65_536, rate);
+        }
+    }
+
+    private void run(String mode, int ringSize, int fixesPerSecond) throws Exception {
+        File dir = new File(trackDir, mode + "-" + fixesPerSecond);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong receipts = new AtomicLong();
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(message -> {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            if (accessor.getCommand() == StompCommand.RECEIPT) {
+                // The receipt id is when the frame was submitted
+                latency.record((System.nanoTime() - Long.parseLong(accessor.getReceiptId())) / 1_000_000);
+                receipts.incrementAndGet();
+            }
+        });
+        LocationFanout fanout = new LocationFanout(outbound, new ObjectMapper(), 3_600_000, new LatencyTracker());
+        LatestPositionStore positions = new LatestPositionStore();
+        TrackStore tracks = new TrackStore(dir, 30);
+        LocationIngest ingest = new LocationIngest(fanout, positions, new SpatialGridIndex(), tracks, outbound, ringSize);
+
+        for (int u = 0; u < USERS; u++) {
+            ingest.submit("warm-up", List.of(new PhoneLocation("u" + u, 23.8, 90.4, 5, 0, 0, START - 1000)), null);
+        }
+        assertTrue(ingest.drain(60_000), "Ingest ring not drained in time");
+
+        long framesPerProducer = fixesPerSecond * MILLIS_PER_RATE / 1_000 / FIXES_PER_FRAME / PRODUCERS;
+        long intervalNanos = 1_000_000_000L * FIXES_PER_FRAME * PRODUCERS / fixesPerSecond;
+        long started = System.nanoTime();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers.add(Thread.ofVirtual().start(() -> {
+                long due = started + producer * intervalNanos / PRODUCERS;
+                for (long frame = 0; frame < framesPerProducer; frame++, due += intervalNanos) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    // Each producer owns the users congruent to it, so their fixes stay in order
+                    String user = "u" + (producer + PRODUCERS * (frame % (USERS / PRODUCERS)));
+                    long first = START + frame / (USERS / PRODUCERS) * FIXES_PER_FRAME * 1000L;
+                    List<PhoneLocation> fixes = new ArrayList<>(FIXES_PER_FRAME);
+                    for (int i = 0; i < FIXES_PER_FRAME; i++) {
+                        fixes.add(new PhoneLocation(user, 23.8 + producer * 1e-3, 90.4 + i * 1e-4,
+                                5, 10, 90, first + i * 1000L));
+                    }
+                    ingest.submit("session-" + producer, fixes, Long.toString(System.nanoTime()));
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(ingest.drain(60_000), "Ingest ring not drained in time");
+        long elapsed = System.nanoTime() - started;
+        ingest.close();
+        fanout.close();
+        tracks.close();
+
+        long frames = framesPerProducer * PRODUCERS;
+        long fixes = frames * FIXES_PER_FRAME;
+        System.out.printf("%-6s offered %6d fixes/s: %6.0f fixes/s, submit to receipt p50 <= %d ms p99 <= %d ms max %d ms, %d full waits%n",
+                mode, fixesPerSecond, fixes * 1e9 / elapsed, latency.percentile(0.5), latency.percentile(0.99),
+                latency.max(), ingest.getFullWaits());
+
+        assertEquals(frames, receipts.get());
+        assertEquals(fixes + USERS, positions.getAccepted());
+        assertEquals(USERS, positions.size());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Thousands of phones sending a fix a second for ten minutes of simulated
+ * time, each fix delayed by network jitter and one in ten sent again a few
+ * seconds later. Every phone drops off once for a few minutes and replays
+ * what it buffered when it's back: half before sending live fixes again,
+ * half after. Arrivals are offered to one buffer in arrival order, with a
+ * sweep every 100 ms. Prints the offer rate on one thread and the most
+ * fixes held at once; asserts that each user's fixes were released in order
+ * and only once, that none went missing, and that the buffer stayed within
+ * its bounds and emptied once the phones went quiet. Only fixes that went to
+ * history late can come out twice.
+ */
+class ReorderBufferLoadTest {
+
+    private static final int USERS = 5_000;
+    private static final int SECONDS = 600;
+    private static final long LATENESS_MILLIS = 1_000;
+    private static final int CAPACITY = 32;
+    private static final long STEP_MILLIS = 100;
+    private static final long T0 = 1_752_731_000_000L;
+
+    @Test
+    void staysBoundedWithThousandsOfReplayingUsers() {
+        Random random = new Random(17);
+        int steps = (int) ((SECONDS + 300) * 1000 / STEP_MILLIS);
+        // Arrivals by the step they arrive in
+        List<List<PhoneLocation>> arrivals = new ArrayList<>(steps);
+        for (int s = 0; s < steps; s++) {
+            arrivals.add(new ArrayList<>());
+        }
+        int[] offlineFrom = new int[USERS];
+        int[] offlineTo = new int[USERS];
+        for (int u = 0; u < USERS; u++) {
+            offlineFrom[u] = 60 + random.nextInt(SECONDS - 300);
+            offlineTo[u] = offlineFrom[u] + 60 + random.nextInt(120);
+        }
+
+        long[] lastReleased = new long[USERS];
+        BitSet[] out = new BitSet[USERS];
+        for (int u = 0; u < USERS; u++) {
+            lastReleased[u] = Long.MIN_VALUE;
+            out[u] = new BitSet(SECONDS);
+        }
+        long[] outOfOrder = new long[1];
+        long[] twice = new long[1];
+        ReorderBuffer buffer = new ReorderBuffer(new LatestPositionStore(), LATENESS_MILLIS, CAPACITY,
+                new ReorderBuffer.Output() {
+                    @Override
+                    public void release(PhoneLocation fix, Object tag) {
+                        int u = user(fix);
+                        if (fix.getTimestamp() <= lastReleased[u]) {
+                            outOfOrder[0]++;
+                        }
+                        lastReleased[u] = fix.getTimestamp();
+                        seen(u, fix);
+                    }
+
+                    @Override
+                    public void late(PhoneLocation fix, Object tag) {
+                        seen(user(fix), fix);
+                    }
+
+                    private void seen(int u, PhoneLocation fix) {
+                        int second = (int) ((fix.getTimestamp() - T0) / 1000);
+                        if (out[u].get(second)) {
+                            twice[0]++;
+                        }
+                        out[u].set(second);
+                    }
+                });
+
+        long offered = 0;
+        long peakHeld = 0;
+        long elapsed = 0;
+        for (int step = 0; step < steps; step++) {
+            long now = T0 + step * STEP_MILLIS;
+            if (step % (1000 / STEP_MILLIS) == 0 && step * STEP_MILLIS / 1000 < SECONDS) {
+                int second = (int) (step * STEP_MILLIS / 1000);
+                for (int u = 0; u < USERS; u++) {
+                    schedule(arrivals, u, second, random, offlineFrom[u], offlineTo[u]);
+                }
+            }
+            long started = System.nanoTime();
+            for (PhoneLocation fix : arrivals.get(step)) {
+                buffer.offer(fix, null, now);
+            }
+            buffer.sweep(now);
+            elapsed += System.nanoTime() - started;
+            offered += arrivals.get(step).size();
+            arrivals.set(step, null);
+            peakHeld = Math.max(peakHeld, buffer.getHeld());
+            assertTrue(buffer.getUserCount() <= USERS);
+        }
+
+        int windows = buffer.getUserCount();
+        buffer.sweep(T0 + steps * STEP_MILLIS + ReorderBuffer.IDLE_MILLIS);
+
+        System.out.printf("%d users, %d fixes offered at %.0f fixes/s on one thread: %d released, %d late, "
+                        + "%d duplicates; at most %d held at once, %d windows before the idle ones went%n",
+                USERS, offered, offered * 1e9 / elapsed, buffer.getReleased(), buffer.getLate(),
+                buffer.getDuplicates(), peakHeld, windows);
+
+        assertEquals(0, outOfOrder[0]);
+        assertEquals(offered, buffer.getReleased() + buffer.getLate() + buffer.getDuplicates());
+        for (int u = 0; u < USERS; u++) {
+            assertEquals(SECONDS, out[u].cardinality(), "user " + u);
+        }
+        // Late fixes sent again aren't told apart, the track store skips them
+        assertTrue(twice[0] < buffer.getLate(), twice[0] + " fixes came out twice");
+        assertTrue(buffer.getLate() > 0);
+        assertTrue(peakHeld <= (long) USERS * CAPACITY);
+        assertTrue(peakHeld < 4L * USERS, peakHeld + " held at once");
+        assertEquals(0, buffer.getHeld());
+        assertEquals(0, buffer.getUserCount());
+    }
+
+    // When the fix taken at 'second' reaches the server, and again if it's sent twice
+    private static void schedule(List<List<PhoneLocation>> arrivals, int u, int second, Random random,
+                                 int offlineFrom, int offlineTo) {
+        PhoneLocation fix = new PhoneLocation("u" + u, 23.8, 90.4, 5, 10, 90, T0 + second * 1000L);
+        long arrive;
+        if (second >= offlineFrom && second < offlineTo) {
+            // Replayed on reconnecting, before or a few seconds after live fixes start again
+            long replayAt = offlineTo * 1000L + (u % 2 == 0 ? 0 : 3_000);
+            arrive = replayAt + (second - offlineFrom) * 5L;
+        } else {
+            arrive = second * 1000L + 50 + (long) (Math.abs(random.nextGaussian()) * 400);
+        }
+        add(arrivals, arrive, fix);
+        if (random.nextInt(10) == 0) {
+            add(arrivals, arrive + 500 + random.nextInt(3_000), fix);
+        }
+    }
+
+    private static void add(List<List<PhoneLocation>> arrivals, long arriveMillis, PhoneLocation fix) {
+        int step = (int) Math.min(arrivals.size() - 1, arriveMillis / STEP_MILLIS);
+        arrivals.get(step).add(fix);
+    }
+
+    private static int user(PhoneLocation fix) {
+        return Integer.parseInt(fix.getUserId(), 1, fix.getUserId().length(), 10);
+    }
+}
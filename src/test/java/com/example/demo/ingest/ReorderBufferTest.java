@@ -0,0 +1,178 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReorderBufferTest {
+
+    private static final long T0 = 1_752_731_000_000L;
+    private static final long NOW = 1_760_000_000_000L;
+
+    private final LatestPositionStore positions = new LatestPositionStore();
+    private final List<Long> released = new ArrayList<>();
+    private final List<Long> late = new ArrayList<>();
+    private final List<Object> tags = new ArrayList<>();
+
+    private ReorderBuffer buffer(long latenessMillis, int capacity) {
+        return new ReorderBuffer(positions, latenessMillis, capacity, new ReorderBuffer.Output() {
+            @Override
+            public void release(PhoneLocation fix, Object tag) {
+                released.add(fix.getTimestamp() - T0);
+                tags.add(tag);
+            }
+
+            @Override
+            public void late(PhoneLocation fix, Object tag) {
+                late.add(fix.getTimestamp() - T0);
+            }
+        });
+    }
+
+    private static PhoneLocation fix(String user, long offset) {
+        return new PhoneLocation(user, 23.8, 90.4, 5, 0, 0, T0 + offset);
+    }
+
+    @Test
+    void releasesInTimestampOrderOnceTheWatermarkPasses() {
+        ReorderBuffer buffer = buffer(2_000, 32);
+        for (long t : new long[]{1_000, 0, 3_000, 2_000, 4_000}) {
+            assertTrue(buffer.offer(fix("ana", t), "f" + t, NOW));
+        }
+        assertEquals(List.of(0L, 1_000L, 2_000L), released);
+        assertEquals(List.of("f0", "f1000", "f2000"), tags);
+        assertEquals(2, buffer.getHeld());
+
+        // Other users have watermarks of their own
+        assertTrue(buffer.offer(fix("bo", 500), null, NOW));
+        assertEquals(3, buffer.getHeld());
+
+        assertTrue(buffer.offer(fix("ana", 7_000), null, NOW));
+        assertEquals(List.of(0L, 1_000L, 2_000L, 3_000L, 4_000L), released);
+        assertEquals(List.of(), late);
+    }
+
+    @Test
+    void dropsFixesItAlreadyHas() {
+        positions.update(fix("ana", 0));
+        ReorderBuffer buffer = buffer(2_000, 32);
+        assertFalse(buffer.offer(fix("ana", 0), null, NOW), "the stored position");
+        assertTrue(buffer.offer(fix("ana", 1_000), null, NOW));
+        assertTrue(buffer.offer(fix("ana", 2_000), null, NOW));
+        assertFalse(buffer.offer(fix("ana", 2_000), null, NOW), "held");
+        assertTrue(buffer.offer(fix("ana", 4_000), null, NOW));
+        assertEquals(List.of(1_000L, 2_000L), released);
+        assertFalse(buffer.offer(fix("ana", 1_000), null, NOW), "released");
+        assertFalse(buffer.offer(fix("ana", 2_000), null, NOW), "the last released");
+        assertEquals(4, buffer.getDuplicates());
+        assertEquals(List.of(1_000L, 2_000L), released);
+        assertEquals(List.of(), late);
+    }
+
+    @Test
+    void sendsFixesOlderThanOnesReleasedToHistory() {
+        positions.update(fix("ana", 10_000));
+        ReorderBuffer buffer = buffer(2_000, 32);
+        assertTrue(buffer.offer(fix("ana", 5_000), null, NOW));
+        assertTrue(buffer.offer(fix("ana", 12_000), null, NOW));
+        assertTrue(buffer.offer(fix("ana", 15_000), null, NOW));
+        assertTrue(buffer.offer(fix("ana", 11_000), null, NOW));
+        assertEquals(List.of(12_000L), released);
+        assertEquals(List.of(5_000L, 11_000L), late);
+        assertEquals(2, buffer.getLate());
+        assertEquals(1, buffer.getHeld());
+    }
+
+    @Test
+    void releasesTheOldestWhenTheWindowIsFull() {
+        ReorderBuffer buffer = buffer(60_000, 4);
+        for (long t = 10; t >= 0; t--) {
+            buffer.offer(fix("ana", t * 1000), null, NOW);
+        }
+        // The first of the older ones pushes itself out, the rest come after it
+        assertEquals(List.of(6_000L), released);
+        assertEquals(List.of(5_000L, 4_000L, 3_000L, 2_000L, 1_000L, 0L), late);
+        assertEquals(4, buffer.getHeld());
+        buffer.offer(fix("ana", 11_000), null, NOW);
+        assertEquals(List.of(6_000L, 7_000L), released);
+    }
+
+    @Test
+    void anOutputThatBlocksDoesNotHoldUpOtherThreadsForTheUser() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<Long> out = Collections.synchronizedList(new ArrayList<>());
+        // No lateness, so each fix is let go as it comes
+        ReorderBuffer buffer = new ReorderBuffer(positions, 0, 32, new ReorderBuffer.Output() {
+            @Override
+            public void release(PhoneLocation fix, Object tag) {
+                out.add(fix.getTimestamp() - T0);
+                if (out.size() == 1) {
+                    // As the ingest ring does while it's full
+                    blocked.countDown();
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void late(PhoneLocation fix, Object tag) {
+                out.add(-(fix.getTimestamp() - T0));
+            }
+        });
+        Thread first = new Thread(() -> buffer.offer(fix("ana", 1_000), null, NOW));
+        first.start();
+        try {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> {
+                boolean accepted = buffer.offer(fix("ana", 2_000), null, NOW);
+                buffer.offer(fix("ana", 500), null, NOW);
+                buffer.sweep(NOW);
+                return accepted;
+            });
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+            // The first thread hands out what the second let go, after its own
+            assertEquals(List.of(1_000L), out);
+        } finally {
+            unblock.countDown();
+        }
+        first.join(5_000);
+        assertFalse(first.isAlive());
+        assertEquals(List.of(1_000L, 2_000L, -500L), out);
+    }
+
+    @Test
+    void letsFixesGoAfterTheLatenessAndForgetsIdleUsers() {
+        positions.update(fix("ana", 0));
+        ReorderBuffer buffer = buffer(2_000, 32);
+        buffer.offer(fix("ana", 1_000), null, NOW);
+        buffer.offer(fix("ana", 1_500), null, NOW + 1_000);
+        buffer.sweep(NOW + 1_999);
+        assertEquals(List.of(), released);
+        buffer.sweep(NOW + 2_000);
+        assertEquals(List.of(1_000L), released);
+        buffer.sweep(NOW + 3_000);
+        assertEquals(List.of(1_000L, 1_500L), released);
+        assertEquals(0, buffer.getHeld());
+        assertEquals(1, buffer.getUserCount());
+
+        buffer.sweep(NOW + 1_000 + ReorderBuffer.IDLE_MILLIS);
+        assertEquals(0, buffer.getUserCount());
+        // Back from the stored position, which the released fixes never reached here
+        assertTrue(buffer.offer(fix("ana", 500), null, NOW + ReorderBuffer.IDLE_MILLIS * 2));
+        assertFalse(buffer.offer(fix("ana", 0), null, NOW + ReorderBuffer.IDLE_MILLIS * 2));
+        buffer.flush();
+        assertEquals(List.of(1_000L, 1_500L, 500L), released);
+    }
+}
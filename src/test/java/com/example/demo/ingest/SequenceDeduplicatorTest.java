@@ -0,0 +1,59 @@
+package com.example.demo.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceDeduplicatorTest {
+
+    @Test
+    void resentSequencesAreDuplicatesPerUserAndStream() {
+        SequenceDeduplicator dedup = new SequenceDeduplicator();
+        for (long seq = 0; seq < 40; seq++) {
+            assertTrue(dedup.firstSeen("u", 7, seq));
+        }
+        // Reconnected and sent the last unacknowledged frame again
+        for (long seq = 20; seq < 40; seq++) {
+            assertFalse(dedup.firstSeen("u", 7, seq));
+        }
+        assertTrue(dedup.firstSeen("u", 8, 20), "another journal");
+        assertTrue(dedup.firstSeen("v", 7, 20), "another user");
+        assertEquals(20, dedup.getDuplicates());
+        assertEquals(3, dedup.getStreamCount());
+    }
+
+    @Test
+    void gapsFillInWhenTheSocketGoesBack() {
+        SequenceDeduplicator.Ranges ranges = new SequenceDeduplicator.Ranges();
+        // A catch-up took 0..99 over HTTP, the socket started after it
+        for (long seq = 100; seq < 120; seq++) {
+            assertTrue(ranges.add(seq));
+        }
+        assertEquals(1, ranges.rangeCount());
+        // The upload failed and the socket replays from the start
+        for (long seq = 0; seq < 100; seq++) {
+            assertTrue(ranges.add(seq));
+        }
+        assertEquals(1, ranges.rangeCount());
+        assertFalse(ranges.add(119));
+        assertTrue(ranges.add(120));
+    }
+
+    @Test
+    void forgetsTheLowestRangesFirst() {
+        SequenceDeduplicator.Ranges ranges = new SequenceDeduplicator.Ranges();
+        for (int i = 0; i <= SequenceDeduplicator.MAX_RANGES; i++) {
+            assertTrue(ranges.add(i * 10L));
+        }
+        assertEquals(SequenceDeduplicator.MAX_RANGES, ranges.rangeCount());
+        // Forgotten: let through again rather than risk dropping a new fix
+        assertTrue(ranges.add(0));
+        assertFalse(ranges.add(SequenceDeduplicator.MAX_RANGES * 10L));
+        // Merging both neighbours
+        assertTrue(ranges.add(11));
+        for (long seq = 12; seq < 20; seq++) {
+            assertTrue(ranges.add(seq));
+        }
+        assertFalse(ranges.add(15));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 100k vehicles spread over a city-sized area, moving every round while
+ * queries run alongside. Prints update and query rates; asserts only that the
+ * index ends up consistent.
+ */
+class SpatialGridIndexLoadTest {
+
+    private static final int VEHICLES = 100_000;
+    private static final int ROUNDS = 5;
+    private static final int WRITERS = 4;
+
+    @Test
+    void hundredThousandMovingPoints() throws Exception {
+        SpatialGridIndex index = new SpatialGridIndex();
+        double[] lat = new double[VEHICLES];
+        double[] lng = new double[VEHICLES];
+        Random random = new Random(7);
+        for (int i = 0; i < VEHICLES; i++) {
+            // Roughly Dhaka plus surroundings, 1 degree square
+            lat[i] = 23.3 + random.nextDouble();
+            lng[i] = 89.9 + random.nextDouble();
+            index.update(new PhoneLocation("v" + i, lat[i], lng[i], 5, 0, 0, 0));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + 1);
+        long started = System.nanoTime();
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int first = w;
+            writers.add(pool.submit(() -> {
+                Random r = new Random(first);
+                for (int round = 1; round <= ROUNDS; round++) {
+                    for (int i = first; i < VEHICLES; i += WRITERS) {
+                        // Up to ~100 m per update, so a fair share of moves cross cells
+                        lat[i] += (r.nextDouble() - 0.5) * 0.002;
+                        lng[i] += (r.nextDouble() - 0.5) * 0.002;
+                        index.update(new PhoneLocation("v" + i, lat[i], lng[i], 5, 0, 0, round));
+                    }
+                }
+            }));
+        }
+        Future<Integer> queries = pool.submit(() -> {
+            Random r = new Random(99);
+            int n = 0;
+            while (!writers.stream().allMatch(Future::isDone)) {
+                double qLat = 23.3 + r.nextDouble();
+                double qLng = 89.9 + r.nextDouble();
+                assertEquals(10, index.nearest(qLat, qLng, 10, 50_000).size());
+                index.withinRadius(qLat, qLng, 1_000);
+                n++;
+            }
+            return n;
+        });
+        for (Future<?> f : writers) {
+            f.get();
+        }
+        long updateNanos = System.nanoTime() - started;
+        int queryCount = queries.get();
+        pool.shutdown();
+
+        long updates = (long) VEHICLES * ROUNDS;
+        System.out.printf("%d updates in %d ms (%.0f/s) with %d concurrent kNN+radius queries (%.0f/s)%n",
+                updates, updateNanos / 1_000_000, updates * 1e9 / updateNanos, queryCount, queryCount * 1e9 / updateNanos);
+
+        long queryStart = System.nanoTime();
+        int quiet = 2_000;
+        for (int q = 0; q < quiet; q++) {
+            index.nearest(23.3 + random.nextDouble(), 89.9 + random.nextDouble(), 10, 50_000);
+        }
+        System.out.printf("kNN(10) over %d points: %.1f us/query%n", VEHICLES, (System.nanoTime() - queryStart) / 1e3 / quiet);
+
+        assertEquals(VEHICLES, index.size());
+        for (int i = 0; i < VEHICLES; i += 997) {
+            String id = "v" + i;
+            List<PhoneLocation> here = index.withinBox(lat[i] - 1e-9, lng[i] - 1e-9, lat[i] + 1e-9, lng[i] + 1e-9);
+            assertTrue(here.stream().anyMatch(l -> l.getUserId().equals(id)), id + " not at its last position");
+        }
+    }
+}
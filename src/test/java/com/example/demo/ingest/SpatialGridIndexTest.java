@@ -0,0 +1,94 @@
+package com.example.demo.ingest;
+
+import com.example.demo.models.NearbyLocation;
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpatialGridIndexTest {
+
+    private static PhoneLocation at(String userId, double lat, double lng, long timestamp) {
+        return new PhoneLocation(userId, lat, lng, 5, 0, 0, timestamp);
+    }
+
+    private static List<String> ids(List<NearbyLocation> nearby) {
+        return nearby.stream().map(n -> n.getLocation().getUserId()).collect(Collectors.toList());
+    }
+
+    @Test
+    void movesUsersBetweenCellsAndIgnoresOlderFixes() {
+        SpatialGridIndex index = new SpatialGridIndex();
+        assertTrue(index.update(at("a", 23.81, 90.41, 1)));
+        assertTrue(index.update(at("a", 24.50, 91.00, 2)));
+        assertFalse(index.update(at("a", 23.81, 90.41, 1)));
+
+        assertEquals(1, index.size());
+        assertTrue(index.withinRadius(23.81, 90.41, 5_000).isEmpty());
+        assertEquals(List.of("a"), ids(index.withinRadius(24.50, 91.00, 5_000)));
+    }
+
+    @Test
+    void radiusAndNearestMatchABruteForceScan() {
+        SpatialGridIndex index = new SpatialGridIndex();
+        Random random = new Random(3);
+        List<PhoneLocation> all = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            PhoneLocation l = at("u" + i, 23.5 + random.nextDouble(), 90 + random.nextDouble(), 1);
+            all.add(l);
+            index.update(l);
+        }
+
+        for (int q = 0; q < 50; q++) {
+            double lat = 23.5 + random.nextDouble();
+            double lng = 90 + random.nextDouble();
+            List<NearbyLocation> expected = all.stream()
+                    .map(l -> new NearbyLocation(l, SpatialGridIndex.distanceMeters(lat, lng, l.getLatitude(), l.getLongitude())))
+                    .sorted(Comparator.comparingDouble(NearbyLocation::getDistanceMeters))
+                    .collect(Collectors.toList());
+
+            List<String> inRadius = ids(expected.stream().filter(n -> n.getDistanceMeters() <= 7_500).collect(Collectors.toList()));
+            assertEquals(inRadius, ids(index.withinRadius(lat, lng, 7_500)));
+            assertEquals(ids(expected.subList(0, 7)), ids(index.nearest(lat, lng, 7, 1e7)));
+        }
+    }
+
+    @Test
+    void nearestHonoursTheDistanceLimit() {
+        SpatialGridIndex index = new SpatialGridIndex();
+        index.update(at("near", 23.810, 90.410, 1));
+        index.update(at("far", 24.810, 90.410, 1));
+
+        assertEquals(List.of("near"), ids(index.nearest(23.81, 90.41, 5, 50_000)));
+        assertEquals(List.of("near", "far"), ids(index.nearest(23.81, 90.41, 5, 500_000)));
+        assertTrue(index.nearest(0, 0, 3, 1_000).isEmpty());
+    }
+
+    @Test
+    void boxesMayCrossTheAntimeridian() {
+        SpatialGridIndex index = new SpatialGridIndex();
+        index.update(at("west", -17.0, 179.9, 1));
+        index.update(at("east", -17.0, -179.9, 1));
+        index.update(at("outside", -17.0, 170.0, 1));
+
+        List<String> found = index.withinBox(-18, 179, -16, -179).stream()
+                .map(PhoneLocation::getUserId).sorted().collect(Collectors.toList());
+        assertEquals(List.of("east", "west"), found);
+        assertEquals(List.of("west", "east"), ids(index.nearest(-17.0, 179.95, 2, 100_000)));
+        assertEquals(2, index.withinRadius(-17.0, 180, 20_000).size());
+    }
+
+    @Test
+    void rejectsInvalidQueries() {
+        SpatialGridIndex index = new SpatialGridIndex();
+        assertThrows(IllegalArgumentException.class, () -> index.withinRadius(91, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> index.nearest(0, 0, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> index.withinBox(10, 0, 5, 1));
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.demo.roads;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A grid city of 100 m blocks, 20 km across, with vehicles driving random
+ * routes through it and reporting a fix every second with 8 m of noise and a
+ * bearing off by 10 degrees. Their fixes arrive interleaved, as they would
+ * from many phones, and are matched on one thread. Prints how long the index
+ * took to build, the matching rate in fixes per second on one core, and how
+ * many fixes were put on the street actually driven, next to how many the
+ * closest street would have been. Close to an intersection the street
+ * driven is often a guess until later fixes show which way the vehicle went,
+ * which a matcher that never revises a match can't wait for.
+ */
+class MapMatcherLoadTest {
+
+    private static final int BLOCKS = 200;
+    private static final double BLOCK_METERS = 100;
+    private static final int VEHICLES = 2_000;
+    private static final int FIXES_PER_VEHICLE = 300;
+    private static final double NOISE_METERS = 8;
+    private static final double BEARING_NOISE_DEGREES = 10;
+    private static final double LAT = 23.7;
+    private static final double LNG = 90.3;
+    private static final long T0 = 1_752_731_000_000L;
+
+    @TempDir
+    File dir;
+
+    private static double lat(double northMeters) {
+        return LAT + northMeters / SegmentIndex.METERS_PER_DEGREE;
+    }
+
+    private static double lng(double eastMeters) {
+        return LNG + eastMeters / (SegmentIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+    }
+
+    // Streets run between neighbouring intersections; ids tell the direction apart
+    private static long eastEdge(int row, int col) {
+        return 2L * (row * (BLOCKS + 1) + col);
+    }
+
+    private static long northEdge(int row, int col) {
+        return 2L * (row * (BLOCKS + 1) + col) + 1;
+    }
+
+    /** Where a vehicle is: on the street from one intersection towards a neighbouring one. */
+    private static final class Vehicle {
+        int row;
+        int col;
+        int dRow;
+        int dCol;
+        double along;
+        double speed;
+
+        long edge() {
+            int r = dRow < 0 ? row - 1 : row;
+            int c = dCol < 0 ? col - 1 : col;
+            return dRow == 0 ? eastEdge(r, c) : northEdge(r, c);
+        }
+
+        void drive(double meters, Random random) {
+            along += meters;
+            while (along >= BLOCK_METERS) {
+                along -= BLOCK_METERS;
+                row += dRow;
+                col += dCol;
+                turn(random);
+            }
+        }
+
+        void turn(Random random) {
+            while (true) {
+                int choice = random.nextInt(4);
+                int r = choice == 0 ? 1 : choice == 1 ? -1 : 0;
+                int c = choice == 2 ? 1 : choice == 3 ? -1 : 0;
+                // Mostly straight on, never a U-turn
+                if (r == -dRow && c == -dCol && (dRow != 0 || dCol != 0)) {
+                    continue;
+                }
+                if ((dRow != 0 || dCol != 0) && (r != dRow || c != dCol) && random.nextInt(3) != 0) {
+                    r = dRow;
+                    c = dCol;
+                }
+                if (row + r >= 0 && row + r <= BLOCKS && col + c >= 0 && col + c <= BLOCKS) {
+                    dRow = r;
+                    dCol = c;
+                    return;
+                }
+                dRow = 0;
+                dCol = 0;
+            }
+        }
+    }
+
+    @Test
+    void matchesNoisyVehiclesInAGridCity() throws Exception {
+        RoadNetwork network = new RoadNetwork();
+        for (int row = 0; row <= BLOCKS; row++) {
+            for (int col = 0; col <= BLOCKS; col++) {
+                long node = (long) row * (BLOCKS + 1) + col;
+                if (col < BLOCKS) {
+                    network.addEdge(eastEdge(row, col), node, node + 1,
+                            new double[]{lat(row * BLOCK_METERS), lat(row * BLOCK_METERS)},
+                            new double[]{lng(col * BLOCK_METERS), lng((col + 1) * BLOCK_METERS)});
+                }
+                if (row < BLOCKS) {
+                    network.addEdge(northEdge(row, col), node, node + BLOCKS + 1,
+                            new double[]{lat(row * BLOCK_METERS), lat((row + 1) * BLOCK_METERS)},
+                            new double[]{lng(col * BLOCK_METERS), lng(col * BLOCK_METERS)});
+                }
+            }
+        }
+        File file = new File(dir, "city.idx");
+        long building = System.nanoTime();
+        SegmentIndex.write(network, file, SegmentIndex.DEFAULT_CELL_DEGREES);
+        SegmentIndex index = SegmentIndex.open(file);
+        long built = System.nanoTime() - building;
+
+        Random random = new Random(11);
+        Vehicle[] vehicles = new Vehicle[VEHICLES];
+        for (int v = 0; v < VEHICLES; v++) {
+            Vehicle vehicle = new Vehicle();
+            vehicle.row = random.nextInt(BLOCKS + 1);
+            vehicle.col = random.nextInt(BLOCKS + 1);
+            vehicle.turn(random);
+            vehicle.speed = 8 + random.nextDouble() * 8;
+            vehicles[v] = vehicle;
+        }
+        int total = VEHICLES * FIXES_PER_VEHICLE;
+        PhoneLocation[] fixes = new PhoneLocation[total];
+        long[] truth = new long[total];
+        boolean[] midBlock = new boolean[total];
+        for (int i = 0; i < FIXES_PER_VEHICLE; i++) {
+            for (int v = 0; v < VEHICLES; v++) {
+                Vehicle vehicle = vehicles[v];
+                double north = vehicle.row * BLOCK_METERS + vehicle.dRow * vehicle.along;
+                double east = vehicle.col * BLOCK_METERS + vehicle.dCol * vehicle.along;
+                int n = i * VEHICLES + v;
+                truth[n] = vehicle.edge();
+                midBlock[n] = vehicle.along > 2 * NOISE_METERS && vehicle.along < BLOCK_METERS - 2 * NOISE_METERS;
+                double bearing = Math.toDegrees(Math.atan2(vehicle.dCol, vehicle.dRow))
+                        + random.nextGaussian() * BEARING_NOISE_DEGREES;
+                fixes[n] = new PhoneLocation("v" + v, lat(north + random.nextGaussian() * NOISE_METERS),
+                        lng(east + random.nextGaussian() * NOISE_METERS), NOISE_METERS, vehicle.speed,
+                        (bearing + 360) % 360, T0 + i * 1000L);
+                vehicle.drive(vehicle.speed, random);
+            }
+        }
+
+        // Closest street alone, for comparison
+        SegmentIndex.Nearby nearby = new SegmentIndex.Nearby();
+        int nearestRight = 0;
+        for (int n = 0; n < total; n++) {
+            index.nearby(fixes[n].getLatitude(), fixes[n].getLongitude(), 50, nearby);
+            int closest = -1;
+            for (int c = 0; c < nearby.count; c++) {
+                if (closest < 0 || nearby.distance[c] < nearby.distance[closest]) {
+                    closest = c;
+                }
+            }
+            if (closest >= 0 && index.edgeId(nearby.segment[closest]) == truth[n]) {
+                nearestRight++;
+            }
+        }
+
+        MapMatcher matcher = new MapMatcher(index);
+        // Warm up on the first few fixes of every vehicle, then start over with a fresh matcher
+        for (int n = 0; n < 10 * VEHICLES; n++) {
+            matcher.match(fixes[n]);
+        }
+        matcher = new MapMatcher(index);
+        long started = System.nanoTime();
+        for (PhoneLocation fix : fixes) {
+            matcher.match(fix);
+        }
+        long elapsed = System.nanoTime() - started;
+        int right = 0;
+        int mid = 0;
+        int midRight = 0;
+        for (int n = 0; n < total; n++) {
+            if (fixes[n].getRoadEdgeId() == truth[n]) {
+                right++;
+            }
+            if (midBlock[n]) {
+                mid++;
+                midRight += fixes[n].getRoadEdgeId() == truth[n] ? 1 : 0;
+            }
+        }
+
+        System.out.printf("%d segments indexed in %d ms into %d KB; %d fixes matched at %.0f fixes/s on one thread, "
+                        + "%.1f%% on the street driven (closest street %.1f%%), %.1f%% away from intersections, %d breaks%n",
+                index.segmentCount(), built / 1_000_000, index.sizeBytes() / 1024, total, total * 1e9 / elapsed,
+                100.0 * right / total, 100.0 * nearestRight / total, 100.0 * midRight / mid, matcher.getBreaks());
+
+        assertEquals(total, matcher.getMatched());
+        assertTrue(right > nearestRight, "matching should beat the closest street");
+        assertTrue(right > 0.9 * total, "matched " + right + " of " + total);
+        assertTrue(midRight > 0.98 * mid, "matched " + midRight + " of " + mid + " away from intersections");
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.demo.roads;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapMatcherTest {
+
+    private static final double LAT = 23.8;
+    private static final double LNG = 90.4;
+    private static final long T0 = 1_752_731_000_000L;
+
+    // Two parallel streets 20 m apart joined at both ends, a street north from
+    // the east end, and one that isn't connected to anything
+    private static final long NORTH = 1;
+    private static final long SOUTH = 2;
+    private static final long WEST_LINK = 3;
+    private static final long EAST_LINK = 4;
+    private static final long UP = 5;
+    private static final long ISOLATED = 6;
+
+    @TempDir
+    File dir;
+
+    private MapMatcher matcher;
+
+    private static double lat(double northMeters) {
+        return LAT + northMeters / SegmentIndex.METERS_PER_DEGREE;
+    }
+
+    private static double lng(double eastMeters) {
+        return LNG + eastMeters / (SegmentIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+    }
+
+    private static void street(RoadNetwork network, long edgeId, long from, long to,
+                               double north1, double east1, double north2, double east2) {
+        network.addEdge(edgeId, from, to, new double[]{lat(north1), lat(north2)}, new double[]{lng(east1), lng(east2)});
+    }
+
+    private static PhoneLocation fix(String user, double north, double east, long t) {
+        return fix(user, north, east, 90, t);
+    }
+
+    private static PhoneLocation fix(String user, double north, double east, double bearing, long t) {
+        return new PhoneLocation(user, lat(north), lng(east), 10, 15, bearing, t);
+    }
+
+    @BeforeEach
+    void network() throws IOException {
+        RoadNetwork network = new RoadNetwork();
+        street(network, NORTH, 1, 2, 0, 0, 0, 2000);
+        street(network, SOUTH, 3, 4, -20, 0, -20, 2000);
+        street(network, WEST_LINK, 1, 3, 0, 0, -20, 0);
+        street(network, EAST_LINK, 2, 4, 0, 2000, -20, 2000);
+        street(network, UP, 2, 5, 0, 2000, 1000, 2000);
+        street(network, ISOLATED, 6, 7, 300, 500, 300, 1500);
+        File file = new File(dir, "roads.idx");
+        SegmentIndex.write(network, file, SegmentIndex.DEFAULT_CELL_DEGREES);
+        matcher = new MapMatcher(SegmentIndex.open(file));
+    }
+
+    @Test
+    void staysOnTheStreetBeingDrivenWhenFixesDriftTowardsAParallelOne() {
+        PhoneLocation drifted = fix("alone", -12, 400, T0);
+        assertTrue(matcher.match(drifted));
+        assertEquals(SOUTH, drifted.getRoadEdgeId(), "the closest street on its own");
+
+        for (int i = 0; i < 20; i++) {
+            // 8 m from the south street and 12 m from the north one after the first few
+            PhoneLocation location = fix("driver", i < 5 ? 0 : -12, 100 + 15 * i, T0 + i * 1000L);
+            assertTrue(matcher.match(location));
+            assertEquals(NORTH, location.getRoadEdgeId(), "fix " + i);
+            assertEquals(location.getLongitude(), location.getRoadLongitude(), 1e-9);
+            assertEquals(lat(0), location.getRoadLatitude(), 1e-7);
+        }
+        assertEquals(0, matcher.getBreaks());
+    }
+
+    @Test
+    void goesByBearingWhereStreetsCross() {
+        // Just short of the corner, about as close to both streets
+        PhoneLocation east = fix("east", 6, 1994, 90, T0);
+        PhoneLocation north = fix("north", 6, 1994, 0, T0);
+        assertTrue(matcher.match(east));
+        assertTrue(matcher.match(north));
+        assertEquals(NORTH, east.getRoadEdgeId());
+        assertEquals(UP, north.getRoadEdgeId());
+    }
+
+    @Test
+    void followsATurnOntoACrossStreet() {
+        // North, east and bearing
+        double[][] path = {{0, 1880, 92}, {2, 1895, 88}, {-1, 1910, 90}, {3, 1925, 85}, {0, 1940, 93},
+                {-2, 1955, 90}, {1, 1970, 80}, {4, 1990, 45}, {12, 2001, 5}, {25, 1998, 358}, {40, 2002, 0},
+                {55, 2001, 3}, {70, 1997, 357}};
+        for (int i = 0; i < path.length; i++) {
+            PhoneLocation location = fix("turner", path[i][0], path[i][1], path[i][2], T0 + i * 1000L);
+            assertTrue(matcher.match(location));
+            if (path[i][1] < 1980) {
+                assertEquals(NORTH, location.getRoadEdgeId(), "fix " + i);
+            } else if (path[i][0] > 10) {
+                assertEquals(UP, location.getRoadEdgeId(), "fix " + i);
+            }
+        }
+        assertEquals(0, matcher.getBreaks());
+    }
+
+    @Test
+    void startsOverAfterAGap() {
+        for (int i = 0; i < 5; i++) {
+            matcher.match(fix("parker", 0, 100 + 15 * i, T0 + i * 1000L));
+        }
+        PhoneLocation later = fix("parker", -12, 400, T0 + 5000 + MapMatcher.MAX_GAP_MILLIS);
+        assertTrue(matcher.match(later));
+        assertEquals(SOUTH, later.getRoadEdgeId());
+        assertEquals(0, matcher.getBreaks());
+    }
+
+    @Test
+    void startsOverWhenNoCandidateCanBeDrivenTo() {
+        for (int i = 0; i < 5; i++) {
+            matcher.match(fix("jumper", 0, 500 + 15 * i, T0 + i * 1000L));
+        }
+        PhoneLocation jump = fix("jumper", 300, 580, T0 + 5000);
+        assertTrue(matcher.match(jump));
+        assertEquals(ISOLATED, jump.getRoadEdgeId());
+        assertEquals(1, matcher.getBreaks());
+    }
+
+    @Test
+    void leavesFixesAwayFromEveryRoadUnmatched() {
+        PhoneLocation on = fix("wanderer", 0, 500, T0);
+        assertTrue(matcher.match(on));
+        PhoneLocation off = fix("wanderer", 5000, 500, T0 + 1000);
+        off.setRoadEdgeId(99);
+        assertFalse(matcher.match(off));
+        assertEquals(0, off.getRoadEdgeId());
+        assertEquals(0, off.getRoadLatitude());
+        assertEquals(1, matcher.getUnmatched());
+
+        // Picks up from the fix before
+        PhoneLocation back = fix("wanderer", -12, 530, T0 + 2000);
+        assertTrue(matcher.match(back));
+        assertEquals(NORTH, back.getRoadEdgeId());
+        assertEquals(2, matcher.getMatched());
+    }
+
+    @Test
+    void indexesTheEdgeListAtStartupOnlyWhenItChanged() throws IOException {
+        File edges = new File(dir, "roads.csv");
+        Files.writeString(edges.toPath(), "1,1,2," + lat(0) + "," + lng(0) + "," + lat(0) + "," + lng(500) + "\n");
+        File index = new File(dir, "roads.csv.idx");
+
+        MapMatcher first = new MapMatcher(edges.getPath(), "");
+        assertTrue(first.isEnabled());
+        assertTrue(index.isFile());
+        assertTrue(index.setLastModified(edges.lastModified() + 10_000));
+        long built = index.lastModified();
+        assertTrue(new MapMatcher(edges.getPath(), "").match(fix("u", 3, 200, T0)));
+        assertEquals(built, index.lastModified());
+
+        assertTrue(edges.setLastModified(built + 10_000));
+        new MapMatcher(edges.getPath(), "");
+        assertNotEquals(built, index.lastModified());
+
+        assertTrue(new MapMatcher("", index.getPath()).isEnabled());
+        MapMatcher none = new MapMatcher("", "");
+        assertFalse(none.isEnabled());
+        assertFalse(none.match(fix("u", 0, 200, T0)));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.demo.roads;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void loadsAnEdgeListSplittingPolylinesIntoSegments() throws IOException {
+        RoadNetwork network = RoadNetwork.load(new StringReader("""
+                # edgeId,fromNode,toNode,lat,lng,...
+                10,1,2,23.8000,90.4000,23.8000,90.4010
+
+                11,2,3,23.8000,90.4010,23.8005,90.4015,23.8010,90.4015
+                """));
+        assertEquals(3, network.segmentCount());
+        // Nodes 1, 2 and 3 plus the bend in edge 11
+        assertEquals(4, network.nodeCount());
+        assertEquals(network.to(0), network.from(1));
+        assertEquals(network.to(1), network.from(2));
+        assertEquals(11, network.edgeId(2));
+
+        File file = new File(dir, "roads.idx");
+        SegmentIndex.write(network, file, SegmentIndex.DEFAULT_CELL_DEGREES);
+        SegmentIndex index = SegmentIndex.open(file);
+        assertEquals(3, index.segmentCount());
+        assertEquals(4, index.nodeCount());
+        int shared = index.to(0);
+        assertEquals(2, index.degree(shared));
+        assertEquals(0, index.segmentAt(shared, 0));
+        assertEquals(1, index.segmentAt(shared, 1));
+        // 0.001 degrees of longitude at 23.8 N
+        assertEquals(101.8, index.length(0), 0.5);
+    }
+
+    @Test
+    void rejectsMalformedLinesWithTheirLineNumber() {
+        IOException odd = assertThrows(IOException.class, () -> RoadNetwork.load(new StringReader(
+                "1,1,2,23.8,90.4,23.8,90.5\n2,2,3,23.8,90.5,23.9\n")));
+        assertTrue(odd.getMessage().startsWith("Line 2"), odd.getMessage());
+        IOException range = assertThrows(IOException.class, () -> RoadNetwork.load(new StringReader(
+                "1,1,2,23.8,90.4,95.0,90.5\n")));
+        assertTrue(range.getMessage().startsWith("Line 1"), range.getMessage());
+        assertThrows(IOException.class, () -> RoadNetwork.load(new StringReader("x,1,2,23.8,90.4,23.8,90.5\n")));
+    }
+
+    @Test
+    void refusesATruncatedIndex() throws IOException {
+        RoadNetwork network = new RoadNetwork();
+        network.addEdge(1, 1, 2, new double[]{23.8, 23.81}, new double[]{90.4, 90.41});
+        File file = new File(dir, "roads.idx");
+        SegmentIndex.write(network, file, SegmentIndex.DEFAULT_CELL_DEGREES);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        assertThrows(IOException.class, () -> SegmentIndex.open(file));
+    }
+
+    @Test
+    void nearbyFindsWhatAScanOfEverySegmentFinds() throws IOException {
+        Random random = new Random(3);
+        RoadNetwork network = new RoadNetwork();
+        for (int e = 0; e < 5_000; e++) {
+            // Mostly short segments, some spanning many cells
+            double lat = 23.7 + random.nextDouble() * 0.1;
+            double lng = 90.35 + random.nextDouble() * 0.1;
+            double reach = random.nextInt(10) == 0 ? 0.02 : 0.002;
+            network.addEdge(e, 2L * e, 2L * e + 1, new double[]{lat, lat + (random.nextDouble() - 0.5) * reach},
+                    new double[]{lng, lng + (random.nextDouble() - 0.5) * reach});
+        }
+        File file = new File(dir, "roads.idx");
+        SegmentIndex.write(network, file, SegmentIndex.DEFAULT_CELL_DEGREES);
+        SegmentIndex index = SegmentIndex.open(file);
+
+        SegmentIndex.Nearby nearby = new SegmentIndex.Nearby();
+        int found = 0;
+        for (int q = 0; q < 500; q++) {
+            double lat = 23.69 + random.nextDouble() * 0.12;
+            double lng = 90.34 + random.nextDouble() * 0.12;
+            double radius = 20 + random.nextDouble() * 300;
+            index.nearby(lat, lng, radius, nearby);
+            Map<Integer, Double> got = new HashMap<>();
+            for (int i = 0; i < nearby.count; i++) {
+                assertNull(got.put(nearby.segment[i], nearby.distance[i]), "segment listed twice");
+            }
+            Map<Integer, Double> expected = new HashMap<>();
+            for (int s = 0; s < network.segmentCount(); s++) {
+                double d = distance(network, s, lat, lng);
+                if (d <= radius) {
+                    expected.put(s, d);
+                }
+            }
+            assertEquals(expected.keySet(), got.keySet());
+            for (Map.Entry<Integer, Double> e : expected.entrySet()) {
+                assertEquals(e.getValue(), got.get(e.getKey()), 1e-6);
+            }
+            found += got.size();
+        }
+        assertTrue(found > 500, "queries should mostly find something: " + found);
+    }
+
+    private static double distance(RoadNetwork network, int s, double lat, double lng) {
+        double kx = SegmentIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        double ky = SegmentIndex.METERS_PER_DEGREE;
+        double ax = (network.lng1(s) / 1e7 - lng) * kx;
+        double ay = (network.lat1(s) / 1e7 - lat) * ky;
+        double bx = (network.lng2(s) / 1e7 - lng) * kx;
+        double by = (network.lat2(s) / 1e7 - lat) * ky;
+        double dx = bx - ax;
+        double dy = by - ay;
+        double t = dx == 0 && dy == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(ax + t * dx, ay + t * dy);
+    }
+}
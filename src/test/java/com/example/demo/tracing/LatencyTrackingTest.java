@@ -0,0 +1,150 @@
+package com.example.demo.tracing;
+
+import com.example.demo.controller.ClockSyncController;
+import com.example.demo.controller.PhoneLocationController;
+import com.example.demo.fanout.LocationFanout;
+import com.example.demo.history.TrackStore;
+import com.example.demo.ingest.LatestPositionStore;
+import com.example.demo.ingest.LocationIngest;
+import com.example.demo.ingest.SequenceDeduplicator;
+import com.example.demo.ingest.SpatialGridIndex;
+import com.example.demo.models.PhoneLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A phone whose clock runs five seconds behind ours: the clock exchange
+ * recovers the offset, and the hops of a traced fix come out the same as
+ * if both sides shared one clock.
+ */
+class LatencyTrackingTest {
+
+    private static final long PHONE_SKEW = -5_000;
+
+    @TempDir
+    File trackDir;
+
+    private static long phoneNow() {
+        return System.currentTimeMillis() + PHONE_SKEW;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String destination, byte[] body,
+                                         String... nativeHeaders) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        for (int i = 0; i < nativeHeaders.length; i += 2) {
+            accessor.setNativeHeader(nativeHeaders[i], nativeHeaders[i + 1]);
+        }
+        return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+    }
+
+    private static long header(Message<?> message, String name) {
+        return Long.parseLong(SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(name));
+    }
+
+    @Test
+    void clockExchangeLetsHopsCrossFromPhoneToServer() throws Exception {
+        LatencyTracker latency = new LatencyTracker();
+        List<Message<?>> replies = new CopyOnWriteArrayList<>();
+        ExecutorSubscribableChannel broker = new ExecutorSubscribableChannel();
+        broker.subscribe(replies::add);
+        ClockSyncController clock = new ClockSyncController(new SimpMessagingTemplate(broker), latency);
+
+        long t0 = phoneNow();
+        clock.ping(frame(SimpMessageType.MESSAGE, "phone", "/app/clock", new byte[0], "t0", Long.toString(t0)));
+        long t3 = phoneNow();
+        assertEquals(1, replies.size());
+        Message<?> reply = replies.get(0);
+        assertEquals("/user/phone/queue/clock", SimpMessageHeaderAccessor.getDestination(reply.getHeaders()));
+        assertEquals(t0, header(reply, "t0"));
+        long t1 = header(reply, "t1");
+        long t2 = header(reply, "t2");
+        long offset = ((t1 - t0) + (t2 - t3)) / 2;
+        long rtt = (t3 - t0) - (t2 - t1);
+        assertEquals(-PHONE_SKEW, offset, 50);
+
+        // The phone reports its estimate with the next ping
+        assertNull(latency.clockOffset("phone"));
+        clock.ping(frame(SimpMessageType.MESSAGE, "phone", "/app/clock", new byte[0], "t0", Long.toString(phoneNow()),
+                "offset", Long.toString(offset), "rtt", Long.toString(rtt)));
+        assertEquals(offset, latency.clockOffset("phone"));
+
+        List<Message<?>> viewerFrames = new CopyOnWriteArrayList<>();
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(viewerFrames::add);
+        LocationFanout fanout = new LocationFanout(outbound, new ObjectMapper(), 3_600_000, latency);
+        TrackStore tracks = new TrackStore(trackDir, 30);
+        PhoneLocationController controller = new PhoneLocationController(latency, new SequenceDeduplicator(),
+                new LocationIngest(fanout, new LatestPositionStore(), new SpatialGridIndex(), tracks, outbound));
+        SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        subscribe.setSessionId("viewer");
+        subscribe.setSubscriptionId("sub-0");
+        subscribe.setDestination(LocationFanout.DESTINATION);
+        fanout.onSubscribe(new SessionSubscribeEvent(this,
+                MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders())));
+
+        // Taken 300 ms ago, queued 100 ms after that and sent another 50 ms later, by the phone's clock
+        long now = phoneNow();
+        String json = "{\"userId\":\"phone_1\",\"latitude\":23.81,\"longitude\":90.41,\"accuracy\":5.00,"
+                + "\"speed\":12.50,\"bearing\":90.00,\"timestamp\":" + (now - 300)
+                + ",\"enqueuedAt\":" + (now - 200) + "}";
+        controller.receiveLocation(frame(SimpMessageType.MESSAGE, "phone", "/app/location",
+                json.getBytes(StandardCharsets.UTF_8), "sent-at", Long.toString(now - 150)));
+        Thread.sleep(20);
+        fanout.flush();
+
+        assertEquals(100, latency.histogram(LatencyTracker.Hop.FIX_TO_QUEUE).max());
+        assertEquals(50, latency.histogram(LatencyTracker.Hop.QUEUE_TO_SEND).max());
+        long network = latency.histogram(LatencyTracker.Hop.NETWORK).max();
+        assertTrue(network >= 100 && network <= 200, "network " + network);
+        long fixToReceive = latency.histogram(LatencyTracker.Hop.FIX_TO_RECEIVE).max();
+        assertTrue(fixToReceive >= 250 && fixToReceive <= 350, "fix to receive " + fixToReceive);
+        long broadcast = latency.histogram(LatencyTracker.Hop.RECEIVE_TO_BROADCAST).max();
+        assertTrue(broadcast >= 20 && broadcast < 1000, "receive to broadcast " + broadcast);
+
+        assertEquals(1, viewerFrames.size());
+        Message<?> frame = viewerFrames.get(0);
+        long broadcastAt = header(frame, "broadcast-at");
+        String body = new String((byte[]) frame.getPayload(), StandardCharsets.UTF_8);
+        assertTrue(body.contains("\"enqueuedAt\":" + (now - 200)), body);
+        assertTrue(body.contains("\"sentAt\":" + (now - 150)), body);
+        long receivedAt = Long.parseLong(body.replaceAll(".*\"receivedAt\":(\\d+).*", "$1"));
+        assertTrue(broadcastAt >= receivedAt);
+
+        clock.onSessionDisconnect(new SessionDisconnectEvent(this,
+                frame(SimpMessageType.DISCONNECT, "phone", null, new byte[0]), "phone", CloseStatus.NORMAL));
+        assertNull(latency.clockOffset("phone"));
+        tracks.close();
+        fanout.close();
+    }
+
+    @Test
+    void untracedFixesStayOutOfTheHistogramsAndTheirJson() throws Exception {
+        LatencyTracker latency = new LatencyTracker();
+        PhoneLocation plain = new PhoneLocation("phone_1", 23.81, 90.41, 5, 12.5, 90, 1_752_731_000_000L);
+        latency.received("phone", plain);
+        for (LatencyTracker.Hop hop : LatencyTracker.Hop.values()) {
+            assertEquals(0, latency.histogram(hop).count(), hop.name());
+        }
+        String json = new ObjectMapper().writeValueAsString(plain);
+        assertFalse(json.contains("enqueuedAt") || json.contains("sentAt") || json.contains("receivedAt"), json);
+    }
+}
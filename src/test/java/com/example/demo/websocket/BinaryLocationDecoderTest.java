@@ -0,0 +1,126 @@
+package com.example.demo.websocket;
+
+import com.example.demo.models.PhoneLocation;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryLocationDecoderTest {
+
+    // Same layout the app's BinaryBatchWriter produces
+    private static byte[] batch(boolean declare, String userId, long[][] records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(1 | (declare ? 0x80 : 0));
+        varint(out, 1);
+        if (declare) {
+            byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+            varint(out, id.length);
+            out.write(id, 0, id.length);
+        }
+        varint(out, records.length);
+        long lat = 0, lng = 0, time = 0;
+        for (long[] r : records) {
+            varint(out, zigZag(r[0] - lat));
+            varint(out, zigZag(r[1] - lng));
+            varint(out, zigZag(r[2] - time));
+            varint(out, r[3]);
+            varint(out, r[4]);
+            varint(out, r[5]);
+            lat = r[0];
+            lng = r[1];
+            time = r[2];
+        }
+        return out.toByteArray();
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    @Test
+    void decodesDeltasAndQuantizedFields() {
+        Map<Integer, String> tokens = new HashMap<>();
+        byte[] body = batch(true, "android_user_001", new long[][]{
+                {238103123L, 904125456L, 1_752_731_000_000L, 167, 1824, 48},
+                {238102000L, 904126000L, 1_752_731_001_000L, 170, 1830, 50},
+        });
+
+        List<PhoneLocation> locations = BinaryLocationDecoder.decode(body, tokens);
+
+        assertEquals(2, locations.size());
+        PhoneLocation second = locations.get(1);
+        assertEquals("android_user_001", second.getUserId());
+        assertEquals(23.8102, second.getLatitude(), 1e-9);
+        assertEquals(90.4126, second.getLongitude(), 1e-9);
+        assertEquals(1_752_731_001_000L, second.getTimestamp());
+        assertEquals(17.0, second.getSpeed(), 1e-9);
+        assertEquals(183.0, second.getBearing(), 1e-9);
+        assertEquals(5.0, second.getAccuracy(), 1e-9);
+        assertEquals("android_user_001", tokens.get(1));
+    }
+
+    @Test
+    void laterBatchesResolveTokenFromSession() {
+        Map<Integer, String> tokens = new HashMap<>();
+        BinaryLocationDecoder.decode(batch(true, "u1", new long[][]{{1, 1, 1, 0, 0, 0}}), tokens);
+
+        List<PhoneLocation> locations = BinaryLocationDecoder.decode(batch(false, null, new long[][]{{2, 2, 2, 0, 0, 0}}), tokens);
+
+        assertEquals("u1", locations.get(0).getUserId());
+    }
+
+    @Test
+    void rejectsUndeclaredTokenAndTruncatedBodies() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryLocationDecoder.decode(batch(false, null, new long[][]{{1, 1, 1, 0, 0, 0}}), new HashMap<>()));
+
+        byte[] body = batch(true, "u1", new long[][]{{1, 1, 1, 0, 0, 0}});
+        byte[] truncated = Arrays.copyOf(body, body.length - 2);
+        assertThrows(IllegalArgumentException.class, () -> BinaryLocationDecoder.decode(truncated, new HashMap<>()));
+    }
+
+    @Test
+    void tracedBatchesCarryEnqueueTimes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(1 | 0x80 | 0x40);
+        varint(out, 1);
+        varint(out, 2);
+        out.write('u');
+        out.write('1');
+        varint(out, 2);
+        long[] times = {1_752_731_000_000L, 1_752_731_001_000L};
+        long[] queued = {120, 45};
+        long previous = 0;
+        for (int i = 0; i < 2; i++) {
+            varint(out, zigZag(238103123L * (1 - i)));
+            varint(out, zigZag(904125456L * (1 - i)));
+            varint(out, zigZag(times[i] - previous));
+            varint(out, 167);
+            varint(out, 1824);
+            varint(out, 48);
+            varint(out, zigZag(queued[i]));
+            previous = times[i];
+        }
+
+        List<PhoneLocation> fixes = BinaryLocationDecoder.decode(out.toByteArray(), new HashMap<>());
+        assertEquals(2, fixes.size());
+        assertEquals(times[0] + 120, fixes.get(0).getEnqueuedAt());
+        assertEquals(times[1] + 45, fixes.get(1).getEnqueuedAt());
+        assertEquals(4.8, fixes.get(1).getAccuracy(), 1e-9);
+    }
+}
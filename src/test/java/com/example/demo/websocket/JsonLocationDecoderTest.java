@@ -0,0 +1,95 @@
+package com.example.demo.websocket;
+
+import com.example.demo.models.PhoneLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLocationDecoderTest {
+
+    private static List<PhoneLocation> decode(String json) {
+        return JsonLocationDecoder.decode(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodesWhatTheAppSends() {
+        List<PhoneLocation> locations = decode("{\"userId\":\"android_user_001\",\"latitude\":23.8103123,"
+                + "\"longitude\":90.4125456,\"accuracy\":16.70,\"speed\":18.24,\"bearing\":4.80,"
+                + "\"timestamp\":1752731000000}");
+
+        assertEquals(1, locations.size());
+        PhoneLocation l = locations.get(0);
+        assertEquals("android_user_001", l.getUserId());
+        assertEquals(23.8103123, l.getLatitude());
+        assertEquals(90.4125456, l.getLongitude());
+        assertEquals(16.7, l.getAccuracy());
+        assertEquals(18.24, l.getSpeed());
+        assertEquals(4.8, l.getBearing());
+        assertEquals(1_752_731_000_000L, l.getTimestamp());
+    }
+
+    @Test
+    void decodesArraysInAnyFieldOrder() {
+        List<PhoneLocation> locations = decode(" [ {\"timestamp\": 2, \"userId\": \"b\"},\n"
+                + "{\"latitude\": -1.5e1, \"userId\": \"a\", \"timestamp\": 1} ] ");
+
+        assertEquals(2, locations.size());
+        assertEquals("b", locations.get(0).getUserId());
+        assertEquals(2, locations.get(0).getTimestamp());
+        assertEquals(-15.0, locations.get(1).getLatitude());
+        assertTrue(decode("[]").isEmpty());
+    }
+
+    @Test
+    void skipsUnknownFieldsAndHandlesNulls() {
+        PhoneLocation l = decode("{\"provider\":\"fused\",\"extras\":{\"sats\":[1,2,{\"x\":\"}\"}]},"
+                + "\"mock\":false,\"userId\":null,\"speed\":null,\"latitude\":1.25}").get(0);
+
+        assertNull(l.getUserId());
+        assertEquals(0.0, l.getSpeed());
+        assertEquals(1.25, l.getLatitude());
+    }
+
+    @Test
+    void unescapesStrings() {
+        assertEquals("a\"b\\cé\n", decode("{\"userId\":\"a\\\"b\\\\c\\u00e9\\n\"}").get(0).getUserId());
+        assertEquals("über", decode("{\"userId\":\"über\"}").get(0).getUserId());
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        for (String bad : new String[]{"", "{", "{\"latitude\":}", "{\"latitude\":1.}", "{\"userId\":\"x}",
+                "[{}", "{} {}", "{\"latitude\" 1}", "{\"mock\":fals}", "nope"}) {
+            assertThrows(IllegalArgumentException.class, () -> decode(bad), bad);
+        }
+    }
+
+    @Test
+    void matchesJacksonOnRandomFixes() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Random random = new Random(12);
+        for (int i = 0; i < 10_000; i++) {
+            PhoneLocation expected = new PhoneLocation("user_" + i,
+                    random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                    random.nextDouble() * 50, random.nextDouble() * 40, random.nextDouble() * 360,
+                    random.nextLong() >>> 23);
+            // Jackson writes shortest round-trip doubles, which also exercises the slow path
+            byte[] json = mapper.writeValueAsBytes(expected);
+
+            PhoneLocation actual = JsonLocationDecoder.decode(json).get(0);
+            PhoneLocation reference = mapper.readValue(json, PhoneLocation.class);
+            assertEquals(reference.getUserId(), actual.getUserId());
+            assertEquals(reference.getLatitude(), actual.getLatitude());
+            assertEquals(reference.getLongitude(), actual.getLongitude());
+            assertEquals(reference.getAccuracy(), actual.getAccuracy());
+            assertEquals(reference.getSpeed(), actual.getSpeed());
+            assertEquals(reference.getBearing(), actual.getBearing());
+            assertEquals(reference.getTimestamp(), actual.getTimestamp());
+        }
+    }
+}